@@ -40,4 +40,14 @@ public interface QueueReader<T> {
    * @throws InterruptedException If dequeue is interrupted.
    */
   InputDatum<T> dequeue(long timeout, TimeUnit timeoutUnit) throws IOException, InterruptedException;
+
+  /**
+   * Fetches inputs ahead of time for the queue that the last non-empty input was dequeued from, so that subsequent
+   * dequeue calls don't have to wait for them. It is called after a dequeue within the same transaction, possibly
+   * from a different thread, and always completes before the transaction finishes.
+   *
+   * @param batches Number of batches to have fetched ahead.
+   * @throws IOException If fails to fetch.
+   */
+  void prefetch(int batches) throws IOException;
 }
@@ -37,6 +37,8 @@ public final class RoundRobinQueueReader<T> extends TimeTrackingQueueReader<T> {
 
   private final InputDatum<T> nullInput = new NullInputDatum<>();
   private final Iterator<QueueReader<T>> readers;
+  // The reader that gave the last non-empty input
+  private QueueReader<T> lastReader;
 
   public RoundRobinQueueReader(Iterable<QueueReader<T>> readers) {
     this.readers = Iterables.cycle(readers).iterator();
@@ -50,16 +52,25 @@ public final class RoundRobinQueueReader<T> extends TimeTrackingQueueReader<T> {
     // Read an input from the underlying QueueReader
     QueueReader<T> begin = readers.next();
     InputDatum<T> input = begin.dequeue(timeout, timeoutUnit);
+    QueueReader<T> reader = begin;
 
     // While the input is empty, keep trying to read from subsequent readers,
     // until a non-empty input is read or it loop back to the beginning reader.
     while (!input.needProcess()) {
-      QueueReader<T> reader = readers.next();
+      reader = readers.next();
       if (reader == begin) {
         return input;
       }
       input = reader.dequeue(0, TimeUnit.MILLISECONDS);
     }
+    lastReader = reader;
     return input;
   }
+
+  @Override
+  public void prefetch(int batches) throws IOException {
+    if (lastReader != null) {
+      lastReader.prefetch(batches);
+    }
+  }
 }
@@ -41,4 +41,9 @@ public class SingleItemQueueReader<T> implements QueueReader<T> {
     input.incrementRetry();
     return input;
   }
+
+  @Override
+  public void prefetch(int batches) {
+    // No-op, as there is nothing more to read.
+  }
 }
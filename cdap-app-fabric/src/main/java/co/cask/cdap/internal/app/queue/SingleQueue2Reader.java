@@ -34,10 +34,11 @@ import java.util.concurrent.TimeUnit;
 public final class SingleQueue2Reader<T> extends TimeTrackingQueueReader<T> {
 
   private final Supplier<QueueConsumer> consumerSupplier;
-  private final int batchSize;
+  private final Supplier<Integer> batchSize;
   private final Function<byte[], T> decoder;
 
-  SingleQueue2Reader(Supplier<QueueConsumer> consumerSupplier, int batchSize, final Function<ByteBuffer, T> decoder) {
+  SingleQueue2Reader(Supplier<QueueConsumer> consumerSupplier, Supplier<Integer> batchSize,
+                     final Function<ByteBuffer, T> decoder) {
     this.consumerSupplier = consumerSupplier;
     this.batchSize = batchSize;
     this.decoder = new Function<byte[], T>() {
@@ -51,6 +52,11 @@ public final class SingleQueue2Reader<T> extends TimeTrackingQueueReader<T> {
   @Override
   public InputDatum<T> tryDequeue(long timeout, TimeUnit timeoutUnit) throws IOException {
     QueueConsumer consumer = consumerSupplier.get();
-    return new BasicInputDatum<>(consumer.getQueueName(), consumer.dequeue(batchSize), decoder);
+    return new BasicInputDatum<>(consumer.getQueueName(), consumer.dequeue(batchSize.get()), decoder);
+  }
+
+  @Override
+  public void prefetch(int batches) throws IOException {
+    consumerSupplier.get().prefetch(batchSize.get() * batches);
   }
 }
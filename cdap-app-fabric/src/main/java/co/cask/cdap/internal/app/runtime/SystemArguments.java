@@ -49,6 +49,10 @@ public final class SystemArguments {
   private static final String RETRY_POLICY_DELAY_BASE_MS = "system." + Constants.Retry.DELAY_BASE_MS;
   private static final String RETRY_POLICY_DELAY_MAX_MS = "system." + Constants.Retry.DELAY_MAX_MS;
   public static final String TRANSACTION_TIMEOUT = "system.data.tx.timeout";
+  public static final String FLOWLET_PREFETCH_DEPTH = "system.flowlet.prefetch.depth";
+  public static final String FLOWLET_BATCH_MIN_SIZE = "system.flowlet.batch.min.size";
+  public static final String FLOWLET_BATCH_MAX_SIZE = "system.flowlet.batch.max.size";
+  public static final String FLOWLET_BATCH_TARGET_LATENCY_MS = "system.flowlet.batch.target.latency.ms";
 
   public static Map<String, String> getLogLevels(Map<String, String> args) {
     Map<String, String> logLevels = new HashMap<>();
@@ -147,6 +151,42 @@ public final class SystemArguments {
     }
   }
 
+  /**
+   * Returns the number of input batches that a flowlet fetches ahead from its queues while processing the current
+   * batch, based on the given arguments. Returns {@code 0}, meaning no prefetching, if it is not specified.
+   */
+  public static int getFlowletPrefetchDepth(Map<String, String> args) {
+    return getNonNegativeInt(args, FLOWLET_PREFETCH_DEPTH, "flowlet prefetch depth", 0);
+  }
+
+  /**
+   * Returns the maximum dequeue batch size of flowlet batch process methods, based on the given arguments.
+   * If it is specified, the batch size is adjusted adaptively between the minimum and the maximum size.
+   * Returns {@code null}, meaning the batch size is fixed, if it is not specified.
+   */
+  @Nullable
+  public static Integer getFlowletBatchMaxSize(Map<String, String> args) {
+    return getPositiveInt(args, FLOWLET_BATCH_MAX_SIZE, "flowlet batch max size");
+  }
+
+  /**
+   * Returns the minimum dequeue batch size of flowlet batch process methods when the batch size is adaptive,
+   * based on the given arguments. Returns {@code 1} if it is not specified.
+   */
+  public static int getFlowletBatchMinSize(Map<String, String> args) {
+    Integer minSize = getPositiveInt(args, FLOWLET_BATCH_MIN_SIZE, "flowlet batch min size");
+    return minSize == null ? 1 : minSize;
+  }
+
+  /**
+   * Returns the target time in milliseconds for processing a batch in flowlet batch process methods when the
+   * batch size is adaptive, based on the given arguments. Returns {@code 1000} if it is not specified.
+   */
+  public static int getFlowletBatchTargetLatencyMs(Map<String, String> args) {
+    Integer latency = getPositiveInt(args, FLOWLET_BATCH_TARGET_LATENCY_MS, "flowlet batch target latency");
+    return latency == null ? 1000 : latency;
+  }
+
   /**
    * Get the retry strategy for a program given its arguments and the CDAP defaults for the program type.
    *
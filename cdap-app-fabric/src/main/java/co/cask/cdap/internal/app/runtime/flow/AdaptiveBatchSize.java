@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Provides the dequeue batch size of a batch process method, which is adjusted after every processed batch
+ * based on the outcome of it, bounded by a minimum and a maximum size:
+ *
+ * <ul>
+ *   <li>If the transaction failed due to conflict, the size is halved to reduce the chance of conflicts.</li>
+ *   <li>If processing the batch took longer than the target latency, the size is scaled down proportionally.</li>
+ *   <li>If a full batch was dequeued, there is a backlog in the queue, hence the size is doubled,
+ *       as long as the projected processing time stays within the target latency.</li>
+ *   <li>If a partial batch was dequeued, the queue is drained, hence the size moves halfway toward the
+ *       number of entries dequeued.</li>
+ * </ul>
+ *
+ * The size is read by the dequeue and prefetch threads, hence it is volatile. It is only updated
+ * by the thread that calls the process method.
+ */
+final class AdaptiveBatchSize implements Supplier<Integer> {
+
+  private final int minSize;
+  private final int maxSize;
+  private final long targetLatencyNanos;
+  private volatile int size;
+
+  AdaptiveBatchSize(int initialSize, int minSize, int maxSize, long targetLatency, TimeUnit unit) {
+    Preconditions.checkArgument(minSize > 0, "Minimum batch size must be > 0: %s", minSize);
+    Preconditions.checkArgument(maxSize >= minSize,
+                                "Maximum batch size %s must be >= minimum batch size %s", maxSize, minSize);
+    Preconditions.checkArgument(targetLatency > 0, "Target latency must be > 0: %s", targetLatency);
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    this.targetLatencyNanos = unit.toNanos(targetLatency);
+    this.size = clamp(initialSize);
+  }
+
+  /**
+   * Returns the current batch size.
+   */
+  @Override
+  public Integer get() {
+    return size;
+  }
+
+  /**
+   * Adjusts the batch size based on the outcome of processing a batch.
+   *
+   * @param dequeued number of entries dequeued in the batch
+   * @param processNanos time in nanoseconds taken to process the batch
+   * @param conflict {@code true} if the transaction of the batch failed due to conflict
+   * @return the new batch size
+   */
+  int update(int dequeued, long processNanos, boolean conflict) {
+    long current = size;
+    long newSize;
+    if (conflict) {
+      newSize = current / 2;
+    } else if (processNanos > targetLatencyNanos) {
+      newSize = Math.min(current - 1, current * targetLatencyNanos / processNanos);
+    } else if (dequeued >= current) {
+      newSize = current * 2;
+      if (processNanos > 0) {
+        newSize = Math.max(current, Math.min(newSize, current * targetLatencyNanos / processNanos));
+      }
+    } else {
+      newSize = (current + dequeued) / 2;
+    }
+    size = clamp(newSize);
+    return size;
+  }
+
+  private int clamp(long value) {
+    return (int) Math.max(minSize, Math.min(maxSize, value));
+  }
+
+  @Override
+  public String toString() {
+    return Objects.toStringHelper(this)
+      .add("size", size)
+      .add("min", minSize)
+      .add("max", maxSize)
+      .add("targetLatencyNanos", targetLatencyNanos)
+      .toString();
+  }
+}
@@ -23,12 +23,14 @@ import co.cask.cdap.api.flow.flowlet.Flowlet;
 import co.cask.cdap.api.flow.flowlet.InputContext;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.app.queue.InputDatum;
+import co.cask.cdap.app.queue.QueueReader;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.logging.LoggingContext;
 import co.cask.cdap.common.logging.LoggingContextAccessor;
 import co.cask.cdap.common.queue.QueueName;
 import co.cask.cdap.internal.app.queue.SingleItemQueueReader;
 import co.cask.cdap.internal.app.runtime.DataFabricFacade;
+import co.cask.cdap.internal.app.runtime.SystemArguments;
 import co.cask.cdap.security.spi.authorization.UnauthorizedException;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
@@ -39,6 +41,7 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.AbstractExecutionThreadService;
 import com.google.common.util.concurrent.Uninterruptibles;
+import org.apache.tephra.TransactionConflictException;
 import org.apache.tephra.TransactionContext;
 import org.apache.tephra.TransactionFailureException;
 import org.apache.twill.common.Threads;
@@ -48,12 +51,14 @@ import org.slf4j.LoggerFactory;
 import java.util.Collection;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
 
 /**
  * This class responsible invoking process methods of a {@link Flowlet}.
@@ -67,9 +72,12 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
   private final Callback txCallback;
   private final LoggingContext loggingContext;
   private final PriorityQueue<FlowletProcessEntry<?>> processQueue;
+  // Number of input batches to fetch ahead while processing, 0 for no prefetching
+  private final int prefetchDepth;
 
   private Thread runThread;
   private ExecutorService processExecutor;
+  private ExecutorService prefetchExecutor;
 
   FlowletProcessDriver(BasicFlowletContext flowletContext,
                        DataFabricFacade dataFabricFacade,
@@ -79,6 +87,7 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     this.dataFabricFacade = dataFabricFacade;
     this.txCallback = txCallback;
     this.loggingContext = flowletContext.getLoggingContext();
+    this.prefetchDepth = SystemArguments.getFlowletPrefetchDepth(flowletContext.getRuntimeArguments());
 
     processQueue = new PriorityQueue<>(processSpecifications.size());
     for (ProcessSpecification<?> spec : processSpecifications) {
@@ -97,6 +106,7 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     this.dataFabricFacade = other.dataFabricFacade;
     this.txCallback = other.txCallback;
     this.loggingContext = other.loggingContext;
+    this.prefetchDepth = other.prefetchDepth;
     this.processQueue = new PriorityQueue<>(other.processQueue.size());
     Iterables.addAll(processQueue, other.processQueue);
   }
@@ -111,11 +121,19 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     runThread = Thread.currentThread();
     processExecutor = Executors.newSingleThreadExecutor(
       Threads.createDaemonThreadFactory(getServiceName() + "-executor"));
+    if (prefetchDepth > 0) {
+      LOG.info("Prefetching {} batches of inputs for flowlet {}", prefetchDepth, flowletContext.getFlowletId());
+      prefetchExecutor = Executors.newSingleThreadExecutor(
+        Threads.createDaemonThreadFactory(getServiceName() + "-prefetch"));
+    }
   }
 
   @Override
   protected void shutDown() throws Exception {
     processExecutor.shutdown();
+    if (prefetchExecutor != null) {
+      prefetchExecutor.shutdown();
+    }
   }
 
   @Override
@@ -230,7 +248,9 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
       startTx(txContext);
 
       try {
-        InputDatum<T> input = entry.getProcessSpec().getQueueReader().dequeue(0, TimeUnit.MILLISECONDS);
+        long dequeueStartTime = System.nanoTime();
+        QueueReader<T> queueReader = entry.getProcessSpec().getQueueReader();
+        InputDatum<T> input = queueReader.dequeue(0, TimeUnit.MILLISECONDS);
         if (!input.needProcess()) {
           entry.backOff();
           // End the transaction if nothing in the queue
@@ -241,10 +261,32 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
         // since an entry to process was de-queued and most likely more entries will follow.
         entry.resetBackOff();
 
+        // Fetch the next inputs while the current one is being processed
+        Future<?> prefetchFuture = prefetch(queueReader);
+
         // Call the process method and commit the transaction. The current process entry will put
         // back to queue in the postProcess method (either a retry copy or itself).
-        ProcessMethod.ProcessResult<?> result = processMethod.invoke(input);
-        postProcess(processMethodCallback(processQueue, entry, input), txContext, input, result);
+        long processStartTime = System.nanoTime();
+        long processNanos = 0L;
+        ProcessMethod.ProcessResult<?> result;
+        try {
+          result = processMethod.invoke(input);
+        } finally {
+          long processEndTime = System.nanoTime();
+          processNanos = processEndTime - processStartTime;
+          // The transaction can only be completed after the prefetch is done with it
+          awaitPrefetch(prefetchFuture);
+          if (processMethod.needsInput()) {
+            long queueWaitNanos = (processStartTime - dequeueStartTime) + (System.nanoTime() - processEndTime);
+            MetricsContext metrics = flowletContext.getProgramMetrics();
+            metrics.increment("process.queue.wait.time.us", TimeUnit.NANOSECONDS.toMicros(queueWaitNanos));
+            metrics.increment("process.time.us", TimeUnit.NANOSECONDS.toMicros(processNanos));
+          }
+        }
+        int dequeued = input.size();
+        boolean conflict = postProcess(processMethodCallback(processQueue, entry, input), txContext, input, result);
+        updateBatchSize(entry.getProcessSpec().getAdaptiveBatchSize(), dequeued, processNanos,
+                        result.isSuccess(), conflict);
         return true;
 
       } catch (Throwable t) {
@@ -268,18 +310,68 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     return false;
   }
 
+  /**
+   * Starts fetching inputs ahead from the given {@link QueueReader} if prefetching is enabled.
+   *
+   * @return a {@link Future} that completes when the prefetch is done, or {@code null} if prefetching is disabled
+   */
+  @Nullable
+  private Future<?> prefetch(final QueueReader<?> queueReader) {
+    if (prefetchExecutor == null) {
+      return null;
+    }
+    return prefetchExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        queueReader.prefetch(prefetchDepth);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Blocks until the given prefetch completes. Failure in prefetch is only logged, since it doesn't affect the
+   * current input, and the next dequeue will read from the queue by itself.
+   */
+  private void awaitPrefetch(@Nullable Future<?> prefetchFuture) {
+    if (prefetchFuture == null) {
+      return;
+    }
+    try {
+      Uninterruptibles.getUninterruptibly(prefetchFuture);
+    } catch (ExecutionException e) {
+      LOG.warn("Failed to prefetch inputs for flowlet {}", flowletContext.getFlowletId(), e.getCause());
+    }
+  }
+
+  /**
+   * Adjusts the dequeue batch size based on the outcome of processing a batch if the batch size is adaptive.
+   * Failures in the process method don't affect the batch size.
+   */
+  private void updateBatchSize(@Nullable AdaptiveBatchSize adaptiveBatchSize, int dequeued,
+                               long processNanos, boolean success, boolean conflict) {
+    if (adaptiveBatchSize == null || (!success && !conflict)) {
+      return;
+    }
+    int batchSize = adaptiveBatchSize.update(dequeued, processNanos, conflict);
+    flowletContext.getProgramMetrics().gauge("process.batch.size", batchSize);
+  }
+
   private void startTx(TransactionContext txContext) throws TransactionFailureException {
     txContext.start(flowletContext.getDefaultTxTimeout());
   }
 
   /**
    * Process the process result. This method never throws.
+   *
+   * @return {@code true} if the transaction failed to commit due to conflict, {@code false} otherwise
    */
-  private void postProcess(ProcessMethodCallback callback, TransactionContext txContext,
-                           InputDatum input, ProcessMethod.ProcessResult result) {
+  private boolean postProcess(ProcessMethodCallback callback, TransactionContext txContext,
+                              InputDatum input, ProcessMethod.ProcessResult result) {
     InputContext inputContext = input.getInputContext();
     Throwable failureCause = null;
     FailureReason.Type failureType = FailureReason.Type.IO_ERROR;
+    boolean conflict = false;
     try {
       if (result.isSuccess()) {
         // If it is a retry input, force the dequeued entries into current transaction.
@@ -295,6 +387,7 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     } catch (Throwable e) {
       LOG.error("Transaction operation failed: {}", e.getMessage(), e);
       failureType = FailureReason.Type.IO_ERROR;
+      conflict = e instanceof TransactionConflictException;
       if (failureCause == null) {
         failureCause = e;
       }
@@ -318,6 +411,7 @@ final class FlowletProcessDriver extends AbstractExecutionThreadService {
     } catch (Throwable t) {
       LOG.error("Failed to invoke callback.", t);
     }
+    return conflict;
   }
 
   private InputAcknowledger createInputAcknowledger(final InputDatum input) {
@@ -74,8 +74,10 @@ import co.cask.cdap.internal.app.runtime.DataSetFieldSetter;
 import co.cask.cdap.internal.app.runtime.MetricsFieldSetter;
 import co.cask.cdap.internal.app.runtime.ProgramOptionConstants;
 import co.cask.cdap.internal.app.runtime.ProgramRunners;
+import co.cask.cdap.internal.app.runtime.SystemArguments;
+import co.cask.cdap.internal.io.DatumReader;
+import co.cask.cdap.internal.io.DatumReaderFactory;
 import co.cask.cdap.internal.io.DatumWriterFactory;
-import co.cask.cdap.internal.io.ReflectionDatumReader;
 import co.cask.cdap.internal.io.SchemaGenerator;
 import co.cask.cdap.internal.lang.Reflections;
 import co.cask.cdap.internal.specification.FlowletMethod;
@@ -90,6 +92,8 @@ import co.cask.common.io.ByteBufferInputStream;
 import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -119,6 +123,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -134,6 +139,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
   private final CConfiguration cConf;
   private final SchemaGenerator schemaGenerator;
   private final DatumWriterFactory datumWriterFactory;
+  private final DatumReaderFactory datumReaderFactory;
   private final DataFabricFacadeFactory dataFabricFacadeFactory;
   private final StreamCoordinatorClient streamCoordinatorClient;
   private final QueueReaderFactory queueReaderFactory;
@@ -150,6 +156,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
   public FlowletProgramRunner(CConfiguration cConfiguration,
                               SchemaGenerator schemaGenerator,
                               DatumWriterFactory datumWriterFactory,
+                              DatumReaderFactory datumReaderFactory,
                               DataFabricFacadeFactory dataFabricFacadeFactory,
                               StreamCoordinatorClient streamCoordinatorClient,
                               QueueReaderFactory queueReaderFactory,
@@ -164,6 +171,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
     this.cConf = cConfiguration;
     this.schemaGenerator = schemaGenerator;
     this.datumWriterFactory = datumWriterFactory;
+    this.datumReaderFactory = datumReaderFactory;
     this.dataFabricFacadeFactory = dataFabricFacadeFactory;
     this.streamCoordinatorClient = streamCoordinatorClient;
     this.queueReaderFactory = queueReaderFactory;
@@ -347,6 +355,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
         TypeToken<?> dataType;
         ConsumerConfig consumerConfig;
         int batchSize = 1;
+        AdaptiveBatchSize adaptiveBatchSize = null;
 
         if (tickAnnotation != null) {
           inputNames = ImmutableSet.of();
@@ -371,6 +380,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
               dataType = flowletType.resolveType(((ParameterizedType) dataType.getType()).getActualTypeArguments()[0]);
             }
             batchSize = processBatchSize;
+            adaptiveBatchSize = createAdaptiveBatchSize(flowletContext, method, batchSize);
           }
 
           try {
@@ -381,7 +391,8 @@ public final class FlowletProgramRunner implements ProgramRunner {
         }
 
         ProcessSpecification processSpec = processSpecFactory.create(inputNames, schema, dataType, processMethod,
-                                                                     consumerConfig, batchSize, tickAnnotation);
+                                                                     consumerConfig, batchSize, tickAnnotation,
+                                                                     adaptiveBatchSize);
         // Add processSpec
         if (processSpec != null) {
           result.add(processSpec);
@@ -446,6 +457,26 @@ public final class FlowletProgramRunner implements ProgramRunner {
     return null;
   }
 
+  /**
+   * Creates an {@link AdaptiveBatchSize} for the given batch process method if a maximum batch size is provided
+   * in the runtime arguments, or returns {@code null} if the batch size is fixed.
+   */
+  @Nullable
+  private AdaptiveBatchSize createAdaptiveBatchSize(BasicFlowletContext flowletContext,
+                                                   Method method, int batchSize) {
+    Map<String, String> args = flowletContext.getRuntimeArguments();
+    Integer maxSize = SystemArguments.getFlowletBatchMaxSize(args);
+    if (maxSize == null) {
+      return null;
+    }
+    int minSize = Math.min(SystemArguments.getFlowletBatchMinSize(args), maxSize);
+    AdaptiveBatchSize adaptiveBatchSize = new AdaptiveBatchSize(batchSize, minSize, maxSize,
+                                                                SystemArguments.getFlowletBatchTargetLatencyMs(args),
+                                                                TimeUnit.MILLISECONDS);
+    LOG.debug("Using adaptive batch size {} for flowlet={}, method={}", adaptiveBatchSize, flowletContext, method);
+    return adaptiveBatchSize;
+  }
+
   private int getNumGroups(Iterable<QueueSpecification> queueSpecs, QueueName queueName) {
     int numGroups = 0;
     for (QueueSpecification queueSpec : queueSpecs) {
@@ -544,6 +575,11 @@ public final class FlowletProgramRunner implements ProgramRunner {
     return new ProcessMethodFactory() {
       @Override
       public <T> ProcessMethod<T> create(Method method, int maxRetries) {
+        if (GeneratedProcessMethod.isSupported(method)) {
+          return GeneratedProcessMethod.create(flowlet, method, maxRetries);
+        }
+        // The generated invoker can only call public methods, hence fallback to reflection
+        LOG.debug("Using reflection to call process method {} of flowlet {}", method, flowlet.getClass());
         return ReflectionProcessMethod.create(flowlet, method, maxRetries);
       }
     };
@@ -560,8 +596,11 @@ public final class FlowletProgramRunner implements ProgramRunner {
       @Override
       public <T> ProcessSpecification create(Set<String> inputNames, Schema schema, TypeToken<T> dataType,
                                              ProcessMethod<T> method, ConsumerConfig consumerConfig, int batchSize,
-                                             Tick tickAnnotation) throws Exception {
+                                             Tick tickAnnotation,
+                                             @Nullable AdaptiveBatchSize adaptiveBatchSize) throws Exception {
         List<QueueReader<T>> queueReaders = Lists.newLinkedList();
+        Supplier<Integer> batchSizeSupplier = adaptiveBatchSize == null
+          ? Suppliers.ofInstance(batchSize) : adaptiveBatchSize;
 
         for (Map.Entry<Node, Set<QueueSpecification>> entry : queueSpecs.column(flowletName).entrySet()) {
           for (QueueSpecification queueSpec : entry.getValue()) {
@@ -589,7 +628,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
                 });
 
                 queueReaders.add(queueReaderFactory.createStreamReader(queueName.toStreamId(), consumerSupplier,
-                                                                       batchSize, decoder));
+                                                                       batchSizeSupplier, decoder));
 
               } else {
                 int numGroups = getNumGroups(Iterables.concat(queueSpecs.row(entry.getKey()).values()), queueName);
@@ -602,7 +641,7 @@ public final class FlowletProgramRunner implements ProgramRunner {
                                                                                            dataFabricFacade, queueName,
                                                                                            consumerConfig, numGroups);
                 queueConsumerSupplierBuilder.add(consumerSupplier);
-                queueReaders.add(queueReaderFactory.createQueueReader(consumerSupplier, batchSize, decoder));
+                queueReaders.add(queueReaderFactory.createQueueReader(consumerSupplier, batchSizeSupplier, decoder));
               }
             }
           }
@@ -612,14 +651,15 @@ public final class FlowletProgramRunner implements ProgramRunner {
         if (!inputNames.isEmpty() && queueReaders.isEmpty()) {
           return null;
         }
-        return new ProcessSpecification<>(new RoundRobinQueueReader<>(queueReaders), method, tickAnnotation);
+        return new ProcessSpecification<>(new RoundRobinQueueReader<>(queueReaders), method, tickAnnotation,
+                                          adaptiveBatchSize);
       }
     };
   }
 
   private <T> Function<ByteBuffer, T> createInputDatumDecoder(final TypeToken<T> dataType, final Schema schema,
                                                               final SchemaCache schemaCache) {
-    final ReflectionDatumReader<T> datumReader = new ReflectionDatumReader<>(schema, dataType);
+    final DatumReader<T> datumReader = datumReaderFactory.create(dataType, schema);
     final ByteBufferInputStream byteBufferInput = new ByteBufferInputStream(null);
     final BinaryDecoder decoder = new BinaryDecoder(byteBufferInput);
 
@@ -729,7 +769,8 @@ public final class FlowletProgramRunner implements ProgramRunner {
      */
     <T> ProcessSpecification create(Set<String> inputNames, Schema schema, TypeToken<T> dataType,
                                     ProcessMethod<T> method, ConsumerConfig consumerConfig, int batchSize,
-                                    Tick tickAnnotation) throws Exception;
+                                    Tick tickAnnotation, @Nullable AdaptiveBatchSize adaptiveBatchSize)
+      throws Exception;
   }
 
   /**
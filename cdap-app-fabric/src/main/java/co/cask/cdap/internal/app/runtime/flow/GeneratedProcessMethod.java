@@ -0,0 +1,161 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.annotation.Batch;
+import co.cask.cdap.api.flow.flowlet.Flowlet;
+import co.cask.cdap.api.flow.flowlet.InputContext;
+import co.cask.cdap.app.queue.InputDatum;
+import co.cask.cdap.internal.asm.ByteCodeClassLoader;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Represents a {@link ProcessMethod} that invocation is done through a {@link ProcessMethodInvoker} generated
+ * by {@link ProcessMethodInvokerGenerator}, which avoids the reflection overhead on every event.
+ * @param <T> Type of input accepted by this process method.
+ */
+@NotThreadSafe
+public final class GeneratedProcessMethod<T> implements ProcessMethod<T> {
+
+  private final Flowlet flowlet;
+  private final Method method;
+  private final ProcessMethodInvoker invoker;
+  private final boolean hasParam;
+  private final boolean batch;
+  private final boolean needsIterator;
+  private final int maxRetries;
+
+  /**
+   * Returns {@code true} if a {@link GeneratedProcessMethod} can be created for the given process method.
+   */
+  public static boolean isSupported(Method method) {
+    return ProcessMethodInvokerGenerator.isSupported(method);
+  }
+
+  public static <T> GeneratedProcessMethod<T> create(Flowlet flowlet, Method method, int maxRetries) {
+    return new GeneratedProcessMethod<>(flowlet, method, createInvoker(method), maxRetries);
+  }
+
+  private GeneratedProcessMethod(Flowlet flowlet, Method method, ProcessMethodInvoker invoker, int maxRetries) {
+    this.flowlet = flowlet;
+    this.method = method;
+    this.invoker = invoker;
+    this.maxRetries = maxRetries;
+
+    this.hasParam = method.getGenericParameterTypes().length > 0;
+    this.batch = method.isAnnotationPresent(Batch.class);
+    this.needsIterator = hasParam &&
+      TypeToken.of(method.getGenericParameterTypes()[0]).getRawType().equals(Iterator.class);
+  }
+
+  @Override
+  public boolean needsInput() {
+    return hasParam;
+  }
+
+  @Override
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  @Override
+  public ProcessResult<T> invoke(InputDatum<T> input) {
+    try {
+      Preconditions.checkState(!hasParam || input.needProcess(), "Empty input provided to method that needs input.");
+      InputContext inputContext = input.getInputContext();
+
+      if (hasParam) {
+        if (needsIterator) {
+          invoker.invoke(flowlet, input.iterator(), inputContext);
+        } else {
+          for (T event : input) {
+            invoker.invoke(flowlet, event, inputContext);
+          }
+        }
+      } else {
+        invoker.invoke(flowlet, null, null);
+      }
+
+      return createResult(input, null);
+    } catch (Throwable t) {
+      // Unlike Method.invoke, the exception thrown by the process method is not wrapped
+      return createResult(input, t);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return flowlet.getClass() + "." + method.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private ProcessResult<T> createResult(InputDatum<T> input, Throwable failureCause) {
+    // If the method has param, then object for the result would be iterator or the first event (batch vs no-batch)
+    T event = hasParam ? (batch ? (T) input.iterator() : input.iterator().next()) : null;
+    return new GeneratedProcessResult<>(event, failureCause);
+  }
+
+  /**
+   * Generates and instantiates a {@link ProcessMethodInvoker} for the given method.
+   */
+  private static ProcessMethodInvoker createInvoker(Method method) {
+    ClassDefinition classDefinition = new ProcessMethodInvokerGenerator().generate(method);
+
+    // The ClassLoader of the generated invoker has CDAP system ClassLoader as parent.
+    // The ClassDefinition contains list of classes that should not be loaded by the generated class ClassLoader
+    ByteCodeClassLoader classLoader = new ByteCodeClassLoader(GeneratedProcessMethod.class.getClassLoader());
+    classLoader.addClass(classDefinition);
+    try {
+      return (ProcessMethodInvoker) classLoader.loadClass(classDefinition.getClassName()).newInstance();
+    } catch (Exception e) {
+      throw Throwables.propagate(e);
+    }
+  }
+
+  private static final class GeneratedProcessResult<V> implements ProcessResult<V> {
+
+    private final V event;
+    private final Throwable cause;
+
+    private GeneratedProcessResult(V event, Throwable cause) {
+      this.event = event;
+      this.cause = cause;
+    }
+
+    @Override
+    public V getEvent() {
+      return event;
+    }
+
+    @Override
+    public boolean isSuccess() {
+      return cause == null;
+    }
+
+    @Override
+    public Throwable getCause() {
+      return cause;
+    }
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.flow.flowlet.InputContext;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import co.cask.cdap.internal.asm.Methods;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.List;
+
+/**
+ * Generates a class that implements {@link ProcessMethodInvoker} for calling a given process method directly,
+ * without going through reflection.
+ *
+ * For a process method {@code public void process(String event, InputContext context)} declared in the class
+ * {@code MyFlowlet}, the generated class looks like this:
+ *
+ * <pre>{@code
+ * public final class MyFlowlet<hash> implements ProcessMethodInvoker {
+ *
+ *   public void invoke(Object flowlet, Object event, InputContext inputContext) throws Exception {
+ *     ((MyFlowlet) flowlet).process((String) event, inputContext);
+ *   }
+ * }
+ * }</pre>
+ */
+final class ProcessMethodInvokerGenerator {
+
+  /**
+   * Returns {@code true} if an invoker can be generated for the given method. Since the generated class is loaded
+   * by a different {@link ClassLoader} than the flowlet class, it can only call public methods of public classes
+   * that take public types.
+   */
+  static boolean isSupported(Method method) {
+    if (!Modifier.isPublic(method.getModifiers()) || Modifier.isStatic(method.getModifiers())
+      || !isPublic(method.getDeclaringClass()) || !isPublic(method.getReturnType())) {
+      return false;
+    }
+    for (Class<?> paramType : method.getParameterTypes()) {
+      if (!isPublic(paramType)) {
+        return false;
+      }
+    }
+    return method.getParameterTypes().length <= 2;
+  }
+
+  /**
+   * Generates a new class that implements {@link ProcessMethodInvoker} for calling the given process method.
+   *
+   * @param method the process method to call
+   * @return A {@link ClassDefinition} containing information of the newly generated class.
+   */
+  ClassDefinition generate(Method method) {
+    Preconditions.checkArgument(isSupported(method), "Cannot generate invoker for process method %s", method);
+
+    Class<?> declaringClass = method.getDeclaringClass();
+    List<Class<?>> preservedClasses = Lists.newArrayList();
+    preservedClasses.add(declaringClass);
+    addPreservedClass(method.getReturnType(), preservedClasses);
+    for (Class<?> paramType : method.getParameterTypes()) {
+      addPreservedClass(paramType, preservedClasses);
+    }
+
+    String internalName = Type.getInternalName(declaringClass);
+    String className = internalName + Hashing.md5().hashString(method.toString());
+
+    ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL, className, null,
+                      Type.getInternalName(Object.class),
+                      new String[] { Type.getInternalName(ProcessMethodInvoker.class) });
+
+    generateConstructor(classWriter);
+    generateInvoke(method, classWriter);
+    classWriter.visitEnd();
+
+    ClassDefinition classDefinition = new ClassDefinition(classWriter.toByteArray(), className, preservedClasses);
+    // DEBUG block. Uncomment for debug
+    // co.cask.cdap.internal.asm.Debugs.debugByteCode(classDefinition, new java.io.PrintWriter(System.out));
+    // End DEBUG block
+    return classDefinition;
+  }
+
+  /**
+   * Generates a public no-arg constructor.
+   */
+  private void generateConstructor(ClassWriter classWriter) {
+    org.objectweb.asm.commons.Method constructor = Methods.getMethod(void.class, "<init>");
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, constructor, null, null, classWriter);
+    mg.loadThis();
+    mg.invokeConstructor(Type.getType(Object.class), constructor);
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  /**
+   * Generates the {@link ProcessMethodInvoker#invoke(Object, Object, InputContext)} method that casts
+   * the arguments to the parameter types of the process method and calls it.
+   */
+  private void generateInvoke(Method method, ClassWriter classWriter) {
+    org.objectweb.asm.commons.Method invoke = Methods.getMethod(void.class, "invoke",
+                                                                Object.class, Object.class, InputContext.class);
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, invoke, null,
+                                               new Type[] { Type.getType(Exception.class) }, classWriter);
+
+    // ((DeclaringClass) flowlet)
+    Type flowletType = Type.getType(method.getDeclaringClass());
+    mg.loadArg(0);
+    mg.checkCast(flowletType);
+
+    // .process((EventType) event, (ContextType) inputContext)
+    Class<?>[] paramTypes = method.getParameterTypes();
+    for (int i = 0; i < paramTypes.length; i++) {
+      Type paramType = Type.getType(paramTypes[i]);
+      mg.loadArg(i + 1);
+      if (paramTypes[i].isPrimitive()) {
+        mg.unbox(paramType);
+      } else {
+        mg.checkCast(paramType);
+      }
+    }
+    mg.invokeVirtual(flowletType, org.objectweb.asm.commons.Method.getMethod(method));
+
+    // Discard the return value, if any
+    Type returnType = Type.getType(method.getReturnType());
+    if (returnType.getSize() == 2) {
+      mg.pop2();
+    } else if (returnType.getSize() == 1) {
+      mg.pop();
+    }
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  private static boolean isPublic(Class<?> cls) {
+    Class<?> type = cls;
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+  }
+
+  private static void addPreservedClass(Class<?> cls, List<Class<?>> preservedClasses) {
+    Class<?> type = cls;
+    while (type.isArray()) {
+      type = type.getComponentType();
+    }
+    if (!type.isPrimitive() && !preservedClasses.contains(type)) {
+      preservedClasses.add(type);
+    }
+  }
+}
@@ -80,6 +80,44 @@ public class SystemArgumentsTest {
 
   }
 
+  @Test
+  public void testFlowletPrefetchDepth() {
+    // Default is no prefetching
+    Assert.assertEquals(0, SystemArguments.getFlowletPrefetchDepth(ImmutableMap.<String, String>of()));
+    Assert.assertEquals(4, SystemArguments.getFlowletPrefetchDepth(
+      ImmutableMap.of(SystemArguments.FLOWLET_PREFETCH_DEPTH, "4")));
+
+    // Invalid values are ignored
+    Assert.assertEquals(0, SystemArguments.getFlowletPrefetchDepth(
+      ImmutableMap.of(SystemArguments.FLOWLET_PREFETCH_DEPTH, "-1")));
+    Assert.assertEquals(0, SystemArguments.getFlowletPrefetchDepth(
+      ImmutableMap.of(SystemArguments.FLOWLET_PREFETCH_DEPTH, "abc")));
+  }
+
+  @Test
+  public void testFlowletBatchSize() {
+    // Default is fixed batch size
+    Map<String, String> args = ImmutableMap.of();
+    Assert.assertNull(SystemArguments.getFlowletBatchMaxSize(args));
+    Assert.assertEquals(1, SystemArguments.getFlowletBatchMinSize(args));
+    Assert.assertEquals(1000, SystemArguments.getFlowletBatchTargetLatencyMs(args));
+
+    args = ImmutableMap.of(SystemArguments.FLOWLET_BATCH_MIN_SIZE, "10",
+                           SystemArguments.FLOWLET_BATCH_MAX_SIZE, "500",
+                           SystemArguments.FLOWLET_BATCH_TARGET_LATENCY_MS, "200");
+    Assert.assertEquals(Integer.valueOf(500), SystemArguments.getFlowletBatchMaxSize(args));
+    Assert.assertEquals(10, SystemArguments.getFlowletBatchMinSize(args));
+    Assert.assertEquals(200, SystemArguments.getFlowletBatchTargetLatencyMs(args));
+
+    // Invalid values are ignored
+    args = ImmutableMap.of(SystemArguments.FLOWLET_BATCH_MIN_SIZE, "0",
+                           SystemArguments.FLOWLET_BATCH_MAX_SIZE, "abc",
+                           SystemArguments.FLOWLET_BATCH_TARGET_LATENCY_MS, "-1");
+    Assert.assertNull(SystemArguments.getFlowletBatchMaxSize(args));
+    Assert.assertEquals(1, SystemArguments.getFlowletBatchMinSize(args));
+    Assert.assertEquals(1000, SystemArguments.getFlowletBatchTargetLatencyMs(args));
+  }
+
   @Test
   public void testRetryStrategies() throws InterruptedException {
     CConfiguration cConf = CConfiguration.create();
@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link AdaptiveBatchSize}.
+ */
+public class AdaptiveBatchSizeTest {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void testGrowAndShrink() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(10, 2, 100, 1000, TimeUnit.MILLISECONDS);
+    Assert.assertEquals(10, batchSize.get().intValue());
+
+    // Full batches grow the size, up to the max
+    Assert.assertEquals(20, batchSize.update(10, 10 * MS, false));
+    Assert.assertEquals(40, batchSize.update(20, 20 * MS, false));
+    Assert.assertEquals(80, batchSize.update(40, 40 * MS, false));
+    Assert.assertEquals(100, batchSize.update(80, 80 * MS, false));
+    Assert.assertEquals(100, batchSize.update(100, 100 * MS, false));
+
+    // Partial batch moves the size halfway toward the number of entries dequeued
+    Assert.assertEquals(60, batchSize.update(20, 20 * MS, false));
+    Assert.assertEquals(30, batchSize.update(0, 0, false));
+
+    // Conflict halves the size, down to the min
+    Assert.assertEquals(15, batchSize.update(30, 30 * MS, true));
+    Assert.assertEquals(7, batchSize.update(15, 15 * MS, true));
+    Assert.assertEquals(3, batchSize.update(7, 7 * MS, true));
+    Assert.assertEquals(2, batchSize.update(3, 3 * MS, true));
+    Assert.assertEquals(2, batchSize.update(2, 2 * MS, true));
+  }
+
+  @Test
+  public void testTargetLatency() {
+    AdaptiveBatchSize batchSize = new AdaptiveBatchSize(50, 1, 1000, 100, TimeUnit.MILLISECONDS);
+
+    // Slow batch scales the size down proportionally to the target latency
+    Assert.assertEquals(25, batchSize.update(50, 200 * MS, false));
+    // Always shrinks if it is slower than the target, even if the overshoot is small
+    Assert.assertEquals(24, batchSize.update(25, 101 * MS, false));
+
+    // Growth is bounded by the projected latency
+    Assert.assertEquals(32, batchSize.update(24, 75 * MS, false));
+    // Doesn't shrink for full batch within the target latency
+    Assert.assertEquals(32, batchSize.update(32, 100 * MS, false));
+  }
+
+  @Test
+  public void testInitialSize() {
+    // Initial size is bounded by min and max
+    Assert.assertEquals(5, new AdaptiveBatchSize(1, 5, 10, 1, TimeUnit.SECONDS).get().intValue());
+    Assert.assertEquals(10, new AdaptiveBatchSize(100, 5, 10, 1, TimeUnit.SECONDS).get().intValue());
+  }
+}
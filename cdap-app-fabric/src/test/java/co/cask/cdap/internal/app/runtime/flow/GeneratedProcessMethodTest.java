@@ -0,0 +1,282 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.app.runtime.flow;
+
+import co.cask.cdap.api.annotation.Batch;
+import co.cask.cdap.api.flow.flowlet.AbstractFlowlet;
+import co.cask.cdap.api.flow.flowlet.InputContext;
+import co.cask.cdap.app.queue.InputDatum;
+import co.cask.cdap.common.queue.QueueName;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link GeneratedProcessMethod}.
+ */
+public class GeneratedProcessMethodTest {
+
+  @Test
+  public void testInvoke() throws Exception {
+    TestFlowlet flowlet = new TestFlowlet();
+
+    ProcessMethod<String> method = createProcessMethod(flowlet, "process", String.class);
+    ProcessMethod.ProcessResult<String> result = method.invoke(new ListInputDatum<>(ImmutableList.of("a", "b")));
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertEquals("a", result.getEvent());
+    Assert.assertEquals(ImmutableList.of("a", "b"), flowlet.events);
+
+    // Process method with InputContext
+    flowlet.events.clear();
+    method = createProcessMethod(flowlet, "processWithContext", String.class, InputContext.class);
+    result = method.invoke(new ListInputDatum<>(ImmutableList.of("c")));
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertEquals(ImmutableList.of("c:queue"), flowlet.events);
+
+    // Process method with primitive parameter and a return value
+    flowlet.events.clear();
+    ProcessMethod<Long> longMethod = createProcessMethod(flowlet, "processLong", long.class);
+    Assert.assertTrue(longMethod.invoke(new ListInputDatum<>(ImmutableList.of(1L, 2L))).isSuccess());
+    Assert.assertEquals(ImmutableList.of("1", "2"), flowlet.events);
+
+    // Batch process method with Iterator
+    flowlet.events.clear();
+    method = createProcessMethod(flowlet, "processBatch", Iterator.class);
+    result = method.invoke(new ListInputDatum<>(ImmutableList.of("d", "e")));
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertTrue((Object) result.getEvent() instanceof Iterator);
+    Assert.assertEquals(ImmutableList.of("d", "e"), flowlet.events);
+
+    // Tick method without parameter
+    flowlet.events.clear();
+    method = createProcessMethod(flowlet, "tick");
+    Assert.assertFalse(method.needsInput());
+    result = method.invoke(new ListInputDatum<>(ImmutableList.<String>of()));
+    Assert.assertTrue(result.isSuccess());
+    Assert.assertNull(result.getEvent());
+    Assert.assertEquals(ImmutableList.of("tick"), flowlet.events);
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    TestFlowlet flowlet = new TestFlowlet();
+
+    ProcessMethod<String> method = createProcessMethod(flowlet, "fail", String.class);
+    ProcessMethod.ProcessResult<String> result = method.invoke(new ListInputDatum<>(ImmutableList.of("a")));
+    Assert.assertFalse(result.isSuccess());
+    Assert.assertEquals("a", result.getEvent());
+    Assert.assertTrue(result.getCause() instanceof IllegalArgumentException);
+    Assert.assertEquals("a", result.getCause().getMessage());
+
+    // The failure cause should be the same as the one from reflection
+    ProcessMethod<String> reflectionMethod = ReflectionProcessMethod.create(flowlet, getMethod("fail", String.class),
+                                                                            0);
+    ProcessMethod.ProcessResult<String> reflectionResult =
+      reflectionMethod.invoke(new ListInputDatum<>(ImmutableList.of("a")));
+    Assert.assertEquals(result.getCause().getClass(), reflectionResult.getCause().getClass());
+  }
+
+  @Test
+  public void testSupported() throws Exception {
+    Assert.assertTrue(GeneratedProcessMethod.isSupported(getMethod("process", String.class)));
+    // Non-public method and method with non-public parameter type cannot be called by the generated class
+    Assert.assertFalse(GeneratedProcessMethod.isSupported(getMethod("processPrivate", String.class)));
+    Assert.assertFalse(GeneratedProcessMethod.isSupported(getMethod("processHidden", HiddenEvent.class)));
+    Assert.assertFalse(GeneratedProcessMethod.isSupported(
+      HiddenFlowlet.class.getDeclaredMethod("process", String.class)));
+  }
+
+  @Ignore
+  @Test
+  public void testSpeed() throws Exception {
+    TestFlowlet flowlet = new TestFlowlet();
+    Method method = getMethod("count", String.class);
+    List<String> events = Lists.newArrayList();
+    for (int i = 0; i < 1000; i++) {
+      events.add("event" + i);
+    }
+    InputDatum<String> input = new ListInputDatum<>(events);
+
+    ProcessMethod<String> reflectionMethod = ReflectionProcessMethod.create(flowlet, method, 0);
+    ProcessMethod<String> generatedMethod = GeneratedProcessMethod.create(flowlet, method, 0);
+
+    int iterations = 20000;
+    // warm up
+    runInvoke(reflectionMethod, input, iterations);
+    runInvoke(generatedMethod, input, iterations);
+
+    for (ProcessMethod<String> processMethod : ImmutableList.of(reflectionMethod, generatedMethod)) {
+      long startTime = System.nanoTime();
+      runInvoke(processMethod, input, iterations);
+      long elapsed = System.nanoTime() - startTime;
+      System.out.printf("%s, events/sec: %d%n", processMethod.getClass().getSimpleName(),
+                        (long) iterations * events.size() * TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+    System.out.println(flowlet.count);
+  }
+
+  private void runInvoke(ProcessMethod<String> method, InputDatum<String> input, int iterations) {
+    for (int i = 0; i < iterations; i++) {
+      Assert.assertTrue(method.invoke(input).isSuccess());
+    }
+  }
+
+  private <T> ProcessMethod<T> createProcessMethod(TestFlowlet flowlet,
+                                                   String name, Class<?>... paramTypes) throws Exception {
+    Method method = getMethod(name, paramTypes);
+    Assert.assertTrue(GeneratedProcessMethod.isSupported(method));
+    return GeneratedProcessMethod.create(flowlet, method, 0);
+  }
+
+  private Method getMethod(String name, Class<?>... paramTypes) throws Exception {
+    return TestFlowlet.class.getDeclaredMethod(name, paramTypes);
+  }
+
+  /**
+   * Flowlet for testing.
+   */
+  public static final class TestFlowlet extends AbstractFlowlet {
+
+    private final List<String> events = Lists.newArrayList();
+    private long count;
+
+    public void process(String event) {
+      events.add(event);
+    }
+
+    public void processWithContext(String event, InputContext context) {
+      events.add(event + ":" + context.getOrigin());
+    }
+
+    public long processLong(long event) {
+      events.add(Long.toString(event));
+      return event;
+    }
+
+    @Batch(10)
+    public void processBatch(Iterator<String> iterator) {
+      while (iterator.hasNext()) {
+        events.add(iterator.next());
+      }
+    }
+
+    public void tick() {
+      events.add("tick");
+    }
+
+    public void fail(String event) {
+      throw new IllegalArgumentException(event);
+    }
+
+    public void count(String event) {
+      count += event.length();
+    }
+
+    private void processPrivate(String event) {
+      events.add(event);
+    }
+
+    public void processHidden(HiddenEvent event) {
+      // No-op
+    }
+  }
+
+  /**
+   * A non-public flowlet.
+   */
+  static final class HiddenFlowlet extends AbstractFlowlet {
+
+    public void process(String event) {
+      // No-op
+    }
+  }
+
+  /**
+   * A non-public event class.
+   */
+  static final class HiddenEvent {
+  }
+
+  /**
+   * A {@link InputDatum} backed by a list of events.
+   */
+  private static final class ListInputDatum<T> implements InputDatum<T> {
+
+    private final List<T> events;
+
+    private ListInputDatum(List<T> events) {
+      this.events = events;
+    }
+
+    @Override
+    public boolean needProcess() {
+      return !events.isEmpty();
+    }
+
+    @Override
+    public void incrementRetry() {
+      // No-op
+    }
+
+    @Override
+    public int getRetry() {
+      return 0;
+    }
+
+    @Override
+    public InputContext getInputContext() {
+      return new InputContext() {
+        @Override
+        public String getOrigin() {
+          return "queue";
+        }
+
+        @Override
+        public int getRetryCount() {
+          return 0;
+        }
+      };
+    }
+
+    @Override
+    public QueueName getQueueName() {
+      return QueueName.fromFlowlet("ns", "app", "flow", "flowlet", "queue");
+    }
+
+    @Override
+    public void reclaim() {
+      // No-op
+    }
+
+    @Override
+    public int size() {
+      return events.size();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return events.iterator();
+    }
+  }
+}
@@ -185,13 +185,14 @@ public class SmartWorkflow extends AbstractWorkflow {
     if (workflowContext.getDataTracer(PostAction.PLUGIN_TYPE).isEnabled()) {
       return;
     }
-    LookupProvider lookupProvider = new DatasetContextLookupProvider(workflowContext);
     Map<String, String> runtimeArgs = workflowContext.getRuntimeArguments();
     long logicalStartTime = workflowContext.getLogicalStartTime();
     for (Map.Entry<String, PostAction> endingActionEntry : postActions.entrySet()) {
       String name = endingActionEntry.getKey();
       PostAction action = endingActionEntry.getValue();
       StageInfo stageInfo = StageInfo.builder(name, PostAction.PLUGIN_TYPE).build();
+      LookupProvider lookupProvider =
+        new DatasetContextLookupProvider(workflowContext, workflowContext, workflowMetrics, stageInfo);
       BatchActionContext context = new WorkflowBackedActionContext(workflowContext, workflowMetrics, lookupProvider,
                                                                    logicalStartTime, runtimeArgs, stageInfo);
       try {
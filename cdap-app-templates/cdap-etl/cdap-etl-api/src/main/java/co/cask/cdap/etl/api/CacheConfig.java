@@ -22,10 +22,21 @@ package co.cask.cdap.etl.api;
 public final class CacheConfig {
   private final long expirySeconds;
   private final int maxSize;
+  private final boolean cacheMisses;
 
-  public CacheConfig(long expirySeconds, int maxSize) {
+  /**
+   * @param expirySeconds expiry after write in seconds, or 0 for no expiry
+   * @param maxSize maximum number of elements in the cache, or 0 for no limit
+   * @param cacheMisses true if lookups of keys that have no value should be cached as well
+   */
+  public CacheConfig(long expirySeconds, int maxSize, boolean cacheMisses) {
     this.expirySeconds = expirySeconds;
     this.maxSize = maxSize;
+    this.cacheMisses = cacheMisses;
+  }
+
+  public CacheConfig(long expirySeconds, int maxSize) {
+    this(expirySeconds, maxSize, false);
   }
 
   public CacheConfig() {
@@ -45,4 +56,11 @@ public final class CacheConfig {
   public int getMaxSize() {
     return maxSize;
   }
+
+  /**
+   * @return true if lookups of keys that have no value are cached as well
+   */
+  public boolean isCacheMisses() {
+    return cacheMisses;
+  }
 }
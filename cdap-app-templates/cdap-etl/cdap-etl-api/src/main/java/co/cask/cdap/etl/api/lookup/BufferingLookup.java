@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.api.lookup;
+
+import co.cask.cdap.etl.api.Lookup;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link Lookup} that resolves keys in batches. A transform can {@link #buffer(String) buffer} the keys of a
+ * micro-batch of records, and then look up the key of each record. The first lookup of a buffered key looks up
+ * all the buffered keys with a single batch lookup, so that a {@link TableLookup} issues one multi-get for the
+ * micro-batch rather than one get per record. The results are kept until {@link #clear()} is called.
+ * <p>
+ * This class is not thread safe.
+ * </p>
+ *
+ * @param <T> the type of object that will be returned for a lookup
+ */
+public class BufferingLookup<T> implements Lookup<T> {
+
+  private final Lookup<T> delegate;
+  private final Set<String> buffered;
+  private final Map<String, T> results;
+
+  public BufferingLookup(Lookup<T> delegate) {
+    this.delegate = delegate;
+    this.buffered = new LinkedHashSet<>();
+    this.results = new HashMap<>();
+  }
+
+  /**
+   * Buffers a key, to be looked up together with the other buffered keys.
+   *
+   * @param key the key to buffer
+   */
+  public void buffer(String key) {
+    if (!results.containsKey(key)) {
+      buffered.add(key);
+    }
+  }
+
+  /**
+   * Looks up all the buffered keys with a single batch lookup.
+   */
+  public void flush() {
+    if (buffered.isEmpty()) {
+      return;
+    }
+    Map<String, T> values = delegate.lookup(buffered);
+    for (String key : buffered) {
+      results.put(key, values.get(key));
+    }
+    buffered.clear();
+  }
+
+  /**
+   * Discards the buffered keys and the results of the previous lookups.
+   */
+  public void clear() {
+    buffered.clear();
+    results.clear();
+  }
+
+  @Override
+  public T lookup(String key) {
+    if (buffered.contains(key)) {
+      flush();
+    }
+    if (results.containsKey(key)) {
+      return results.get(key);
+    }
+    return delegate.lookup(key);
+  }
+
+  @Override
+  public Map<String, T> lookup(String... keys) {
+    return lookup(ImmutableSet.copyOf(keys));
+  }
+
+  @Override
+  public Map<String, T> lookup(Set<String> keys) {
+    for (String key : keys) {
+      buffer(key);
+    }
+    flush();
+
+    Map<String, T> values = new HashMap<>();
+    for (String key : keys) {
+      values.put(key, results.get(key));
+    }
+    return values;
+  }
+}
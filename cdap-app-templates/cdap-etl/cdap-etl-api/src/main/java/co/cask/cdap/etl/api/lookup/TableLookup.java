@@ -17,12 +17,16 @@
 package co.cask.cdap.etl.api.lookup;
 
 import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Get;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.etl.api.Lookup;
 import com.google.common.collect.ImmutableSet;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -47,11 +51,22 @@ public class TableLookup implements Lookup<Row> {
     return lookup(ImmutableSet.copyOf(keys));
   }
 
+  /**
+   * Reads the rows of all keys with a single {@link Table#get(List)}, which the table can batch into a single
+   * remote call per server.
+   */
   @Override
   public Map<String, Row> lookup(Set<String> keys) {
+    List<Get> gets = new ArrayList<>(keys.size());
+    for (String key : keys) {
+      gets.add(new Get(key));
+    }
+
+    // the rows are returned in the order of the gets
     Map<String, Row> results = new HashMap<>();
+    Iterator<Row> rows = table.get(gets).iterator();
     for (String key : keys) {
-      results.put(key, lookup(key));
+      results.put(key, rows.next());
     }
     return results;
   }
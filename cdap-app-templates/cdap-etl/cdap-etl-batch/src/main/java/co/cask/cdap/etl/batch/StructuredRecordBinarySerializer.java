@@ -0,0 +1,526 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.Multiset;
+import com.google.common.io.ByteArrayDataOutput;
+import com.google.common.io.ByteStreams;
+import org.apache.twill.common.Cancellable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+
+/**
+ * Serializes {@link StructuredRecord}s in a compact binary format. A serialized record consists of:
+ *
+ * <ul>
+ *   <li>the 16 bytes {@link SchemaHash} of the record schema</li>
+ *   <li>{@code 0} if the schema is {@link #registerSchemas(Iterable) registered}, or {@code 1} followed by the
+ *   length of the schema json and the schema json otherwise</li>
+ *   <li>the field values in the order of the schema fields, in the Avro binary encoding</li>
+ * </ul>
+ *
+ * The schemas that are known when a job is prepared, such as the stage schemas of a pipeline, are registered by
+ * all its tasks, so that the records of these schemas only carry the schema hash. A schema stays registered until
+ * all the tasks that registered it cancel their registration, hence the registry does not grow with the jobs that
+ * ran in the same JVM. The schema json is written with the records of other schemas, since the records that are
+ * read together, such as the records of a reducer, may come from different tasks. These schemas are kept in a
+ * cache keyed by their hash, so that the schema json of a record is only encoded or parsed the first time its
+ * schema is seen by the task.
+ *
+ * The entries of maps are written in the order of their serialized keys, hence equal records are always serialized
+ * to the same bytes, and serialized records can be compared with {@link #compare(byte[], int, int, byte[], int, int)}
+ * without deserializing them.
+ */
+public final class StructuredRecordBinarySerializer {
+
+  // maximum number of schemas kept in the registry
+  private static final int MAX_SCHEMAS = 1000;
+  private static final int SCHEMA_HASH_SIZE = 16;
+  private static final byte REGISTERED_SCHEMA = 0;
+  private static final byte INLINE_SCHEMA = 1;
+  private static final Comparator<byte[][]> MAP_ENTRY_COMPARATOR = new Comparator<byte[][]>() {
+    @Override
+    public int compare(byte[][] entry1, byte[][] entry2) {
+      return Bytes.compareTo(entry1[0], entry2[0]);
+    }
+  };
+
+  // registered schemas are only removed when all their registrations are cancelled,
+  // since their json is not written with the records
+  private static final ConcurrentMap<SchemaHash, Schema> REGISTERED_SCHEMAS = new ConcurrentHashMap<>();
+  // number of registrations of each registered schema, which also guards the updates of the registered schemas
+  private static final Multiset<SchemaHash> REGISTRATIONS = HashMultiset.create();
+  private static final Cache<SchemaHash, Schema> SCHEMAS = CacheBuilder.newBuilder().maximumSize(MAX_SCHEMAS).build();
+  private static final Cache<SchemaHash, byte[]> SCHEMA_BYTES =
+    CacheBuilder.newBuilder().maximumSize(MAX_SCHEMAS).build();
+
+  /**
+   * Registers schemas, so that the records of these schemas are written without the schema json. The same schemas
+   * must be registered by all the tasks that read the records, before they are written.
+   *
+   * @return a {@link Cancellable} to cancel the registration when the records of the schemas are not written or
+   *         read anymore, such as when the task completes
+   */
+  public static Cancellable registerSchemas(Iterable<Schema> schemas) {
+    final Set<SchemaHash> schemaHashes = new HashSet<>();
+    synchronized (REGISTRATIONS) {
+      for (Schema schema : schemas) {
+        SchemaHash schemaHash = schema.getSchemaHash();
+        if (schemaHashes.add(schemaHash)) {
+          REGISTRATIONS.add(schemaHash);
+          REGISTERED_SCHEMAS.putIfAbsent(schemaHash, schema);
+        }
+      }
+    }
+
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    return new Cancellable() {
+      @Override
+      public void cancel() {
+        if (!cancelled.compareAndSet(false, true)) {
+          return;
+        }
+        synchronized (REGISTRATIONS) {
+          for (SchemaHash schemaHash : schemaHashes) {
+            REGISTRATIONS.remove(schemaHash);
+            if (!REGISTRATIONS.contains(schemaHash)) {
+              REGISTERED_SCHEMAS.remove(schemaHash);
+            }
+          }
+        }
+      }
+    };
+  }
+
+  /**
+   * Writes the given {@link StructuredRecord} to the given {@link DataOutput}.
+   */
+  public static void write(DataOutput out, StructuredRecord record) throws IOException {
+    Schema schema = record.getSchema();
+    SchemaHash schemaHash = schema.getSchemaHash();
+    out.write(schemaHash.toByteArray());
+    if (REGISTERED_SCHEMAS.containsKey(schemaHash)) {
+      out.writeByte(REGISTERED_SCHEMA);
+    } else {
+      byte[] schemaBytes = SCHEMA_BYTES.getIfPresent(schemaHash);
+      if (schemaBytes == null) {
+        schemaBytes = Bytes.toBytes(schema.toString());
+        SCHEMA_BYTES.put(schemaHash, schemaBytes);
+      }
+      out.writeByte(INLINE_SCHEMA);
+      out.writeInt(schemaBytes.length);
+      out.write(schemaBytes);
+    }
+    writeRecord(out, schema, record);
+  }
+
+  /**
+   * Compares two serialized records. Records with the same schema hash are ordered by the bytes of their field values,
+   * and the order is only meant for grouping equal records, such as the keys of a reducer.
+   *
+   * @return {@code 0} if the records are serialized to the same bytes, except for the schema json,
+   *         a negative number if the first record is ordered first, or a positive number otherwise
+   */
+  public static int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+    int cmp = Bytes.compareTo(b1, s1, SCHEMA_HASH_SIZE, b2, s2, SCHEMA_HASH_SIZE);
+    if (cmp != 0) {
+      return cmp;
+    }
+    // skip the schema json, since schemas with the same hash are equal
+    int offset1 = getValuesOffset(b1, s1);
+    int offset2 = getValuesOffset(b2, s2);
+    return Bytes.compareTo(b1, s1 + offset1, l1 - offset1, b2, s2 + offset2, l2 - offset2);
+  }
+
+  /**
+   * Reads a {@link StructuredRecord} from the given {@link DataInput}.
+   */
+  public static StructuredRecord read(DataInput in) throws IOException {
+    byte[] hash = new byte[SCHEMA_HASH_SIZE];
+    in.readFully(hash);
+    SchemaHash schemaHash = new SchemaHash(ByteBuffer.wrap(hash));
+    byte schemaType = in.readByte();
+    Schema schema;
+    if (schemaType == REGISTERED_SCHEMA) {
+      schema = REGISTERED_SCHEMAS.get(schemaHash);
+      if (schema == null) {
+        throw new IOException("Schema with hash " + schemaHash + " is not registered");
+      }
+    } else if (schemaType == INLINE_SCHEMA) {
+      int schemaLen = in.readInt();
+      schema = SCHEMAS.getIfPresent(schemaHash);
+      if (schema == null) {
+        byte[] schemaBytes = new byte[schemaLen];
+        in.readFully(schemaBytes);
+        schema = Schema.parseJson(Bytes.toString(schemaBytes));
+        SCHEMAS.put(schemaHash, schema);
+      } else {
+        skipFully(in, schemaLen);
+      }
+    } else {
+      throw new IOException("Invalid schema type " + schemaType);
+    }
+    return readRecord(in, schema);
+  }
+
+  /**
+   * Returns the offset of the field values in the serialized record that starts at the given offset.
+   */
+  private static int getValuesOffset(byte[] bytes, int offset) {
+    if (bytes[offset + SCHEMA_HASH_SIZE] == REGISTERED_SCHEMA) {
+      return SCHEMA_HASH_SIZE + 1;
+    }
+    return SCHEMA_HASH_SIZE + 1 + Bytes.SIZEOF_INT + Bytes.toInt(bytes, offset + SCHEMA_HASH_SIZE + 1);
+  }
+
+  /**
+   * Skips the given number of bytes, since {@link DataInput#skipBytes(int)} can skip fewer bytes.
+   */
+  private static void skipFully(DataInput in, int len) throws IOException {
+    int remaining = len;
+    while (remaining > 0) {
+      int skipped = in.skipBytes(remaining);
+      if (skipped <= 0) {
+        // reads a byte to make progress, which throws an EOFException at the end of the input
+        in.readByte();
+        skipped = 1;
+      }
+      remaining -= skipped;
+    }
+  }
+
+  private static void writeValue(DataOutput out, Schema schema, @Nullable Object value) throws IOException {
+    switch (schema.getType()) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        out.writeBoolean((Boolean) value);
+        break;
+      case INT:
+        writeLong(out, ((Number) value).intValue());
+        break;
+      case LONG:
+        writeLong(out, ((Number) value).longValue());
+        break;
+      case FLOAT:
+        out.writeFloat(((Number) value).floatValue());
+        break;
+      case DOUBLE:
+        out.writeDouble(((Number) value).doubleValue());
+        break;
+      case BYTES:
+        writeBytes(out, value);
+        break;
+      case STRING:
+        writeBytes(out, Bytes.toBytes((String) value));
+        break;
+      case ENUM:
+        String enumValue = value instanceof Enum ? ((Enum) value).name() : value.toString();
+        int idx = schema.getEnumIndex(enumValue);
+        if (idx < 0) {
+          throw new IOException("Value " + enumValue + " is not in enum " + schema);
+        }
+        writeLong(out, idx);
+        break;
+      case ARRAY:
+        writeArray(out, schema.getComponentSchema(), value);
+        break;
+      case MAP:
+        writeMap(out, schema.getMapSchema(), value);
+        break;
+      case RECORD:
+        if (!(value instanceof StructuredRecord)) {
+          throw new IOException("Expects StructuredRecord. Got: " + value.getClass());
+        }
+        writeRecord(out, schema, (StructuredRecord) value);
+        break;
+      case UNION:
+        int unionIdx = findUnionIndex(schema, value);
+        writeLong(out, unionIdx);
+        writeValue(out, schema.getUnionSchema(unionIdx), value);
+        break;
+    }
+  }
+
+  private static void writeRecord(DataOutput out, Schema schema, StructuredRecord record) throws IOException {
+    for (Schema.Field field : schema.getFields()) {
+      writeValue(out, field.getSchema(), record.get(field.getName()));
+    }
+  }
+
+  private static void writeBytes(DataOutput out, Object value) throws IOException {
+    if (value instanceof ByteBuffer) {
+      ByteBuffer buffer = (ByteBuffer) value;
+      writeLong(out, buffer.remaining());
+      if (buffer.hasArray()) {
+        out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+      } else {
+        out.write(Bytes.toBytes(buffer));
+      }
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      writeLong(out, bytes.length);
+      out.write(bytes);
+    } else {
+      throw new IOException("Expects either ByteBuffer or byte[]. Got " + value.getClass());
+    }
+  }
+
+  private static void writeArray(DataOutput out, Schema elementSchema, Object value) throws IOException {
+    if (value instanceof Collection) {
+      Collection<?> collection = (Collection<?>) value;
+      writeLong(out, collection.size());
+      for (Object element : collection) {
+        writeValue(out, elementSchema, element);
+      }
+    } else if (value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      writeLong(out, length);
+      for (int i = 0; i < length; i++) {
+        writeValue(out, elementSchema, Array.get(value, i));
+      }
+    } else {
+      throw new IOException("Expects either Collection or array. Got: " + value.getClass());
+    }
+  }
+
+  private static void writeMap(DataOutput out, Map.Entry<Schema, Schema> mapSchema, Object value) throws IOException {
+    if (!(value instanceof Map)) {
+      throw new IOException("Expects Map. Got: " + value.getClass());
+    }
+    Map<?, ?> map = (Map<?, ?>) value;
+    writeLong(out, map.size());
+    if (map.size() == 1) {
+      Map.Entry<?, ?> entry = map.entrySet().iterator().next();
+      writeValue(out, mapSchema.getKey(), entry.getKey());
+      writeValue(out, mapSchema.getValue(), entry.getValue());
+      return;
+    }
+
+    // the iteration order of equal maps can be different, hence the entries are sorted by their serialized keys
+    List<byte[][]> entries = new ArrayList<>(map.size());
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      ByteArrayDataOutput keyOut = ByteStreams.newDataOutput();
+      writeValue(keyOut, mapSchema.getKey(), entry.getKey());
+      ByteArrayDataOutput valueOut = ByteStreams.newDataOutput();
+      writeValue(valueOut, mapSchema.getValue(), entry.getValue());
+      entries.add(new byte[][] { keyOut.toByteArray(), valueOut.toByteArray() });
+    }
+    Collections.sort(entries, MAP_ENTRY_COMPARATOR);
+    for (byte[][] entry : entries) {
+      out.write(entry[0]);
+      out.write(entry[1]);
+    }
+  }
+
+  /**
+   * Returns the index of the schema in the given union that the given value is written with. Like the json
+   * serialization, only the type of the value is matched, except for records, which are matched by schema if
+   * the union contains more than one record schema.
+   */
+  private static int findUnionIndex(Schema unionSchema, @Nullable Object value) throws IOException {
+    Schema.Type type = getSchemaType(value);
+    List<Schema> schemas = unionSchema.getUnionSchemas();
+    int idx = -1;
+    for (int i = 0; i < schemas.size(); i++) {
+      if (schemas.get(i).getType() != type) {
+        continue;
+      }
+      if (type != Schema.Type.RECORD || schemas.get(i).equals(((StructuredRecord) value).getSchema())) {
+        return i;
+      }
+      idx = idx < 0 ? i : idx;
+    }
+    if (idx < 0) {
+      throw new IOException("Value type " + type + " not valid in union: " + unionSchema);
+    }
+    return idx;
+  }
+
+  private static Schema.Type getSchemaType(@Nullable Object value) throws IOException {
+    if (value == null) {
+      return Schema.Type.NULL;
+    }
+    if (value instanceof Boolean) {
+      return Schema.Type.BOOLEAN;
+    }
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return Schema.Type.INT;
+    }
+    if (value instanceof Long) {
+      return Schema.Type.LONG;
+    }
+    if (value instanceof Float) {
+      return Schema.Type.FLOAT;
+    }
+    if (value instanceof Double) {
+      return Schema.Type.DOUBLE;
+    }
+    if (value instanceof String) {
+      return Schema.Type.STRING;
+    }
+    if (value instanceof Enum) {
+      return Schema.Type.ENUM;
+    }
+    if (value instanceof ByteBuffer || value instanceof byte[]) {
+      return Schema.Type.BYTES;
+    }
+    if (value instanceof StructuredRecord) {
+      return Schema.Type.RECORD;
+    }
+    if (value instanceof Collection || value.getClass().isArray()) {
+      return Schema.Type.ARRAY;
+    }
+    if (value instanceof Map) {
+      return Schema.Type.MAP;
+    }
+    throw new IOException("Unsupported type found in StructuredRecord: " + value.getClass());
+  }
+
+  @Nullable
+  private static Object readValue(DataInput in, Schema schema) throws IOException {
+    switch (schema.getType()) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return in.readBoolean();
+      case INT:
+        return (int) readLong(in);
+      case LONG:
+        return readLong(in);
+      case FLOAT:
+        return in.readFloat();
+      case DOUBLE:
+        return in.readDouble();
+      case BYTES:
+        return readBytes(in);
+      case STRING:
+        return Bytes.toString(readBytes(in));
+      case ENUM:
+        // Currently there is no standard container to represent enum type
+        return schema.getEnumValue((int) readLong(in));
+      case ARRAY:
+        return readArray(in, schema.getComponentSchema());
+      case MAP:
+        return readMap(in, schema.getMapSchema());
+      case RECORD:
+        return readRecord(in, schema);
+      case UNION:
+        int idx = (int) readLong(in);
+        Schema unionSchema = schema.getUnionSchema(idx);
+        if (unionSchema == null) {
+          throw new IOException("Invalid index " + idx + " for union: " + schema);
+        }
+        return readValue(in, unionSchema);
+    }
+    throw new IOException("Unsupported schema: " + schema);
+  }
+
+  private static StructuredRecord readRecord(DataInput in, Schema schema) throws IOException {
+    StructuredRecord.Builder builder = StructuredRecord.builder(schema);
+    for (Schema.Field field : schema.getFields()) {
+      Object value = readValue(in, field.getSchema());
+      if (value != null) {
+        builder.set(field.getName(), value);
+      }
+    }
+    return builder.build();
+  }
+
+  private static byte[] readBytes(DataInput in) throws IOException {
+    byte[] bytes = new byte[(int) readLong(in)];
+    in.readFully(bytes);
+    return bytes;
+  }
+
+  private static List<Object> readArray(DataInput in, Schema elementSchema) throws IOException {
+    int size = (int) readLong(in);
+    List<Object> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(readValue(in, elementSchema));
+    }
+    return result;
+  }
+
+  private static Map<Object, Object> readMap(DataInput in, Map.Entry<Schema, Schema> mapSchema) throws IOException {
+    int size = (int) readLong(in);
+    Map<Object, Object> result = new HashMap<>();
+    for (int i = 0; i < size; i++) {
+      Object key = readValue(in, mapSchema.getKey());
+      result.put(key, readValue(in, mapSchema.getValue()));
+    }
+    return result;
+  }
+
+  /**
+   * Writes a long in the zig-zag variable length encoding of Avro.
+   */
+  private static void writeLong(DataOutput out, long value) throws IOException {
+    long n = (value << 1) ^ (value >> 63);
+    while ((n & ~0x7FL) != 0) {
+      out.writeByte((int) ((n & 0x7F) | 0x80));
+      n >>>= 7;
+    }
+    out.writeByte((int) n);
+  }
+
+  /**
+   * Reads a long in the zig-zag variable length encoding of Avro.
+   */
+  private static long readLong(DataInput in) throws IOException {
+    long n = 0;
+    int shift = 0;
+    int b;
+    do {
+      if (shift >= 64) {
+        throw new IOException("Invalid long encoding");
+      }
+      b = in.readUnsignedByte();
+      n |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return (n >>> 1) ^ -(n & 1);
+  }
+
+  private StructuredRecordBinarySerializer() {
+    // no-op
+  }
+}
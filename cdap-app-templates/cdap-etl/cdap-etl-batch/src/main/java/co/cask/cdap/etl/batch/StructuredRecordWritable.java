@@ -16,23 +16,32 @@
 
 package co.cask.cdap.etl.batch;
 
-import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.data.format.StructuredRecord;
-import co.cask.cdap.api.data.schema.Schema;
-import co.cask.cdap.format.StructuredRecordStringConverter;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Objects;
+import javax.annotation.Nullable;
 
 /**
  * Wrapper around a {@link StructuredRecord} so that it can be used as the output key and/or value of a mapper.
- * This is not very performant and must be improved soon (CDAP-5347).
+ * The record is serialized with {@link StructuredRecordBinarySerializer}, and keys are sorted on their serialized
+ * bytes by {@link Comparator}, without deserializing them.
  */
 public class StructuredRecordWritable implements WritableComparable<StructuredRecordWritable> {
+
+  static {
+    WritableComparator.define(StructuredRecordWritable.class, new Comparator());
+  }
+
   private StructuredRecord record;
+  // the serialized record used by compareTo, computed on the first comparison and reset when the record changes
+  @Nullable
+  private byte[] bytes;
 
   // required by Hadoop
   @SuppressWarnings("unused")
@@ -45,42 +54,40 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
 
   public void set(StructuredRecord record) {
     this.record = record;
+    this.bytes = null;
   }
 
   public StructuredRecord get() {
     return record;
   }
 
-  @SuppressWarnings("ConstantConditions")
   @Override
   public void write(DataOutput out) throws IOException {
-    byte[] schemaBytes = Bytes.toBytes(record.getSchema().toString());
-    out.writeInt(schemaBytes.length);
-    out.write(schemaBytes);
-
-    byte[] recordBytes = Bytes.toBytes(StructuredRecordStringConverter.toJsonString(record));
-    out.writeInt(recordBytes.length);
-    out.write(recordBytes);
+    StructuredRecordBinarySerializer.write(out, record);
   }
 
   @Override
   public void readFields(DataInput in) throws IOException {
-    int schemaLen = in.readInt();
-    byte[] schemaBytes = new byte[schemaLen];
-    in.readFully(schemaBytes, 0, schemaLen);
-    String schemaStr = Bytes.toString(schemaBytes);
-    Schema schema = Schema.parseJson(schemaStr);
-
-    int recordLen = in.readInt();
-    byte[] recordBytes = new byte[recordLen];
-    in.readFully(recordBytes, 0, recordLen);
-    String recordStr = Bytes.toString(recordBytes);
-    this.record = StructuredRecordStringConverter.fromJsonString(recordStr, schema);
+    this.record = StructuredRecordBinarySerializer.read(in);
+    this.bytes = null;
   }
 
+  /**
+   * Compares the serialized records, so that the order is the same as the one of the {@link Comparator}.
+   * Each record is only serialized the first time it is compared.
+   */
   @Override
   public int compareTo(StructuredRecordWritable o) {
-    return Integer.compare(hashCode(), o.hashCode());
+    byte[] bytes = getBytes();
+    byte[] otherBytes = o.getBytes();
+    return StructuredRecordBinarySerializer.compare(bytes, 0, bytes.length, otherBytes, 0, otherBytes.length);
+  }
+
+  private byte[] getBytes() {
+    if (bytes == null) {
+      bytes = WritableUtils.toByteArray(this);
+    }
+    return bytes;
   }
 
   @Override
@@ -101,4 +108,19 @@ public class StructuredRecordWritable implements WritableComparable<StructuredRe
   public int hashCode() {
     return record != null ? record.hashCode() : 0;
   }
+
+  /**
+   * A {@link WritableComparator} that compares {@link StructuredRecordWritable}s on their serialized bytes.
+   */
+  public static final class Comparator extends WritableComparator {
+
+    public Comparator() {
+      super(StructuredRecordWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+      return StructuredRecordBinarySerializer.compare(b1, s1, l1, b2, s2, l2);
+    }
+  }
 }
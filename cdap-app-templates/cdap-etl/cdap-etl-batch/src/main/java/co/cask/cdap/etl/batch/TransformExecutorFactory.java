@@ -52,6 +52,8 @@ import javax.annotation.Nullable;
  * @param <T> the type of input for the created transform executors
  */
 public abstract class TransformExecutorFactory<T> {
+  // stages are destroyed at the end of the task, which emits the record counts of the last interval
+  protected static final long METRICS_FLUSH_INTERVAL_MILLIS = 1000L;
   protected final Map<String, Map<String, Schema>> perStageInputSchemas;
   private final String sourceStageName;
   private final MacroEvaluator macroEvaluator;
@@ -188,7 +190,8 @@ public abstract class TransformExecutorFactory<T> {
   protected static <IN, OUT> TrackedTransform<IN, OUT> getTrackedEmitKeyStep(Transformation<IN, OUT> transform,
                                                                              StageMetrics stageMetrics,
                                                                              DataTracer dataTracer) {
-    return new TrackedTransform<>(transform, stageMetrics, TrackedTransform.RECORDS_IN, null, dataTracer);
+    return new TrackedTransform<>(transform, stageMetrics, TrackedTransform.RECORDS_IN, null, dataTracer,
+                                  METRICS_FLUSH_INTERVAL_MILLIS);
   }
 
   protected static <IN, OUT> TrackedTransform<IN, OUT> getTrackedAggregateStep(Transformation<IN, OUT> transform,
@@ -196,12 +199,13 @@ public abstract class TransformExecutorFactory<T> {
                                                                                DataTracer dataTracer) {
     // 'aggregator.groups' is the number of groups output by the aggregator
     return new TrackedTransform<>(transform, stageMetrics, "aggregator.groups", TrackedTransform.RECORDS_OUT,
-                                  dataTracer);
+                                  dataTracer, METRICS_FLUSH_INTERVAL_MILLIS);
   }
 
   protected static <IN, OUT> TrackedTransform<IN, OUT> getTrackedMergeStep(Transformation<IN, OUT> transform,
                                                                            StageMetrics stageMetrics,
                                                                            DataTracer dataTracer) {
-    return new TrackedTransform<>(transform, stageMetrics, null, TrackedTransform.RECORDS_OUT, dataTracer);
+    return new TrackedTransform<>(transform, stageMetrics, null, TrackedTransform.RECORDS_OUT, dataTracer,
+                                  METRICS_FLUSH_INTERVAL_MILLIS);
   }
 }
@@ -37,6 +37,7 @@ import co.cask.cdap.etl.api.batch.BatchSourceContext;
 import co.cask.cdap.etl.batch.BatchPhaseSpec;
 import co.cask.cdap.etl.batch.LoggedBatchConfigurable;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
+import co.cask.cdap.etl.batch.StructuredRecordWritable;
 import co.cask.cdap.etl.batch.conversion.WritableConversion;
 import co.cask.cdap.etl.batch.conversion.WritableConversions;
 import co.cask.cdap.etl.common.CompositeFinisher;
@@ -70,6 +71,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
@@ -84,8 +86,10 @@ public class ETLMapReduce extends AbstractMapReduce {
   static final String SINK_OUTPUTS_KEY = "cdap.etl.sink.outputs";
   static final String MAP_KEY_CLASS = "cdap.etl.map.key.class";
   static final String MAP_VAL_CLASS = "cdap.etl.map.val.class";
+  static final String RECORD_SCHEMAS_KEY = "cdap.etl.record.schemas";
   static final Type RUNTIME_ARGS_TYPE = new TypeToken<Map<String, Map<String, String>>>() { }.getType();
   static final Type INPUT_ALIAS_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+  static final Type RECORD_SCHEMAS_TYPE = new TypeToken<Set<Schema>>() { }.getType();
   static final Type SINK_OUTPUTS_TYPE = new TypeToken<Map<String, SinkOutput>>() { }.getType();
   private static final Logger LOG = LoggerFactory.getLogger(ETLMapReduce.class);
   private static final Gson GSON = new GsonBuilder()
@@ -181,7 +185,7 @@ public class ETLMapReduce extends AbstractMapReduce {
       batchSource = new LoggedBatchConfigurable<>(sourceName, batchSource);
       StageInfo stageInfo = phaseSpec.getPhase().getStage(sourceName);
       MapReduceSourceContext sourceContext = new MapReduceSourceContext(context, mrMetrics,
-                                                                        new DatasetContextLookupProvider(context),
+                                                                        createLookupProvider(context, stageInfo),
                                                                         context.getRuntimeArguments(), stageInfo);
       batchSource.prepareRun(sourceContext);
       runtimeArgs.put(sourceName, sourceContext.getRuntimeArguments());
@@ -204,7 +208,7 @@ public class ETLMapReduce extends AbstractMapReduce {
       BatchConfigurable<BatchSinkContext> batchSink = pluginInstantiator.newPluginInstance(sinkName, evaluator);
       batchSink = new LoggedBatchConfigurable<>(sinkName, batchSink);
       MapReduceSinkContext sinkContext = new MapReduceSinkContext(context, mrMetrics,
-                                                                  new DatasetContextLookupProvider(context),
+                                                                  createLookupProvider(context, stageInfo),
                                                                   context.getRuntimeArguments(), stageInfo);
       batchSink.prepareRun(sinkContext);
       runtimeArgs.put(sinkName, sinkContext.getRuntimeArguments());
@@ -239,7 +243,7 @@ public class ETLMapReduce extends AbstractMapReduce {
       if (!phaseSpec.getPhase().getStagesOfType(BatchAggregator.PLUGIN_TYPE).isEmpty()) {
         BatchAggregator aggregator = pluginInstantiator.newPluginInstance(reducerName, evaluator);
         MapReduceAggregatorContext aggregatorContext =
-          new MapReduceAggregatorContext(context, mrMetrics, new DatasetContextLookupProvider(context),
+          new MapReduceAggregatorContext(context, mrMetrics, createLookupProvider(context, stageInfo),
                                          context.getRuntimeArguments(), stageInfo);
         aggregator.prepareRun(aggregatorContext);
         finishers.add(aggregator, aggregatorContext);
@@ -258,12 +262,12 @@ public class ETLMapReduce extends AbstractMapReduce {
         }
         hConf.set(MAP_KEY_CLASS, outputKeyClass.getName());
         hConf.set(MAP_VAL_CLASS, outputValClass.getName());
-        job.setMapOutputKeyClass(getOutputKeyClass(reducerName, outputKeyClass));
+        setMapOutputKeyClass(job, getOutputKeyClass(reducerName, outputKeyClass));
         job.setMapOutputValueClass(getOutputValClass(reducerName, outputValClass));
       } else { // reducer type is joiner
         BatchJoiner batchJoiner = pluginInstantiator.newPluginInstance(reducerName, evaluator);
         MapReduceJoinerContext joinerContext =
-          new MapReduceJoinerContext(context, mrMetrics, new DatasetContextLookupProvider(context),
+          new MapReduceJoinerContext(context, mrMetrics, createLookupProvider(context, stageInfo),
                                      context.getRuntimeArguments(), stageInfo);
         batchJoiner.prepareRun(joinerContext);
         finishers.add(batchJoiner, joinerContext);
@@ -282,11 +286,12 @@ public class ETLMapReduce extends AbstractMapReduce {
         }
         hConf.set(MAP_KEY_CLASS, outputKeyClass.getName());
         hConf.set(MAP_VAL_CLASS, inputRecordClass.getName());
-        job.setMapOutputKeyClass(getOutputKeyClass(reducerName, outputKeyClass));
+        setMapOutputKeyClass(job, getOutputKeyClass(reducerName, outputKeyClass));
         getOutputValClass(reducerName, inputRecordClass);
         // for joiner plugin map output is tagged with stageName
         job.setMapOutputValueClass(TaggedWritable.class);
       }
+      hConf.set(RECORD_SCHEMAS_KEY, GSON.toJson(getRecordSchemas(phase), RECORD_SCHEMAS_TYPE));
     } else {
       job.setNumReduceTasks(0);
     }
@@ -294,6 +299,38 @@ public class ETLMapReduce extends AbstractMapReduce {
     hConf.set(RUNTIME_ARGS_KEY, GSON.toJson(runtimeArgs));
   }
 
+  private DatasetContextLookupProvider createLookupProvider(MapReduceContext context, StageInfo stageInfo) {
+    return new DatasetContextLookupProvider(context, context, mrMetrics, stageInfo);
+  }
+
+  /**
+   * Returns the record schemas of the stages of the given phase, which are registered by all the tasks so that
+   * the records of these schemas are shuffled without their schema json.
+   */
+  private Set<Schema> getRecordSchemas(PipelinePhase phase) {
+    Set<Schema> schemas = new HashSet<>();
+    for (StageInfo stageInfo : phase) {
+      for (Schema schema : stageInfo.getInputSchemas().values()) {
+        if (schema != null && schema.getType() == Schema.Type.RECORD) {
+          schemas.add(schema);
+        }
+      }
+      Schema outputSchema = stageInfo.getOutputSchema();
+      if (outputSchema != null && outputSchema.getType() == Schema.Type.RECORD) {
+        schemas.add(outputSchema);
+      }
+    }
+    return schemas;
+  }
+
+  private void setMapOutputKeyClass(Job job, Class<?> keyClass) {
+    job.setMapOutputKeyClass(keyClass);
+    // sort and group the records on their serialized bytes, instead of deserializing them for every comparison
+    if (StructuredRecordWritable.class.equals(keyClass)) {
+      job.setSortComparatorClass(StructuredRecordWritable.Comparator.class);
+    }
+  }
+
   private Class<?> getOutputKeyClass(String reducerName, Class<?> outputKeyClass) {
     // in case the classes are not a WritableComparable, but is some common type we support
     // for example, a String or a StructuredRecord
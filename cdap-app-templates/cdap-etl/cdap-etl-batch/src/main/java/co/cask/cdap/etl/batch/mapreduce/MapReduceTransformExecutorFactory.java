@@ -90,7 +90,8 @@ public class MapReduceTransformExecutorFactory<T> extends TransformExecutorFacto
     if (stageRuntimeArgs == null) {
       stageRuntimeArgs = new HashMap<>();
     }
-    return new MapReduceRuntimeContext(taskContext, metrics, new DatasetContextLookupProvider(taskContext),
+    return new MapReduceRuntimeContext(taskContext, metrics,
+                                       new DatasetContextLookupProvider(taskContext, taskContext, metrics, stageInfo),
                                        stageRuntimeArgs, stageInfo);
   }
 
@@ -140,7 +141,8 @@ public class MapReduceTransformExecutorFactory<T> extends TransformExecutorFacto
       taskContext.getDataTracer(stageName).isEnabled() && BatchSource.PLUGIN_TYPE.equals(pluginType) && isMapPhase;
     return new TrackedTransform(
       isLimitingSource ? new LimitingTransform(transformation, numberOfRecordsPreview) : transformation,
-      stageMetrics, taskContext.getDataTracer(stageName));
+      stageMetrics, TrackedTransform.RECORDS_IN, TrackedTransform.RECORDS_OUT, taskContext.getDataTracer(stageName),
+      METRICS_FLUSH_INTERVAL_MILLIS);
   }
 
   /**
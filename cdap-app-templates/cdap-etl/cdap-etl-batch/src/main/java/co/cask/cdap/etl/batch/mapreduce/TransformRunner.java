@@ -26,6 +26,7 @@ import co.cask.cdap.etl.api.batch.BatchAggregator;
 import co.cask.cdap.etl.api.batch.BatchJoiner;
 import co.cask.cdap.etl.batch.BatchPhaseSpec;
 import co.cask.cdap.etl.batch.PipelinePluginInstantiator;
+import co.cask.cdap.etl.batch.StructuredRecordBinarySerializer;
 import co.cask.cdap.etl.batch.TransformExecutorFactory;
 import co.cask.cdap.etl.common.Constants;
 import co.cask.cdap.etl.common.Destroyables;
@@ -41,6 +42,7 @@ import com.google.gson.GsonBuilder;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.twill.common.Cancellable;
 
 import java.util.HashMap;
 import java.util.HashSet;
@@ -63,6 +65,7 @@ public class TransformRunner<KEY, VALUE> {
   private final Map<String, ErrorOutputWriter<Object, Object>> transformErrorSinkMap;
   private final PipeTransformExecutor<KeyValue<KEY, VALUE>> transformExecutor;
   private final OutputWriter<Object, Object> outputWriter;
+  private final Cancellable schemaRegistration;
 
   public TransformRunner(MapReduceTaskContext<Object, Object> context,
                          Metrics metrics) throws Exception {
@@ -113,6 +116,13 @@ public class TransformRunner<KEY, VALUE> {
       new MapReduceTransformExecutorFactory<>(context, pluginInstantiator, metrics, runtimeArgs, sourceStage,
                                               phaseSpec.getNumOfRecordsPreview());
     this.transformExecutor = transformExecutorFactory.create(phase, outputWriter, transformErrorSinkMap);
+
+    // register the record schemas known when the job was prepared, before any record is shuffled.
+    // The registration is cancelled when this runner is destroyed.
+    String recordSchemas = hConf.get(ETLMapReduce.RECORD_SCHEMAS_KEY);
+    Set<Schema> schemas = recordSchemas == null
+      ? ImmutableSet.<Schema>of() : GSON.<Set<Schema>>fromJson(recordSchemas, ETLMapReduce.RECORD_SCHEMAS_TYPE);
+    this.schemaRegistration = StructuredRecordBinarySerializer.registerSchemas(schemas);
   }
 
   // this is needed because we need to write to the context differently depending on the number of outputs
@@ -160,5 +170,6 @@ public class TransformRunner<KEY, VALUE> {
 
   public void destroy() {
     Destroyables.destroyQuietly(transformExecutor);
+    schemaRegistration.cancel();
   }
 }
@@ -0,0 +1,308 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.format.StructuredRecordStringConverter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.twill.common.Cancellable;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link StructuredRecordBinarySerializer}.
+ */
+public class StructuredRecordBinarySerializerTest {
+
+  private static final Schema INNER_SCHEMA = Schema.recordOf(
+    "inner",
+    Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "rec",
+    Schema.Field.of("boolean", Schema.of(Schema.Type.BOOLEAN)),
+    Schema.Field.of("int", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("long", Schema.of(Schema.Type.LONG)),
+    Schema.Field.of("float", Schema.of(Schema.Type.FLOAT)),
+    Schema.Field.of("double", Schema.of(Schema.Type.DOUBLE)),
+    Schema.Field.of("string", Schema.of(Schema.Type.STRING)),
+    Schema.Field.of("bytes", Schema.of(Schema.Type.BYTES)),
+    Schema.Field.of("enum", Schema.enumWith("a", "b", "c")),
+    Schema.Field.of("array", Schema.arrayOf(Schema.of(Schema.Type.INT))),
+    Schema.Field.of("map", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.LONG))),
+    Schema.Field.of("record", INNER_SCHEMA),
+    Schema.Field.of("nullable", Schema.nullableOf(Schema.of(Schema.Type.INT))),
+    Schema.Field.of("union", Schema.unionOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.LONG))));
+
+  @Test
+  public void testAllTypes() throws IOException {
+    StructuredRecord record = StructuredRecord.builder(SCHEMA)
+      .set("boolean", true)
+      .set("int", -5)
+      .set("long", Long.MIN_VALUE)
+      .set("float", 3.5f)
+      .set("double", -1.25d)
+      .set("string", "идыло")
+      .set("bytes", new byte[] {1, 2, 3})
+      .set("enum", "b")
+      .set("array", ImmutableList.of(1, Integer.MAX_VALUE, Integer.MIN_VALUE))
+      .set("map", ImmutableMap.of("k1", 1L, "k2", -2L))
+      .set("record", StructuredRecord.builder(INNER_SCHEMA).set("id", 7L).build())
+      .set("union", 10L)
+      .build();
+
+    StructuredRecord result = roundTrip(record);
+    Assert.assertEquals(SCHEMA, result.getSchema());
+    for (String field : ImmutableList.of("boolean", "int", "long", "float", "double", "string", "enum", "array",
+                                         "map", "record", "nullable", "union")) {
+      Assert.assertEquals(field, record.get(field), result.get(field));
+    }
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, (byte[]) result.get("bytes"));
+    Assert.assertNull(((StructuredRecord) result.get("record")).get("name"));
+
+    // arrays, ByteBuffers and other union types
+    record = StructuredRecord.builder(SCHEMA)
+      .set("boolean", false)
+      .set("int", 0)
+      .set("long", 0L)
+      .set("float", 0f)
+      .set("double", 0d)
+      .set("string", "")
+      .set("bytes", ByteBuffer.wrap(new byte[] {0, 1, 2, 3}, 1, 2))
+      .set("enum", "c")
+      .set("array", new int[] {4, 5})
+      .set("map", ImmutableMap.of())
+      .set("record", StructuredRecord.builder(INNER_SCHEMA).set("id", 7L).set("name", "x").build())
+      .set("nullable", 1)
+      .set("union", "str")
+      .build();
+
+    result = roundTrip(record);
+    Assert.assertArrayEquals(new byte[] {1, 2}, (byte[]) result.get("bytes"));
+    Assert.assertEquals(ImmutableList.of(4, 5), result.get("array"));
+    Assert.assertEquals(ImmutableMap.of(), result.get("map"));
+    Assert.assertEquals(record.get("record"), result.get("record"));
+    Assert.assertEquals(1, result.get("nullable"));
+    Assert.assertEquals("str", result.get("union"));
+  }
+
+  @Test
+  public void testMultipleSchemas() throws IOException {
+    Schema schema1 = Schema.recordOf("rec", Schema.Field.of("x", Schema.of(Schema.Type.STRING)));
+    Schema schema2 = Schema.recordOf("rec", Schema.Field.of("y", Schema.of(Schema.Type.INT)));
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    DataOutput output = new DataOutputStream(os);
+    List<StructuredRecord> records = ImmutableList.of(
+      StructuredRecord.builder(schema1).set("x", "1").build(),
+      StructuredRecord.builder(schema2).set("y", 2).build(),
+      StructuredRecord.builder(schema1).set("x", "3").build());
+    for (StructuredRecord record : records) {
+      StructuredRecordBinarySerializer.write(output, record);
+    }
+
+    DataInput input = new DataInputStream(new ByteArrayInputStream(os.toByteArray()));
+    for (StructuredRecord record : records) {
+      Assert.assertEquals(record, StructuredRecordBinarySerializer.read(input));
+    }
+  }
+
+  @Test
+  public void testRegisteredSchemas() throws IOException {
+    Schema registered = Schema.recordOf("registered", Schema.Field.of("x", Schema.of(Schema.Type.STRING)));
+    Schema inline = Schema.recordOf("inline", Schema.Field.of("x", Schema.of(Schema.Type.STRING)));
+    StructuredRecord inlineRecord = StructuredRecord.builder(inline).set("x", "1").build();
+    byte[] inlineBytes = toBytes(StructuredRecord.builder(registered).set("x", "1").build());
+
+    Cancellable registration = StructuredRecordBinarySerializer.registerSchemas(ImmutableList.of(registered));
+    StructuredRecord record = StructuredRecord.builder(registered).set("x", "1").build();
+    byte[] bytes = toBytes(record);
+    // the schema hash, the schema type and the string value
+    Assert.assertEquals(16 + 1 + 2, bytes.length);
+    Assert.assertEquals(record, fromBytes(bytes));
+    Assert.assertEquals(inlineRecord, roundTrip(inlineRecord));
+
+    // records written before the schema is registered are still readable and equal to the ones written after
+    Assert.assertTrue(inlineBytes.length > bytes.length);
+    Assert.assertEquals(record, fromBytes(inlineBytes));
+    Assert.assertEquals(0, StructuredRecordBinarySerializer.compare(bytes, 0, bytes.length,
+                                                                    inlineBytes, 0, inlineBytes.length));
+    byte[] otherBytes = toBytes(StructuredRecord.builder(registered).set("x", "2").build());
+    Assert.assertTrue(StructuredRecordBinarySerializer.compare(bytes, 0, bytes.length,
+                                                               otherBytes, 0, otherBytes.length) < 0);
+    Assert.assertTrue(StructuredRecordBinarySerializer.compare(otherBytes, 0, otherBytes.length,
+                                                               inlineBytes, 0, inlineBytes.length) > 0);
+    registration.cancel();
+  }
+
+  @Test
+  public void testCancelRegistration() throws IOException {
+    Schema schema = Schema.recordOf("cancelled", Schema.Field.of("x", Schema.of(Schema.Type.STRING)));
+    StructuredRecord record = StructuredRecord.builder(schema).set("x", "1").build();
+    Cancellable registration1 = StructuredRecordBinarySerializer.registerSchemas(ImmutableList.of(schema, schema));
+    Cancellable registration2 = StructuredRecordBinarySerializer.registerSchemas(ImmutableList.of(schema));
+    byte[] bytes = toBytes(record);
+    Assert.assertEquals(16 + 1 + 2, bytes.length);
+
+    // the schema stays registered until all its registrations are cancelled, and cancelling twice has no effect
+    registration1.cancel();
+    registration1.cancel();
+    Assert.assertArrayEquals(bytes, toBytes(record));
+    registration2.cancel();
+
+    // once all registrations are cancelled, the schema json is written with the records again
+    byte[] inlineBytes = toBytes(record);
+    Assert.assertTrue(inlineBytes.length > bytes.length);
+    Assert.assertEquals(record, fromBytes(inlineBytes));
+    try {
+      fromBytes(bytes);
+      Assert.fail("Expected the schema to be unregistered");
+    } catch (IOException e) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testSkipSchema() throws IOException {
+    Schema schema = Schema.recordOf("skipped", Schema.Field.of("x", Schema.of(Schema.Type.INT)));
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    DataOutput output = new DataOutputStream(os);
+    StructuredRecordBinarySerializer.write(output, StructuredRecord.builder(schema).set("x", 1).build());
+    StructuredRecordBinarySerializer.write(output, StructuredRecord.builder(schema).set("x", 2).build());
+
+    // the schema json of the second record is skipped, by a stream that does not skip any bytes
+    DataInput input = new DataInputStream(new FilterInputStream(new ByteArrayInputStream(os.toByteArray())) {
+      @Override
+      public long skip(long n) {
+        return 0;
+      }
+    });
+    Assert.assertEquals(1, StructuredRecordBinarySerializer.read(input).get("x"));
+    Assert.assertEquals(2, StructuredRecordBinarySerializer.read(input).get("x"));
+  }
+
+  /**
+   * Compares the size and the speed of the binary serialization with the json serialization that was used before.
+   */
+  @Ignore
+  @Test
+  public void testSpeed() throws IOException {
+    Schema schema = Schema.recordOf(
+      "event",
+      Schema.Field.of("id", Schema.of(Schema.Type.LONG)),
+      Schema.Field.of("user", Schema.of(Schema.Type.STRING)),
+      Schema.Field.of("count", Schema.of(Schema.Type.INT)),
+      Schema.Field.of("price", Schema.of(Schema.Type.DOUBLE)),
+      Schema.Field.of("tags", Schema.arrayOf(Schema.of(Schema.Type.STRING))),
+      Schema.Field.of("note", Schema.nullableOf(Schema.of(Schema.Type.STRING))));
+    int count = 200000;
+    StructuredRecord[] records = new StructuredRecord[1000];
+    for (int i = 0; i < records.length; i++) {
+      records[i] = StructuredRecord.builder(schema)
+        .set("id", 1000000L + i)
+        .set("user", "user" + i)
+        .set("count", i % 100)
+        .set("price", i * 0.25d)
+        .set("tags", ImmutableList.of("tag" + (i % 10), "tag" + (i % 7)))
+        .build();
+    }
+
+    StructuredRecordBinarySerializer.registerSchemas(ImmutableList.of(schema));
+    for (boolean binary : new boolean[] {false, true, false, true}) {
+      ByteArrayOutputStream os = new ByteArrayOutputStream();
+      DataOutput output = new DataOutputStream(os);
+      long startTime = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        if (binary) {
+          StructuredRecordBinarySerializer.write(output, records[i % records.length]);
+        } else {
+          writeJson(output, records[i % records.length]);
+        }
+      }
+      long writeTime = System.nanoTime() - startTime;
+
+      DataInput input = new DataInputStream(new ByteArrayInputStream(os.toByteArray()));
+      startTime = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        if (binary) {
+          StructuredRecordBinarySerializer.read(input);
+        } else {
+          readJson(input);
+        }
+      }
+      long readTime = System.nanoTime() - startTime;
+
+      System.out.printf("%s: %d bytes/record, write %d records/sec, read %d records/sec%n",
+                        binary ? "binary" : "json", os.size() / count,
+                        count * 1000000000L / writeTime, count * 1000000000L / readTime);
+    }
+  }
+
+  private StructuredRecord roundTrip(StructuredRecord record) throws IOException {
+    return fromBytes(toBytes(record));
+  }
+
+  private byte[] toBytes(StructuredRecord record) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    StructuredRecordBinarySerializer.write(new DataOutputStream(os), record);
+    return os.toByteArray();
+  }
+
+  private StructuredRecord fromBytes(byte[] bytes) throws IOException {
+    return StructuredRecordBinarySerializer.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+  }
+
+  /**
+   * The json serialization of {@link StructuredRecordWritable} before the binary serialization.
+   */
+  private void writeJson(DataOutput out, StructuredRecord record) throws IOException {
+    byte[] schemaBytes = Bytes.toBytes(record.getSchema().toString());
+    out.writeInt(schemaBytes.length);
+    out.write(schemaBytes);
+
+    byte[] recordBytes = Bytes.toBytes(StructuredRecordStringConverter.toJsonString(record));
+    out.writeInt(recordBytes.length);
+    out.write(recordBytes);
+  }
+
+  private StructuredRecord readJson(DataInput in) throws IOException {
+    byte[] schemaBytes = new byte[in.readInt()];
+    in.readFully(schemaBytes);
+    Schema schema = Schema.parseJson(Bytes.toString(schemaBytes));
+
+    byte[] recordBytes = new byte[in.readInt()];
+    in.readFully(recordBytes);
+    return StructuredRecordStringConverter.fromJsonString(Bytes.toString(recordBytes), schema);
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.batch;
+
+import co.cask.cdap.api.data.format.StructuredRecord;
+import co.cask.cdap.api.data.schema.Schema;
+import com.google.common.collect.ImmutableMap;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests for the {@link StructuredRecordWritable.Comparator}.
+ */
+public class StructuredRecordWritableTest {
+
+  private static final Schema SCHEMA = Schema.recordOf(
+    "key",
+    Schema.Field.of("id", Schema.of(Schema.Type.INT)),
+    Schema.Field.of("name", Schema.nullableOf(Schema.of(Schema.Type.STRING))),
+    Schema.Field.of("attrs", Schema.mapOf(Schema.of(Schema.Type.STRING), Schema.of(Schema.Type.STRING))));
+
+  @Test
+  public void testComparator() throws IOException {
+    RawComparator comparator = WritableComparator.get(StructuredRecordWritable.class);
+    Assert.assertTrue(comparator instanceof StructuredRecordWritable.Comparator);
+
+    Map<String, String> attrs = new LinkedHashMap<>();
+    attrs.put("a", "1");
+    attrs.put("b", "2");
+    Map<String, String> reversedAttrs = new LinkedHashMap<>();
+    reversedAttrs.put("b", "2");
+    reversedAttrs.put("a", "1");
+
+    // equal records compare equal, regardless of the iteration order of their maps
+    StructuredRecordWritable key1 = createKey(1, "x", attrs);
+    assertCompare(0, comparator, key1, createKey(1, "x", reversedAttrs));
+
+    // different records don't compare equal, and the order is antisymmetric
+    assertCompare(-1, comparator, key1, createKey(2, "x", attrs));
+    assertCompare(1, comparator, createKey(1, null, attrs), key1);
+    assertCompare(1, comparator, key1, createKey(1, "x", ImmutableMap.of("a", "1")));
+
+    // records of different schemas don't compare equal
+    Schema otherSchema = Schema.recordOf("key", Schema.Field.of("id", Schema.of(Schema.Type.INT)));
+    StructuredRecordWritable otherKey =
+      new StructuredRecordWritable(StructuredRecord.builder(otherSchema).set("id", 1).build());
+    Assert.assertNotEquals(0, compare(comparator, key1, otherKey));
+    Assert.assertEquals(-compare(comparator, key1, otherKey), compare(comparator, otherKey, key1));
+  }
+
+  @Test
+  public void testCompareToAfterUpdate() throws IOException {
+    Map<String, String> attrs = ImmutableMap.of("a", "1");
+    StructuredRecordWritable key = createKey(2, "x", attrs);
+    StructuredRecordWritable other = createKey(3, "x", attrs);
+    Assert.assertTrue(key.compareTo(other) < 0);
+    Assert.assertTrue(key.compareTo(other) < 0);
+
+    // the comparison reflects the records that are set or read after the previous comparisons
+    key.set(createKey(4, "x", attrs).get());
+    Assert.assertTrue(key.compareTo(other) > 0);
+    Assert.assertTrue(other.compareTo(key) < 0);
+
+    byte[] bytes = WritableUtils.toByteArray(createKey(1, "x", attrs));
+    DataInputBuffer input = new DataInputBuffer();
+    input.reset(bytes, bytes.length);
+    key.readFields(input);
+    Assert.assertTrue(key.compareTo(other) < 0);
+    Assert.assertTrue(other.compareTo(key) > 0);
+    Assert.assertEquals(0, key.compareTo(createKey(1, "x", attrs)));
+  }
+
+  /**
+   * Compares the time to sort serialized keys with the raw comparator and with a comparator that deserializes
+   * the keys, which is what Hadoop does for keys that have no raw comparator.
+   */
+  @Ignore
+  @Test
+  public void testSortSpeed() throws IOException {
+    int count = 200000;
+    final byte[][] keys = new byte[count][];
+    for (int i = 0; i < count; i++) {
+      keys[i] = WritableUtils.toByteArray(createKey(i % 5000, "name" + (i % 100), ImmutableMap.of("k", "v" + i % 3)));
+    }
+
+    final RawComparator rawComparator = new StructuredRecordWritable.Comparator();
+    final RawComparator deserializingComparator = new WritableComparator(StructuredRecordWritable.class, true) {
+      @Override
+      public int compare(Object a, Object b) {
+        return Integer.compare(a.hashCode(), b.hashCode());
+      }
+    };
+
+    for (int i = 0; i < 4; i++) {
+      final RawComparator comparator = i % 2 == 0 ? deserializingComparator : rawComparator;
+      byte[][] sorted = Arrays.copyOf(keys, keys.length);
+      long startTime = System.nanoTime();
+      Arrays.sort(sorted, new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] b1, byte[] b2) {
+          return comparator.compare(b1, 0, b1.length, b2, 0, b2.length);
+        }
+      });
+      System.out.printf("%s: sorted %d keys in %d ms%n", comparator == rawComparator ? "raw" : "deserializing",
+                        count, (System.nanoTime() - startTime) / 1000000);
+    }
+  }
+
+  private StructuredRecordWritable createKey(int id, String name, Map<String, String> attrs) {
+    return new StructuredRecordWritable(StructuredRecord.builder(SCHEMA)
+                                          .set("id", id)
+                                          .set("name", name)
+                                          .set("attrs", attrs)
+                                          .build());
+  }
+
+  /**
+   * Asserts the sign of the comparison of the given keys, with both the raw comparator and
+   * {@link StructuredRecordWritable#compareTo}, in both directions.
+   */
+  private void assertCompare(int expected, RawComparator comparator,
+                             StructuredRecordWritable key1, StructuredRecordWritable key2) throws IOException {
+    Assert.assertEquals(expected, Integer.signum(compare(comparator, key1, key2)));
+    Assert.assertEquals(-expected, Integer.signum(compare(comparator, key2, key1)));
+    Assert.assertEquals(expected, Integer.signum(key1.compareTo(key2)));
+
+    // the keys are deserialized to equal records
+    StructuredRecordWritable deserialized = new StructuredRecordWritable();
+    byte[] bytes = WritableUtils.toByteArray(key1);
+    DataInputBuffer input = new DataInputBuffer();
+    input.reset(bytes, bytes.length);
+    deserialized.readFields(input);
+    Assert.assertEquals(key1, deserialized);
+  }
+
+  private int compare(RawComparator comparator, StructuredRecordWritable key1, StructuredRecordWritable key2) {
+    byte[] bytes1 = WritableUtils.toByteArray(key1);
+    byte[] bytes2 = WritableUtils.toByteArray(key2);
+    return comparator.compare(bytes1, 0, bytes1.length, bytes2, 0, bytes2.length);
+  }
+}
@@ -19,18 +19,108 @@ package co.cask.cdap.etl.common;
 import co.cask.cdap.api.dataset.Dataset;
 import co.cask.cdap.api.dataset.lib.KeyValueTable;
 import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.plugin.PluginContext;
+import co.cask.cdap.etl.api.CacheConfig;
 import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.LookupConfig;
 import co.cask.cdap.etl.api.LookupProvider;
+import co.cask.cdap.etl.api.LookupTableConfig;
+import co.cask.cdap.etl.api.StageMetrics;
 import co.cask.cdap.etl.api.lookup.KeyValueTableLookup;
 import co.cask.cdap.etl.api.lookup.TableLookup;
+import co.cask.cdap.etl.planner.StageInfo;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nullable;
 
 /**
- * {@link Lookup} that provides common functionality.
+ * {@link Lookup} that provides common functionality. If a {@link LookupConfig} is given, the lookups of tables
+ * that have caching enabled are cached in a {@link CachingLookup}. The cache of a table is shared by all the
+ * lookups provided for it. The {@link LookupConfig} of a stage is the json value of its {@link #LOOKUP_PROPERTY}
+ * plugin property. The property name is namespaced, so that it doesn't clash with the properties of the plugins.
  */
 public abstract class AbstractLookupProvider implements LookupProvider {
 
+  public static final String LOOKUP_PROPERTY = "cdap.etl.lookup";
+  private static final Logger LOG = LoggerFactory.getLogger(AbstractLookupProvider.class);
+  private static final Gson GSON = new Gson();
+
+  private final LookupConfig lookupConfig;
+  private final StageMetrics metrics;
+  private final ConcurrentMap<String, Cache<String, Optional<Object>>> caches;
+
+  protected AbstractLookupProvider() {
+    this(null, NoopMetrics.INSTANCE);
+  }
+
+  /**
+   * @param pluginContext the context to read the lookup configuration of the stage from
+   * @param metrics the metrics of the program, for emitting the cache hits and misses of the stage
+   * @param stageInfo the stage that the lookups are provided for
+   */
+  protected AbstractLookupProvider(PluginContext pluginContext, Metrics metrics, StageInfo stageInfo) {
+    this(getLookupConfig(pluginContext, stageInfo), new DefaultStageMetrics(metrics, stageInfo.getName()));
+  }
+
+  /**
+   * @param lookupConfig the lookup configuration of the stage, or {@code null} if no lookup is cached
+   * @param metrics the metrics of the stage, for emitting the cache hits and misses
+   */
+  protected AbstractLookupProvider(@Nullable LookupConfig lookupConfig, StageMetrics metrics) {
+    this.lookupConfig = lookupConfig;
+    this.metrics = metrics;
+    this.caches = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the given {@link Lookup} wrapped in a {@link CachingLookup} if caching is enabled for the table,
+   * or the given {@link Lookup} otherwise.
+   */
+  @SuppressWarnings("unchecked")
+  protected <T> Lookup<T> cached(String table, Lookup<T> lookup) {
+    LookupTableConfig tableConfig = lookupConfig == null ? null : lookupConfig.getTable(table);
+    if (tableConfig == null || !tableConfig.isCacheEnabled()) {
+      return lookup;
+    }
+
+    CacheConfig cacheConfig = tableConfig.getCacheConfig() == null ? new CacheConfig() : tableConfig.getCacheConfig();
+    Cache<String, Optional<Object>> cache = caches.get(table);
+    if (cache == null) {
+      cache = CachingLookup.createCache(cacheConfig);
+      Cache<String, Optional<Object>> existing = caches.putIfAbsent(table, cache);
+      cache = existing == null ? cache : existing;
+    }
+    return new CachingLookup<>(lookup, (Cache<String, Optional<T>>) (Cache) cache,
+                               cacheConfig.isCacheMisses(), metrics);
+  }
+
+  @Nullable
+  private static LookupConfig getLookupConfig(PluginContext pluginContext, StageInfo stageInfo) {
+    // connectors are not plugins
+    if (Constants.CONNECTOR_TYPE.equals(stageInfo.getPluginType())) {
+      return null;
+    }
+    String lookup = pluginContext.getPluginProperties(stageInfo.getName()).getProperties().get(LOOKUP_PROPERTY);
+    if (lookup == null) {
+      return null;
+    }
+    try {
+      return GSON.fromJson(lookup, LookupConfig.class);
+    } catch (JsonParseException e) {
+      LOG.warn("Ignoring invalid value of property {} of stage {}. Lookups of the stage will not be cached.",
+               LOOKUP_PROPERTY, stageInfo.getName(), e);
+      return null;
+    }
+  }
+
   @SuppressWarnings("unchecked")
   protected <T> Lookup<T> getLookup(String table, @Nullable Dataset dataset) {
     if (dataset == null) {
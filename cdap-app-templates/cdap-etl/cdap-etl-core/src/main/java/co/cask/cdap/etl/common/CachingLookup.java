@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.etl.api.CacheConfig;
+import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.StageMetrics;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Lookup} that caches the values returned by another {@link Lookup}. Lookups of keys that have no value
+ * are only cached if {@link CacheConfig#isCacheMisses()} is set. Cache hits and misses are counted in the
+ * {@link #CACHE_HITS} and {@link #CACHE_MISSES} stage metrics.
+ *
+ * @param <T> the type of object that will be returned for a lookup
+ */
+public class CachingLookup<T> implements Lookup<T> {
+
+  public static final String CACHE_HITS = "lookup.cache.hits";
+  public static final String CACHE_MISSES = "lookup.cache.misses";
+
+  private final Lookup<T> delegate;
+  private final Cache<String, Optional<T>> cache;
+  private final boolean cacheMisses;
+  private final StageMetrics metrics;
+
+  public CachingLookup(Lookup<T> delegate, Cache<String, Optional<T>> cache,
+                       boolean cacheMisses, StageMetrics metrics) {
+    this.delegate = delegate;
+    this.cache = cache;
+    this.cacheMisses = cacheMisses;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Creates a cache for a {@link CachingLookup} as configured by the given {@link CacheConfig}. The cache is
+   * only bounded in size and expires its entries if the corresponding settings are positive.
+   */
+  public static <T> Cache<String, Optional<T>> createCache(CacheConfig cacheConfig) {
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    if (cacheConfig.getMaxSize() > 0) {
+      builder.maximumSize(cacheConfig.getMaxSize());
+    }
+    if (cacheConfig.getExpirySeconds() > 0) {
+      builder.expireAfterWrite(cacheConfig.getExpirySeconds(), TimeUnit.SECONDS);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public T lookup(String key) {
+    Optional<T> cached = cache.getIfPresent(key);
+    if (cached != null) {
+      metrics.count(CACHE_HITS, 1);
+      return cached.orNull();
+    }
+
+    metrics.count(CACHE_MISSES, 1);
+    T value = delegate.lookup(key);
+    cacheValue(key, value);
+    return value;
+  }
+
+  @Override
+  public Map<String, T> lookup(String... keys) {
+    return lookup(ImmutableSet.copyOf(keys));
+  }
+
+  @Override
+  public Map<String, T> lookup(Set<String> keys) {
+    Map<String, Optional<T>> cached = cache.getAllPresent(keys);
+    Map<String, T> results = new HashMap<>();
+    for (Map.Entry<String, Optional<T>> entry : cached.entrySet()) {
+      if (entry.getValue().isPresent()) {
+        results.put(entry.getKey(), entry.getValue().get());
+      }
+    }
+    if (!cached.isEmpty()) {
+      metrics.count(CACHE_HITS, cached.size());
+    }
+    if (cached.size() == keys.size()) {
+      return results;
+    }
+
+    Set<String> missingKeys = Sets.difference(keys, cached.keySet()).immutableCopy();
+    metrics.count(CACHE_MISSES, missingKeys.size());
+    Map<String, T> values = delegate.lookup(missingKeys);
+    for (String key : missingKeys) {
+      T value = values.get(key);
+      cacheValue(key, value);
+      if (value != null) {
+        results.put(key, value);
+      }
+    }
+    return results;
+  }
+
+  private void cacheValue(String key, T value) {
+    if (value != null) {
+      cache.put(key, Optional.of(value));
+    } else if (cacheMisses) {
+      cache.put(key, Optional.<T>absent());
+    }
+  }
+}
@@ -16,9 +16,15 @@
 package co.cask.cdap.etl.common;
 
 import co.cask.cdap.api.data.DatasetContext;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.plugin.PluginContext;
 import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.LookupConfig;
+import co.cask.cdap.etl.api.StageMetrics;
+import co.cask.cdap.etl.planner.StageInfo;
 
 import java.util.Map;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of {@link AbstractLookupProvider} that uses {@link DatasetContext}.
@@ -33,8 +39,23 @@ public class DatasetContextLookupProvider extends AbstractLookupProvider {
     this.context = context;
   }
 
+  /**
+   * Creates a provider for the lookups of the given stage, which are cached as configured by its lookup property.
+   */
+  public DatasetContextLookupProvider(DatasetContext context, PluginContext pluginContext, Metrics metrics,
+                                      StageInfo stageInfo) {
+    super(pluginContext, metrics, stageInfo);
+    this.context = context;
+  }
+
+  public DatasetContextLookupProvider(DatasetContext context, @Nullable LookupConfig lookupConfig,
+                                      StageMetrics metrics) {
+    super(lookupConfig, metrics);
+    this.context = context;
+  }
+
   @Override
   public <T> Lookup<T> provide(String table, Map<String, String> arguments) {
-    return getLookup(table, context.getDataset(table, arguments));
+    return cached(table, this.<T>getLookup(table, context.getDataset(table, arguments)));
   }
 }
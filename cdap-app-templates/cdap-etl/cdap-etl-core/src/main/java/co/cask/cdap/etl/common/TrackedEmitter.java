@@ -22,28 +22,49 @@ import co.cask.cdap.etl.api.InvalidEntry;
 import co.cask.cdap.etl.api.StageMetrics;
 
 /**
- * Wrapper around another emitter that tracks how many records were emitted.
+ * Wrapper around another emitter that tracks how many records were emitted. The counts are emitted to the
+ * {@link StageMetrics} for every record, unless the emitter is created with metrics buffering, in which case
+ * they are only emitted by {@link #flushMetrics()}.
  *
  * @param <T> the type of object to emit
  */
 public class TrackedEmitter<T> implements Emitter<T> {
   private static final String RECORDS_ERROR = "records.error";
-  private final Emitter<T> delegate;
   private final StageMetrics stageMetrics;
   private final String emitMetricName;
   private final DataTracer dataTracer;
+  private final boolean bufferMetrics;
+  private Emitter<T> delegate;
+  private int emitted;
+  private int errors;
 
   public TrackedEmitter(Emitter<T> delegate, StageMetrics stageMetrics, String emitMetricName, DataTracer dataTracer) {
+    this(delegate, stageMetrics, emitMetricName, dataTracer, false);
+  }
+
+  TrackedEmitter(Emitter<T> delegate, StageMetrics stageMetrics, String emitMetricName, DataTracer dataTracer,
+                 boolean bufferMetrics) {
     this.delegate = delegate;
     this.stageMetrics = stageMetrics;
     this.emitMetricName = emitMetricName;
     this.dataTracer = dataTracer;
+    this.bufferMetrics = bufferMetrics;
+  }
+
+  /**
+   * Sets the emitter to delegate to, so that the same tracked emitter can be reused for every record.
+   */
+  void setDelegate(Emitter<T> delegate) {
+    this.delegate = delegate;
   }
 
   @Override
   public void emit(T value) {
     delegate.emit(value);
-    stageMetrics.count(emitMetricName, 1);
+    emitted++;
+    if (!bufferMetrics) {
+      flushMetrics();
+    }
     if (dataTracer.isEnabled()) {
       dataTracer.info(emitMetricName, value);
     }
@@ -52,9 +73,26 @@ public class TrackedEmitter<T> implements Emitter<T> {
   @Override
   public void emitError(InvalidEntry<T> value) {
     delegate.emitError(value);
-    stageMetrics.count(RECORDS_ERROR, 1);
+    errors++;
+    if (!bufferMetrics) {
+      flushMetrics();
+    }
     if (dataTracer.isEnabled()) {
       dataTracer.info(RECORDS_ERROR, value);
     }
   }
+
+  /**
+   * Emits the counts of the records emitted since the last flush to the {@link StageMetrics}.
+   */
+  public void flushMetrics() {
+    if (emitted > 0) {
+      stageMetrics.count(emitMetricName, emitted);
+      emitted = 0;
+    }
+    if (errors > 0) {
+      stageMetrics.count(RECORDS_ERROR, errors);
+      errors = 0;
+    }
+  }
 }
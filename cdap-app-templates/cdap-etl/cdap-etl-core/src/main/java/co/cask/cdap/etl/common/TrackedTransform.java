@@ -27,6 +27,10 @@ import javax.annotation.Nullable;
 /**
  * A {@link Transformation} that delegates transform operations while emitting metrics
  * around how many records were input into the transform and output by it.
+ * <p>
+ * The records are counted in local counters, which are emitted to the {@link StageMetrics} after every record,
+ * or, if a metrics flush interval is given, at most once per interval and when the transform is destroyed.
+ * </p>
  *
  * @param <IN> Type of input object
  * @param <OUT> Type of output object
@@ -37,8 +41,10 @@ public class TrackedTransform<IN, OUT> implements Transformation<IN, OUT>, Destr
   private final Transformation<IN, OUT> transform;
   private final StageMetrics metrics;
   private final String metricInName;
-  private final String metricOutName;
-  private final DataTracer dataTracer;
+  private final TrackedEmitter<OUT> trackedEmitter;
+  private final long metricsFlushIntervalMillis;
+  private int recordsIn;
+  private long nextMetricsFlushTime;
 
   public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics, DataTracer dataTracer) {
     this(transform, metrics, RECORDS_IN, RECORDS_OUT, dataTracer);
@@ -46,24 +52,64 @@ public class TrackedTransform<IN, OUT> implements Transformation<IN, OUT>, Destr
 
   public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics,
                           @Nullable String metricInName, @Nullable String metricOutName, DataTracer dataTracer) {
+    this(transform, metrics, metricInName, metricOutName, dataTracer, 0L);
+  }
+
+  /**
+   * @param metricsFlushIntervalMillis the minimum interval between two emissions of the record counts to the
+   *                                   {@link StageMetrics}, or 0 to emit them after every record.
+   *                                   If positive, the transform must be destroyed to emit the last counts.
+   */
+  public TrackedTransform(Transformation<IN, OUT> transform, StageMetrics metrics,
+                          @Nullable String metricInName, @Nullable String metricOutName, DataTracer dataTracer,
+                          long metricsFlushIntervalMillis) {
     this.transform = transform;
     this.metrics = metrics;
     this.metricInName = metricInName;
-    this.metricOutName = metricOutName;
-    this.dataTracer = dataTracer;
+    this.trackedEmitter = metricOutName == null ? null :
+      new TrackedEmitter<OUT>(null, metrics, metricOutName, dataTracer, true);
+    this.metricsFlushIntervalMillis = metricsFlushIntervalMillis;
   }
 
   @Override
   public void transform(IN input, Emitter<OUT> emitter) throws Exception {
     if (metricInName != null) {
-      metrics.count(metricInName, 1);
+      recordsIn++;
+    }
+    if (trackedEmitter == null) {
+      transform.transform(input, emitter);
+    } else {
+      trackedEmitter.setDelegate(emitter);
+      transform.transform(input, trackedEmitter);
+    }
+
+    if (metricsFlushIntervalMillis <= 0) {
+      flushMetrics();
+    } else {
+      long now = System.currentTimeMillis();
+      if (now >= nextMetricsFlushTime) {
+        flushMetrics();
+        nextMetricsFlushTime = now + metricsFlushIntervalMillis;
+      }
+    }
+  }
+
+  /**
+   * Emits the counts of the records input and output since the last flush to the {@link StageMetrics}.
+   */
+  public void flushMetrics() {
+    if (recordsIn > 0) {
+      metrics.count(metricInName, recordsIn);
+      recordsIn = 0;
+    }
+    if (trackedEmitter != null) {
+      trackedEmitter.flushMetrics();
     }
-    transform.transform(input, metricOutName == null ? emitter :
-      new TrackedEmitter<>(emitter, metrics, metricOutName, dataTracer));
   }
 
   @Override
   public void destroy() {
+    flushMetrics();
     if (transform instanceof Destroyable) {
       ((Destroyable) transform).destroy();
     }
@@ -18,7 +18,12 @@ package co.cask.cdap.etl.common;
 import co.cask.cdap.api.Transactional;
 import co.cask.cdap.api.TxRunnable;
 import co.cask.cdap.api.data.DatasetContext;
+import co.cask.cdap.api.metrics.Metrics;
+import co.cask.cdap.api.plugin.PluginContext;
 import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.LookupConfig;
+import co.cask.cdap.etl.api.StageMetrics;
+import co.cask.cdap.etl.planner.StageInfo;
 import com.google.common.base.Function;
 import org.apache.tephra.TransactionFailureException;
 
@@ -40,10 +45,23 @@ public class TxLookupProvider extends AbstractLookupProvider {
     this.tx = tx;
   }
 
+  /**
+   * Creates a provider for the lookups of the given stage, which are cached as configured by its lookup property.
+   */
+  public TxLookupProvider(Transactional tx, PluginContext pluginContext, Metrics metrics, StageInfo stageInfo) {
+    super(pluginContext, metrics, stageInfo);
+    this.tx = tx;
+  }
+
+  public TxLookupProvider(Transactional tx, @Nullable LookupConfig lookupConfig, StageMetrics metrics) {
+    super(lookupConfig, metrics);
+    this.tx = tx;
+  }
+
   @Override
   public <T> Lookup<T> provide(final String table, final Map<String, String> arguments) {
     //noinspection unchecked
-    return new Lookup<T>() {
+    return cached(table, new Lookup<T>() {
 
       @Override
       public T lookup(final String key) {
@@ -77,7 +95,7 @@ public class TxLookupProvider extends AbstractLookupProvider {
           }
         });
       }
-    };
+    });
   }
 
   @Nullable
@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.api.dataset.table.Get;
+import co.cask.cdap.api.dataset.table.Result;
+import co.cask.cdap.api.dataset.table.Row;
+import co.cask.cdap.api.dataset.table.Table;
+import co.cask.cdap.etl.api.CacheConfig;
+import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.lookup.BufferingLookup;
+import co.cask.cdap.etl.api.lookup.TableLookup;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Tests for {@link BufferingLookup} and the batched lookups of {@link TableLookup}.
+ */
+public class BufferingLookupTest {
+
+  @Test
+  public void testTableLookup() {
+    CountingTable table = new CountingTable(ImmutableMap.of("k1", "v1", "k2", "v2"));
+    TableLookup lookup = new TableLookup(table.getTable());
+
+    Assert.assertEquals("v1", getValue(lookup.lookup("k1")));
+    Assert.assertEquals(1, table.gets);
+
+    // the keys are read with a single multi-get, and keys without row are mapped to an empty row
+    Map<String, Row> rows = lookup.lookup(ImmutableSet.of("k2", "x", "k1"));
+    Assert.assertEquals(ImmutableList.of(3), table.batchSizes);
+    Assert.assertEquals(ImmutableSet.of("k1", "k2", "x"), rows.keySet());
+    Assert.assertEquals("v1", getValue(rows.get("k1")));
+    Assert.assertEquals("v2", getValue(rows.get("k2")));
+    Assert.assertTrue(rows.get("x").isEmpty());
+
+    Assert.assertEquals(ImmutableSet.of("k1", "k2"), lookup.lookup("k1", "k2").keySet());
+    Assert.assertEquals(ImmutableList.of(3, 2), table.batchSizes);
+    Assert.assertEquals(1, table.gets);
+  }
+
+  @Test
+  public void testBuffering() {
+    CountingTable table = new CountingTable(ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3"));
+    BufferingLookup<Row> lookup = new BufferingLookup<>(new TableLookup(table.getTable()));
+
+    // the first lookup of a buffered key looks up all the buffered keys, each key only once
+    lookup.buffer("k1");
+    lookup.buffer("k2");
+    lookup.buffer("k1");
+    Assert.assertTrue(table.batchSizes.isEmpty());
+    Assert.assertEquals("v2", getValue(lookup.lookup("k2")));
+    Assert.assertEquals("v1", getValue(lookup.lookup("k1")));
+    Assert.assertEquals(ImmutableList.of(2), table.batchSizes);
+
+    // keys that are already looked up are not buffered again, and keys that are not buffered are read directly
+    lookup.buffer("k1");
+    lookup.flush();
+    Assert.assertEquals(ImmutableList.of(2), table.batchSizes);
+    Assert.assertEquals("v3", getValue(lookup.lookup("k3")));
+    Assert.assertEquals(1, table.gets);
+
+    // batch lookups only read the keys that are not looked up yet
+    Map<String, Row> rows = lookup.lookup("k1", "k3");
+    Assert.assertEquals("v1", getValue(rows.get("k1")));
+    Assert.assertEquals("v3", getValue(rows.get("k3")));
+    Assert.assertEquals(ImmutableList.of(2, 1), table.batchSizes);
+
+    // clearing discards the results and the buffered keys
+    lookup.buffer("k2");
+    lookup.clear();
+    lookup.flush();
+    Assert.assertEquals(ImmutableList.of(2, 1), table.batchSizes);
+    Assert.assertEquals("v1", getValue(lookup.lookup("k1")));
+    Assert.assertEquals(2, table.gets);
+  }
+
+  @Test
+  public void testBufferingWithCache() {
+    MockMetrics metrics = new MockMetrics();
+    CountingTable table = new CountingTable(ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3"));
+    Lookup<Row> cached = new CachingLookup<>(new TableLookup(table.getTable()),
+                                             CachingLookup.<Row>createCache(new CacheConfig(0, 10)),
+                                             false, new DefaultStageMetrics(metrics, "stage"));
+
+    // the buffered keys of each micro-batch are looked up in the cache together, and the misses with one multi-get
+    BufferingLookup<Row> lookup = new BufferingLookup<>(cached);
+    for (String key : ImmutableList.of("k1", "k2")) {
+      lookup.buffer(key);
+    }
+    Assert.assertEquals("v1", getValue(lookup.lookup("k1")));
+    Assert.assertEquals("v2", getValue(lookup.lookup("k2")));
+    lookup.clear();
+    for (String key : ImmutableList.of("k2", "k3")) {
+      lookup.buffer(key);
+    }
+    Assert.assertEquals("v2", getValue(lookup.lookup("k2")));
+    Assert.assertEquals("v3", getValue(lookup.lookup("k3")));
+
+    Assert.assertEquals(ImmutableList.of(2, 1), table.batchSizes);
+    Assert.assertEquals(0, table.gets);
+    Assert.assertEquals(1, metrics.getCount("stage." + CachingLookup.CACHE_HITS));
+    Assert.assertEquals(3, metrics.getCount("stage." + CachingLookup.CACHE_MISSES));
+  }
+
+  private static String getValue(Row row) {
+    return row.getString("v");
+  }
+
+  /**
+   * {@link Table} backed by a map from row key to the value of column "v", that counts the single gets and the
+   * sizes of the multi-gets. Only the gets used by {@link TableLookup} are supported.
+   */
+  private static final class CountingTable implements InvocationHandler {
+
+    private final Map<String, String> values;
+    private final List<Integer> batchSizes = new ArrayList<>();
+    private int gets;
+
+    private CountingTable(Map<String, String> values) {
+      this.values = values;
+    }
+
+    Table getTable() {
+      return (Table) Proxy.newProxyInstance(Table.class.getClassLoader(), new Class<?>[] { Table.class }, this);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+      if (!method.getName().equals("get") || args.length != 1) {
+        throw new UnsupportedOperationException(method.toString());
+      }
+      if (args[0] instanceof byte[]) {
+        gets++;
+        return getRow((byte[]) args[0]);
+      }
+      if (args[0] instanceof List) {
+        List<?> batch = (List<?>) args[0];
+        batchSizes.add(batch.size());
+        List<Row> rows = new ArrayList<>(batch.size());
+        for (Object get : batch) {
+          rows.add(getRow(((Get) get).getRow()));
+        }
+        return rows;
+      }
+      throw new UnsupportedOperationException(method.toString());
+    }
+
+    private Row getRow(byte[] row) {
+      String value = values.get(Bytes.toString(row));
+      Map<byte[], byte[]> columns = new TreeMap<>(Bytes.BYTES_COMPARATOR);
+      if (value != null) {
+        columns.put(Bytes.toBytes("v"), Bytes.toBytes(value));
+      }
+      return new Result(row, columns);
+    }
+  }
+}
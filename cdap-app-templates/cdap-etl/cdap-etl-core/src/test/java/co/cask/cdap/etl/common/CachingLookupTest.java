@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.api.macro.MacroEvaluator;
+import co.cask.cdap.api.plugin.PluginContext;
+import co.cask.cdap.api.plugin.PluginProperties;
+import co.cask.cdap.etl.api.CacheConfig;
+import co.cask.cdap.etl.api.Lookup;
+import co.cask.cdap.etl.api.LookupConfig;
+import co.cask.cdap.etl.api.LookupTableConfig;
+import co.cask.cdap.etl.api.Transform;
+import co.cask.cdap.etl.planner.StageInfo;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tests for {@link CachingLookup} and the caching of lookups in {@link AbstractLookupProvider}.
+ */
+public class CachingLookupTest {
+
+  private static final String HITS = "stage." + CachingLookup.CACHE_HITS;
+  private static final String MISSES = "stage." + CachingLookup.CACHE_MISSES;
+
+  @Test
+  public void testCaching() {
+    MockMetrics metrics = new MockMetrics();
+    CountingLookup delegate = new CountingLookup(ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3"));
+    Lookup<String> lookup = new CachingLookup<>(delegate, CachingLookup.<String>createCache(new CacheConfig(0, 10)),
+                                                false, new DefaultStageMetrics(metrics, "stage"));
+
+    Assert.assertEquals("v1", lookup.lookup("k1"));
+    Assert.assertEquals("v1", lookup.lookup("k1"));
+    Assert.assertEquals(1, delegate.lookups);
+    Assert.assertEquals(1, metrics.getCount(HITS));
+    Assert.assertEquals(1, metrics.getCount(MISSES));
+
+    // only the keys that are not cached are looked up
+    Assert.assertEquals(ImmutableMap.of("k1", "v1", "k2", "v2"), lookup.lookup("k1", "k2"));
+    Assert.assertEquals(ImmutableSet.of("k2"), delegate.lastKeys);
+    Assert.assertEquals(ImmutableMap.of("k1", "v1", "k2", "v2", "k3", "v3"), lookup.lookup("k1", "k2", "k3"));
+    Assert.assertEquals(ImmutableSet.of("k3"), delegate.lastKeys);
+    Assert.assertEquals(ImmutableMap.of("k2", "v2", "k3", "v3"), lookup.lookup("k2", "k3"));
+    Assert.assertEquals(3, delegate.lookups);
+    Assert.assertEquals(6, metrics.getCount(HITS));
+    Assert.assertEquals(3, metrics.getCount(MISSES));
+
+    // keys without value are looked up every time, unless misses are cached
+    Assert.assertNull(lookup.lookup("x"));
+    Assert.assertNull(lookup.lookup("x"));
+    Assert.assertEquals(5, delegate.lookups);
+
+    lookup = new CachingLookup<>(delegate, CachingLookup.<String>createCache(new CacheConfig(0, 10, true)),
+                                 true, new DefaultStageMetrics(metrics, "stage"));
+    Assert.assertNull(lookup.lookup("x"));
+    Assert.assertEquals(ImmutableMap.of("k1", "v1"), lookup.lookup("x", "k1"));
+    Assert.assertEquals(ImmutableSet.of("k1"), delegate.lastKeys);
+    Assert.assertEquals(ImmutableMap.of("k1", "v1"), lookup.lookup("x", "k1"));
+    Assert.assertEquals(7, delegate.lookups);
+  }
+
+  @Test
+  public void testMaxSize() {
+    CountingLookup delegate = new CountingLookup(ImmutableMap.of("k1", "v1", "k2", "v2"));
+    Lookup<String> lookup = new CachingLookup<>(delegate, CachingLookup.<String>createCache(new CacheConfig(0, 1)),
+                                                false, NoopMetrics.INSTANCE);
+    lookup.lookup("k1");
+    lookup.lookup("k2");
+    lookup.lookup("k2");
+    Assert.assertEquals(2, delegate.lookups);
+    lookup.lookup("k1");
+    Assert.assertEquals(3, delegate.lookups);
+  }
+
+  @Test
+  public void testLookupProvider() {
+    final CountingLookup delegate = new CountingLookup(ImmutableMap.of("k1", "v1"));
+    MockMetrics metrics = new MockMetrics();
+    LookupConfig lookupConfig = new LookupConfig(ImmutableMap.of(
+      "cached", new LookupTableConfig(LookupTableConfig.TableType.DATASET, new CacheConfig(60, 100),
+                                      ImmutableMap.<String, String>of(), true),
+      "uncached", new LookupTableConfig(LookupTableConfig.TableType.DATASET)));
+    AbstractLookupProvider provider = new AbstractLookupProvider(lookupConfig,
+                                                                 new DefaultStageMetrics(metrics, "stage")) {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Lookup<T> provide(String table, Map<String, String> arguments) {
+        return cached(table, (Lookup<T>) delegate);
+      }
+    };
+
+    // lookups provided for the same table share their cache
+    Assert.assertEquals("v1", provider.<String>provide("cached", null).lookup("k1"));
+    Assert.assertEquals("v1", provider.<String>provide("cached", null).lookup("k1"));
+    Assert.assertEquals(1, delegate.lookups);
+    Assert.assertEquals(1, metrics.getCount(HITS));
+
+    Assert.assertSame(delegate, provider.provide("uncached", null));
+    Assert.assertSame(delegate, provider.provide("unknown", null));
+  }
+
+  @Test
+  public void testLookupProperty() {
+    final CountingLookup delegate = new CountingLookup(ImmutableMap.of("k1", "v1"));
+    final Map<String, PluginProperties> properties = ImmutableMap.of(
+      "cached", PluginProperties.builder()
+        .add(AbstractLookupProvider.LOOKUP_PROPERTY,
+             "{\"tables\":{\"t\":{\"type\":\"DATASET\",\"cacheEnabled\":true," +
+               "\"cacheConfig\":{\"expirySeconds\":60,\"maxSize\":100}}}}")
+        .build(),
+      "uncached", PluginProperties.builder().add("lookup", "t").build(),
+      "malformed", PluginProperties.builder().add(AbstractLookupProvider.LOOKUP_PROPERTY, "{\"tables\":").build(),
+      "notObject", PluginProperties.builder().add(AbstractLookupProvider.LOOKUP_PROPERTY, "t").build());
+    PluginContext pluginContext = new PluginContext() {
+      @Override
+      public PluginProperties getPluginProperties(String pluginId) {
+        return properties.get(pluginId);
+      }
+
+      @Override
+      public <T> Class<T> loadPluginClass(String pluginId) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public <T> T newPluginInstance(String pluginId) {
+        throw new UnsupportedOperationException();
+      }
+
+      @Override
+      public <T> T newPluginInstance(String pluginId, MacroEvaluator evaluator) {
+        throw new UnsupportedOperationException();
+      }
+    };
+    MockMetrics metrics = new MockMetrics();
+
+    for (String stage : ImmutableList.of("cached", "uncached", "malformed", "notObject")) {
+      AbstractLookupProvider provider =
+        new AbstractLookupProvider(pluginContext, metrics, StageInfo.builder(stage, Transform.PLUGIN_TYPE).build()) {
+          @SuppressWarnings("unchecked")
+          @Override
+          public <T> Lookup<T> provide(String table, Map<String, String> arguments) {
+            return cached(table, (Lookup<T>) delegate);
+          }
+        };
+      Assert.assertEquals("v1", provider.<String>provide("t", null).lookup("k1"));
+      Assert.assertEquals("v1", provider.<String>provide("t", null).lookup("k1"));
+    }
+    // the lookups of the stage with the lookup property are cached, and the cache hits are counted for the stage.
+    // A plugin property named "lookup" is not the lookup configuration, and an invalid lookup configuration
+    // disables caching instead of failing the stage.
+    Assert.assertEquals(7, delegate.lookups);
+    Assert.assertEquals(1, metrics.getCount("cached." + CachingLookup.CACHE_HITS));
+    Assert.assertEquals(0, metrics.getCount("malformed." + CachingLookup.CACHE_MISSES));
+
+    // connectors are not plugins, hence their lookups are not cached
+    Assert.assertSame(delegate, new AbstractLookupProvider(pluginContext, metrics,
+                                                           StageInfo.builder("c", Constants.CONNECTOR_TYPE).build()) {
+      @SuppressWarnings("unchecked")
+      @Override
+      public <T> Lookup<T> provide(String table, Map<String, String> arguments) {
+        return cached(table, (Lookup<T>) delegate);
+      }
+    }.provide("t", null));
+  }
+
+  /**
+   * {@link Lookup} on a map that counts the number of lookups.
+   */
+  private static final class CountingLookup implements Lookup<String> {
+
+    private final Map<String, String> values;
+    private int lookups;
+    private Set<String> lastKeys;
+
+    private CountingLookup(Map<String, String> values) {
+      this.values = values;
+    }
+
+    @Override
+    public String lookup(String key) {
+      lookups++;
+      return values.get(key);
+    }
+
+    @Override
+    public Map<String, String> lookup(String... keys) {
+      return lookup(ImmutableSet.copyOf(keys));
+    }
+
+    @Override
+    public Map<String, String> lookup(Set<String> keys) {
+      lookups++;
+      lastKeys = keys;
+      Map<String, String> result = new HashMap<>();
+      for (String key : keys) {
+        result.put(key, values.get(key));
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.etl.common;
+
+import co.cask.cdap.api.preview.DataTracer;
+import co.cask.cdap.etl.api.Emitter;
+import co.cask.cdap.etl.api.InvalidEntry;
+import co.cask.cdap.etl.api.Transform;
+import co.cask.cdap.etl.api.Transformation;
+import co.cask.cdap.internal.app.preview.NoopDataTracerFactory;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Tests for {@link TrackedTransform}.
+ */
+public class TrackedTransformTest {
+
+  private final DataTracer dataTracer = new NoopDataTracerFactory().getDataTracer(null, "stage");
+
+  @Test
+  public void testBufferedMetrics() throws Exception {
+    MockMetrics mockMetrics = new MockMetrics();
+    TrackedTransform<Integer, Integer> transform =
+      new TrackedTransform<>(new Duplicate(), new DefaultStageMetrics(mockMetrics, "stage"),
+                             TrackedTransform.RECORDS_IN, TrackedTransform.RECORDS_OUT, dataTracer, 3600000L);
+    CountingEmitter<Integer> emitter = new CountingEmitter<>();
+
+    // the counts of the first record are emitted right away, the following ones only when flushed
+    transform.transform(1, emitter);
+    Assert.assertEquals(1, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(2, mockMetrics.getCount("stage.records.out"));
+    for (int i = -1; i > -5; i--) {
+      transform.transform(i, emitter);
+    }
+    Assert.assertEquals(1, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(2, emitter.emitted);
+    Assert.assertEquals(4, emitter.errors);
+
+    transform.flushMetrics();
+    Assert.assertEquals(5, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(2, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(4, mockMetrics.getCount("stage.records.error"));
+
+    // destroying the transform emits the remaining counts
+    transform.transform(2, emitter);
+    transform.transform(3, new CountingEmitter<Integer>());
+    transform.destroy();
+    Assert.assertEquals(7, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(6, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(4, emitter.emitted);
+  }
+
+  @Test
+  public void testUnbufferedMetrics() throws Exception {
+    MockMetrics mockMetrics = new MockMetrics();
+    TrackedTransform<Integer, Integer> transform =
+      new TrackedTransform<>(new Duplicate(), new DefaultStageMetrics(mockMetrics, "stage"), dataTracer);
+    CountingEmitter<Integer> emitter = new CountingEmitter<>();
+    transform.transform(1, emitter);
+    transform.transform(-1, emitter);
+    Assert.assertEquals(2, mockMetrics.getCount("stage.records.in"));
+    Assert.assertEquals(2, mockMetrics.getCount("stage.records.out"));
+    Assert.assertEquals(1, mockMetrics.getCount("stage.records.error"));
+  }
+
+  /**
+   * Compares the time to push records through a chain of no-op transforms, with the record counts emitted to the
+   * stage metrics for every record and with the counts flushed once per second.
+   */
+  @Ignore
+  @Test
+  public void testSpeed() throws Exception {
+    int stages = 5;
+    int count = 5000000;
+    for (long flushInterval : new long[] { 0L, 1000L, 0L, 1000L }) {
+      MockMetrics mockMetrics = new MockMetrics();
+      Emitter<Integer> emitter = new CountingEmitter<>();
+      for (int i = stages - 1; i >= 0; i--) {
+        String stageName = "stage" + i;
+        TrackedTransform<Integer, Integer> transform =
+          new TrackedTransform<>(new Identity(), new DefaultStageMetrics(mockMetrics, stageName),
+                                 TrackedTransform.RECORDS_IN, TrackedTransform.RECORDS_OUT,
+                                 new NoopDataTracerFactory().getDataTracer(null, stageName), flushInterval);
+        emitter = new ChainingEmitter<>(transform, emitter);
+      }
+
+      long startTime = System.nanoTime();
+      for (int i = 0; i < count; i++) {
+        emitter.emit(i);
+      }
+      long time = System.nanoTime() - startTime;
+      System.out.printf("flush interval %d ms: %d records/sec through %d stages%n",
+                        flushInterval, count * 1000000000L / time, stages);
+    }
+  }
+
+  /**
+   * Emits positive numbers twice, and negative numbers as errors.
+   */
+  private static class Duplicate extends Transform<Integer, Integer> {
+
+    @Override
+    public void transform(Integer input, Emitter<Integer> emitter) throws Exception {
+      if (input < 0) {
+        emitter.emitError(new InvalidEntry<>(1, "negative", input));
+      } else {
+        emitter.emit(input);
+        emitter.emit(input);
+      }
+    }
+  }
+
+  private static class Identity extends Transform<Integer, Integer> {
+
+    @Override
+    public void transform(Integer input, Emitter<Integer> emitter) throws Exception {
+      emitter.emit(input);
+    }
+  }
+
+  /**
+   * Emitter that feeds the records it gets into a transformation.
+   */
+  private static class ChainingEmitter<T> implements Emitter<T> {
+
+    private final Transformation<T, T> transformation;
+    private final Emitter<T> next;
+
+    private ChainingEmitter(Transformation<T, T> transformation, Emitter<T> next) {
+      this.transformation = transformation;
+      this.next = next;
+    }
+
+    @Override
+    public void emit(T value) {
+      try {
+        transformation.transform(value, next);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void emitError(InvalidEntry<T> invalidEntry) {
+      next.emitError(invalidEntry);
+    }
+  }
+
+  private static class CountingEmitter<T> implements Emitter<T> {
+
+    private int emitted;
+    private int errors;
+
+    @Override
+    public void emit(T value) {
+      emitted++;
+    }
+
+    @Override
+    public void emitError(InvalidEntry<T> invalidEntry) {
+      errors++;
+    }
+  }
+}
@@ -226,8 +226,9 @@ public class ETLWorker extends AbstractWorker {
     String sourceName = pipeline.getStagesOfType(RealtimeSource.PLUGIN_TYPE).iterator().next().getName();
     source = context.newPluginInstance(sourceName);
     source = new LoggedRealtimeSource<>(sourceName, source);
+    StageInfo sourceInfo = pipeline.getStage(sourceName);
     WorkerRealtimeContext sourceContext = new WorkerRealtimeContext(
-      context, metrics, new TxLookupProvider(context), pipeline.getStage(sourceName));
+      context, metrics, new TxLookupProvider(context, context, metrics, sourceInfo), sourceInfo);
     sourceStageName = sourceName;
     LOG.debug("Source Class : {}", source.getClass().getName());
     source.initialize(sourceContext);
@@ -244,7 +245,7 @@ public class ETLWorker extends AbstractWorker {
       RealtimeSink sink = context.newPluginInstance(sinkName);
       sink = new LoggedRealtimeSink(sinkName, sink);
       WorkerRealtimeContext sinkContext = new WorkerRealtimeContext(
-        context, metrics, new TxLookupProvider(context), sinkInfo);
+        context, metrics, new TxLookupProvider(context, context, metrics, sinkInfo), sinkInfo);
       LOG.debug("Sink Class : {}", sink.getClass().getName());
       sink.initialize(sinkContext);
       sink = new TrackedRealtimeSink(sink, new DefaultStageMetrics(metrics, sinkName));
@@ -280,7 +281,7 @@ public class ETLWorker extends AbstractWorker {
         Transform<?, ?> transform = context.newPluginInstance(transformName);
         transform = new LoggedTransform<>(transformName, transform);
         WorkerRealtimeContext transformContext = new WorkerRealtimeContext(
-          context, metrics, new TxLookupProvider(context), transformInfo);
+          context, metrics, new TxLookupProvider(context, context, metrics, transformInfo), transformInfo);
         LOG.debug("Transform Class : {}", transform.getClass().getName());
         transform.initialize(transformContext);
         StageMetrics stageMetrics = new DefaultStageMetrics(metrics, transformName);
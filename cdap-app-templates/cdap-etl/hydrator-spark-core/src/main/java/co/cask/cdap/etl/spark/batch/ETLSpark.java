@@ -109,7 +109,6 @@ public class ETLSpark extends AbstractSpark {
 
     Map<String, String> properties = context.getSpecification().getProperties();
     BatchPhaseSpec phaseSpec = GSON.fromJson(properties.get(Constants.PIPELINEID), BatchPhaseSpec.class);
-    DatasetContextLookupProvider lookProvider = new DatasetContextLookupProvider(context);
     MacroEvaluator evaluator = new DefaultMacroEvaluator(context.getWorkflowToken(), context.getRuntimeArguments(),
                                                          context.getLogicalStartTime(), context,
                                                          context.getNamespace());
@@ -123,7 +122,8 @@ public class ETLSpark extends AbstractSpark {
 
       if (BatchSource.PLUGIN_TYPE.equals(pluginType)) {
         BatchConfigurable<BatchSourceContext> batchSource = context.newPluginInstance(stageName, evaluator);
-        BatchSourceContext sourceContext = new SparkBatchSourceContext(sourceFactory, context, lookProvider, stageInfo);
+        BatchSourceContext sourceContext =
+          new SparkBatchSourceContext(sourceFactory, context, createLookupProvider(context, stageInfo), stageInfo);
         batchSource.prepareRun(sourceContext);
         finishers.add(batchSource, sourceContext);
       } else if (BatchSink.PLUGIN_TYPE.equals(pluginType)) {
@@ -133,13 +133,14 @@ public class ETLSpark extends AbstractSpark {
         finishers.add(batchSink, sinkContext);
       } else if (SparkSink.PLUGIN_TYPE.equals(pluginType)) {
         BatchConfigurable<SparkPluginContext> sparkSink = context.newPluginInstance(stageName, evaluator);
-        SparkPluginContext sparkPluginContext = new BasicSparkPluginContext(context, lookProvider, stageInfo);
+        SparkPluginContext sparkPluginContext =
+          new BasicSparkPluginContext(context, createLookupProvider(context, stageInfo), stageInfo);
         sparkSink.prepareRun(sparkPluginContext);
         finishers.add(sparkSink, sparkPluginContext);
       } else if (BatchAggregator.PLUGIN_TYPE.equals(pluginType)) {
         BatchAggregator aggregator = context.newPluginInstance(stageName, evaluator);
         AbstractAggregatorContext aggregatorContext =
-          new SparkAggregatorContext(context, new DatasetContextLookupProvider(context), stageInfo);
+          new SparkAggregatorContext(context, createLookupProvider(context, stageInfo), stageInfo);
         aggregator.prepareRun(aggregatorContext);
         finishers.add(aggregator, aggregatorContext);
         stagePartitions.put(stageName, aggregatorContext.getNumPartitions());
@@ -165,6 +166,10 @@ public class ETLSpark extends AbstractSpark {
     context.localize("HydratorSpark.config", configFile.toURI());
   }
 
+  private DatasetContextLookupProvider createLookupProvider(SparkClientContext context, StageInfo stageInfo) {
+    return new DatasetContextLookupProvider(context, context, context.getMetrics(), stageInfo);
+  }
+
   @Override
   public void destroy() {
     finisher.onFinish(getContext().getState().getStatus() == ProgramStatus.COMPLETED);
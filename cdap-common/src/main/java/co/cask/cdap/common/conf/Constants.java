@@ -305,6 +305,14 @@ public final class Constants {
     // tables. Constant could be moved to Table after that is changed. See CDAP-1193 for more info
     public static final String TABLE_TX_DISABLED = "dataset.table.tx.disabled";
 
+    // Table dataset property that defines the maximum number of rows read from the persistent store that are
+    // cached for the duration of a transaction. The cache is disabled if it is not set or not positive.
+    public static final String TABLE_READ_CACHE_SIZE = "dataset.table.read.cache.size";
+
+    // Table dataset property that defines the size in bytes of the in-memory buffer of changes past which the
+    // changes are persisted before the transaction commits. Changes are only persisted on commit if it is not set.
+    public static final String TABLE_WRITE_BUFFER_PERSIST_THRESHOLD = "dataset.table.write.buffer.persist.threshold";
+
     public static final String DATA_DIR = "dataset.data.dir";
     public static final String DEFAULT_DATA_DIR = "data";
 
@@ -423,6 +431,7 @@ public final class Constants {
     public static final String URL_PREFIX = "stream://";
     public static final String DESCRIPTION = "stream.description";
     public static final String FORMAT_SPECIFICATION = "stream.format.specification";
+    public static final String COMPRESSION_CODEC = "stream.compression.codec";
 
     /**
      * Contains HTTP headers used by Stream handler.
@@ -523,9 +532,24 @@ public final class Constants {
     // Key prefix for retention seconds. The actual key is suffixed by the table resolution.
     public static final String RETENTION_SECONDS = "metrics.data.table.retention.resolution";
 
+    // Coarser resolutions are rolled up from the finest resolution instead of being written for every metric
+    public static final String ROLLUP_ENABLED = "metrics.data.table.rollup.enabled";
+    public static final String ROLLUP_DELAY_SECONDS = "metrics.data.table.rollup.delay.seconds";
+    public static final String ROLLUP_INTERVAL_SECONDS = "metrics.data.table.rollup.interval.seconds";
+
+    // Number of threads for writing to the tables of the resolutions concurrently
+    public static final String WRITE_THREADS = "metrics.data.table.write.threads";
+
     public static final String SERVER_ADDRESS = "metrics.query.bind.address";
     public static final String SERVER_PORT = "metrics.query.bind.port";
 
+    // Cache of the query results of closed time segments
+    public static final String QUERY_CACHE_MAX_VALUES = "metrics.query.cache.max.values";
+    public static final String QUERY_CACHE_CLOSED_DELAY_SECONDS = "metrics.query.cache.closed.delay.seconds";
+
+    // Number of threads for scanning the splits of a query concurrently
+    public static final String QUERY_SCAN_THREADS = "metrics.query.scan.threads";
+
     public static final String TOPIC_PREFIX = "metrics.topic.prefix";
     public static final String KAFKA_TOPIC_PREFIX = "metrics.kafka.topic.prefix";
     public static final String KAFKA_PARTITION_SIZE = "metrics.kafka.partition.size";
@@ -637,6 +661,8 @@ public final class Constants {
         public static final String OP_COUNT = "dataset.store.ops";
         public static final String WRITE_COUNT = "dataset.store.writes";
         public static final String WRITE_BYTES = "dataset.store.bytes";
+        public static final String READ_CACHE_HITS = "dataset.store.read.cache.hits";
+        public static final String READ_CACHE_MISSES = "dataset.store.read.cache.misses";
       }
 
       /**
@@ -1175,6 +1201,8 @@ public final class Constants {
     public static final String TOPIC_DEFAULT_TTL_SECONDS = "messaging.topic.default.ttl.seconds";
     public static final String COPROCESSOR_METADATA_CACHE_UPDATE_FREQUENCY_SECONDS =
       "messaging.coprocessor.metadata.cache.update.frequency.seconds";
+    public static final String PUBLISH_LINGER_MILLIS = "messaging.publish.linger.ms";
+    public static final String PUBLISH_LINGER_MAX_BYTES = "messaging.publish.linger.max.bytes";
 
     public static final String HTTP_SERVER_WORKER_THREADS = "messaging.http.server.worker.threads";
     public static final String HTTP_SERVER_EXECUTOR_THREADS = "messaging.http.server.executor.threads";
@@ -16,7 +16,6 @@
 
 package co.cask.cdap.common.lang;
 
-import co.cask.cdap.internal.lang.Reflections;
 import com.google.common.base.Throwables;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -178,9 +177,8 @@ public final class InstantiatorFactory {
       @Override
       public T create() {
         try {
-          Object instance = UNSAFE.allocateInstance(type.getRawType());
-          Reflections.visit(instance, type.getType(), new FieldInitializer());
-          return (T) instance;
+          // Fields of the instance allocated are already initialized to the default values.
+          return (T) UNSAFE.allocateInstance(type.getRawType());
         } catch (InstantiationException e) {
           throw Throwables.propagate(e);
         }
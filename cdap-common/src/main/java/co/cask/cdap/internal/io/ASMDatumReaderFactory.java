@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.lang.InstantiatorFactory;
+import co.cask.cdap.internal.asm.ByteCodeClassLoader;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import com.google.common.base.Objects;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Maps;
+import com.google.common.reflect.TypeToken;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Map;
+import javax.inject.Inject;
+
+/**
+ * A factory class for creating {@link DatumReader} instance for different data type and schema.
+ * It serves as an in memory cache for {@link DatumReader} generated using ASM. Since a generated
+ * {@link DatumReader} is specialized for a pair of source and target schemas, the {@link DatumReader}
+ * returned by this factory lazily picks the generated reader based on the source schema given in the
+ * {@link DatumReader#read(Decoder, Schema)} call.
+ */
+public final class ASMDatumReaderFactory implements DatumReaderFactory {
+
+  private static final Logger LOG = LoggerFactory.getLogger(ASMDatumReaderFactory.class);
+
+  private final LoadingCache<CacheKey, DatumReader<?>> datumReaders;
+  private final FieldAccessorFactory fieldAccessorFactory;
+  private final InstantiatorFactory instantiatorFactory;
+
+  @Inject
+  public ASMDatumReaderFactory(FieldAccessorFactory fieldAccessorFactory) {
+    this.fieldAccessorFactory = fieldAccessorFactory;
+    this.instantiatorFactory = new InstantiatorFactory(true);
+    this.datumReaders = CacheBuilder.newBuilder().build(new ASMCacheLoader());
+  }
+
+  /**
+   * Creates a {@link DatumReader} that is able to decode data into the given data type with the given
+   * {@link Schema}. The instance created is thread safe and reusable.
+   *
+   * @param type Type information of the data type to be decoded.
+   * @param schema Schema of the data type.
+   * @param <T> Type of the data type.
+   * @return A {@link DatumReader} instance.
+   */
+  @Override
+  public <T> DatumReader<T> create(TypeToken<T> type, Schema schema) {
+    return new SchemaResolvingDatumReader<>(type, schema);
+  }
+
+  /**
+   * Returns a generated {@link DatumReader} for decoding data encoded with the given source schema.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> DatumReader<T> getDatumReader(TypeToken<T> type, Schema schema, Schema sourceSchema) {
+    return (DatumReader<T>) datumReaders.getUnchecked(new CacheKey(type, schema, sourceSchema));
+  }
+
+  /**
+   * A {@link DatumReader} that delegates to the generated {@link DatumReader} for the given source schema.
+   * The last used generated reader is remembered, hence it is optimized for reading data encoded with the
+   * same source schema repeatedly.
+   *
+   * @param <T> Type of the data type.
+   */
+  private final class SchemaResolvingDatumReader<T> implements DatumReader<T> {
+
+    private final TypeToken<T> type;
+    private final Schema schema;
+    private volatile Map.Entry<Schema, DatumReader<T>> lastReader;
+
+    private SchemaResolvingDatumReader(TypeToken<T> type, Schema schema) {
+      this.type = type;
+      this.schema = schema;
+    }
+
+    @Override
+    public T read(Decoder decoder, Schema sourceSchema) throws IOException {
+      Map.Entry<Schema, DatumReader<T>> reader = lastReader;
+      if (reader == null || !reader.getKey().equals(sourceSchema)) {
+        try {
+          reader = Maps.immutableEntry(sourceSchema, getDatumReader(type, schema, sourceSchema));
+        } catch (UncheckedExecutionException e) {
+          throw new IOException(e.getCause());
+        }
+        lastReader = reader;
+      }
+      return reader.getValue().read(decoder, sourceSchema);
+    }
+  }
+
+  /**
+   * A private {@link CacheLoader} for generating different {@link DatumReader}.
+   */
+  private final class ASMCacheLoader extends CacheLoader<CacheKey, DatumReader<?>> {
+
+    private final Map<TypeToken<?>, ByteCodeClassLoader> classloaders = Maps.newIdentityHashMap();
+
+    @Override
+    public DatumReader<?> load(CacheKey key) throws Exception {
+      ClassDefinition classDef;
+      try {
+        classDef = new DatumReaderGenerator().generate(key.getType(), key.getSchema(), key.getSourceSchema());
+      } catch (Exception e) {
+        // Fallback to the reflection based reader for type that the generator doesn't support.
+        LOG.debug("Failed to generate DatumReader for type {} with schema {} from {}. Using reflection instead.",
+                  key.getType(), key.getSchema(), key.getSourceSchema(), e);
+        return new ReflectionDatumReader<>(key.getSchema(), key.getType());
+      }
+
+      ByteCodeClassLoader classloader = classloaders.get(key.getType());
+      if (classloader == null) {
+        // The ClassLoader of the generated DatumReader has CDAP system ClassLoader as parent.
+        // The ClassDefinition contains list of classes that should not be loaded by the generated class ClassLoader
+        classloader = new ByteCodeClassLoader(ASMDatumReaderFactory.class.getClassLoader());
+        classloaders.put(key.getType(), classloader);
+      }
+
+      Class<?> readerClass = classloader.addClass(classDef).loadClass(classDef.getClassName());
+      return (DatumReader<?>) readerClass.getConstructor(Schema.class, Schema.class,
+                                                         FieldAccessorFactory.class, InstantiatorFactory.class)
+        .newInstance(key.getSchema(), key.getSourceSchema(), fieldAccessorFactory, instantiatorFactory);
+    }
+  }
+
+  /**
+   * Key for the generated {@link DatumReader} cache. Schemas are compared by {@link SchemaHash}.
+   */
+  private static final class CacheKey {
+    private final TypeToken<?> type;
+    private final Schema schema;
+    private final Schema sourceSchema;
+
+    private CacheKey(TypeToken<?> type, Schema schema, Schema sourceSchema) {
+      this.type = type;
+      this.schema = schema;
+      this.sourceSchema = sourceSchema;
+    }
+
+    TypeToken<?> getType() {
+      return type;
+    }
+
+    Schema getSchema() {
+      return schema;
+    }
+
+    Schema getSourceSchema() {
+      return sourceSchema;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      CacheKey cacheKey = (CacheKey) o;
+      return type.equals(cacheKey.type)
+        && schema.getSchemaHash().equals(cacheKey.schema.getSchemaHash())
+        && sourceSchema.getSchemaHash().equals(cacheKey.sourceSchema.getSchemaHash());
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(type, schema.getSchemaHash(), sourceSchema.getSchemaHash());
+    }
+  }
+}
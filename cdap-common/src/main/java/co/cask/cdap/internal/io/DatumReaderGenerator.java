@@ -0,0 +1,1299 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.internal.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.SchemaHash;
+import co.cask.cdap.common.io.Decoder;
+import co.cask.cdap.common.lang.Instantiator;
+import co.cask.cdap.common.lang.InstantiatorFactory;
+import co.cask.cdap.internal.asm.ClassDefinition;
+import co.cask.cdap.internal.asm.Methods;
+import co.cask.cdap.internal.asm.Signatures;
+import co.cask.cdap.internal.lang.Fields;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.primitives.Primitives;
+import com.google.common.reflect.TypeParameter;
+import com.google.common.reflect.TypeToken;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+import org.objectweb.asm.commons.TableSwitchGenerator;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.ParameterizedType;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Class for generating {@link DatumReader} bytecodes using ASM. Unlike the {@link ReflectionDatumReader}, which
+ * resolves the source schema against the target schema on every read, the class generated is specialized for one
+ * pair of source and target schemas, so that all the schema projection decisions are made once at generation time.
+ * The class generated will have a skeleton looks like the following:
+ * <pre>
+ * {@code
+ *
+ *  public final class generatedClassName implements DatumReader<InputType> {
+ *    private static final String SCHEMA_HASH = "target_schema_hash_as_hex_string";
+ *    private static final String SOURCE_SCHEMA_HASH = "source_schema_hash_as_hex_string";
+ *
+ *    public generatedClassName(Schema schema, Schema sourceSchema,
+ *                              FieldAccessorFactory accessorFactory, InstantiatorFactory instantiatorFactory) {
+ *      if (!SCHEMA_HASH.equals(schema.getSchemaHash().toString())) {
+ *        throw new IllegalArgumentException("Schema not match.");
+ *      }
+ *      if (!SOURCE_SCHEMA_HASH.equals(sourceSchema.getSchemaHash().toString())) {
+ *        throw new IllegalArgumentException("Source schema not match.");
+ *      }
+ *      // Initialize field accessors, instantiators and enum mappings needed by the read methods.
+ *    }
+ *
+ *    @Override
+ *    public Object read(Decoder decoder, Schema sourceSchema) throws IOException {
+ *      return generatedReadMethod(decoder);
+ *    }
+ *
+ *    private Object generatedReadMethod(Decoder decoder) throws IOException {
+ *      // Do actual decoding by calling methods on decoder based on the source schema,
+ *      // converting the values to the target type.
+ *    }
+ *
+ *    private void generatedSkipMethod(Decoder decoder) throws IOException {
+ *      // Skip over source fields that are not present in the target schema.
+ *    }
+ *
+ *    // Could have more generatedReadMethods and generatedSkipMethods...
+ *  }
+ * }
+ * </pre>
+ *
+ * For example, to decode type int[] written with a long[] schema, a generated {@link DatumReader} will looks like
+ * this after decompile.
+ * <pre>
+ * {@code
+ *
+ *   public Object read(Decoder paramDecoder, Schema paramSchema) throws IOException {
+ *     return readArray1int07D4F780E3528DB8C539EE5C21FDDEAE...(paramDecoder);
+ *   }
+ *
+ *   private Object readArray1int07D4F780E3528DB8C539EE5C21FDDEAE...(Decoder paramDecoder) throws IOException {
+ *     ArrayList localArrayList = new ArrayList();
+ *     int i = paramDecoder.readInt();
+ *     while (i != 0) {
+ *       for (int j = 0; j < i; j++) {
+ *         localArrayList.add(Integer.valueOf(readint9E688C58A5487B8EAF69C9E1005AD0BF...(paramDecoder)));
+ *       }
+ *       i = paramDecoder.readInt();
+ *     }
+ *     int[] arrayOfInt = new int[localArrayList.size()];
+ *     for (int k = 0; k < arrayOfInt.length; k++) {
+ *       arrayOfInt[k] = ((Integer) localArrayList.get(k)).intValue();
+ *     }
+ *     return arrayOfInt;
+ *   }
+ * }
+ * </pre>
+ */
+@NotThreadSafe
+final class DatumReaderGenerator {
+
+  private final Map<String, Method> readMethods = Maps.newHashMap();
+  private final Map<String, Method> skipMethods = Maps.newHashMap();
+  private final Multimap<TypeToken<?>, String> fieldAccessorRequests = HashMultimap.create();
+  private final Map<String, TypeToken<?>> instantiatorRequests = Maps.newHashMap();
+  private final Map<String, Class<?>> classRequests = Maps.newHashMap();
+  private final Map<String, Map.Entry<Class<?>, List<String>>> enumRequests = Maps.newHashMap();
+  private ClassWriter classWriter;
+  private Type classType;
+  private List<Class<?>> preservedClasses;
+
+  /**
+   * Generates a {@link DatumReader} class for decoding data written with the given source schema into
+   * the given input type with the given target schema.
+   *
+   * @param inputType Type information of the data type to decode to.
+   * @param schema Schema of the data type to decode to.
+   * @param sourceSchema Schema that the data was encoded with.
+   * @return A {@link ClassDefinition} that contains generated class information.
+   */
+  ClassDefinition generate(TypeToken<?> inputType, Schema schema, Schema sourceSchema) {
+    classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+    preservedClasses = Lists.newArrayList();
+
+    TypeToken<?> interfaceType = getInterfaceType(inputType);
+
+    // Generate the class
+    String className = getClassName(interfaceType, schema, sourceSchema);
+    classType = Type.getObjectType(className);
+    classWriter.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC + Opcodes.ACC_FINAL,
+                      className, Signatures.getClassSignature(interfaceType),
+                      Type.getInternalName(Object.class),
+                      new String[]{Type.getInternalName(interfaceType.getRawType())});
+
+    // Static schema hash fields, for verification
+    classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL, "SCHEMA_HASH",
+                           Type.getDescriptor(String.class), null, schema.getSchemaHash().toString()).visitEnd();
+    classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_STATIC + Opcodes.ACC_FINAL, "SOURCE_SCHEMA_HASH",
+                           Type.getDescriptor(String.class), null,
+                           sourceSchema.getSchemaHash().toString()).visitEnd();
+
+    // Read method
+    generateRead(inputType, schema, sourceSchema);
+
+    // Constructor
+    generateConstructor();
+
+    ClassDefinition classDefinition = new ClassDefinition(classWriter.toByteArray(), className, preservedClasses);
+    // DEBUG block. Uncomment for debug
+//    co.cask.cdap.internal.asm.Debugs.debugByteCode(classDefinition, new java.io.PrintWriter(System.out));
+    // End DEBUG block
+    return classDefinition;
+  }
+
+  /**
+   * Generates the constructor. The constructor generated has signature
+   * {@code (Schema, Schema, FieldAccessorFactory, InstantiatorFactory)}.
+   */
+  private void generateConstructor() {
+    Method constructor = getMethod(void.class, "<init>", Schema.class, Schema.class,
+                                   FieldAccessorFactory.class, InstantiatorFactory.class);
+
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, constructor, null, null, classWriter);
+
+    // super(); // Calling Object constructor
+    mg.loadThis();
+    mg.invokeConstructor(Type.getType(Object.class), getMethod(void.class, "<init>"));
+
+    // Verify both the target and the source schema hash
+    verifySchemaHash(mg, "SCHEMA_HASH", 0, "Schema not match.");
+    verifySchemaHash(mg, "SOURCE_SCHEMA_HASH", 1, "Source schema not match.");
+
+    // For each record field that needs an accessor, get the accessor and store it in field.
+    for (Map.Entry<TypeToken<?>, String> entry : fieldAccessorRequests.entries()) {
+      String fieldAccessorName = getFieldAccessorName(entry.getKey(), entry.getValue());
+
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, fieldAccessorName,
+                             Type.getDescriptor(FieldAccessor.class), null, null);
+      // this.fieldAccessorName
+      //  = accessorFactory.getFieldAccessor(TypeToken.of(Class.forName("className")), "fieldName");
+      mg.loadThis();
+      mg.loadArg(2);
+      loadClass(mg, entry.getKey().getRawType());
+      mg.invokeStatic(Type.getType(TypeToken.class), getMethod(TypeToken.class, "of", Class.class));
+      mg.push(entry.getValue());
+      mg.invokeInterface(Type.getType(FieldAccessorFactory.class),
+                         getMethod(FieldAccessor.class, "getFieldAccessor", TypeToken.class, String.class));
+      mg.putField(classType, fieldAccessorName, Type.getType(FieldAccessor.class));
+    }
+
+    // For each record or collection type that needs to be created, get the instantiator and store it in field.
+    for (Map.Entry<String, TypeToken<?>> entry : instantiatorRequests.entrySet()) {
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Instantiator.class), null, null);
+      // this.instantiatorName = instantiatorFactory.get(TypeToken.of(Class.forName("className")));
+      mg.loadThis();
+      mg.loadArg(3);
+      loadClass(mg, entry.getValue().getRawType());
+      mg.invokeStatic(Type.getType(TypeToken.class), getMethod(TypeToken.class, "of", Class.class));
+      mg.invokeVirtual(Type.getType(InstantiatorFactory.class),
+                       getMethod(Instantiator.class, "get", TypeToken.class));
+      mg.putField(classType, entry.getKey(), Type.getType(Instantiator.class));
+    }
+
+    // For each array component class, load the class and store it in field.
+    for (Map.Entry<String, Class<?>> entry : classRequests.entrySet()) {
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Class.class), null, null);
+      // this.className = Class.forName("className");
+      mg.loadThis();
+      loadClass(mg, entry.getValue());
+      mg.putField(classType, entry.getKey(), Type.getType(Class.class));
+    }
+
+    // For each enum, creates an array that maps from the source enum index to the target enum value.
+    for (Map.Entry<String, Map.Entry<Class<?>, List<String>>> entry : enumRequests.entrySet()) {
+      Class<?> enumClass = entry.getValue().getKey();
+      List<String> values = entry.getValue().getValue();
+
+      classWriter.visitField(Opcodes.ACC_PRIVATE + Opcodes.ACC_FINAL, entry.getKey(),
+                             Type.getDescriptor(Object[].class), null, null);
+      // this.enumName = new Object[] { Enum.valueOf(Class.forName("className"), "value"), null, ... };
+      mg.loadThis();
+      mg.push(values.size());
+      mg.newArray(Type.getType(Object.class));
+      for (int i = 0; i < values.size(); i++) {
+        String value = values.get(i);
+        if (value == null) {
+          continue;
+        }
+        mg.dup();
+        mg.push(i);
+        loadClass(mg, enumClass);
+        mg.push(value);
+        mg.invokeStatic(Type.getType(Enum.class), getMethod(Enum.class, "valueOf", Class.class, String.class));
+        mg.arrayStore(Type.getType(Object.class));
+      }
+      mg.putField(classType, entry.getKey(), Type.getType(Object[].class));
+    }
+
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  /**
+   * Generates code to compare the static schema hash field with the hash of the schema given in the argument.
+   */
+  private void verifySchemaHash(GeneratorAdapter mg, String hashField, int schemaArg, String errorMessage) {
+    // if (!SCHEMA_HASH.equals(schema.getSchemaHash().toString())) { throw IllegalArgumentException }
+    mg.getStatic(classType, hashField, Type.getType(String.class));
+    mg.loadArg(schemaArg);
+    mg.invokeVirtual(Type.getType(Schema.class), getMethod(SchemaHash.class, "getSchemaHash"));
+    mg.invokeVirtual(Type.getType(SchemaHash.class), getMethod(String.class, "toString"));
+    mg.invokeVirtual(Type.getType(String.class), getMethod(boolean.class, "equals", Object.class));
+    Label hashEquals = mg.newLabel();
+    mg.ifZCmp(GeneratorAdapter.NE, hashEquals);
+    mg.throwException(Type.getType(IllegalArgumentException.class), errorMessage);
+    mg.mark(hashEquals);
+  }
+
+  /**
+   * Generates the {@link DatumReader#read(Decoder, Schema)} method.
+   *
+   * @param inputType Type information of the data type to decode to.
+   * @param schema Schema of the data type to decode to.
+   * @param sourceSchema Schema that the data was encoded with.
+   */
+  private void generateRead(TypeToken<?> inputType, Schema schema, Schema sourceSchema) {
+    Method readMethod = getMethod(Object.class, "read", Decoder.class, Schema.class);
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PUBLIC, readMethod, null,
+                                               new Type[] {Type.getType(IOException.class)}, classWriter);
+
+    // Delegate to the actual read method(decoder)
+    mg.loadThis();
+    mg.loadArg(0);
+    mg.invokeVirtual(classType, getReadMethod(inputType, sourceSchema, schema));
+    boxIfPrimitive(mg, getCallType(inputType));
+    mg.returnValue();
+    mg.endMethod();
+  }
+
+  /**
+   * Returns the read method for the given type and schemas. The same method will be returned if the same
+   * type and schemas has been passed to the method before.
+   *
+   * @param inputType Type information of the data type to decode to.
+   * @param sourceSchema Schema that the data was encoded with.
+   * @param schema Schema of the data type to decode to.
+   * @return A method for decoding the given type from the source schema to the target schema.
+   */
+  private Method getReadMethod(TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    String key = String.format("%s%s%s", normalizeTypeName(inputType),
+                               sourceSchema.getSchemaHash(), schema.getSchemaHash());
+
+    Method method = readMethods.get(key);
+    if (method != null) {
+      return method;
+    }
+
+    // Generate the read method (decoder)
+    String methodName = String.format("read%s", key);
+    method = new Method(methodName, getCallType(inputType), new Type[] { Type.getType(Decoder.class) });
+
+    // Put the method into map first before generating the body in order to support recursive data type.
+    readMethods.put(key, method);
+
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PRIVATE, method, null,
+                                               new Type[]{Type.getType(IOException.class)}, classWriter);
+
+    generateReadBody(mg, inputType, sourceSchema, schema);
+    mg.returnValue();
+    mg.endMethod();
+
+    return method;
+  }
+
+  /**
+   * Generates the read method body. The generated code leaves the value decoded on the stack, with the type
+   * as returned by {@link #getCallType(TypeToken)}.
+   */
+  private void generateReadBody(GeneratorAdapter mg, TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    Schema.Type sourceType = sourceSchema.getType();
+
+    if (sourceType != Schema.Type.UNION && schema.getType() == Schema.Type.UNION) {
+      // Pick the first target union schema that the source schema can be resolved to
+      Schema resolvedSchema = findUnionSchema(sourceSchema, schema, -1);
+      if (resolvedSchema == null) {
+        mg.throwException(Type.getType(IOException.class),
+                          String.format("No matching schema to resolve %s to %s", sourceSchema, schema));
+        return;
+      }
+      schema = resolvedSchema;
+    }
+
+    Schema.Type targetType = schema.getType();
+    if (sourceType != Schema.Type.UNION && !sourceType.isSimpleType() && sourceType != targetType) {
+      mg.throwException(Type.getType(IOException.class),
+                        String.format("Fails to resolve %s to %s", sourceType, targetType));
+      return;
+    }
+
+    switch (sourceType) {
+      case NULL:
+        if (targetType != Schema.Type.NULL || inputType.getRawType().isPrimitive()) {
+          mg.throwException(Type.getType(IOException.class),
+                            String.format("Fails to resolve %s to %s", sourceType, targetType));
+          return;
+        }
+        mg.loadArg(0);
+        mg.invokeInterface(Type.getType(Decoder.class), getMethod(Object.class, "readNull"));
+        break;
+      case BYTES:
+        if (targetType != Schema.Type.BYTES) {
+          mg.throwException(Type.getType(IOException.class),
+                            String.format("Fails to resolve %s to %s", sourceType, targetType));
+          return;
+        }
+        readBytes(mg, inputType);
+        break;
+      case ENUM:
+        readEnum(mg, inputType, sourceSchema, schema);
+        break;
+      case ARRAY:
+        readArray(mg, inputType, sourceSchema, schema);
+        break;
+      case MAP:
+        readMap(mg, inputType, sourceSchema, schema);
+        break;
+      case RECORD:
+        readRecord(mg, inputType, sourceSchema, schema);
+        break;
+      case UNION:
+        readUnion(mg, inputType, sourceSchema, schema);
+        break;
+      default:
+        readSimple(mg, inputType, sourceType, targetType);
+    }
+  }
+
+  /**
+   * Generates method body for decoding simple types other than {@code null} and {@code bytes}, with
+   * type promotion from the source type to the target type.
+   */
+  private void readSimple(GeneratorAdapter mg, TypeToken<?> inputType,
+                          Schema.Type sourceType, Schema.Type targetType) {
+    if (!isPromotable(sourceType, targetType)) {
+      mg.throwException(Type.getType(IOException.class),
+                        String.format("Fail to resolve type %s to type %s", sourceType, targetType));
+      return;
+    }
+
+    Type decodeType = getDecodeType(sourceType);
+    String decodeMethod = "read" + sourceType.name().charAt(0) + sourceType.name().substring(1).toLowerCase();
+    if (sourceType == Schema.Type.BOOLEAN) {
+      decodeMethod = "readBool";
+    }
+
+    // decoder.readXXX();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), new Method(decodeMethod, decodeType, new Type[0]));
+
+    Class<?> rawType = inputType.getRawType();
+    if (targetType == Schema.Type.STRING) {
+      if (sourceType != Schema.Type.STRING) {
+        // String.valueOf(value);
+        mg.invokeStatic(Type.getType(String.class),
+                        new Method("valueOf", Type.getType(String.class), new Type[] { decodeType }));
+      } else if (URI.class.equals(rawType)) {
+        // URI.create(value);
+        mg.invokeStatic(Type.getType(URI.class), getMethod(URI.class, "create", String.class));
+      } else if (URL.class.equals(rawType)) {
+        // new URL(value);
+        int str = mg.newLocal(Type.getType(String.class));
+        mg.storeLocal(str);
+        mg.newInstance(Type.getType(URL.class));
+        mg.dup();
+        mg.loadLocal(str);
+        mg.invokeConstructor(Type.getType(URL.class), getMethod(void.class, "<init>", String.class));
+      }
+      return;
+    }
+
+    // Promote the value to the target primitive type and box it if necessary
+    Type targetPrimitiveType = getTargetPrimitiveType(inputType, targetType);
+    if (!decodeType.equals(targetPrimitiveType)) {
+      mg.cast(decodeType, targetPrimitiveType);
+    }
+    if (!rawType.isPrimitive()) {
+      mg.valueOf(targetPrimitiveType);
+    }
+  }
+
+  /**
+   * Generates method body for decoding bytes. The value is converted to {@code byte[]} or {@link UUID} based on
+   * the target type, otherwise it is returned as {@link ByteBuffer}.
+   */
+  private void readBytes(GeneratorAdapter mg, TypeToken<?> inputType) {
+    Type byteBufferType = Type.getType(ByteBuffer.class);
+
+    // ByteBuffer buffer = decoder.readBytes();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(ByteBuffer.class, "readBytes"));
+
+    Class<?> rawType = inputType.getRawType();
+    if (byte[].class.equals(rawType)) {
+      int buffer = mg.newLocal(byteBufferType);
+      mg.storeLocal(buffer);
+
+      /*
+        if (buffer.hasArray() && buffer.remaining() == buffer.array().length) {
+          return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+       */
+      Label copy = mg.newLabel();
+      Label end = mg.newLabel();
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(boolean.class, "hasArray"));
+      mg.ifZCmp(GeneratorAdapter.EQ, copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(int.class, "remaining"));
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(byte[].class, "array"));
+      mg.arrayLength();
+      mg.ifICmp(GeneratorAdapter.NE, copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(byte[].class, "array"));
+      mg.goTo(end);
+
+      mg.mark(copy);
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(int.class, "remaining"));
+      mg.newArray(Type.BYTE_TYPE);
+      mg.dup();
+      mg.loadLocal(buffer);
+      mg.swap();
+      mg.invokeVirtual(byteBufferType, getMethod(ByteBuffer.class, "get", byte[].class));
+      mg.pop();
+      mg.mark(end);
+
+    } else if (UUID.class.equals(rawType)) {
+      // new UUID(buffer.getLong(), buffer.getLong());
+      int buffer = mg.newLocal(byteBufferType);
+      mg.storeLocal(buffer);
+      mg.newInstance(Type.getType(UUID.class));
+      mg.dup();
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(long.class, "getLong"));
+      mg.loadLocal(buffer);
+      mg.invokeVirtual(byteBufferType, getMethod(long.class, "getLong"));
+      mg.invokeConstructor(Type.getType(UUID.class), getMethod(void.class, "<init>", long.class, long.class));
+    }
+  }
+
+  /**
+   * Generates method body for decoding enum value. The mapping from the source enum index to the target enum
+   * value is computed once in the constructor.
+   */
+  private void readEnum(GeneratorAdapter mg, TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    Class<?> rawType = inputType.getRawType();
+
+    // Enum type might be defined by the user, hence need to preserve class loading of it
+    preservedClasses.add(rawType);
+
+    String fieldName = String.format("enum$%s%s%s", normalizeTypeName(inputType),
+                                     sourceSchema.getSchemaHash(), schema.getSchemaHash());
+    if (!enumRequests.containsKey(fieldName)) {
+      List<String> values = Lists.newArrayList();
+      for (String value : sourceSchema.getEnumValues()) {
+        values.add(schema.getEnumValues().contains(value) ? value : null);
+      }
+      enumRequests.put(fieldName, Maps.<Class<?>, List<String>>immutableEntry(rawType, values));
+    }
+
+    /*
+      int idx = decoder.readInt();
+      Object value = (idx >= 0 && idx < this.enumValues.length) ? this.enumValues[idx] : null;
+      if (value == null) {
+        throw new IOException(...);
+      }
+     */
+    Label invalid = mg.newLabel();
+    Label end = mg.newLabel();
+
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    int idx = mg.newLocal(Type.INT_TYPE);
+    mg.storeLocal(idx);
+
+    mg.loadLocal(idx);
+    mg.ifZCmp(GeneratorAdapter.LT, invalid);
+    mg.loadLocal(idx);
+    mg.loadThis();
+    mg.getField(classType, fieldName, Type.getType(Object[].class));
+    mg.arrayLength();
+    mg.ifICmp(GeneratorAdapter.GE, invalid);
+
+    mg.loadThis();
+    mg.getField(classType, fieldName, Type.getType(Object[].class));
+    mg.loadLocal(idx);
+    mg.arrayLoad(Type.getType(Object.class));
+    mg.dup();
+    mg.ifNonNull(end);
+    mg.pop();
+
+    mg.mark(invalid);
+    mg.throwException(Type.getType(IOException.class),
+                      String.format("Enum value missing in target. Failed to resolve %s to %s", sourceSchema, schema));
+    mg.mark(end);
+  }
+
+  /**
+   * Generates method body for decoding array value into either a {@link Collection} or an array. The logic is
+   * like this:
+   *
+   * <pre>
+   * {@code
+   *
+   * Collection<T> collection = this.instantiator.create(); // or new ArrayList() for array
+   * int len = decoder.readInt();
+   * while (len != 0) {
+   *   for (int i = 0; i < len; i++) {
+   *     collection.add(readElement(decoder));
+   *   }
+   *   len = decoder.readInt();
+   * }
+   * }
+   * </pre>
+   */
+  private void readArray(GeneratorAdapter mg, TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    TypeToken<?> componentType;
+    Class<?> rawType = inputType.getRawType();
+    boolean isArray = inputType.isArray();
+    if (isArray) {
+      componentType = inputType.getComponentType();
+    } else {
+      Preconditions.checkArgument(Collection.class.isAssignableFrom(rawType),
+                                  "Only array or collection type is support for array value.");
+      Preconditions.checkArgument(inputType.getType() instanceof ParameterizedType,
+                                  "Only parameterized type is supported for collection.");
+      componentType = TypeToken.of(((ParameterizedType) inputType.getType()).getActualTypeArguments()[0]);
+    }
+
+    // Create the collection
+    Type collectionType = Type.getType(Collection.class);
+    int collection = mg.newLocal(collectionType);
+    if (isArray) {
+      mg.newInstance(Type.getType(ArrayList.class));
+      mg.dup();
+      mg.invokeConstructor(Type.getType(ArrayList.class), getMethod(void.class, "<init>"));
+    } else {
+      createInstance(mg, inputType);
+      mg.checkCast(collectionType);
+    }
+    mg.storeLocal(collection);
+
+    Method readComponent = getReadMethod(componentType, sourceSchema.getComponentSchema(),
+                                         schema.getComponentSchema());
+    Type componentCallType = getCallType(componentType);
+
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+
+    // len = decoder.readInt();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    // while (len != 0)
+    Label beginWhile = mg.mark();
+    Label endWhile = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endWhile);
+
+    // for (int idx = 0; idx < len; idx++)
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginFor = mg.mark();
+    Label endFor = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endFor);
+
+    // collection.add(readElement(decoder));
+    mg.loadLocal(collection);
+    mg.loadThis();
+    mg.loadArg(0);
+    mg.invokeVirtual(classType, readComponent);
+    boxIfPrimitive(mg, componentCallType);
+    mg.invokeInterface(collectionType, getMethod(boolean.class, "add", Object.class));
+    mg.pop();
+
+    mg.iinc(idx, 1);
+    mg.goTo(beginFor);
+    mg.mark(endFor);
+
+    // len = decoder.readInt();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginWhile);
+    mg.mark(endWhile);
+
+    if (!isArray) {
+      mg.loadLocal(collection);
+      return;
+    }
+
+    Class<?> componentRawType = componentType.getRawType();
+    if (componentRawType.isPrimitive()) {
+      /*
+        T[] array = new T[collection.size()];
+        for (int i = 0; i < array.length; i++) {
+          array[i] = ((List) collection).get(i).tValue();
+        }
+       */
+      Type componentPrimitiveType = Type.getType(componentRawType);
+      Type listType = Type.getType(List.class);
+      int array = mg.newLocal(Type.getType(inputType.getRawType()));
+
+      mg.loadLocal(collection);
+      mg.invokeInterface(collectionType, getMethod(int.class, "size"));
+      mg.newArray(componentPrimitiveType);
+      mg.storeLocal(array);
+
+      mg.push(0);
+      mg.storeLocal(idx);
+      Label beginCopy = mg.mark();
+      Label endCopy = mg.newLabel();
+      mg.loadLocal(idx);
+      mg.loadLocal(array);
+      mg.arrayLength();
+      mg.ifICmp(GeneratorAdapter.GE, endCopy);
+
+      mg.loadLocal(array);
+      mg.loadLocal(idx);
+      mg.loadLocal(collection);
+      mg.checkCast(listType);
+      mg.loadLocal(idx);
+      mg.invokeInterface(listType, getMethod(Object.class, "get", int.class));
+      mg.unbox(componentPrimitiveType);
+      mg.arrayStore(componentPrimitiveType);
+
+      mg.iinc(idx, 1);
+      mg.goTo(beginCopy);
+      mg.mark(endCopy);
+
+      mg.loadLocal(array);
+    } else {
+      // collection.toArray((Object[]) Array.newInstance(this.componentClass, collection.size()));
+      String classField = getClassFieldName(componentType);
+      classRequests.put(classField, componentRawType);
+      preserveClass(componentRawType);
+
+      mg.loadLocal(collection);
+      mg.loadThis();
+      mg.getField(classType, classField, Type.getType(Class.class));
+      mg.loadLocal(collection);
+      mg.invokeInterface(collectionType, getMethod(int.class, "size"));
+      mg.invokeStatic(Type.getType(Array.class), getMethod(Object.class, "newInstance", Class.class, int.class));
+      mg.checkCast(Type.getType(Object[].class));
+      mg.invokeInterface(collectionType, getMethod(Object[].class, "toArray", Object[].class));
+    }
+  }
+
+  /**
+   * Generates method body for decoding map value. The logic is like this:
+   *
+   * <pre>
+   * {@code
+   *
+   * Map<K, V> map = this.instantiator.create();
+   * int len = decoder.readInt();
+   * while (len != 0) {
+   *   for (int i = 0; i < len; i++) {
+   *     map.put(readKey(decoder), readValue(decoder));
+   *   }
+   *   len = decoder.readInt();
+   * }
+   * }
+   * </pre>
+   */
+  private void readMap(GeneratorAdapter mg, TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    Preconditions.checkArgument(Map.class.isAssignableFrom(inputType.getRawType()),
+                                "Only map type is supported for map data.");
+    Preconditions.checkArgument(inputType.getType() instanceof ParameterizedType,
+                                "Only parameterized map is supported.");
+    java.lang.reflect.Type[] mapArgs = ((ParameterizedType) inputType.getType()).getActualTypeArguments();
+    TypeToken<?> keyType = TypeToken.of(mapArgs[0]);
+    TypeToken<?> valueType = TypeToken.of(mapArgs[1]);
+
+    Method readKey = getReadMethod(keyType, sourceSchema.getMapSchema().getKey(), schema.getMapSchema().getKey());
+    Method readValue = getReadMethod(valueType, sourceSchema.getMapSchema().getValue(),
+                                     schema.getMapSchema().getValue());
+
+    Type mapType = Type.getType(Map.class);
+    int map = mg.newLocal(mapType);
+    createInstance(mg, inputType);
+    mg.checkCast(mapType);
+    mg.storeLocal(map);
+
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+
+    // len = decoder.readInt();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    // while (len != 0)
+    Label beginWhile = mg.mark();
+    Label endWhile = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endWhile);
+
+    // for (int idx = 0; idx < len; idx++)
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginFor = mg.mark();
+    Label endFor = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endFor);
+
+    // map.put(readKey(decoder), readValue(decoder));
+    mg.loadLocal(map);
+    mg.loadThis();
+    mg.loadArg(0);
+    mg.invokeVirtual(classType, readKey);
+    boxIfPrimitive(mg, getCallType(keyType));
+    mg.loadThis();
+    mg.loadArg(0);
+    mg.invokeVirtual(classType, readValue);
+    boxIfPrimitive(mg, getCallType(valueType));
+    mg.invokeInterface(mapType, getMethod(Object.class, "put", Object.class, Object.class));
+    mg.pop();
+
+    mg.iinc(idx, 1);
+    mg.goTo(beginFor);
+    mg.mark(endFor);
+
+    // len = decoder.readInt();
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginWhile);
+    mg.mark(endWhile);
+
+    mg.loadLocal(map);
+  }
+
+  /**
+   * Generates method body for decoding a record. Fields in the source schema that are not in the target schema
+   * are skipped, while fields in the target schema that are not in the source schema are left untouched.
+   *
+   * <pre>
+   * {@code
+   *
+   * Object record = this.instantiator.create();
+   * this.fieldAccessor1.setXXX(record, readField1(decoder));
+   * skipField2(decoder);
+   * ...
+   * }
+   * </pre>
+   */
+  private void readRecord(GeneratorAdapter mg, TypeToken<?> inputType, Schema sourceSchema, Schema schema) {
+    Class<?> rawType = inputType.getRawType();
+
+    // Record type might be defined by the user, hence need to preserve class loading of it
+    preservedClasses.add(rawType);
+
+    int record = mg.newLocal(Type.getType(Object.class));
+    createInstance(mg, inputType);
+    mg.storeLocal(record);
+
+    for (Schema.Field sourceField : sourceSchema.getFields()) {
+      Schema.Field targetField = schema.getField(sourceField.getName());
+      if (targetField == null) {
+        // skipField(decoder);
+        mg.loadThis();
+        mg.loadArg(0);
+        mg.invokeVirtual(classType, getSkipMethod(sourceField.getSchema()));
+        continue;
+      }
+
+      String fieldName = sourceField.getName();
+      TypeToken<?> fieldType;
+      try {
+        fieldType = inputType.resolveType(Fields.findField(inputType.getType(), fieldName).getGenericType());
+      } catch (NoSuchFieldException e) {
+        throw Throwables.propagate(e);
+      }
+      fieldAccessorRequests.put(inputType, fieldName);
+
+      // this.fieldAccessor.setXXX(record, readField(decoder));
+      mg.loadThis();
+      mg.getField(classType, getFieldAccessorName(inputType, fieldName), Type.getType(FieldAccessor.class));
+      mg.loadLocal(record);
+      mg.loadThis();
+      mg.loadArg(0);
+      mg.invokeVirtual(classType, getReadMethod(fieldType, sourceField.getSchema(), targetField.getSchema()));
+      mg.invokeInterface(Type.getType(FieldAccessor.class), getAccessorMethod(fieldType));
+    }
+
+    mg.loadLocal(record);
+  }
+
+  /**
+   * Generates method body for decoding union. Each source union schema is resolved against the target schema
+   * at generation time, and the actual read method is selected based on the union index in the data.
+   *
+   * <pre>
+   * {@code
+   *
+   * switch (decoder.readInt()) {
+   *   case 0:
+   *     value = readUnion0(decoder);
+   *     break;
+   *   case 1:
+   *     value = readUnion1(decoder);
+   *     break;
+   *   ...
+   *   default:
+   *     throw new IOException(...);
+   * }
+   * }
+   * </pre>
+   */
+  private void readUnion(final GeneratorAdapter mg, final TypeToken<?> inputType,
+                         final Schema sourceSchema, final Schema schema) {
+    final List<Schema> sourceUnionSchemas = sourceSchema.getUnionSchemas();
+    final Type callType = getCallType(inputType);
+    final int value = mg.newLocal(callType);
+
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.tableSwitch(getIndices(sourceUnionSchemas.size()), new TableSwitchGenerator() {
+      @Override
+      public void generateCase(int key, Label end) {
+        Schema sourceValueSchema = sourceUnionSchemas.get(key);
+        Schema targetValueSchema = schema;
+        if (schema.getType() == Schema.Type.UNION) {
+          targetValueSchema = findUnionSchema(sourceValueSchema, schema, key);
+        }
+        if (targetValueSchema == null) {
+          mg.throwException(Type.getType(IOException.class),
+                            String.format("Fail to resolve %s to %s", sourceSchema, schema));
+          return;
+        }
+        mg.loadThis();
+        mg.loadArg(0);
+        mg.invokeVirtual(classType, getReadMethod(inputType, sourceValueSchema, targetValueSchema));
+        mg.storeLocal(value);
+        mg.goTo(end);
+      }
+
+      @Override
+      public void generateDefault() {
+        mg.throwException(Type.getType(IOException.class),
+                          String.format("Union index out of range for schema %s", sourceSchema));
+      }
+    });
+    mg.loadLocal(value);
+  }
+
+  /**
+   * Returns the skip method for the given schema. The same method will be returned if the same
+   * schema has been passed to the method before.
+   *
+   * @param schema Schema of the data to skip.
+   * @return A method for skipping data of the given schema.
+   */
+  private Method getSkipMethod(Schema schema) {
+    String key = schema.getSchemaHash().toString();
+
+    Method method = skipMethods.get(key);
+    if (method != null) {
+      return method;
+    }
+
+    method = getMethod(void.class, String.format("skip%s", key), Decoder.class);
+
+    // Put the method into map first before generating the body in order to support recursive data type.
+    skipMethods.put(key, method);
+
+    GeneratorAdapter mg = new GeneratorAdapter(Opcodes.ACC_PRIVATE, method, null,
+                                               new Type[]{Type.getType(IOException.class)}, classWriter);
+    generateSkipBody(mg, schema);
+    mg.returnValue();
+    mg.endMethod();
+
+    return method;
+  }
+
+  /**
+   * Generates the skip method body.
+   */
+  private void generateSkipBody(final GeneratorAdapter mg, Schema schema) {
+    Type decoderType = Type.getType(Decoder.class);
+
+    switch (schema.getType()) {
+      case NULL:
+        break;
+      case BOOLEAN:
+        mg.loadArg(0);
+        mg.invokeInterface(decoderType, getMethod(boolean.class, "readBool"));
+        mg.pop();
+        break;
+      case INT:
+      case ENUM:
+        mg.loadArg(0);
+        mg.invokeInterface(decoderType, getMethod(int.class, "readInt"));
+        mg.pop();
+        break;
+      case LONG:
+        mg.loadArg(0);
+        mg.invokeInterface(decoderType, getMethod(long.class, "readLong"));
+        mg.pop2();
+        break;
+      case FLOAT:
+      case DOUBLE:
+      case BYTES:
+      case STRING:
+        String skipMethod = "skip" + schema.getType().name().charAt(0)
+                                   + schema.getType().name().substring(1).toLowerCase();
+        mg.loadArg(0);
+        mg.invokeInterface(decoderType, getMethod(void.class, skipMethod));
+        break;
+      case ARRAY:
+        skipBlocks(mg, getSkipMethod(schema.getComponentSchema()), null);
+        break;
+      case MAP:
+        skipBlocks(mg, getSkipMethod(schema.getMapSchema().getKey()),
+                   getSkipMethod(schema.getMapSchema().getValue()));
+        break;
+      case RECORD:
+        for (Schema.Field field : schema.getFields()) {
+          mg.loadThis();
+          mg.loadArg(0);
+          mg.invokeVirtual(classType, getSkipMethod(field.getSchema()));
+        }
+        break;
+      case UNION:
+        final List<Schema> unionSchemas = schema.getUnionSchemas();
+        final String errorMessage = String.format("Union index out of range for schema %s", schema);
+        mg.loadArg(0);
+        mg.invokeInterface(decoderType, getMethod(int.class, "readInt"));
+        mg.tableSwitch(getIndices(unionSchemas.size()), new TableSwitchGenerator() {
+          @Override
+          public void generateCase(int key, Label end) {
+            mg.loadThis();
+            mg.loadArg(0);
+            mg.invokeVirtual(classType, getSkipMethod(unionSchemas.get(key)));
+            mg.goTo(end);
+          }
+
+          @Override
+          public void generateDefault() {
+            mg.throwException(Type.getType(IOException.class), errorMessage);
+          }
+        });
+        break;
+    }
+  }
+
+  /**
+   * Generates code for skipping block encoded array or map entries.
+   *
+   * @param mg Method body generator
+   * @param skipElement method for skipping an array element or a map key
+   * @param skipValue method for skipping a map value or {@code null} for array
+   */
+  private void skipBlocks(GeneratorAdapter mg, Method skipElement, @Nullable Method skipValue) {
+    int len = mg.newLocal(Type.INT_TYPE);
+    int idx = mg.newLocal(Type.INT_TYPE);
+
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+
+    Label beginWhile = mg.mark();
+    Label endWhile = mg.newLabel();
+    mg.loadLocal(len);
+    mg.ifZCmp(GeneratorAdapter.EQ, endWhile);
+
+    mg.push(0);
+    mg.storeLocal(idx);
+    Label beginFor = mg.mark();
+    Label endFor = mg.newLabel();
+    mg.loadLocal(idx);
+    mg.loadLocal(len);
+    mg.ifICmp(GeneratorAdapter.GE, endFor);
+
+    mg.loadThis();
+    mg.loadArg(0);
+    mg.invokeVirtual(classType, skipElement);
+    if (skipValue != null) {
+      mg.loadThis();
+      mg.loadArg(0);
+      mg.invokeVirtual(classType, skipValue);
+    }
+
+    mg.iinc(idx, 1);
+    mg.goTo(beginFor);
+    mg.mark(endFor);
+
+    mg.loadArg(0);
+    mg.invokeInterface(Type.getType(Decoder.class), getMethod(int.class, "readInt"));
+    mg.storeLocal(len);
+    mg.goTo(beginWhile);
+    mg.mark(endWhile);
+  }
+
+  /**
+   * Generates code to create a new instance of the given type through an {@link Instantiator}. The generated
+   * code leaves the new instance on the stack.
+   */
+  private void createInstance(GeneratorAdapter mg, TypeToken<?> type) {
+    String fieldName = String.format("instantiator$%s", normalizeTypeName(TypeToken.of(type.getRawType())));
+    instantiatorRequests.put(fieldName, TypeToken.of(type.getRawType()));
+
+    mg.loadThis();
+    mg.getField(classType, fieldName, Type.getType(Instantiator.class));
+    mg.invokeInterface(Type.getType(Instantiator.class), getMethod(Object.class, "create"));
+  }
+
+  /**
+   * Generates code to load the given class with {@link Class#forName(String)}.
+   */
+  private void loadClass(GeneratorAdapter mg, Class<?> cls) {
+    mg.push(cls.getName());
+    mg.invokeStatic(Type.getType(Class.class), getMethod(Class.class, "forName", String.class));
+  }
+
+  /**
+   * Adds the element class of the given class to the preserved classes list.
+   */
+  private void preserveClass(Class<?> cls) {
+    while (cls.isArray()) {
+      cls = cls.getComponentType();
+    }
+    if (!cls.isPrimitive()) {
+      preservedClasses.add(cls);
+    }
+  }
+
+  /**
+   * Finds the schema in the target union schema that the source schema can be resolved to.
+   *
+   * @param sourceSchema the source schema
+   * @param schema the target union schema
+   * @param idx index of the source schema in the source union or {@code -1} if the source is not from an union.
+   *            It is used for trying to resolve to the target union schema of the same index first.
+   * @return the target union schema or {@code null} if no schema can be resolved to.
+   */
+  @Nullable
+  private Schema findUnionSchema(Schema sourceSchema, Schema schema, int idx) {
+    List<Schema> unionSchemas = schema.getUnionSchemas();
+    if (idx >= 0 && idx < unionSchemas.size()) {
+      Schema targetSchema = unionSchemas.get(idx);
+      if (targetSchema.getType() == sourceSchema.getType() && sourceSchema.isCompatible(targetSchema)) {
+        return targetSchema;
+      }
+    }
+    for (Schema targetSchema : unionSchemas) {
+      if (sourceSchema.isCompatible(targetSchema)) {
+        return targetSchema;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns whether a simple source type can be promoted to the simple target type.
+   */
+  private boolean isPromotable(Schema.Type sourceType, Schema.Type targetType) {
+    if (sourceType == targetType || targetType == Schema.Type.STRING) {
+      return true;
+    }
+    switch (sourceType) {
+      case INT:
+        return targetType == Schema.Type.LONG || targetType == Schema.Type.FLOAT || targetType == Schema.Type.DOUBLE;
+      case LONG:
+        return targetType == Schema.Type.FLOAT || targetType == Schema.Type.DOUBLE;
+      case FLOAT:
+        return targetType == Schema.Type.DOUBLE;
+    }
+    return false;
+  }
+
+  /**
+   * Returns the return type of the {@link Decoder} method for decoding the given simple type.
+   */
+  private Type getDecodeType(Schema.Type type) {
+    switch (type) {
+      case BOOLEAN:
+        return Type.BOOLEAN_TYPE;
+      case INT:
+        return Type.INT_TYPE;
+      case LONG:
+        return Type.LONG_TYPE;
+      case FLOAT:
+        return Type.FLOAT_TYPE;
+      case DOUBLE:
+        return Type.DOUBLE_TYPE;
+      case STRING:
+        return Type.getType(String.class);
+    }
+    throw new IllegalArgumentException("Not a simple type " + type);
+  }
+
+  /**
+   * Returns the primitive type that a value of the given target schema type should be converted to,
+   * based on the input type. The INT schema type represents (byte, char, short and int).
+   */
+  private Type getTargetPrimitiveType(TypeToken<?> inputType, Schema.Type targetType) {
+    if (targetType == Schema.Type.INT) {
+      Class<?> rawType = Primitives.unwrap(inputType.getRawType());
+      if (rawType.equals(byte.class) || rawType.equals(char.class) || rawType.equals(short.class)) {
+        return Type.getType(rawType);
+      }
+    }
+    return getDecodeType(targetType);
+  }
+
+  /**
+   * Returns the type to be used as the return type of the read methods. Primitive types are returned as is
+   * to avoid boxing, while all other types are returned as {@link Object}. This is needed to work with
+   * private classes that the generated DatumReader doesn't have access to.
+   */
+  private Type getCallType(TypeToken<?> inputType) {
+    Class<?> rawType = inputType.getRawType();
+    return rawType.isPrimitive() ? Type.getType(rawType) : Type.getType(Object.class);
+  }
+
+  /**
+   * Generates a boxing instruction if the given type is a primitive type.
+   */
+  private void boxIfPrimitive(GeneratorAdapter mg, Type type) {
+    if (type.getSort() != Type.OBJECT && type.getSort() != Type.ARRAY) {
+      mg.valueOf(type);
+    }
+  }
+
+  private int[] getIndices(int size) {
+    int[] indices = new int[size];
+    for (int i = 0; i < size; i++) {
+      indices[i] = i;
+    }
+    return indices;
+  }
+
+  private <T> TypeToken<DatumReader<T>> getInterfaceType(TypeToken<T> type) {
+    return new TypeToken<DatumReader<T>>() {
+    }.where(new TypeParameter<T>() {
+    }, type);
+  }
+
+  private String getClassName(TypeToken<?> interfaceType, Schema schema, Schema sourceSchema) {
+    return String.format("%s/%s%s%s%s",
+                         interfaceType.getRawType().getPackage().getName().replace('.', '/'),
+                         normalizeTypeName(TypeToken.of(((ParameterizedType) interfaceType.getType())
+                                                          .getActualTypeArguments()[0])),
+                         interfaceType.getRawType().getSimpleName(), schema.getSchemaHash(),
+                         sourceSchema.getSchemaHash());
+  }
+
+  private String normalizeTypeName(TypeToken<?> type) {
+    String typeName = type.toString();
+    int dimension = 0;
+    while (type.isArray()) {
+      type = type.getComponentType();
+      typeName = type.toString();
+      dimension++;
+    }
+
+    typeName = typeName.replace(".", "")
+                        .replace("<", "Of")
+                        .replace(">", "")
+                        .replace(",", "To")
+                        .replace(" ", "")
+                        .replace("$", "")
+                        .replace("?", "");
+    if (dimension > 0) {
+      typeName = "Array" + dimension + typeName;
+    }
+    return typeName;
+  }
+
+  private Method getMethod(Class<?> returnType, String name, Class<?>...args) {
+    return Methods.getMethod(returnType, name, args);
+  }
+
+  /**
+   * Returns the method for calling {@link FieldAccessor} setter based on the data type.
+   * @param type Data type.
+   * @return A {@link Method} for calling {@link FieldAccessor}.
+   */
+  private Method getAccessorMethod(TypeToken<?> type) {
+    Class<?> rawType = type.getRawType();
+    if (rawType.isPrimitive()) {
+      return getMethod(void.class,
+                       String.format("set%c%s",
+                                     Character.toUpperCase(rawType.getName().charAt(0)),
+                                     rawType.getName().substring(1)),
+                       Object.class, rawType);
+    } else {
+      return getMethod(void.class, "set", Object.class, Object.class);
+    }
+  }
+
+  /**
+   * Generates the name of the class field for storing {@link FieldAccessor} for the given record field.
+   * @param recordType Type of the record.
+   * @param fieldName name of the field.
+   * @return name of the class field.
+   */
+  private String getFieldAccessorName(TypeToken<?> recordType, String fieldName) {
+    return String.format("%s$%s", normalizeTypeName(recordType), fieldName);
+  }
+
+  /**
+   * Generates the name of the class field for storing the {@link Class} of the given type.
+   */
+  private String getClassFieldName(TypeToken<?> type) {
+    return String.format("class$%s", normalizeTypeName(type));
+  }
+}
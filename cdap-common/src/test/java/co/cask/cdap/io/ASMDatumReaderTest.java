@@ -0,0 +1,450 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.io;
+
+import co.cask.cdap.api.data.schema.Schema;
+import co.cask.cdap.api.data.schema.UnsupportedTypeException;
+import co.cask.cdap.api.flow.flowlet.StreamEvent;
+import co.cask.cdap.common.io.BinaryDecoder;
+import co.cask.cdap.common.io.BinaryEncoder;
+import co.cask.cdap.internal.io.ASMDatumReaderFactory;
+import co.cask.cdap.internal.io.ASMDatumWriterFactory;
+import co.cask.cdap.internal.io.ASMFieldAccessorFactory;
+import co.cask.cdap.internal.io.DatumReader;
+import co.cask.cdap.internal.io.DatumWriter;
+import co.cask.cdap.internal.io.ReflectionDatumReader;
+import co.cask.cdap.internal.io.ReflectionSchemaGenerator;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.reflect.TypeToken;
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for {@link ASMDatumReaderFactory}.
+ */
+public class ASMDatumReaderTest {
+
+  private static final ASMFieldAccessorFactory FIELD_ACCESSOR_FACTORY = new ASMFieldAccessorFactory();
+  private static final ASMDatumWriterFactory DATUM_WRITER_FACTORY = new ASMDatumWriterFactory(FIELD_ACCESSOR_FACTORY);
+  private static final ASMDatumReaderFactory DATUM_READER_FACTORY = new ASMDatumReaderFactory(FIELD_ACCESSOR_FACTORY);
+
+  /**
+   *
+   */
+  public enum TestEnum {
+    VALUE1, VALUE2, VALUE3, VALUE4
+  }
+
+  /**
+   *
+   */
+  public enum LessEnum {
+    VALUE3, VALUE1
+  }
+
+  private static Schema getSchema(TypeToken<?> type) throws UnsupportedTypeException {
+    return new ReflectionSchemaGenerator().generate(type.getType());
+  }
+
+  private static <T> byte[] encode(TypeToken<T> type, T value) throws UnsupportedTypeException, IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    DATUM_WRITER_FACTORY.create(type, getSchema(type)).encode(value, new BinaryEncoder(os));
+    return os.toByteArray();
+  }
+
+  private static <T> T decode(TypeToken<T> type, byte[] bytes,
+                              Schema sourceSchema) throws UnsupportedTypeException, IOException {
+    DatumReader<T> reader = DATUM_READER_FACTORY.create(type, getSchema(type));
+    return reader.read(new BinaryDecoder(new ByteArrayInputStream(bytes)), sourceSchema);
+  }
+
+  private static <T> T roundTrip(TypeToken<T> type, T value) throws UnsupportedTypeException, IOException {
+    return decode(type, encode(type, value), getSchema(type));
+  }
+
+  @Test
+  public void testSimpleTypes() throws UnsupportedTypeException, IOException {
+    Assert.assertEquals((short) 3000, (short) roundTrip(new TypeToken<Short>() { }, (short) 3000));
+    Assert.assertEquals(12234234, (int) roundTrip(new TypeToken<Integer>() { }, 12234234));
+    Assert.assertEquals(-1234567890123L, (long) roundTrip(new TypeToken<Long>() { }, -1234567890123L));
+    Assert.assertEquals(3.14d, roundTrip(new TypeToken<Double>() { }, 3.14d), 0.000001d);
+    Assert.assertEquals(2.5f, roundTrip(new TypeToken<Float>() { }, 2.5f), 0.000001f);
+    Assert.assertEquals('c', (char) roundTrip(new TypeToken<Character>() { }, 'c'));
+    Assert.assertTrue(roundTrip(new TypeToken<Boolean>() { }, true));
+    Assert.assertEquals("Testing message", roundTrip(new TypeToken<String>() { }, "Testing message"));
+
+    UUID uuid = UUID.randomUUID();
+    Assert.assertEquals(uuid, roundTrip(new TypeToken<UUID>() { }, uuid));
+
+    byte[] bytes = "Testing bytes".getBytes(Charsets.UTF_8);
+    Assert.assertArrayEquals(bytes, roundTrip(new TypeToken<byte[]>() { }, bytes));
+    Assert.assertEquals(ByteBuffer.wrap(bytes), roundTrip(new TypeToken<ByteBuffer>() { }, ByteBuffer.wrap(bytes)));
+  }
+
+  @Test
+  public void testEnum() throws UnsupportedTypeException, IOException {
+    TypeToken<TestEnum> type = new TypeToken<TestEnum>() { };
+    Assert.assertEquals(TestEnum.VALUE1, roundTrip(type, TestEnum.VALUE1));
+    Assert.assertEquals(TestEnum.VALUE4, roundTrip(type, TestEnum.VALUE4));
+
+    // Project to an enum with less values
+    TypeToken<LessEnum> lessType = new TypeToken<LessEnum>() { };
+    Assert.assertEquals(LessEnum.VALUE3, decode(lessType, encode(type, TestEnum.VALUE3), getSchema(type)));
+    try {
+      decode(lessType, encode(type, TestEnum.VALUE2), getSchema(type));
+      Assert.fail("Expected failure for enum value missing in target");
+    } catch (IOException e) {
+      // Expected
+    }
+  }
+
+  @Test
+  public void testArrayAndCollection() throws UnsupportedTypeException, IOException {
+    int[] intArray = {1, 2, 3, 4, -5, -6, -7, -8};
+    Assert.assertArrayEquals(intArray, roundTrip(new TypeToken<int[]>() { }, intArray));
+
+    String[] stringArray = {"1", "2", null, "3"};
+    Assert.assertArrayEquals(stringArray, roundTrip(new TypeToken<String[]>() { }, stringArray));
+
+    List<Long> list = ImmutableList.of(1L, 10L, 100L, 1000L);
+    Assert.assertEquals(list, roundTrip(new TypeToken<List<Long>>() { }, list));
+
+    Map<String, List<String>> map = ImmutableMap.<String, List<String>>of("k1", Lists.newArrayList("v1"),
+                                                                          "k2", Lists.newArrayList("v2", null));
+    Assert.assertEquals(map, roundTrip(new TypeToken<Map<String, List<String>>>() { }, map));
+
+    List<URI> uris = ImmutableList.of(URI.create("http://www.abc.com"));
+    Assert.assertEquals(uris, roundTrip(new TypeToken<List<URI>>() { }, uris));
+
+    // Project list to set and array
+    TypeToken<List<String>> listType = new TypeToken<List<String>>() { };
+    byte[] encoded = encode(listType, Lists.newArrayList("1", "2", "3"));
+    Assert.assertEquals(Sets.newHashSet("1", "2", "3"),
+                        decode(new TypeToken<Set<String>>() { }, encoded, getSchema(listType)));
+    Assert.assertArrayEquals(new String[] {"1", "2", "3"},
+                             decode(new TypeToken<String[]>() { }, encoded, getSchema(listType)));
+  }
+
+  @Test
+  public void testRecord() throws UnsupportedTypeException, IOException {
+    Record record = new Record(10, "testing", ImmutableList.of("a", "b", "c"), TestEnum.VALUE2);
+    Assert.assertEquals(record, roundTrip(new TypeToken<Record>() { }, record));
+
+    List<Record> records = ImmutableList.of(record);
+    Assert.assertEquals(records, roundTrip(new TypeToken<List<Record>>() { }, records));
+
+    Record[][] recordArray = new Record[][] {{ record }};
+    Assert.assertArrayEquals(recordArray, roundTrip(new TypeToken<Record[][]>() { }, recordArray));
+
+    Node root = new Node((short) 1,
+                         new Node((short) 2, null, new Node((short) 3, null, null)),
+                         new Node((short) 4, new Node((short) 5, null, null), null));
+    Assert.assertEquals(root, roundTrip(new TypeToken<Node>() { }, root));
+
+    StreamEvent event = new StreamEvent(ImmutableMap.of("key", "value"),
+                                        ByteBuffer.wrap("Testing message".getBytes(Charsets.UTF_8)));
+    StreamEvent value = roundTrip(new TypeToken<StreamEvent>() { }, event);
+    Assert.assertEquals(event.getHeaders(), value.getHeaders());
+    Assert.assertEquals(event.getBody(), value.getBody());
+  }
+
+  @Test
+  public void testTypeProject() throws UnsupportedTypeException, IOException {
+    Record1 r1 = new Record1(10, Maps.<Integer, Value>newHashMap(), new URL("http://www.yahoo.com"));
+    r1.properties.put(1, new Value(1, "Name1"));
+    r1.properties.put(2, new Value(2, "Name2"));
+    r1.properties.put(3, null);
+
+    TypeToken<Record1> sourceType = new TypeToken<Record1>() { };
+    Record2 r2 = decode(new TypeToken<Record2>() { }, encode(sourceType, r1), getSchema(sourceType));
+
+    Assert.assertEquals(10L, r2.i.longValue());
+    Assert.assertEquals(3, r2.properties.size());
+    for (Map.Entry<String, Value> entry : r2.properties.entrySet()) {
+      Assert.assertEquals(r1.properties.get(Integer.valueOf(entry.getKey())), entry.getValue());
+    }
+    Assert.assertNull(r2.name);
+    Assert.assertArrayEquals(new long[] {1L, 2L}, r2.numbers);
+    Assert.assertEquals(URI.create("http://www.yahoo.com"), r2.url);
+    Assert.assertEquals(r1.uuid, r2.uuid);
+  }
+
+  @Test
+  public void testReduceProjection() throws UnsupportedTypeException, IOException {
+    MoreFields moreFields = new MoreFields(10, 20.2, "30", ImmutableList.of("1", "2"));
+    TypeToken<MoreFields> sourceType = new TypeToken<MoreFields>() { };
+    byte[] encoded = encode(sourceType, moreFields);
+
+    LessFields lessFields = decode(new TypeToken<LessFields>() { }, encoded, getSchema(sourceType));
+    Assert.assertEquals("30", lessFields.k);
+    Assert.assertEquals(moreFields.inner.b, lessFields.inner.b);
+
+    // The reflection reader should produce the same result
+    lessFields = new ReflectionDatumReader<>(getSchema(TypeToken.of(LessFields.class)), TypeToken.of(LessFields.class))
+      .read(new BinaryDecoder(new ByteArrayInputStream(encoded)), getSchema(sourceType));
+    Assert.assertEquals("30", lessFields.k);
+    Assert.assertEquals(moreFields.inner.b, lessFields.inner.b);
+  }
+
+  @Test
+  public void testMultipleSourceSchemas() throws UnsupportedTypeException, IOException {
+    // The same reader should be able to decode data written with different source schemas
+    TypeToken<Long> type = new TypeToken<Long>() { };
+    DatumReader<Long> reader = DATUM_READER_FACTORY.create(type, getSchema(type));
+
+    TypeToken<Integer> intType = new TypeToken<Integer>() { };
+    byte[] intBytes = encode(intType, 123);
+    byte[] longBytes = encode(type, 456L);
+
+    for (int i = 0; i < 2; i++) {
+      Assert.assertEquals(123L, (long) reader.read(new BinaryDecoder(new ByteArrayInputStream(intBytes)),
+                                                   getSchema(intType)));
+      Assert.assertEquals(456L, (long) reader.read(new BinaryDecoder(new ByteArrayInputStream(longBytes)),
+                                                   getSchema(type)));
+    }
+  }
+
+  @Ignore
+  @Test
+  public void testSpeed() throws UnsupportedTypeException, IOException {
+    TypeToken<Node> type = new TypeToken<Node>() { };
+    Schema schema = getSchema(type);
+    Node value = new Node((short) 1, new Node((short) 2, null, new Node((short) 3, null, null)),
+                          new Node((short) 4, new Node((short) 5, null, null), null));
+    byte[] bytes = encode(type, value);
+
+    DatumReader<Node> asmReader = DATUM_READER_FACTORY.create(type, schema);
+    DatumReader<Node> reflectionReader = new ReflectionDatumReader<>(schema, type);
+
+    // Run twice to have the JIT warmed up
+    for (int round = 0; round < 2; round++) {
+      for (DatumReader<Node> reader : ImmutableList.of(reflectionReader, asmReader)) {
+        long startTime = System.nanoTime();
+        for (int i = 0; i < 1000000; i++) {
+          reader.read(new BinaryDecoder(new ByteArrayInputStream(bytes)), schema);
+        }
+        long endTime = System.nanoTime();
+        System.out.println(reader.getClass().getSimpleName() + " time spent: "
+                             + TimeUnit.MILLISECONDS.convert(endTime - startTime, TimeUnit.NANOSECONDS));
+      }
+    }
+  }
+
+  private static class Record {
+    private int i;
+    private String s;
+    private List<String> list;
+    private TestEnum e;
+
+    Record(int i, String s, List<String> list, TestEnum e) {
+      this.i = i;
+      this.s = s;
+      this.list = list;
+      this.e = e;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Record record = (Record) o;
+      return i == record.i && e == record.e && list.equals(record.list) && s.equals(record.s);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(i, s, list, e);
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class Node {
+    public short data;
+    public Short boxedData;
+    public Node left;
+    public Node right;
+
+    public Node(short data, Node left, Node right) {
+      this.data = data;
+      this.boxedData = data;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Node node = (Node) o;
+      return data == node.data && Objects.equal(boxedData, node.boxedData)
+        && Objects.equal(left, node.left) && Objects.equal(right, node.right);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(data, left, right);
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Value {
+    private final int id;
+    private final String name;
+
+    public Value(int id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+
+      Value value = (Value) o;
+      return id == value.id && name.equals(value.name);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(id, name);
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Record1 {
+    private final int i;
+    private final Map<Integer, Value> properties;
+    private final int[] numbers;
+    private final URL url;
+    private final UUID uuid;
+    private final String nullStr;
+
+    public Record1(int i, Map<Integer, Value> properties, URL url) {
+      this.i = i;
+      this.properties = properties;
+      this.numbers = new int[] {1, 2};
+      this.url = url;
+      this.uuid = UUID.randomUUID();
+      this.nullStr = null;
+    }
+  }
+
+  /**
+   *
+   */
+  public static class Record2 {
+    private final Long i;
+    private final Map<String, Value> properties;
+    private final String name;
+    private final long[] numbers;
+    private final URI url;
+    private final UUID uuid;
+    private final String nullStr;
+
+    public Record2(long i, Map<String, Value> properties, String name) {
+      this.i = i;
+      this.properties = properties;
+      this.name = name;
+      this.numbers = new long[0];
+      this.url = null;
+      this.uuid = null;
+      this.nullStr = null;
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class MoreFields {
+
+    static final class Inner {
+      final Map<String, String> map;
+      final String b;
+
+      Inner(String b) {
+        this.b = b;
+        map = ImmutableMap.of("b", b);
+      }
+    }
+
+    final int i;
+    final double d;
+    final String k;
+    final List<String> list;
+    final Inner inner;
+
+    public MoreFields(int i, double d, String k, List<String> list) {
+      this.i = i;
+      this.d = d;
+      this.k = k;
+      this.list = list;
+      inner = new Inner("inner");
+    }
+  }
+
+  /**
+   *
+   */
+  public static final class LessFields {
+    static final class Inner {
+      String b;
+    }
+
+    String k;
+    Inner inner;
+  }
+}
@@ -47,6 +47,7 @@ import org.apache.twill.filesystem.Location;
 import org.apache.twill.filesystem.LocationFactory;
 import org.junit.Assert;
 import org.junit.ClassRule;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
@@ -423,6 +424,181 @@ public abstract class StreamDataFileTestBase {
     }
   }
 
+  @Test
+  public void testCompression() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    Location eventFile = dir.getTempFile(".dat");
+    Location indexFile = dir.getTempFile(".idx");
+    Location plainEventFile = dir.getTempFile(".dat");
+    Location plainIndexFile = dir.getTempFile(".idx");
+
+    // Write 1000 events with 100 different timestamps, with and without compression.
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Locations.newOutputSupplier(eventFile), Locations.newOutputSupplier(indexFile), 10L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.CODEC, "deflate"));
+    StreamDataFileWriter plainWriter = new StreamDataFileWriter(Locations.newOutputSupplier(plainEventFile),
+                                                                Locations.newOutputSupplier(plainIndexFile),
+                                                                10L);
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < 10; j++) {
+        StreamEvent event = StreamFileTestUtils.createEvent(i, "Compression test " + i);
+        writer.append(event);
+        plainWriter.append(event);
+      }
+    }
+    writer.close();
+    plainWriter.close();
+
+    Assert.assertTrue(eventFile.length() < plainEventFile.length());
+
+    // Read all events and verify the positions are strictly increasing
+    StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(eventFile));
+    List<PositionStreamEvent> events = Lists.newArrayList();
+    Assert.assertEquals(1000, reader.read(events, 1000, 0, TimeUnit.SECONDS));
+    Assert.assertEquals(-1, reader.read(events, 1, 0, TimeUnit.SECONDS));
+    reader.close();
+
+    long lastPosition = -1L;
+    for (int i = 0; i < events.size(); i++) {
+      PositionStreamEvent event = events.get(i);
+      Assert.assertEquals((long) (i / 10), event.getTimestamp());
+      Assert.assertEquals("Compression test " + event.getTimestamp(),
+                          Charsets.UTF_8.decode(event.getBody()).toString());
+      Assert.assertTrue(event.getStart() > lastPosition);
+      lastPosition = event.getStart();
+    }
+
+    // Read from some event positions as well as positions before them
+    for (int i = 0; i < events.size(); i += 7) {
+      PositionStreamEvent event = events.get(i);
+      for (long offset : new long[] { event.getStart(), event.getStart() - 1 }) {
+        reader = StreamDataFileReader.createWithOffset(Locations.newInputSupplier(eventFile),
+                                                       Locations.newInputSupplier(indexFile), offset);
+        List<PositionStreamEvent> readEvents = Lists.newArrayList();
+        Assert.assertEquals(1, reader.read(readEvents, 1, 0, TimeUnit.SECONDS));
+        reader.close();
+        Assert.assertEquals(firstStartFrom(events, offset), readEvents.get(0).getStart());
+      }
+    }
+
+    // Read with start time using the index
+    for (long ts : new long[] {0, 5, 10, 11, 50, 99}) {
+      reader = StreamDataFileReader.createByStartTime(Locations.newInputSupplier(eventFile),
+                                                      Locations.newInputSupplier(indexFile), ts);
+      List<StreamEvent> readEvents = Lists.newArrayList();
+      Assert.assertEquals(1, reader.read(readEvents, 1, 0, TimeUnit.SECONDS));
+      reader.close();
+      Assert.assertEquals(ts, readEvents.get(0).getTimestamp());
+    }
+  }
+
+  @Test
+  public void testCompressionPosition() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    Location eventFile = dir.getTempFile(".dat");
+    Location indexFile = dir.getTempFile(".idx");
+
+    // Write 10 events in the same block, which compresses to less bytes than the number of events.
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Locations.newOutputSupplier(eventFile), Locations.newOutputSupplier(indexFile), 100L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.CODEC, "deflate"));
+    for (int i = 0; i < 10; i++) {
+      writer.append(StreamFileTestUtils.createEvent(0, ""));
+    }
+    writer.close();
+
+    // Read 4 events, then continue from the last position with a new reader
+    StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(eventFile));
+    List<StreamEvent> events = Lists.newArrayList();
+    Assert.assertEquals(4, reader.read(events, 4, 0, TimeUnit.SECONDS));
+    long position = reader.getPosition();
+    reader.close();
+
+    reader = StreamDataFileReader.createWithOffset(Locations.newInputSupplier(eventFile),
+                                                   Locations.newInputSupplier(indexFile), position);
+    events.clear();
+    Assert.assertEquals(6, reader.read(events, 10, 0, TimeUnit.SECONDS));
+    Assert.assertEquals(-1, reader.read(events, 10, 0, TimeUnit.SECONDS));
+    reader.close();
+  }
+
+  @Test
+  public void testInvalidCompressionCodec() throws Exception {
+    Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+    try {
+      new StreamDataFileWriter(Locations.newOutputSupplier(dir.getTempFile(".dat")),
+                               Locations.newOutputSupplier(dir.getTempFile(".idx")), 100L,
+                               ImmutableMap.of(StreamDataFileConstants.Property.Key.CODEC, "unknown"));
+      Assert.fail("Expected IllegalArgumentException for unknown codec");
+    } catch (IllegalArgumentException e) {
+      // Expected
+    }
+  }
+
+  /**
+   * Benchmark for comparing the write throughput and file size with different compression codecs.
+   */
+  @Ignore
+  @Test
+  public void testCompressionSpeed() throws Exception {
+    int events = 1000000;
+    String body = Strings.repeat('x', 100);
+    for (String codec : new String[] { null, "deflate", "snappy", "lz4" }) {
+      Location dir = StreamFileTestUtils.createTempDir(getLocationFactory());
+      Location eventFile = dir.getTempFile(".dat");
+      Map<String, String> properties = codec == null
+        ? ImmutableMap.<String, String>of()
+        : ImmutableMap.of(StreamDataFileConstants.Property.Key.CODEC, codec);
+
+      StreamDataFileWriter writer;
+      try {
+        writer = new StreamDataFileWriter(Locations.newOutputSupplier(eventFile),
+                                          Locations.newOutputSupplier(dir.getTempFile(".idx")), 10000L, properties);
+      } catch (IllegalArgumentException e) {
+        LOG.info("Skipping codec {}: {}", codec, e.getMessage());
+        continue;
+      }
+
+      Stopwatch stopwatch = new Stopwatch().start();
+      for (int i = 0; i < events; i++) {
+        writer.append(StreamFileTestUtils.createEvent(i / 1000, body + i));
+      }
+      writer.close();
+      long writeMillis = stopwatch.elapsedMillis();
+
+      stopwatch.reset().start();
+      StreamDataFileReader reader = StreamDataFileReader.create(Locations.newInputSupplier(eventFile));
+      List<StreamEvent> readEvents = Lists.newArrayListWithCapacity(1000);
+      int count = 0;
+      int read = reader.read(readEvents, 1000, 0, TimeUnit.SECONDS);
+      while (read >= 0) {
+        count += read;
+        readEvents.clear();
+        read = reader.read(readEvents, 1000, 0, TimeUnit.SECONDS);
+      }
+      reader.close();
+      long readMillis = stopwatch.elapsedMillis();
+      Assert.assertEquals(events, count);
+
+      LOG.info("Codec {}: write {} events/s, read {} events/s, file size {} bytes",
+               codec, events * 1000L / Math.max(1L, writeMillis), events * 1000L / Math.max(1L, readMillis),
+               eventFile.length());
+    }
+  }
+
+  /**
+   * Returns the start position of the first event that starts at or after the given offset,
+   * which is the event that a reader opened with the given offset should read first.
+   */
+  private long firstStartFrom(List<PositionStreamEvent> events, long offset) {
+    for (PositionStreamEvent event : events) {
+      if (event.getStart() >= offset) {
+        return event.getStart();
+      }
+    }
+    throw new IllegalArgumentException("No event starts at or after offset " + offset);
+  }
+
   @Test
   public void testEndOfFile() throws Exception {
     // This test is for opening a reader with start time beyond the last event in the file.
@@ -804,6 +980,72 @@ public abstract class StreamDataFileTestBase {
     }
   }
 
+  /**
+   * Test resuming live stream readers from the offsets of previous readers, while compressed data blocks are
+   * being written.
+   */
+  @Test
+  public void testLiveStreamResumeCompressed() throws Exception {
+    String streamName = "liveResume";
+    StreamId streamId = NamespaceId.DEFAULT.stream(streamName);
+    String filePrefix = "prefix";
+    long partitionDuration = TimeUnit.HOURS.toMillis(1);
+    Location location = getLocationFactory().create(streamName);
+    location.mkdirs();
+
+    StreamConfig config = new StreamConfig(streamId, partitionDuration, 10000, Long.MAX_VALUE,
+                                           location, null, 1000, "deflate");
+
+    // Write to the current partition, so that the readers don't move to later partitions
+    long partitionStart = StreamUtils.getPartitionStartTime(System.currentTimeMillis(), partitionDuration);
+    Location partitionLocation = StreamUtils.createPartitionLocation(config.getLocation(),
+                                                                     partitionStart, partitionDuration);
+    Location eventLocation = StreamUtils.createStreamLocation(partitionLocation, filePrefix, 0, StreamFileType.EVENT);
+    StreamFileOffset offset = new StreamFileOffset(eventLocation, 0L, 0);
+
+    List<String> expected = Lists.newArrayList();
+    List<PositionStreamEvent> events = Lists.newArrayList();
+    try (FileWriter<StreamEvent> writer = createWriter(config, filePrefix)) {
+      for (int block = 0; block < 10; block++) {
+        // Blocks of identical empty events compress to less bytes than the number of events,
+        // hence the event positions in them are padded.
+        int blockSize = block % 2 == 0 ? 50 : 7;
+        for (int i = 0; i < blockSize; i++) {
+          String body = block % 2 == 0 ? "" : "Resume test " + expected.size();
+          writer.append(StreamFileTestUtils.createEvent(partitionStart + block, body));
+          expected.add((partitionStart + block) + ":" + body);
+        }
+        writer.flush();
+
+        // Read the events of the block in batches of 3, each with a new reader that resumes from the last offset
+        Stopwatch stopwatch = new Stopwatch().start();
+        while (events.size() < expected.size() && stopwatch.elapsedTime(TimeUnit.SECONDS) < 10) {
+          try (FileReader<PositionStreamEvent, StreamFileOffset> reader =
+                 new LiveStreamFileReader(config, offset, 100)) {
+            reader.read(events, 3, 0, TimeUnit.SECONDS);
+            offset = new StreamFileOffset(reader.getPosition());
+          }
+        }
+        Assert.assertEquals(expected.size(), events.size());
+      }
+    }
+
+    // Each event is read exactly once and in order
+    long lastPosition = -1L;
+    for (int i = 0; i < events.size(); i++) {
+      PositionStreamEvent event = events.get(i);
+      Assert.assertEquals(expected.get(i),
+                          event.getTimestamp() + ":" + Charsets.UTF_8.decode(event.getBody()).toString());
+      Assert.assertTrue(event.getStart() > lastPosition);
+      lastPosition = event.getStart();
+    }
+
+    // Nothing more to read from the last offset
+    try (FileReader<PositionStreamEvent, StreamFileOffset> reader = new LiveStreamFileReader(config, offset, 100)) {
+      Assert.assertEquals(0, reader.read(events, 1, 0, TimeUnit.SECONDS));
+    }
+  }
+
   /**
    * This test is to validate batch write with the same timestamp are written in the same data block.
    */
@@ -997,6 +1239,6 @@ public abstract class StreamDataFileTestBase {
   private FileWriter<StreamEvent> createWriter(StreamConfig config, String prefix) {
     return new TimePartitionedStreamFileWriter(config.getLocation(), config.getPartitionDuration(),
                                                prefix, config.getIndexInterval(), config.getStreamId(),
-                                               impersonator);
+                                               impersonator, config.getCompressionCodec());
   }
 }
@@ -339,6 +339,72 @@ public class StreamInputFormatTest {
     Assert.assertFalse(recordReader.nextKeyValue());
   }
 
+  @Test
+  public void testCompressedSplits() throws Exception {
+    File inputDir = tmpFolder.newFolder();
+    File partition = new File(inputDir,  "1.1000");
+    partition.mkdirs();
+    File eventFile = new File(partition, "bucket.1.0." + StreamFileType.EVENT.getSuffix());
+    File indexFile = new File(partition, "bucket.1.0." + StreamFileType.INDEX.getSuffix());
+
+    // Write blocks of compressed events. Blocks of identical empty events compress to less bytes than the number
+    // of events, hence the event positions in them are padded.
+    List<String> expected = Lists.newArrayList();
+    StreamDataFileWriter writer = new StreamDataFileWriter(
+      Files.newOutputStreamSupplier(eventFile), Files.newOutputStreamSupplier(indexFile), 5L,
+      ImmutableMap.of(StreamDataFileConstants.Property.Key.CODEC, "deflate"));
+    for (int block = 0; block < 6; block++) {
+      int blockSize = block % 2 == 0 ? 30 : 3;
+      for (int i = 0; i < blockSize; i++) {
+        String body = block % 2 == 0 ? "" : "Split test " + expected.size();
+        writer.append(StreamFileTestUtils.createEvent(1000 + block, body));
+        expected.add((1000 + block) + ":" + body);
+      }
+    }
+    writer.close();
+
+    Configuration conf = new Configuration();
+    AbstractStreamInputFormat.setStreamId(conf, DUMMY_ID);
+    AbstractStreamInputFormat.setStreamPath(conf, inputDir.toURI());
+    TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+    AbstractStreamInputFormat format = new AbstractStreamInputFormat() {
+
+      @Override
+      public AuthorizationEnforcer getAuthorizationEnforcer(TaskAttemptContext context) {
+        return new NoOpAuthorizer();
+      }
+
+      @Override
+      public AuthenticationContext getAuthenticationContext(TaskAttemptContext context) {
+        return new AuthenticationTestContext();
+      }
+    };
+
+    // With one byte splits, split boundaries fall on every offset of the file, including the positions within
+    // the compressed blocks and their padding. For every split size, each event must be read by exactly one split,
+    // in order.
+    long fileLength = eventFile.length();
+    for (long splitSize = 1; splitSize <= fileLength; splitSize *= 2) {
+      AbstractStreamInputFormat.setMaxSplitSize(conf, splitSize);
+      List<InputSplit> splits = format.getSplits(new JobContextImpl(new JobConf(conf), new JobID()));
+      Assert.assertEquals((fileLength + splitSize - 1) / splitSize + 1, splits.size());
+
+      List<String> events = Lists.newArrayList();
+      for (InputSplit split : splits) {
+        StreamRecordReader<LongWritable, StreamEvent> recordReader =
+          new StreamRecordReader<>(new IdentityStreamEventDecoder(), new NoOpAuthorizer(),
+                                   new AuthenticationTestContext(), DUMMY_ID);
+        recordReader.initialize(split, context);
+        while (recordReader.nextKeyValue()) {
+          StreamEvent event = recordReader.getCurrentValue();
+          events.add(event.getTimestamp() + ":" + Bytes.toString(event.getBody()));
+        }
+        recordReader.close();
+      }
+      Assert.assertEquals("Split size " + splitSize, expected, events);
+    }
+  }
+
   @Test
   public void testFormatStreamRecordReader() throws IOException, InterruptedException {
     File inputDir = tmpFolder.newFolder();
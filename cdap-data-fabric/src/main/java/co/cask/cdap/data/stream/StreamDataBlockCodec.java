@@ -0,0 +1,192 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data.stream;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.common.io.BufferedEncoder;
+import com.google.common.io.ByteStreams;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.CompressionInputStream;
+import org.apache.hadoop.io.compress.CompressionOutputStream;
+import org.apache.hadoop.io.compress.Compressor;
+import org.apache.hadoop.io.compress.Decompressor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Compresses and decompresses data blocks of stream event file using a Hadoop {@link CompressionCodec}.
+ *
+ * A compressed data block has the format
+ *
+ * <pre>
+ * {@code
+ *
+ * compressed_events = <uncompressed_length> <compressed_data> <padding>
+ * uncompressed_length = 4 bytes int32 for size in bytes of all the uncompressed <stream_event>s
+ * compressed_data = <stream_event>+ compressed by the codec
+ * padding = zero bytes to make the size of <compressed_events> at least the number of events in the block
+ *
+ * }
+ * </pre>
+ *
+ * Since the event positions in a compressed block are the block data position plus the index of the event
+ * in the block, the padding guarantees every event has a distinct position inside the block, hence event positions
+ * are strictly increasing and can be used for seeking with the stream index file.
+ */
+@NotThreadSafe
+final class StreamDataBlockCodec implements Closeable {
+
+  private final String name;
+  private final CompressionCodec codec;
+  private Compressor compressor;
+  private Decompressor decompressor;
+
+  /**
+   * Creates a new instance with the given codec name.
+   *
+   * @param name name of the codec, which can either be the codec alias such as {@code snappy}, {@code lz4} and
+   *             {@code deflate}, or the class name of the Hadoop {@link CompressionCodec}
+   * @throws IllegalArgumentException if no codec is found for the given name
+   */
+  static StreamDataBlockCodec create(String name) {
+    CompressionCodec codec = new CompressionCodecFactory(new Configuration()).getCodecByName(name);
+    if (codec == null) {
+      throw new IllegalArgumentException("Unsupported stream compression codec " + name);
+    }
+    return new StreamDataBlockCodec(name, codec);
+  }
+
+  private StreamDataBlockCodec(String name, CompressionCodec codec) {
+    this.name = name;
+    this.codec = codec;
+  }
+
+  /**
+   * Checks that the codec can be used, such as the native library required by the codec is available.
+   *
+   * @throws IllegalArgumentException if the codec cannot be used
+   */
+  void checkAvailable() {
+    try {
+      getCompressor();
+      getDecompressor();
+    } catch (RuntimeException | UnsatisfiedLinkError e) {
+      throw new IllegalArgumentException("Stream compression codec " + name + " is not available", e);
+    }
+  }
+
+  /**
+   * Returns the name of the codec.
+   */
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Compresses the data in the given {@link BufferedEncoder} and writes the compressed block to the given output.
+   * The {@link BufferedEncoder} will be empty after this call.
+   *
+   * @param data the encoded events to compress
+   * @param minSize the minimum size of the compressed block, which is the number of events in the block
+   * @param output the output to write the compressed block to
+   */
+  void compress(BufferedEncoder data, int minSize, ByteArrayOutputStream output) throws IOException {
+    output.write(Bytes.toBytes(data.size()));
+
+    CompressionOutputStream compressionOutput;
+    Compressor compressor = getCompressor();
+    if (compressor == null) {
+      compressionOutput = codec.createOutputStream(output);
+    } else {
+      compressor.reset();
+      compressionOutput = codec.createOutputStream(output, compressor);
+    }
+    data.writeTo(compressionOutput);
+    compressionOutput.finish();
+
+    while (output.size() < minSize) {
+      output.write(0);
+    }
+  }
+
+  /**
+   * Decompresses a compressed block.
+   *
+   * @param block array containing the compressed block
+   * @param size size of the compressed block
+   * @param buffer a buffer for storing the uncompressed data, which could be reused if it is big enough
+   * @return a {@link ByteBuffer} containing the uncompressed data, with position {@code 0}
+   *         and limit set to the data size
+   */
+  ByteBuffer decompress(byte[] block, int size, ByteBuffer buffer) throws IOException {
+    int uncompressedSize = Bytes.toInt(block, 0);
+    ByteBuffer result = buffer.capacity() >= uncompressedSize ? buffer : ByteBuffer.allocate(uncompressedSize);
+
+    InputStream blockInput = new ByteArrayInputStream(block, Bytes.SIZEOF_INT, size - Bytes.SIZEOF_INT);
+    CompressionInputStream decompressionInput;
+    Decompressor decompressor = getDecompressor();
+    if (decompressor == null) {
+      decompressionInput = codec.createInputStream(blockInput);
+    } else {
+      decompressor.reset();
+      decompressionInput = codec.createInputStream(blockInput, decompressor);
+    }
+    ByteStreams.readFully(decompressionInput, result.array(), 0, uncompressedSize);
+
+    result.clear();
+    result.limit(uncompressedSize);
+    return result;
+  }
+
+  /**
+   * Returns the {@link Compressor} and {@link Decompressor} used by this instance to the {@link CodecPool}.
+   */
+  @Override
+  public void close() {
+    if (compressor != null) {
+      CodecPool.returnCompressor(compressor);
+      compressor = null;
+    }
+    if (decompressor != null) {
+      CodecPool.returnDecompressor(decompressor);
+      decompressor = null;
+    }
+  }
+
+  private Compressor getCompressor() {
+    if (compressor == null) {
+      compressor = CodecPool.getCompressor(codec);
+    }
+    return compressor;
+  }
+
+  private Decompressor getDecompressor() {
+    if (decompressor == null) {
+      decompressor = CodecPool.getDecompressor(codec);
+    }
+    return decompressor;
+  }
+}
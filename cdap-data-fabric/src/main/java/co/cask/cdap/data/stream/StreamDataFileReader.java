@@ -67,6 +67,7 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
   private boolean eof;
   private Decoder decoder;
   private StreamEvent eventTemplate;
+  private StreamDataBlockCodec codec;
 
   /**
    * Opens a new {@link StreamDataFileReader} with the given inputs.
@@ -157,6 +158,9 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
       }
     } finally {
       closed = true;
+      if (codec != null) {
+        codec.close();
+      }
     }
   }
 
@@ -300,6 +304,24 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
 
     verifySchema(properties);
 
+    // Data blocks are compressed in version 3
+    if (fileVersion >= 3) {
+      String codecName = properties.get(StreamDataFileConstants.Property.Key.CODEC);
+      if (codecName == null) {
+        throw new IOException("Missing '" + StreamDataFileConstants.Property.Key.CODEC + "' property.");
+      }
+      if (codec == null || !codecName.equals(codec.getName())) {
+        if (codec != null) {
+          codec.close();
+        }
+        try {
+          codec = StreamDataBlockCodec.create(codecName);
+        } catch (IllegalArgumentException e) {
+          throw new IOException(e.getMessage(), e);
+        }
+      }
+    }
+
     // Create event template
     if (fileVersion >= 2) {
       eventTemplate = createEventTemplate(properties);
@@ -323,10 +345,14 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
     if (Arrays.equals(magic, StreamDataFileConstants.MAGIC_HEADER_V2)) {
       return 2;
     }
+    if (Arrays.equals(magic, StreamDataFileConstants.MAGIC_HEADER_V3)) {
+      return 3;
+    }
     throw new IOException(
-      String.format("Unsupported stream file format. First two bytes must be %s or %s",
+      String.format("Unsupported stream file format. First two bytes must be %s, %s or %s",
                     Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V1),
-                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V2))
+                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V2),
+                    Bytes.toStringBinary(StreamDataFileConstants.MAGIC_HEADER_V3))
     );
   }
 
@@ -474,7 +500,7 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
   }
 
   private void readDataBlock(ReadFilter filter) throws IOException {
-    // Data block is <timestamp> <length> <stream_data>+
+    // Data block is <timestamp> <length> <stream_data>+ or <timestamp> <length> <compressed_events>
     position = eventInput.getPos();
     long timestamp = readTimestamp();
     if (timestamp < 0) {
@@ -485,7 +511,11 @@ public final class StreamDataFileReader implements FileReader<PositionStreamEven
     // Use the template timestamp if available
     timestamp = eventTemplate.getTimestamp() >= 0 ? eventTemplate.getTimestamp() : timestamp;
     if (acceptTimestamp(filter, timestamp)) {
-      streamEventBuffer.fillBuffer(eventInput, readLength());
+      if (codec == null) {
+        streamEventBuffer.fillBuffer(eventInput, readLength());
+      } else {
+        streamEventBuffer.fillBuffer(eventInput, readLength(), codec);
+      }
       this.timestamp = timestamp;
       return;
     }
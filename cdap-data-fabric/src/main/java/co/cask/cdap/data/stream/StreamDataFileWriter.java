@@ -32,6 +32,7 @@ import com.google.common.io.OutputSupplier;
 import com.google.common.primitives.Longs;
 import org.apache.hadoop.fs.Syncable;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Flushable;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -48,17 +49,21 @@ import javax.annotation.concurrent.NotThreadSafe;
  * {@code
  *
  * event_file = <header> <data>* <end_marker>
- * header = "E" "1" <properties>
+ * header = "E" "2" <properties> | "E" "3" <properties>
  * properties = Avro encoded with the properties schema
- * data = <timestamp> <length> <stream_event>+
+ * data = <timestamp> <length> <stream_event>+ | <timestamp> <length> <compressed_events>
  * timestamp = 8 bytes int64 for timestamp in milliseconds
- * length = Avro encoded int32 for size in bytes for all <stream_event>s
+ * length = Avro encoded int32 for size in bytes for all <stream_event>s or the <compressed_events>
  * stream_event = Avro encoded bytes according to the StreamData schema
+ * compressed_events = <stream_event>+ compressed as described in StreamDataBlockCodec
  * end_marker = 8 bytes int64 with value == -(close_timestamp)
  *
  * }
  * </pre>
  *
+ * Data blocks are compressed if the {@link StreamDataFileConstants.Property.Key#CODEC} property is provided,
+ * which is recorded in the file properties, and the file header is "E" "3".
+ *
  * Stream index file:
  *
  * <pre>
@@ -84,9 +89,13 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
   private final long indexInterval;
   private final BufferedEncoder encoder;
   private final BufferedEncoder lengthEncoder;
+  private final StreamDataBlockCodec codec;
+  private final ByteArrayOutputStream compressedOutput;
 
   // Timestamp for the current block
   private long currentTimestamp;
+  // Number of events in the current block
+  private int blockEventCount;
   private long position;
   private long nextIndexTime;
   private boolean synced;
@@ -132,8 +141,11 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
     this.lengthEncoder = new BufferedEncoder(5, encoderFactory);
 
     try {
+      String codecName = properties.get(StreamDataFileConstants.Property.Key.CODEC);
+      this.codec = codecName == null ? null : StreamDataBlockCodec.create(codecName);
+      this.compressedOutput = codecName == null ? null : new ByteArrayOutputStream(BUFFER_SIZE);
       init(properties);
-    } catch (IOException e) {
+    } catch (IOException | RuntimeException e) {
       Closeables.closeQuietly(eventOutput);
       Closeables.closeQuietly(indexOutput);
       throw e;
@@ -175,6 +187,7 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
       eventOutput.write(Longs.toByteArray(-closeTimestamp));
     } finally {
       closed = true;
+      closeCodec();
       try {
         eventOutput.close();
       } finally {
@@ -222,6 +235,7 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
 
       // Encodes the event data into buffer.
       StreamEventDataCodec.encode(event, encoder);
+      blockEventCount++;
 
       // Optionally flush if already filled up the buffer.
       if (encoder.size() >= flushLimit) {
@@ -235,7 +249,7 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
 
   private void init(Map<String, String> properties) throws IOException {
     // Writes the header for event file
-    encoder.writeRaw(StreamDataFileConstants.MAGIC_HEADER_V2);
+    encoder.writeRaw(codec == null ? StreamDataFileConstants.MAGIC_HEADER_V2 : StreamDataFileConstants.MAGIC_HEADER_V3);
 
     Map<String, String> headers = Maps.newHashMap(properties);
     headers.put(StreamDataFileConstants.Property.Key.SCHEMA, StreamEventDataCodec.STREAM_DATA_SCHEMA.toString());
@@ -278,16 +292,30 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
       indexOffset = position - Bytes.SIZEOF_LONG;
     }
 
-    // Writes the size of the encoded event
-    lengthEncoder.writeInt(encoder.size());
-    int size = lengthEncoder.size();
-    lengthEncoder.writeTo(eventOutput);
-    position += size;
-
-    // Writes all encoded data from the buffer to the output.
-    size = encoder.size();
-    encoder.writeTo(eventOutput);
-    position += size;
+    if (codec == null) {
+      // Writes the size of the encoded event
+      lengthEncoder.writeInt(encoder.size());
+      int size = lengthEncoder.size();
+      lengthEncoder.writeTo(eventOutput);
+      position += size;
+
+      // Writes all encoded data from the buffer to the output.
+      size = encoder.size();
+      encoder.writeTo(eventOutput);
+      position += size;
+    } else {
+      // Compress the encoded data, then writes the size of the compressed block, followed by the compressed block.
+      compressedOutput.reset();
+      codec.compress(encoder, blockEventCount, compressedOutput);
+      lengthEncoder.writeInt(compressedOutput.size());
+      int size = lengthEncoder.size();
+      lengthEncoder.writeTo(eventOutput);
+      position += size;
+
+      size = compressedOutput.size();
+      compressedOutput.writeTo(eventOutput);
+      position += size;
+    }
     if (sync) {
       sync(eventOutput);
     }
@@ -307,6 +335,7 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
 
     // Reset the current timestamp so that a data block will start.
     currentTimestamp = -1L;
+    blockEventCount = 0;
     synced = sync;
   }
 
@@ -324,11 +353,18 @@ public final class StreamDataFileWriter implements TimestampCloseable, Flushable
    */
   private IOException closeWithException(IOException ex) throws IOException {
     closed = true;
+    closeCodec();
     Closeables.closeQuietly(eventOutput);
     Closeables.closeQuietly(indexOutput);
     throw ex;
   }
 
+  private void closeCodec() {
+    if (codec != null) {
+      codec.close();
+    }
+  }
+
   private static Function<OutputStream, Encoder> createEncoderFactory() {
     return new Function<OutputStream, Encoder>() {
       @Override
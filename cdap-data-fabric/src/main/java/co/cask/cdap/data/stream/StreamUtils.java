@@ -264,6 +264,21 @@ public final class StreamUtils {
     return timestamp / partitionDuration * partitionDuration;
   }
 
+  /**
+   * Validates that the given compression codec can be used for compressing stream files.
+   *
+   * @param codecName name of the codec
+   * @throws IllegalArgumentException if the codec is not supported
+   */
+  public static void validateCompressionCodec(String codecName) {
+    StreamDataBlockCodec codec = StreamDataBlockCodec.create(codecName);
+    try {
+      codec.checkAvailable();
+    } finally {
+      codec.close();
+    }
+  }
+
   /**
    * Encode a {@link StreamFileOffset} instance.
    *
@@ -0,0 +1,202 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
+import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Table;
+
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A cache of the partial results of {@link DefaultCube} queries for closed time segments. The time range of each
+ * resolution is divided into segments of {@link #SEGMENT_VALUES} time values, and a segment is closed once it ends
+ * before the current time minus a delay, after which its facts are assumed to never change.
+ *
+ * The partial result of a segment is keyed by the aggregation, resolution, dimension values, group by dimensions,
+ * measures and the segment start time. The size of the cache is bounded by the total number of time values cached.
+ * Cached results must not be modified.
+ *
+ * Facts are usually written by another process than the one that serves the queries. Hence the writers record
+ * the changes to segments that may be closed in a change count persisted with the facts, and the cache is
+ * {@link #validate(long) validated} against that count before it is used. Cached results also expire after
+ * {@link #EXPIRY_SECONDS}, which bounds the time that facts removed by the table TTL are still returned.
+ */
+@ThreadSafe
+public final class CubeQueryCache {
+
+  // number of time values of a resolution in a segment
+  static final int SEGMENT_VALUES = 60;
+  // time after which cached results expire
+  static final long EXPIRY_SECONDS = 600;
+  // allowance for the clock differences between the processes that write facts and the ones that query them
+  static final long MAX_CLOCK_SKEW_SECONDS = 30;
+
+  private final Cache<SegmentKey, Table<Map<String, String>, String, NavigableMap<Long, Long>>> cache;
+  private final long closedDelaySeconds;
+  // the change count that the cached results are consistent with, guarded by this
+  private long changeCount = -1L;
+
+  /**
+   * Creates an instance of {@link CubeQueryCache}.
+   *
+   * @param maxValues maximum number of time values to cache
+   * @param closedDelaySeconds delay in seconds after the end of a segment before it is considered closed
+   */
+  public CubeQueryCache(long maxValues, long closedDelaySeconds) {
+    Preconditions.checkArgument(maxValues > 0, "Maximum number of values must be > 0: %s", maxValues);
+    Preconditions.checkArgument(closedDelaySeconds >= 0, "Closed delay must be >= 0: %s", closedDelaySeconds);
+    this.cache = CacheBuilder.newBuilder()
+      .maximumWeight(maxValues)
+      .weigher(new Weigher<SegmentKey, Table<Map<String, String>, String, NavigableMap<Long, Long>>>() {
+        @Override
+        public int weigh(SegmentKey key, Table<Map<String, String>, String, NavigableMap<Long, Long>> value) {
+          int weight = 1;
+          for (Map<Long, Long> timeValues : value.values()) {
+            weight += timeValues.size();
+          }
+          return weight;
+        }
+      })
+      .expireAfterWrite(EXPIRY_SECONDS, TimeUnit.SECONDS)
+      .build();
+    this.closedDelaySeconds = closedDelaySeconds;
+  }
+
+  /**
+   * Returns the size in seconds of the segments of the given resolution, or {@code 0} if the resolution is not
+   * cacheable, which is the case for the totals resolution, since its single time window never closes.
+   */
+  long getSegmentSize(int resolution) {
+    return resolution == Integer.MAX_VALUE ? 0L : (long) resolution * SEGMENT_VALUES;
+  }
+
+  /**
+   * Returns the timestamp in seconds before which segments are closed.
+   */
+  long getClosedTs() {
+    return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) - closedDelaySeconds;
+  }
+
+  /**
+   * Returns the timestamp in seconds before which a change to the facts has to be recorded in the change count,
+   * since it may be in a segment that some process considers closed.
+   */
+  long getChangeTs() {
+    return getClosedTs() + MAX_CLOCK_SKEW_SECONDS;
+  }
+
+  /**
+   * Validates the cache against the current change count of the facts, and removes all the cached results if
+   * the count changed since the last validation.
+   *
+   * @param changeCount the current change count of the facts
+   * @return the change count to pass to {@link #put} for the results computed after this validation
+   */
+  synchronized long validate(long changeCount) {
+    if (changeCount != this.changeCount) {
+      cache.invalidateAll();
+      this.changeCount = changeCount;
+    }
+    return changeCount;
+  }
+
+  /**
+   * Returns the cached partial result of the given query for the segment that starts at the given time,
+   * or {@code null} if it is not cached.
+   */
+  @Nullable
+  Table<Map<String, String>, String, NavigableMap<Long, Long>> get(String aggregation, CubeQuery query,
+                                                                  List<DimensionValue> dimensionValues,
+                                                                  long segmentStart) {
+    return cache.getIfPresent(new SegmentKey(aggregation, query, dimensionValues, segmentStart));
+  }
+
+  /**
+   * Caches the partial result of the given query for the segment that starts at the given time. The result is
+   * not cached if the cache was validated against another change count since it was computed, because it may
+   * miss the changes to the facts.
+   *
+   * @param changeCount the change count returned by the {@link #validate} that preceded the computation
+   */
+  synchronized void put(String aggregation, CubeQuery query, List<DimensionValue> dimensionValues,
+                        long segmentStart, Table<Map<String, String>, String, NavigableMap<Long, Long>> result,
+                        long changeCount) {
+    if (changeCount == this.changeCount) {
+      cache.put(new SegmentKey(aggregation, query, dimensionValues, segmentStart), result);
+    }
+  }
+
+  /**
+   * Key of the partial result of a query in a segment.
+   */
+  private static final class SegmentKey {
+    private final String aggregation;
+    private final int resolution;
+    private final List<DimensionValue> dimensionValues;
+    private final List<String> groupByDimensions;
+    private final Map<String, AggregationFunction> measurements;
+    private final long segmentStart;
+    private final int hashCode;
+
+    SegmentKey(String aggregation, CubeQuery query, List<DimensionValue> dimensionValues, long segmentStart) {
+      this.aggregation = aggregation;
+      this.resolution = query.getResolution();
+      this.dimensionValues = ImmutableList.copyOf(dimensionValues);
+      this.groupByDimensions = ImmutableList.copyOf(query.getGroupByDimensions());
+      this.measurements = ImmutableMap.copyOf(query.getMeasurements());
+      this.segmentStart = segmentStart;
+      this.hashCode = Objects.hashCode(aggregation, resolution, this.dimensionValues, groupByDimensions,
+                                       measurements, segmentStart);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      SegmentKey other = (SegmentKey) o;
+      return resolution == other.resolution
+        && segmentStart == other.segmentStart
+        && aggregation.equals(other.aggregation)
+        && dimensionValues.equals(other.dimensionValues)
+        && groupByDimensions.equals(other.groupByDimensions)
+        && measurements.equals(other.measurements);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
@@ -23,6 +23,8 @@ import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
 import co.cask.cdap.api.dataset.lib.cube.CubeQuery;
 import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.MeasureType;
+import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.api.dataset.metrics.MeteredDataset;
@@ -33,12 +35,16 @@ import co.cask.cdap.data2.dataset2.lib.timeseries.FactScan;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanner;
 import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import co.cask.cdap.messaging.service.BucketHistogram;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.PeekingIterator;
 import com.google.common.collect.Sets;
 import com.google.common.collect.Table;
 import org.slf4j.Logger;
@@ -48,14 +54,41 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
 import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nullable;
 
 /**
  * Default implementation of {@link co.cask.cdap.api.dataset.lib.cube.Cube}.
+ *
+ * By default, every fact is written to the {@link FactTable}s of all resolutions. In rollup mode, facts are only
+ * written to the finest resolution and to the totals resolution ({@link Integer#MAX_VALUE}). The other resolutions
+ * are populated by {@link #rollup(long)}, which aggregates the closed time windows of the finest resolution, and
+ * queries read the time range that is not rolled up yet from the finest resolution.
+ *
+ * If a write executor is given, the facts are written to the {@link FactTable}s of the resolutions concurrently,
+ * with one task per resolution, hence each {@link FactTable} is still only accessed by one thread at a time.
+ * This can only be used with {@link FactTable}s that are not transactional, such as the ones of the metric store.
+ *
+ * If a {@link CubeQueryCache} is given, the query results of closed time segments are cached, and only the time
+ * range that is not cached is scanned.
+ *
+ * If a scan executor is given, the scan of a query is split by time range and measure names with
+ * {@link FactTable#split(FactScan, int)}, and the splits are scanned concurrently. Like the write executor, it can
+ * only be used with {@link FactTable}s that are not transactional.
  */
 public class DefaultCube implements Cube, MeteredDataset {
   private static final Logger LOG = LoggerFactory.getLogger(DefaultCube.class);
@@ -63,10 +96,27 @@ public class DefaultCube implements Cube, MeteredDataset {
   private static final DimensionValueComparator DIMENSION_VALUE_COMPARATOR = new DimensionValueComparator();
   // hard-limit on max records to scan
   private static final int MAX_RECORDS_TO_SCAN = 100 * 1000;
+  // max time range in seconds of the finest resolution facts to roll up in one scan
+  private static final int MAX_ROLLUP_RANGE = 3600;
+  private static final long HISTOGRAM_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
 
   private final Map<Integer, FactTable> resolutionToFactTable;
   private final Map<String, ? extends Aggregation> aggregations;
   private final Map<String, AggregationAlias> aggregationAliasMap;
+  private final int finestResolution;
+  // resolutions that are populated by rollup instead of being written on add
+  private final Set<Integer> rollupResolutions;
+  @Nullable
+  private final ExecutorService writeExecutor;
+  @Nullable
+  private final CubeQueryCache queryCache;
+  @Nullable
+  private final ExecutorService scanExecutor;
+  private final int scanSplits;
+  // latency in microseconds of the add calls and of the writes to each FactTable
+  private final BucketHistogram addLatencyHistogram;
+  private final BucketHistogram writeLatencyHistogram;
+  private final AtomicLong lastHistogramReportTime;
 
   @Nullable
   private MetricsCollector metrics;
@@ -74,12 +124,114 @@ public class DefaultCube implements Cube, MeteredDataset {
   public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
                      Map<String, ? extends Aggregation> aggregations,
                      Map<String, AggregationAlias> aggregationAliasMap) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, false);
+  }
+
+  /**
+   * Creates an instance of {@link DefaultCube}.
+   *
+   * @param resolutions resolutions in seconds of the cube
+   * @param factTableSupplier supplier of the {@link FactTable} of each resolution
+   * @param aggregations aggregations of the cube
+   * @param aggregationAliasMap aliases of the dimensions of aggregations
+   * @param rollup if {@code true}, resolutions that are multiples of the finest resolution are populated by
+   *               {@link #rollup(long)} instead of being written on every add
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap, boolean rollup) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, rollup, null);
+  }
+
+  /**
+   * Creates an instance of {@link DefaultCube}.
+   *
+   * @param resolutions resolutions in seconds of the cube
+   * @param factTableSupplier supplier of the {@link FactTable} of each resolution
+   * @param aggregations aggregations of the cube
+   * @param aggregationAliasMap aliases of the dimensions of aggregations
+   * @param rollup if {@code true}, resolutions that are multiples of the finest resolution are populated by
+   *               {@link #rollup(long)} instead of being written on every add
+   * @param writeExecutor if not {@code null}, the executor for writing to the {@link FactTable}s of the resolutions
+   *                      concurrently. It must only be used if the {@link FactTable}s are not transactional.
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap, boolean rollup,
+                     @Nullable ExecutorService writeExecutor) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, rollup, writeExecutor, null);
+  }
+
+  /**
+   * Creates an instance of {@link DefaultCube}.
+   *
+   * @param resolutions resolutions in seconds of the cube
+   * @param factTableSupplier supplier of the {@link FactTable} of each resolution
+   * @param aggregations aggregations of the cube
+   * @param aggregationAliasMap aliases of the dimensions of aggregations
+   * @param rollup if {@code true}, resolutions that are multiples of the finest resolution are populated by
+   *               {@link #rollup(long)} instead of being written on every add
+   * @param writeExecutor if not {@code null}, the executor for writing to the {@link FactTable}s of the resolutions
+   *                      concurrently. It must only be used if the {@link FactTable}s are not transactional.
+   * @param queryCache if not {@code null}, the cache for the query results of closed time segments
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap, boolean rollup,
+                     @Nullable ExecutorService writeExecutor, @Nullable CubeQueryCache queryCache) {
+    this(resolutions, factTableSupplier, aggregations, aggregationAliasMap, rollup, writeExecutor, queryCache,
+         null, 1);
+  }
+
+  /**
+   * Creates an instance of {@link DefaultCube}.
+   *
+   * @param resolutions resolutions in seconds of the cube
+   * @param factTableSupplier supplier of the {@link FactTable} of each resolution
+   * @param aggregations aggregations of the cube
+   * @param aggregationAliasMap aliases of the dimensions of aggregations
+   * @param rollup if {@code true}, resolutions that are multiples of the finest resolution are populated by
+   *               {@link #rollup(long)} instead of being written on every add
+   * @param writeExecutor if not {@code null}, the executor for writing to the {@link FactTable}s of the resolutions
+   *                      concurrently. It must only be used if the {@link FactTable}s are not transactional.
+   * @param queryCache if not {@code null}, the cache for the query results of closed time segments
+   * @param scanExecutor if not {@code null}, the executor for scanning the splits of a query concurrently.
+   *                     It must only be used if the {@link FactTable}s are not transactional.
+   * @param scanSplits maximum number of splits of the scan of a query; only used if a scan executor is given
+   */
+  public DefaultCube(int[] resolutions, FactTableSupplier factTableSupplier,
+                     Map<String, ? extends Aggregation> aggregations,
+                     Map<String, AggregationAlias> aggregationAliasMap, boolean rollup,
+                     @Nullable ExecutorService writeExecutor, @Nullable CubeQueryCache queryCache,
+                     @Nullable ExecutorService scanExecutor, int scanSplits) {
+    Preconditions.checkArgument(scanSplits > 0, "Number of scan splits must be > 0: %s", scanSplits);
     this.aggregations = aggregations;
     this.resolutionToFactTable = Maps.newHashMap();
+    int finest = Integer.MAX_VALUE;
     for (int resolution : resolutions) {
       resolutionToFactTable.put(resolution, factTableSupplier.get(resolution, 3600));
+      finest = Math.min(finest, resolution);
     }
     this.aggregationAliasMap = aggregationAliasMap;
+    this.finestResolution = finest;
+
+    ImmutableSet.Builder<Integer> rollupResolutions = ImmutableSet.builder();
+    if (rollup) {
+      for (int resolution : resolutions) {
+        // totals have a single time window that never closes, hence they are always written on add
+        if (resolution != finest && resolution != Integer.MAX_VALUE && resolution % finest == 0) {
+          rollupResolutions.add(resolution);
+        }
+      }
+    }
+    this.rollupResolutions = rollupResolutions.build();
+    this.writeExecutor = writeExecutor;
+    this.queryCache = queryCache;
+    this.scanExecutor = scanExecutor;
+    this.scanSplits = scanSplits;
+    this.addLatencyHistogram = new BucketHistogram();
+    this.writeLatencyHistogram = new BucketHistogram();
+    this.lastHistogramReportTime = new AtomicLong(System.nanoTime());
   }
 
   @Override
@@ -89,6 +241,7 @@ public class DefaultCube implements Cube, MeteredDataset {
 
   @Override
   public void add(Collection<? extends CubeFact> facts) {
+    long startTime = System.nanoTime();
     List<Fact> toWrite = Lists.newArrayList();
     int dimValuesCount = 0;
     for (CubeFact fact : facts) {
@@ -113,19 +266,329 @@ public class DefaultCube implements Cube, MeteredDataset {
       }
     }
 
-    for (FactTable table : resolutionToFactTable.values()) {
-      table.add(toWrite);
+    // the late facts are computed before writing, since it reads from the FactTable of the finest resolution
+    Map<FactTable, List<Fact>> tableFacts = new LinkedHashMap<>();
+    for (Map.Entry<Integer, FactTable> entry : resolutionToFactTable.entrySet()) {
+      List<Fact> factsToAdd = rollupResolutions.contains(entry.getKey())
+        ? getLateFacts(entry.getKey(), toWrite) : toWrite;
+      if (!factsToAdd.isEmpty()) {
+        tableFacts.put(entry.getValue(), factsToAdd);
+      }
+    }
+    int addedCount = writeExecutor == null || tableFacts.size() <= 1
+      ? writeSequentially(tableFacts) : writeConcurrently(tableFacts, writeExecutor);
+    if (queryCache != null && hasChangeTs(toWrite)) {
+      recordChange();
     }
+    addLatencyHistogram.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
 
     incrementMetric("cube.cubeFact.add.request.count", 1);
     incrementMetric("cube.cubeFact.added.count", facts.size());
     incrementMetric("cube.tsFact.created.count", toWrite.size());
     incrementMetric("cube.tsFact.created.dimValues.count", dimValuesCount);
-    incrementMetric("cube.tsFact.added.count", toWrite.size() * resolutionToFactTable.size());
+    incrementMetric("cube.tsFact.added.count", addedCount);
+    reportHistograms();
+  }
+
+  /**
+   * Returns {@code true} if any of the given facts may belong to a time segment that is closed for the query cache
+   * of this or another process.
+   */
+  private boolean hasChangeTs(List<Fact> facts) {
+    long changeTs = queryCache.getChangeTs();
+    for (Fact fact : facts) {
+      if (fact.getTimestamp() < changeTs) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Records a change to the facts of closed time segments in the persisted change count, which invalidates the
+   * query caches of all the processes that query this cube, and invalidates the query cache of this instance.
+   * It must be called after the facts are written.
+   */
+  private void recordChange() {
+    queryCache.validate(resolutionToFactTable.get(finestResolution).incrementChangeCount());
+  }
+
+  private int writeSequentially(Map<FactTable, List<Fact>> tableFacts) {
+    int addedCount = 0;
+    for (Map.Entry<FactTable, List<Fact>> entry : tableFacts.entrySet()) {
+      addedCount += write(entry.getKey(), entry.getValue());
+    }
+    return addedCount;
+  }
+
+  /**
+   * Writes to the given {@link FactTable}s concurrently and waits for all the writes to complete. If any of the
+   * writes fails, the failure is propagated after all the writes are completed.
+   */
+  private int writeConcurrently(Map<FactTable, List<Fact>> tableFacts, ExecutorService executor) {
+    List<Callable<Integer>> writes = Lists.newArrayListWithCapacity(tableFacts.size());
+    for (final Map.Entry<FactTable, List<Fact>> entry : tableFacts.entrySet()) {
+      writes.add(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return write(entry.getKey(), entry.getValue());
+        }
+      });
+    }
+
+    int addedCount = 0;
+    for (int count : invokeAll(executor, writes)) {
+      addedCount += count;
+    }
+    return addedCount;
+  }
+
+  /**
+   * Executes the given tasks with the given executor and returns their results once all of them are completed.
+   * If any of the tasks fails, its failure is propagated.
+   */
+  private static <T> List<T> invokeAll(ExecutorService executor, List<Callable<T>> tasks) {
+    List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+    try {
+      for (Future<T> future : executor.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw Throwables.propagate(e);
+    } catch (ExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
+    return results;
+  }
+
+  private int write(FactTable table, List<Fact> facts) {
+    long startTime = System.nanoTime();
+    table.add(facts);
+    writeLatencyHistogram.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startTime));
+    return facts.size();
+  }
+
+  /**
+   * Reports the percentiles of the add latency and the FactTable write latency if the report interval has passed
+   * since the last report.
+   */
+  private void reportHistograms() {
+    long now = System.nanoTime();
+    long lastReportTime = lastHistogramReportTime.get();
+    if (now - lastReportTime < HISTOGRAM_REPORT_INTERVAL_NANOS
+      || !lastHistogramReportTime.compareAndSet(lastReportTime, now)) {
+      return;
+    }
+
+    BucketHistogram.Snapshot addLatency = addLatencyHistogram.snapshotAndReset();
+    if (metrics != null && addLatency.getCount() > 0) {
+      metrics.gauge("cube.add.latency.p50.us", addLatency.getPercentile(50));
+      metrics.gauge("cube.add.latency.p99.us", addLatency.getPercentile(99));
+    }
+    BucketHistogram.Snapshot writeLatency = writeLatencyHistogram.snapshotAndReset();
+    if (metrics != null && writeLatency.getCount() > 0) {
+      metrics.gauge("cube.tsFact.write.latency.p50.us", writeLatency.getPercentile(50));
+      metrics.gauge("cube.tsFact.write.latency.p99.us", writeLatency.getPercentile(99));
+    }
+  }
+
+  /**
+   * Returns the facts that belong to the already rolled up time range of the given resolution, which have to be
+   * written to the resolution directly. If nothing is rolled up for the resolution yet, the rollup is initialized
+   * to start from the time window of the earliest given fact. The end of the rolled up time range is read from the
+   * {@link FactTable} on every call rather than cached, since other cube instances over the same tables, such as the
+   * ones of other metrics processor instances, can roll up at any time.
+   */
+  private List<Fact> getLateFacts(int resolution, List<Fact> facts) {
+    if (facts.isEmpty()) {
+      return facts;
+    }
+    FactTable source = resolutionToFactTable.get(finestResolution);
+    Long endTs = source.getRollupEndTs(resolution);
+    if (endTs == null) {
+      long minTs = Long.MAX_VALUE;
+      for (Fact fact : facts) {
+        minTs = Math.min(minTs, fact.getTimestamp());
+      }
+      endTs = source.updateRollupEndTs(resolution, minTs / resolution * resolution);
+    }
+
+    List<Fact> lateFacts = Lists.newArrayList();
+    for (Fact fact : facts) {
+      if (fact.getTimestamp() < endTs) {
+        lateFacts.add(fact);
+      }
+    }
+    return lateFacts;
+  }
+
+  /**
+   * Rolls up the facts of the finest resolution into the resolutions that are not written on add, for all the
+   * time windows that end at or before the given timestamp. The rolled up values are the sum of the counters and
+   * the latest value of the gauges in each time window. Facts added after their time window is rolled up are
+   * written to the rolled up resolutions directly.
+   *
+   * This method does nothing if this cube is not in rollup mode. It must not be called concurrently with
+   * {@link #add(Collection)}, and all the facts of the time windows to roll up must have been added already:
+   * a fact added to a time window while it is rolled up is neither rolled up nor treated as late. Since the end of
+   * the rolled up time range is recorded in the {@link FactTable}, adds of any cube instance over the same tables
+   * that start after a rollup treat the facts of the rolled up time windows as late. Rollup is idempotent, since
+   * the rolled up values are written as gauges.
+   *
+   * @param ts timestamp in seconds up to which time windows are closed
+   * @return number of facts written to the rolled up resolutions
+   */
+  public int rollup(long ts) {
+    if (rollupResolutions.isEmpty()) {
+      return 0;
+    }
+    FactTable source = resolutionToFactTable.get(finestResolution);
+    Set<String> gauges = null;
+    int count = 0;
+    for (int resolution : rollupResolutions) {
+      Long rollupEndTs = source.getRollupEndTs(resolution);
+      if (rollupEndTs == null) {
+        continue;
+      }
+      long endTs = ts / resolution * resolution;
+      if (rollupEndTs >= endTs) {
+        continue;
+      }
+      if (gauges == null) {
+        gauges = source.getGaugeMeasureNames();
+      }
+      FactTable target = resolutionToFactTable.get(resolution);
+      long step = Math.max(resolution, MAX_ROLLUP_RANGE / resolution * resolution);
+      for (long startTs = rollupEndTs; startTs < endTs; startTs += step) {
+        long windowEndTs = Math.min(startTs + step, endTs);
+        List<Fact> facts = Lists.newArrayList();
+        for (Aggregation agg : aggregations.values()) {
+          List<DimensionValue> dimensionValues = Lists.newArrayList();
+          for (String dimensionName : agg.getDimensionNames()) {
+            dimensionValues.add(new DimensionValue(dimensionName, null));
+          }
+          FactScanner scanner = source.scan(new FactScan(startTs, windowEndTs - 1,
+                                                         ImmutableList.<String>of(), dimensionValues));
+          try {
+            for (FactScanResult result : rollupScanResults(scanner, resolution, gauges)) {
+              for (TimeValue timeValue : result) {
+                facts.add(new Fact(timeValue.getTimestamp(), result.getDimensionValues(),
+                                   new Measurement(result.getMeasureName(), MeasureType.GAUGE, timeValue.getValue())));
+              }
+            }
+          } finally {
+            scanner.close();
+          }
+        }
+        if (!facts.isEmpty()) {
+          target.add(facts);
+        }
+        source.updateRollupEndTs(resolution, windowEndTs);
+        count += facts.size();
+      }
+      LOG.trace("Rolled up resolution {} until {}", resolution, endTs);
+    }
+    incrementMetric("cube.rollup.tsFact.added.count", count);
+    return count;
+  }
+
+  /**
+   * Aggregates the given finest resolution scan results into time series of the given resolution.
+   */
+  private Collection<FactScanResult> rollupScanResults(Iterator<FactScanResult> results,
+                                                       int resolution, Set<String> gauges) {
+    // rows of the same time series are not adjacent in a scan, since rows are sorted by time base first
+    Map<ImmutablePair<List<DimensionValue>, String>, NavigableMap<Long, Long>> series = new LinkedHashMap<>();
+    while (results.hasNext()) {
+      FactScanResult result = results.next();
+      ImmutablePair<List<DimensionValue>, String> key =
+        new ImmutablePair<>(result.getDimensionValues(), result.getMeasureName());
+      NavigableMap<Long, Long> values = series.get(key);
+      if (values == null) {
+        values = new TreeMap<>();
+        series.put(key, values);
+      }
+      boolean gauge = gauges.contains(result.getMeasureName());
+      // time values are scanned in the increasing order of time, hence the last gauge value is the latest
+      for (TimeValue timeValue : result) {
+        long ts = timeValue.getTimestamp() / resolution * resolution;
+        Long value = values.get(ts);
+        values.put(ts, gauge || value == null ? timeValue.getValue() : value + timeValue.getValue());
+      }
+    }
+
+    List<FactScanResult> rolledUp = Lists.newArrayListWithCapacity(series.size());
+    for (Map.Entry<ImmutablePair<List<DimensionValue>, String>, NavigableMap<Long, Long>> entry : series.entrySet()) {
+      List<TimeValue> timeValues = Lists.newArrayListWithCapacity(entry.getValue().size());
+      for (Map.Entry<Long, Long> value : entry.getValue().entrySet()) {
+        timeValues.add(new TimeValue(value.getKey(), value.getValue()));
+      }
+      rolledUp.add(new FactScanResult(entry.getKey().getSecond(), entry.getKey().getFirst(), timeValues));
+    }
+    return rolledUp;
+  }
+
+  /**
+   * Scans a resolution that is populated by rollup. The time range that is rolled up is read from the resolution,
+   * while the rest is aggregated from the finest resolution.
+   */
+  private Iterator<FactScanResult> scanRollup(int resolution, FactScan scan) {
+    FactTable table = resolutionToFactTable.get(resolution);
+    FactTable source = resolutionToFactTable.get(finestResolution);
+    Long rollupEndTs = source.getRollupEndTs(resolution);
+    if (rollupEndTs == null) {
+      // nothing is written yet
+      return table.scan(scan);
+    }
+    if (scan.getEndTs() < rollupEndTs) {
+      return table.scan(scan);
+    }
+
+    List<Iterator<FactScanResult>> iterators = Lists.newArrayList();
+    if (scan.getStartTs() < rollupEndTs) {
+      iterators.add(table.scan(new FactScan(scan.getStartTs(), rollupEndTs - 1,
+                                            scan.getMeasureNames(), scan.getDimensionValues())));
+    }
+
+    // The time series values are identified by the start of their time window, hence the time windows that start
+    // within the scan range are aggregated from the finest resolution
+    long startTs = Math.max(rollupEndTs, (scan.getStartTs() + resolution - 1) / resolution * resolution);
+    long endTs = scan.getEndTs() / resolution * resolution;
+    endTs = endTs > Long.MAX_VALUE - resolution ? Long.MAX_VALUE : endTs + resolution - 1;
+    if (startTs <= endTs) {
+      FactScanner scanner = source.scan(new FactScan(startTs, endTs, scan.getMeasureNames(),
+                                                     scan.getDimensionValues()));
+      try {
+        iterators.add(rollupScanResults(scanner, resolution, source.getGaugeMeasureNames()).iterator());
+      } finally {
+        scanner.close();
+      }
+    }
+    return Iterators.concat(iterators.iterator());
   }
 
   @Override
   public Collection<TimeSeries> query(CubeQuery query) {
+    List<TimeSeries> timeSeries = Lists.newArrayList(queryIterator(query));
+    incrementMetric("cube.query.result.timeseries.count", timeSeries.size());
+    return timeSeries;
+  }
+
+  /**
+   * Queries data in this cube and returns an {@link Iterator} of the resulting {@link TimeSeries}. While scanning,
+   * only the first {@link CubeQuery#getLimit()} time values of each time series are kept. Each {@link TimeSeries}
+   * is computed when it is iterated, including the interpolation, and is released from the query result, so that
+   * the caller can process the time series one by one without holding the whole result in memory twice.
+   *
+   * The scan is still aggregated into a table of all the time series before this method returns, since the scan
+   * returns the rows of all the time series ordered by time. Hence the memory used by a query is proportional to
+   * the number of time series times the number of time values kept for each of them, which is bounded by the limit.
+   *
+   * @param query query to perform
+   * @return {@link Iterator} of {@link TimeSeries} that are the result of the query
+   */
+  public Iterator<TimeSeries> queryIterator(CubeQuery query) {
     /*
       CubeQuery example: "dataset read ops for app per dataset". Or:
 
@@ -204,21 +667,174 @@ public class DefaultCube implements Cube, MeteredDataset {
       dimensionValues.add(new DimensionValue(dimensionName, query.getDimensionValues().get(dimensionName)));
     }
 
-    FactScan scan = new FactScan(query.getStartTs(), query.getEndTs(),
-                                 query.getMeasurements().keySet(), dimensionValues);
-
     // 3) execute scan query
-    FactTable table = resolutionToFactTable.get(query.getResolution());
-    FactScanner scanner = table.scan(scan);
-    Table<Map<String, String>, String, Map<Long, Long>> resultMap = getTimeSeries(query, scanner);
+    Table<Map<String, String>, String, NavigableMap<Long, Long>> resultMap = queryCache == null
+      ? getTimeSeries(query, dimensionValues, query.getStartTs(), query.getEndTs(), query.getLimit())
+      : getCachedTimeSeries(aggName, query, dimensionValues);
 
     incrementMetric("cube.query.request.success.count", 1);
     incrementMetric("cube.query.result.size", resultMap.size());
 
-    Collection<TimeSeries> timeSeries = convertToQueryResult(query, resultMap);
-    incrementMetric("cube.query.result.timeseries.count", timeSeries.size());
+    return convertToQueryResult(query, resultMap);
+  }
 
-    return timeSeries;
+  /**
+   * Returns the time series of the given query. The results of the closed time segments are read from the
+   * query cache, while the rest of the time range is scanned. Consecutive segments that are not cached are scanned
+   * together and cached. The cache is validated against the change count persisted by the writers of the facts
+   * before it is used. Rolling up facts does not change the results, hence it does not invalidate the cache.
+   */
+  private Table<Map<String, String>, String, NavigableMap<Long, Long>> getCachedTimeSeries(
+    String aggName, CubeQuery query, List<DimensionValue> dimensionValues) {
+    CubeQueryCache cache = queryCache;
+    long segmentSize = cache.getSegmentSize(query.getResolution());
+    // time range of the segments that are within the query time range and closed
+    long firstSegment = segmentSize <= 0 ? 0L : (query.getStartTs() + segmentSize - 1) / segmentSize * segmentSize;
+    long segmentsEnd = segmentSize <= 0
+      ? 0L : (Math.min(query.getEndTs(), cache.getClosedTs() - 1) + 1) / segmentSize * segmentSize;
+    if (firstSegment >= segmentsEnd) {
+      return getTimeSeries(query, dimensionValues, query.getStartTs(), query.getEndTs(), query.getLimit());
+    }
+
+    long changeCount = cache.validate(resolutionToFactTable.get(finestResolution).getChangeCount());
+    Table<Map<String, String>, String, NavigableMap<Long, Long>> result = HashBasedTable.create();
+    if (query.getStartTs() < firstSegment) {
+      mergeTimeSeries(result, getTimeSeries(query, dimensionValues, query.getStartTs(), firstSegment - 1,
+                                            query.getLimit()));
+    }
+    long missStart = -1L;
+    for (long segment = firstSegment; segment < segmentsEnd; segment += segmentSize) {
+      Table<Map<String, String>, String, NavigableMap<Long, Long>> cached =
+        cache.get(aggName, query, dimensionValues, segment);
+      if (cached == null) {
+        missStart = missStart < 0 ? segment : missStart;
+        incrementMetric("cube.query.cache.miss.count", 1);
+        continue;
+      }
+      incrementMetric("cube.query.cache.hit.count", 1);
+      if (missStart >= 0) {
+        scanSegments(aggName, query, dimensionValues, missStart, segment, segmentSize, changeCount, result);
+        missStart = -1L;
+      }
+      mergeTimeSeries(result, cached);
+    }
+    if (missStart >= 0) {
+      scanSegments(aggName, query, dimensionValues, missStart, segmentsEnd, segmentSize, changeCount, result);
+    }
+    if (segmentsEnd <= query.getEndTs()) {
+      mergeTimeSeries(result, getTimeSeries(query, dimensionValues, segmentsEnd, query.getEndTs(),
+                                            query.getLimit()));
+    }
+    return result;
+  }
+
+  /**
+   * Scans the time range of the given consecutive segments, caches the result of each segment and merges it into
+   * the given result. Nothing is cached if the scan is truncated because it reaches the max records to scan.
+   *
+   * @param changeCount the change count that the query cache was validated against before the scan
+   */
+  private void scanSegments(String aggName, CubeQuery query, List<DimensionValue> dimensionValues,
+                            long startSegment, long endSegment, long segmentSize, long changeCount,
+                            Table<Map<String, String>, String, NavigableMap<Long, Long>> result) {
+    AtomicInteger scannedRecords = new AtomicInteger();
+    // the time values of segments are not limited, since the cached results are shared by queries of any limit
+    Table<Map<String, String>, String, NavigableMap<Long, Long>> scanned =
+      getTimeSeries(query, dimensionValues, startSegment, endSegment - 1, Integer.MAX_VALUE, scannedRecords);
+    mergeTimeSeries(result, scanned);
+    if (scannedRecords.get() >= MAX_RECORDS_TO_SCAN) {
+      return;
+    }
+
+    // split the scanned time values by segment, including the segments that have no values
+    NavigableMap<Long, Table<Map<String, String>, String, NavigableMap<Long, Long>>> segments = new TreeMap<>();
+    for (long segment = startSegment; segment < endSegment; segment += segmentSize) {
+      segments.put(segment, HashBasedTable.<Map<String, String>, String, NavigableMap<Long, Long>>create());
+    }
+    for (Table.Cell<Map<String, String>, String, NavigableMap<Long, Long>> cell : scanned.cellSet()) {
+      for (Map.Entry<Long, Long> timeValue : cell.getValue().entrySet()) {
+        Table<Map<String, String>, String, NavigableMap<Long, Long>> segmentTable =
+          segments.floorEntry(timeValue.getKey()).getValue();
+        NavigableMap<Long, Long> timeValues = segmentTable.get(cell.getRowKey(), cell.getColumnKey());
+        if (timeValues == null) {
+          timeValues = new TreeMap<>();
+          segmentTable.put(cell.getRowKey(), cell.getColumnKey(), timeValues);
+        }
+        timeValues.put(timeValue.getKey(), timeValue.getValue());
+      }
+    }
+    for (Map.Entry<Long, Table<Map<String, String>, String, NavigableMap<Long, Long>>> entry : segments.entrySet()) {
+      queryCache.put(aggName, query, dimensionValues, entry.getKey(), entry.getValue(), changeCount);
+    }
+  }
+
+  /**
+   * Merges the time series of a disjoint time range into the given result, without modifying the source.
+   */
+  private static void mergeTimeSeries(Table<Map<String, String>, String, NavigableMap<Long, Long>> result,
+                                      Table<Map<String, String>, String, NavigableMap<Long, Long>> source) {
+    for (Table.Cell<Map<String, String>, String, NavigableMap<Long, Long>> cell : source.cellSet()) {
+      NavigableMap<Long, Long> timeValues = result.get(cell.getRowKey(), cell.getColumnKey());
+      if (timeValues == null) {
+        timeValues = new TreeMap<>();
+        result.put(cell.getRowKey(), cell.getColumnKey(), timeValues);
+      }
+      timeValues.putAll(cell.getValue());
+    }
+  }
+
+  private Table<Map<String, String>, String, NavigableMap<Long, Long>> getTimeSeries(
+    CubeQuery query, List<DimensionValue> dimensionValues, long startTs, long endTs, int limit) {
+    return getTimeSeries(query, dimensionValues, startTs, endTs, limit, new AtomicInteger());
+  }
+
+  /**
+   * Scans the given time range and aggregates the facts into time series. If a scan executor is given, the scan is
+   * split and the splits are scanned concurrently. The number of records scanned by all the splits is counted in the
+   * given counter, which is bounded by the max records to scan.
+   */
+  private Table<Map<String, String>, String, NavigableMap<Long, Long>> getTimeSeries(
+    final CubeQuery query, List<DimensionValue> dimensionValues, long startTs, long endTs, final int limit,
+    final AtomicInteger scannedRecords) {
+    FactScan scan = new FactScan(startTs, endTs, query.getMeasurements().keySet(), dimensionValues);
+    List<FactScan> splits = scanExecutor == null
+      ? ImmutableList.of(scan) : resolutionToFactTable.get(query.getResolution()).split(scan, scanSplits);
+    if (splits.size() == 1) {
+      return getTimeSeries(query, scan(query.getResolution(), scan), limit, scannedRecords);
+    }
+
+    List<Callable<Table<Map<String, String>, String, NavigableMap<Long, Long>>>> scans =
+      Lists.newArrayListWithCapacity(splits.size());
+    for (final FactScan split : splits) {
+      scans.add(new Callable<Table<Map<String, String>, String, NavigableMap<Long, Long>>>() {
+        @Override
+        public Table<Map<String, String>, String, NavigableMap<Long, Long>> call() throws Exception {
+          return getTimeSeries(query, scan(query.getResolution(), split), limit, scannedRecords);
+        }
+      });
+    }
+    incrementMetric("cube.query.scan.splits.count", splits.size());
+
+    // the splits have either disjoint time ranges or disjoint measures, hence their time series can be merged
+    Iterator<Table<Map<String, String>, String, NavigableMap<Long, Long>>> results =
+      invokeAll(scanExecutor, scans).iterator();
+    Table<Map<String, String>, String, NavigableMap<Long, Long>> result = results.next();
+    while (results.hasNext()) {
+      mergeTimeSeries(result, results.next());
+    }
+    int maxTimeValues = Math.max(1, limit);
+    for (NavigableMap<Long, Long> timeValues : result.values()) {
+      while (timeValues.size() > maxTimeValues) {
+        timeValues.pollLastEntry();
+      }
+    }
+    return result;
+  }
+
+  private Iterator<FactScanResult> scan(int resolution, FactScan scan) {
+    return rollupResolutions.contains(resolution)
+      ? scanRollup(resolution, scan)
+      : resolutionToFactTable.get(resolution).scan(scan);
   }
 
   @Override
@@ -238,6 +854,9 @@ public class DefaultCube implements Cube, MeteredDataset {
         factTable.delete(scan);
       }
     }
+    if (queryCache != null) {
+      recordChange();
+    }
   }
 
   @Override
@@ -255,12 +874,12 @@ public class DefaultCube implements Cube, MeteredDataset {
       slice.put(dimensionValue.getName(), dimensionValue.getValue());
     }
 
-    FactTable table = resolutionToFactTable.get(query.getResolution());
-
-    for (Aggregation agg : aggregations.values()) {
-      if (agg.getDimensionNames().containsAll(slice.keySet())) {
-        result.addAll(table.findSingleDimensionValue(agg.getDimensionNames(), slice,
-                                                     query.getStartTs(), query.getEndTs()));
+    for (FactTable table : getSearchTables(query.getResolution())) {
+      for (Aggregation agg : aggregations.values()) {
+        if (agg.getDimensionNames().containsAll(slice.keySet())) {
+          result.addAll(table.findSingleDimensionValue(agg.getDimensionNames(), slice,
+                                                       query.getStartTs(), query.getEndTs()));
+        }
       }
     }
 
@@ -280,17 +899,28 @@ public class DefaultCube implements Cube, MeteredDataset {
       slice.put(dimensionValue.getName(), dimensionValue.getValue());
     }
 
-    FactTable table = resolutionToFactTable.get(query.getResolution());
-
-    for (Aggregation agg : aggregations.values()) {
-      if (agg.getDimensionNames().containsAll(slice.keySet())) {
-        result.addAll(table.findMeasureNames(agg.getDimensionNames(), slice, query.getStartTs(), query.getEndTs()));
+    for (FactTable table : getSearchTables(query.getResolution())) {
+      for (Aggregation agg : aggregations.values()) {
+        if (agg.getDimensionNames().containsAll(slice.keySet())) {
+          result.addAll(table.findMeasureNames(agg.getDimensionNames(), slice, query.getStartTs(), query.getEndTs()));
+        }
       }
     }
 
     return result;
   }
 
+  /**
+   * Returns the {@link FactTable}s to search for the given resolution. For a resolution populated by rollup, the
+   * finest resolution is searched as well, since it has the facts that are not rolled up yet.
+   */
+  private List<FactTable> getSearchTables(int resolution) {
+    if (rollupResolutions.contains(resolution)) {
+      return ImmutableList.of(resolutionToFactTable.get(resolution), resolutionToFactTable.get(finestResolution));
+    }
+    return Collections.singletonList(resolutionToFactTable.get(resolution));
+  }
+
   /**
    * Sets {@link MetricsCollector} for metrics reporting.
    * @param metrics {@link MetricsCollector} to set.
@@ -329,12 +959,19 @@ public class DefaultCube implements Cube, MeteredDataset {
     return currentBest;
   }
 
-  private Table<Map<String, String>, String, Map<Long, Long>> getTimeSeries(CubeQuery query, FactScanner scanner) {
+  /**
+   * Aggregates the scanned facts into time series. Only the first {@code limit} timestamps of each time series are
+   * kept, since a time value that is later than {@code limit} other time values can never be returned. The scan
+   * stops once the given counter of scanned records reaches the max records to scan.
+   */
+  private Table<Map<String, String>, String, NavigableMap<Long, Long>> getTimeSeries(
+    CubeQuery query, Iterator<FactScanResult> scanner, int limit, AtomicInteger scannedRecords) {
+    // the query returns at least one time value of each time series, and interpolation only adds time values
+    int maxTimeValues = Math.max(1, limit);
     // {dimension values, measure} -> {time -> value}s
-    Table<Map<String, String>, String, Map<Long, Long>> result = HashBasedTable.create();
+    Table<Map<String, String>, String, NavigableMap<Long, Long>> result = HashBasedTable.create();
 
-    int count = 0;
-    while (scanner.hasNext()) {
+    while (scannedRecords.get() < MAX_RECORDS_TO_SCAN && scanner.hasNext()) {
       FactScanResult next = scanner.next();
       incrementMetric("cube.query.scan.records.count", 1);
 
@@ -367,69 +1004,74 @@ public class DefaultCube implements Cube, MeteredDataset {
       }
 
       for (TimeValue timeValue : next) {
-        Map<Long, Long> timeValues = result.get(seriesDimensions, next.getMeasureName());
+        NavigableMap<Long, Long> timeValues = result.get(seriesDimensions, next.getMeasureName());
         if (timeValues == null) {
-          result.put(seriesDimensions, next.getMeasureName(), Maps.<Long, Long>newHashMap());
+          timeValues = new TreeMap<>();
+          result.put(seriesDimensions, next.getMeasureName(), timeValues);
+        }
+        if (timeValues.size() >= maxTimeValues && timeValue.getTimestamp() > timeValues.lastKey()) {
+          continue;
         }
 
         AggregationFunction function = query.getMeasurements().get(next.getMeasureName());
         if (AggregationFunction.SUM == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
+          Long value =  timeValues.get(timeValue.getTimestamp());
           value = value == null ? 0 : value;
           value += timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
+          timeValues.put(timeValue.getTimestamp(), value);
         } else if (AggregationFunction.MAX == function) {
-          Long value = result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
+          Long value = timeValues.get(timeValue.getTimestamp());
           value = value != null && value > timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
+          timeValues.put(timeValue.getTimestamp(), value);
         } else if (AggregationFunction.MIN == function) {
-          Long value =  result.get(seriesDimensions, next.getMeasureName()).get(timeValue.getTimestamp());
+          Long value =  timeValues.get(timeValue.getTimestamp());
           value = value != null && value < timeValue.getValue() ? value : timeValue.getValue();
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), value);
+          timeValues.put(timeValue.getTimestamp(), value);
         } else if (AggregationFunction.LATEST == function) {
-          result.get(seriesDimensions, next.getMeasureName()).put(timeValue.getTimestamp(), timeValue.getValue());
+          timeValues.put(timeValue.getTimestamp(), timeValue.getValue());
         } else {
           // should never happen: developer error
           throw new RuntimeException("Unknown MeasureType: " + function);
         }
+        if (timeValues.size() > maxTimeValues) {
+          timeValues.pollLastEntry();
+        }
       }
-      if (++count >= MAX_RECORDS_TO_SCAN) {
-        break;
-      }
+      scannedRecords.incrementAndGet();
     }
     return result;
   }
 
-  private Collection<TimeSeries> convertToQueryResult(CubeQuery query,
-                                                      Table<Map<String, String>, String,
-                                                        Map<Long, Long>> resultTable) {
-
-    List<TimeSeries> result = Lists.newArrayList();
-    // iterating each groupValue dimensions
-    for (Map.Entry<Map<String, String>, Map<String, Map<Long, Long>>> row : resultTable.rowMap().entrySet()) {
-      // iterating each measure
-      for (Map.Entry<String, Map<Long, Long>> measureEntry : row.getValue().entrySet()) {
-        // generating time series for a grouping and a measure
-        int count = 0;
-        List<TimeValue> timeValues = Lists.newArrayList();
-        for (Map.Entry<Long, Long> timeValue : measureEntry.getValue().entrySet()) {
-          timeValues.add(new TimeValue(timeValue.getKey(), timeValue.getValue()));
+  /**
+   * Returns an {@link Iterator} that converts the time series in the given result table one by one, removing each
+   * time series from the table once it is converted.
+   */
+  private Iterator<TimeSeries> convertToQueryResult(
+    final CubeQuery query, Table<Map<String, String>, String, NavigableMap<Long, Long>> resultTable) {
+
+    final Iterator<Table.Cell<Map<String, String>, String, NavigableMap<Long, Long>>> cells =
+      resultTable.cellSet().iterator();
+    return new AbstractIterator<TimeSeries>() {
+      @Override
+      protected TimeSeries computeNext() {
+        if (!cells.hasNext()) {
+          return endOfData();
         }
-        Collections.sort(timeValues);
-        PeekingIterator<TimeValue> timeValueItor = Iterators.peekingIterator(
-          new TimeSeriesInterpolator(timeValues, query.getInterpolator(), query.getResolution()).iterator());
-        List<TimeValue> resultTimeValues = Lists.newArrayList();
-        while (timeValueItor.hasNext()) {
-          TimeValue timeValue = timeValueItor.next();
-          resultTimeValues.add(new TimeValue(timeValue.getTimestamp(), timeValue.getValue()));
-          if (++count >= query.getLimit()) {
-            break;
-          }
+        Table.Cell<Map<String, String>, String, NavigableMap<Long, Long>> cell = cells.next();
+        // generating time series for a grouping and a measure, time values are sorted by timestamp
+        List<TimeValue> timeValues = Lists.newArrayListWithCapacity(cell.getValue().size());
+        for (Map.Entry<Long, Long> timeValue : cell.getValue().entrySet()) {
+          timeValues.add(new TimeValue(timeValue.getKey(), timeValue.getValue()));
         }
-        result.add(new TimeSeries(measureEntry.getKey(), row.getKey(), resultTimeValues));
+        cells.remove();
+
+        Iterator<TimeValue> interpolated =
+          new TimeSeriesInterpolator(timeValues, query.getInterpolator(), query.getResolution()).iterator();
+        List<TimeValue> resultTimeValues = Lists.newArrayList(Iterators.limit(interpolated,
+                                                                              Math.max(1, query.getLimit())));
+        return new TimeSeries(cell.getColumnKey(), cell.getRowKey(), resultTimeValues);
       }
-    }
-    return result;
+    };
   }
 
   @Override
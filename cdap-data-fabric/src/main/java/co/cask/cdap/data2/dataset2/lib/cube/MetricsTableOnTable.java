@@ -93,6 +93,13 @@ class MetricsTableOnTable implements MetricsTable {
     }
   }
 
+  @Override
+  public void putAndIncrement(SortedMap<byte[], ? extends SortedMap<byte[], Long>> puts,
+                              NavigableMap<byte[], NavigableMap<byte[], Long>> increments) {
+    put(puts);
+    increment(increments);
+  }
+
   @Override
   public long incrementAndGet(byte[] row, byte[] column, long delta) {
     return table.incrementAndGet(row, column, delta);
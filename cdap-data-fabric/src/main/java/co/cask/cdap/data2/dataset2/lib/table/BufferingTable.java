@@ -69,12 +69,15 @@ import javax.annotation.Nullable;
  * <p>
  * This implementation assumes that the table has name and conflicts are resolved on row level.
  * <p>
- * NOTE: this implementation doesn't cache any data in-memory besides changes. I.e. if you do get of same data that is
- *       not in in-memory buffer twice, two times it will try to fetch it from persistent store.
- *       Given the snapshot isolation tx model, this can be improved in future implementations.
+ * NOTE: by default this implementation doesn't cache any data in-memory besides changes. I.e. if you do get of same
+ *       data that is not in in-memory buffer twice, two times it will try to fetch it from persistent store.
+ *       Given the snapshot isolation tx model, rows read from persistent store can be cached for the duration of the
+ *       transaction by setting the {@link Constants.Dataset#TABLE_READ_CACHE_SIZE} property of the table.
  * <p>
- * NOTE: current implementation persists changes only at the end of transaction. Beware of OOME. There should be better
- *       implementation for MapReduce case (YMMV though, for counters/aggregations this implementation looks sweet)
+ * NOTE: by default this implementation persists changes only at the end of transaction. Beware of OOME. For the
+ *       MapReduce case, changes can be persisted incrementally once the in-memory buffer grows past the size set by
+ *       the {@link Constants.Dataset#TABLE_WRITE_BUFFER_PERSIST_THRESHOLD} property of the table. Changes persisted
+ *       this way are still part of the transaction: they are undone on rollback and included in the conflict set.
  * <p>
  * NOTE: Using {@link #get(byte[], byte[], byte[], int)} is generally always not efficient since it always hits the
  *       persisted store even if all needed data is in-memory buffer. See more info at method javadoc
@@ -99,9 +102,17 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   // that the corresponded column was removed.
   private NavigableMap<byte[], NavigableMap<byte[], Update>> buff;
 
+  // Approximate size in bytes of the changes in the in-memory buffer
+  private long buffSize;
+  // Size of the in-memory buffer past which changes are persisted before the transaction commits, 0 if disabled
+  private final long buffPersistThreshold;
+
   // Keeps track of what was persisted so far
   private NavigableMap<byte[], NavigableMap<byte[], Update>> toUndo;
 
+  // Rows read from persistent store in the current transaction, null if caching is disabled
+  private final RowReadCache readCache;
+
   // Report data ops metrics to
   private MetricsCollector metricsCollector;
 
@@ -151,6 +162,22 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     // Default uses the above scheme. Subclasses can change it by overriding the #getNameAsTxChangePrefix method
     this.nameAsTxChangePrefix = Bytes.add(new byte[]{(byte) name.length()}, Bytes.toBytes(name));
     this.buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    long readCacheSize = getLongProperty(properties, Constants.Dataset.TABLE_READ_CACHE_SIZE);
+    this.readCache = readCacheSize > 0 ? new RowReadCache((int) Math.min(readCacheSize, Integer.MAX_VALUE)) : null;
+    this.buffPersistThreshold =
+      Math.max(0L, getLongProperty(properties, Constants.Dataset.TABLE_WRITE_BUFFER_PERSIST_THRESHOLD));
+  }
+
+  private static long getLongProperty(Map<String, String> properties, String key) {
+    String value = properties.get(key);
+    if (value == null) {
+      return 0L;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("Invalid value '%s' for table property '%s'", value, key), e);
+    }
   }
 
   /**
@@ -262,6 +289,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     // releasing resources
     buff = null;
     toUndo = null;
+    clearReadCache();
   }
 
   @Override
@@ -273,7 +301,9 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
     // starting with fresh buffer when tx starts
     buff.clear();
+    buffSize = 0L;
     toUndo = null;
+    clearReadCache();
     this.tx = tx;
   }
 
@@ -309,8 +339,8 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Collection<byte[]> getRowChanges() {
     // we resolve conflicts on row level of individual table
     List<byte[]> changes = new ArrayList<>(buff.size());
-    for (byte[] changedRow : buff.keySet()) {
-      changes.add(Bytes.add(getNameAsTxChangePrefix(), changedRow));
+    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : getChangedRows()) {
+      changes.add(Bytes.add(getNameAsTxChangePrefix(), rowChange.getKey()));
     }
     return changes;
   }
@@ -318,7 +348,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   private Collection<byte[]> getColumnChanges() {
     // we resolve conflicts on row level of individual table
     List<byte[]> changes = new ArrayList<>(buff.size());
-    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : buff.entrySet()) {
+    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : getChangedRows()) {
       if (rowChange.getValue() == null) {
         // NOTE: as of now we cannot detect conflict between delete whole row and row's column value change.
         //       this is not a big problem as of now, as row deletion is now act as deletion of every column, but this
@@ -336,34 +366,155 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     return changes;
   }
 
+  /**
+   * Returns the rows changed in the current transaction, including the rows of changes already persisted.
+   */
+  private Iterable<Map.Entry<byte[], NavigableMap<byte[], Update>>> getChangedRows() {
+    if (toUndo == null) {
+      return buff.entrySet();
+    }
+    // changes of a row may be both persisted and buffered, in which case the changed columns are combined
+    NavigableMap<byte[], NavigableMap<byte[], Update>> changes = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    changes.putAll(toUndo);
+    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : buff.entrySet()) {
+      NavigableMap<byte[], Update> persistedCols = changes.get(rowChange.getKey());
+      if (persistedCols == null) {
+        changes.put(rowChange.getKey(), rowChange.getValue());
+      } else {
+        NavigableMap<byte[], Update> cols = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        cols.putAll(persistedCols);
+        cols.putAll(rowChange.getValue());
+        changes.put(rowChange.getKey(), cols);
+      }
+    }
+    return changes.entrySet();
+  }
+
   @Override
   public boolean commitTx() throws Exception {
     if (!buff.isEmpty()) {
-      // We first assume that all data will be persisted. So that if exception happen during persist we try to
-      // rollback everything we had in in-memory buffer.
-      toUndo = buff;
-      // clearing up in-memory buffer by initializing new map.
-      // NOTE: we want to init map here so that if no changes are made we re-use same instance of the map in next tx
-      // NOTE: we could cache two maps and swap them to avoid creation of map instances, but code would be ugly
-      buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
-      // TODO: tracking of persisted items can be optimized by returning a pair {succeededOrNot, persisted} which
-      //       tells if persisting succeeded and what was persisted (i.e. what we will have to undo in case of rollback)
-      persist(toUndo);
+      persistBuffer(true);
     }
     return true;
   }
 
+  /**
+   * Persists the in-memory buffer and starts a new one. The persisted changes are tracked so that they can be
+   * undone if the transaction is rolled back.
+   *
+   * @param commit whether the buffer is persisted to commit the transaction, or because it grew past the threshold
+   */
+  private void persistBuffer(boolean commit) throws Exception {
+    NavigableMap<byte[], NavigableMap<byte[], Update>> changes = buff;
+    // clearing up in-memory buffer by initializing new map.
+    // NOTE: we want to init map here so that if no changes are made we re-use same instance of the map in next tx
+    // NOTE: we could cache two maps and swap them to avoid creation of map instances, but code would be ugly
+    buff = new ConcurrentSkipListMap<>(Bytes.BYTES_COMPARATOR);
+    buffSize = 0L;
+    // We first assume that all data will be persisted. So that if exception happen during persist we try to
+    // rollback everything we had in in-memory buffer.
+    if (toUndo == null && commit) {
+      // nothing was persisted before in this tx, and the buffer is released with the tx anyway
+      toUndo = changes;
+    } else {
+      mergeToUndo(changes);
+    }
+    // rows cached from persisted store no longer reflect what is persisted
+    if (readCache != null) {
+      for (byte[] row : changes.keySet()) {
+        readCache.invalidate(row);
+      }
+    }
+    // TODO: tracking of persisted items can be optimized by returning a pair {succeededOrNot, persisted} which
+    //       tells if persisting succeeded and what was persisted (i.e. what we will have to undo in case of rollback)
+    persist(changes);
+  }
+
+  /**
+   * Adds the cells of the changes to be persisted to the cells already persisted in the current transaction.
+   * Only the row and column keys are kept, as that is all that undo and conflict detection need, so that the heap
+   * used does not grow with the size of the values written.
+   * <p>
+   * Since changes of the same transaction are persisted with the same version, increments of cells that were
+   * persisted before are replaced with a put of the incremented value, as an increment would not override the
+   * earlier value in every store. The current values of these cells are read with a single batched read.
+   *
+   * @param changes the changes to be persisted. Increments are replaced in place with puts where needed.
+   */
+  private void mergeToUndo(NavigableMap<byte[], NavigableMap<byte[], Update>> changes) throws Exception {
+    if (toUndo == null) {
+      toUndo = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    }
+    List<Get> gets = new ArrayList<>();
+    List<NavigableMap<byte[], Update>> getCols = new ArrayList<>();
+    for (Map.Entry<byte[], NavigableMap<byte[], Update>> rowChange : changes.entrySet()) {
+      byte[] row = rowChange.getKey();
+      NavigableMap<byte[], Update> persistedCols = toUndo.get(row);
+      List<byte[]> incrementedCols = new ArrayList<>();
+      if (persistedCols == null) {
+        persistedCols = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        toUndo.put(row, persistedCols);
+      } else {
+        for (Map.Entry<byte[], Update> colChange : rowChange.getValue().entrySet()) {
+          if (colChange.getValue() instanceof IncrementValue && persistedCols.containsKey(colChange.getKey())) {
+            incrementedCols.add(colChange.getKey());
+          }
+        }
+      }
+      for (byte[] column : rowChange.getValue().keySet()) {
+        persistedCols.put(column, null);
+      }
+      if (!incrementedCols.isEmpty()) {
+        gets.add(new Get(row, incrementedCols));
+        getCols.add(rowChange.getValue());
+      }
+    }
+    if (gets.isEmpty()) {
+      return;
+    }
+
+    List<Map<byte[], byte[]>> currentRows = getPersisted(gets);
+    for (int i = 0; i < gets.size(); i++) {
+      Map<byte[], byte[]> current = currentRows.get(i);
+      NavigableMap<byte[], Update> cols = getCols.get(i);
+      for (byte[] column : gets.get(i).getColumns()) {
+        byte[] value = current == null ? null : unwrapDeleteIfNeeded(current.get(column));
+        cols.put(column, Updates.mergeUpdates(new PutValue(value), cols.get(column)));
+      }
+    }
+  }
+
+  /**
+   * Persists the in-memory buffer if it grew past the configured threshold.
+   */
+  private void persistBufferIfNeeded() {
+    // changes can only be persisted before commit in a transaction, as they need to be undone on rollback
+    if (buffPersistThreshold <= 0L || buffSize < buffPersistThreshold || tx == null) {
+      return;
+    }
+    try {
+      persistBuffer(false);
+    } catch (Exception e) {
+      LOG.debug("persisting buffer failed for table: " + getTransactionAwareName(), e);
+      throw new DataSetException("persisting buffer failed", e);
+    }
+  }
+
   @Override
   public void postTxCommit() {
     // don't need buffer anymore: tx has been committed
     buff.clear();
+    buffSize = 0L;
     toUndo = null;
+    clearReadCache();
     tx = null;
   }
 
   @Override
   public boolean rollbackTx() throws Exception {
     buff.clear();
+    buffSize = 0L;
+    clearReadCache();
     if (toUndo != null) {
       undo(toUndo);
       toUndo = null;
@@ -448,7 +599,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     ensureTransactionIsStarted();
     try {
       // get persisted, then overwrite with whats buffered
-      List<Map<byte[], byte[]>> persistedRows = getPersisted(gets);
+      List<Map<byte[], byte[]>> persistedRows = getPersistedCached(gets);
       // gets and rows lists are always of the same size
       Preconditions.checkArgument(gets.size() == persistedRows.size(),
         "Invalid number of rows fetched when performing multi-get. There must be one row for each get.");
@@ -500,6 +651,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   }
 
   private void putInternal(byte[] row, byte[][] columns, byte[][] values) {
+    invalidateReadCache(row);
     NavigableMap<byte[], Update> colVals = buff.get(row);
     boolean newRow = false;
     if (colVals == null) {
@@ -518,6 +670,8 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       // NOTE: we copy passed row's byte arrays to protect buffer against possible changes of this array on client
       buff.put(copy(row), colVals);
     }
+    buffSize += getSize(row) + getSize(columns) + getSize(values);
+    persistBufferIfNeeded();
   }
 
   /**
@@ -620,6 +774,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
   public void increment(byte[] row, byte[][] columns, long[] amounts) {
     ensureTransactionIsStarted();
     if (enableReadlessIncrements) {
+      invalidateReadCache(row);
       NavigableMap<byte[], Update> colVals = buff.get(row);
       if (colVals == null) {
         colVals = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
@@ -628,6 +783,8 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       for (int i = 0; i < columns.length; i++) {
         colVals.put(columns[i], Updates.mergeUpdates(colVals.get(columns[i]), new IncrementValue(amounts[i])));
       }
+      buffSize += getSize(row) + getSize(columns) + getSize(amounts);
+      persistBufferIfNeeded();
       reportWrite(1, getSize(row) + getSize(columns) + getSize(amounts));
     } else {
       internalIncrementAndGet(row, columns, amounts);
@@ -752,7 +909,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
       return Collections.emptyMap();
     }
 
-    Map<byte[], byte[]> persisted = getPersisted(row, null);
+    Map<byte[], byte[]> persisted = getPersistedCached(row, null);
 
 
     result.putAll(persisted);
@@ -771,7 +928,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
 
     // if nothing locally, return all from server
     if (buffCols == null) {
-      return getPersisted(row, columns);
+      return getPersistedCached(row, columns);
     }
 
     // otherwise try to fetch data from in-memory buffer. If not all present - fetch leftover from persisted
@@ -793,7 +950,7 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     // fetching from server those that were not found in in-mem buffer
     if (colsToFetchFromPersisted.size() > 0) {
       Map<byte[], byte[]> persistedCols =
-        getPersisted(row, colsToFetchFromPersisted.toArray(new byte[colsToFetchFromPersisted.size()][]));
+        getPersistedCached(row, colsToFetchFromPersisted.toArray(new byte[colsToFetchFromPersisted.size()][]));
       if (persistedCols != null) {
         result.putAll(persistedCols);
       }
@@ -805,6 +962,84 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     return unwrapDeletes(result);
   }
 
+  /**
+   * Fetches column->value pairs for set of columns from the read cache if enabled, otherwise from persistent store.
+   * Values fetched from persistent store are added to the read cache.
+   */
+  private NavigableMap<byte[], byte[]> getPersistedCached(byte[] row, @Nullable byte[][] columns) throws Exception {
+    if (readCache == null) {
+      return getPersisted(row, columns);
+    }
+    NavigableMap<byte[], byte[]> result = readCache.get(row, columns);
+    if (result != null) {
+      reportReadCache(1, 0);
+      return result;
+    }
+    reportReadCache(0, 1);
+    result = getPersisted(row, columns);
+    if (result != null) {
+      readCache.put(row, columns, result);
+    }
+    return result;
+  }
+
+  /**
+   * Fetches the rows of a multi-get from the read cache if enabled. Only the gets not found in the read cache are
+   * fetched from persistent store, and are then added to the read cache.
+   */
+  private List<Map<byte[], byte[]>> getPersistedCached(List<Get> gets) throws Exception {
+    if (readCache == null) {
+      return getPersisted(gets);
+    }
+
+    List<Map<byte[], byte[]>> result = new ArrayList<>(gets.size());
+    List<Get> missedGets = new ArrayList<>();
+    for (Get get : gets) {
+      Map<byte[], byte[]> cached = readCache.get(get.getRow(), getColumns(get));
+      if (cached == null) {
+        missedGets.add(get);
+      }
+      // a null element is a placeholder to be filled with the row fetched from persistent store
+      result.add(cached);
+    }
+    reportReadCache(gets.size() - missedGets.size(), missedGets.size());
+    if (missedGets.isEmpty()) {
+      return result;
+    }
+
+    List<Map<byte[], byte[]>> persistedRows = getPersisted(missedGets);
+    Preconditions.checkArgument(missedGets.size() == persistedRows.size(),
+      "Invalid number of rows fetched when performing multi-get. There must be one row for each get.");
+    Iterator<Map<byte[], byte[]>> persistedRowsIter = persistedRows.iterator();
+    for (int i = 0; i < result.size(); i++) {
+      if (result.get(i) == null) {
+        Get get = gets.get(i);
+        Map<byte[], byte[]> persistedRow = persistedRowsIter.next();
+        readCache.put(get.getRow(), getColumns(get), persistedRow);
+        result.set(i, persistedRow);
+      }
+    }
+    return result;
+  }
+
+  @Nullable
+  private static byte[][] getColumns(Get get) {
+    List<byte[]> columns = get.getColumns();
+    return columns == null ? null : columns.toArray(new byte[columns.size()][]);
+  }
+
+  private void invalidateReadCache(byte[] row) {
+    if (readCache != null) {
+      readCache.invalidate(row);
+    }
+  }
+
+  private void clearReadCache() {
+    if (readCache != null) {
+      readCache.clear();
+    }
+  }
+
   /**
    * Applies the buffered updates on top of the map of persisted values.  The persisted map is modified in place
    * with the updated values.
@@ -937,6 +1172,17 @@ public abstract class BufferingTable extends AbstractTable implements MeteredDat
     }
   }
 
+  private void reportReadCache(int hits, int misses) {
+    if (metricsCollector != null) {
+      if (hits > 0) {
+        metricsCollector.increment(Constants.Metrics.Name.Dataset.READ_CACHE_HITS, hits);
+      }
+      if (misses > 0) {
+        metricsCollector.increment(Constants.Metrics.Name.Dataset.READ_CACHE_MISSES, misses);
+      }
+    }
+  }
+
   private int getSize(long[] values) {
     return Bytes.SIZEOF_LONG * values.length;
   }
@@ -69,6 +69,17 @@ public interface MetricsTable extends Dataset {
    */
   void increment(NavigableMap<byte[], NavigableMap<byte[], Long>> updates);
 
+  /**
+   * Writes multiple rows and increments multiple rows, each with multiple columns. This has the same effect as
+   * {@link #put(SortedMap)} of the puts followed by {@link #increment(NavigableMap)} of the increments, but allows
+   * the implementation to apply both in a single batch.
+   *
+   * @param puts columns to write, by row
+   * @param increments columns to increment, by row
+   */
+  void putAndIncrement(SortedMap<byte[], ? extends SortedMap<byte[], Long>> puts,
+                       NavigableMap<byte[], NavigableMap<byte[], Long>> increments);
+
   /**
    * Increment a single column of a row and return the new value.
    * @return the new value after the increment.
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table;
+
+import co.cask.cdap.api.common.Bytes;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * A size-bounded cache of rows read from the persistent store by a {@link BufferingTable}. Entries are keyed by
+ * row and the set of columns requested, and are evicted in least recently used order at row granularity.
+ * <p>
+ * This cache is only valid for the lifetime of a single transaction, since it relies on the snapshot isolation
+ * guarantee that persisted data visible to a transaction does not change while the transaction is running.
+ */
+@NotThreadSafe
+final class RowReadCache {
+
+  private final int maxEntries;
+  // row -> (column set -> persisted columns), in access order
+  private final LinkedHashMap<ByteBuffer, Map<ColumnSet, NavigableMap<byte[], byte[]>>> rows;
+  private int size;
+
+  /**
+   * Creates a new instance.
+   *
+   * @param maxEntries maximum number of (row, column set) entries to keep in the cache
+   */
+  RowReadCache(int maxEntries) {
+    Preconditions.checkArgument(maxEntries > 0, "Cache size must be positive: %s", maxEntries);
+    this.maxEntries = maxEntries;
+    this.rows = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Returns a copy of the cached columns for the given row and column set, or {@code null} if it is not cached.
+   *
+   * @param row the row key
+   * @param columns the columns requested, or {@code null} for all columns
+   */
+  @Nullable
+  NavigableMap<byte[], byte[]> get(byte[] row, @Nullable byte[][] columns) {
+    Map<ColumnSet, NavigableMap<byte[], byte[]>> entries = rows.get(ByteBuffer.wrap(row));
+    if (entries == null) {
+      return null;
+    }
+    NavigableMap<byte[], byte[]> cached = entries.get(new ColumnSet(columns));
+    return cached == null ? null : copyOf(cached);
+  }
+
+  /**
+   * Caches a copy of the columns read from the persistent store for the given row and column set.
+   *
+   * @param row the row key
+   * @param columns the columns requested, or {@code null} for all columns
+   * @param result the columns read from the persistent store
+   */
+  void put(byte[] row, @Nullable byte[][] columns, Map<byte[], byte[]> result) {
+    ByteBuffer rowKey = ByteBuffer.wrap(copy(row));
+    Map<ColumnSet, NavigableMap<byte[], byte[]>> entries = rows.get(rowKey);
+    if (entries == null) {
+      entries = Maps.newHashMap();
+      rows.put(rowKey, entries);
+    }
+    if (entries.put(new ColumnSet(copy(columns)), copyOf(result)) == null) {
+      size++;
+    }
+    evict(rowKey);
+  }
+
+  /**
+   * Removes all cached entries of the given row.
+   */
+  void invalidate(byte[] row) {
+    if (rows.isEmpty()) {
+      return;
+    }
+    Map<ColumnSet, NavigableMap<byte[], byte[]>> entries = rows.remove(ByteBuffer.wrap(row));
+    if (entries != null) {
+      size -= entries.size();
+    }
+  }
+
+  /**
+   * Removes all cached entries.
+   */
+  void clear() {
+    rows.clear();
+    size = 0;
+  }
+
+  /**
+   * Returns the number of (row, column set) entries in the cache.
+   */
+  int size() {
+    return size;
+  }
+
+  /**
+   * Evicts least recently used rows until the cache size is within the limit. The given row is never evicted.
+   */
+  private void evict(ByteBuffer keep) {
+    Iterator<Map.Entry<ByteBuffer, Map<ColumnSet, NavigableMap<byte[], byte[]>>>> iterator =
+      rows.entrySet().iterator();
+    while (size > maxEntries && iterator.hasNext()) {
+      Map.Entry<ByteBuffer, Map<ColumnSet, NavigableMap<byte[], byte[]>>> entry = iterator.next();
+      if (entry.getKey().equals(keep)) {
+        continue;
+      }
+      size -= entry.getValue().size();
+      iterator.remove();
+    }
+  }
+
+  /**
+   * Copies the map and the values in it, so that neither the cache nor the caller can affect the other by
+   * modifying the map or the value byte arrays.
+   */
+  private static NavigableMap<byte[], byte[]> copyOf(Map<byte[], byte[]> columns) {
+    NavigableMap<byte[], byte[]> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    for (Map.Entry<byte[], byte[]> entry : columns.entrySet()) {
+      result.put(entry.getKey(), copy(entry.getValue()));
+    }
+    return result;
+  }
+
+  private static byte[] copy(byte[] bytes) {
+    return bytes == null ? null : Arrays.copyOf(bytes, bytes.length);
+  }
+
+  @Nullable
+  private static byte[][] copy(@Nullable byte[][] columns) {
+    if (columns == null) {
+      return null;
+    }
+    byte[][] result = new byte[columns.length][];
+    for (int i = 0; i < columns.length; i++) {
+      result[i] = copy(columns[i]);
+    }
+    return result;
+  }
+
+  /**
+   * Set of columns requested by a get, with {@code null} representing all columns.
+   */
+  private static final class ColumnSet {
+    private final byte[][] columns;
+    private final int hashCode;
+
+    ColumnSet(@Nullable byte[][] columns) {
+      this.columns = columns;
+      this.hashCode = Arrays.deepHashCode(columns);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      return Arrays.deepEquals(columns, ((ColumnSet) o).columns);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
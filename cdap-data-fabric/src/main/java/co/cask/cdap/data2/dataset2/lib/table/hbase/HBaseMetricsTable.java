@@ -31,7 +31,9 @@ import co.cask.cdap.data2.util.hbase.HBaseTableUtil;
 import co.cask.cdap.data2.util.hbase.PutBuilder;
 import co.cask.cdap.data2.util.hbase.ScanBuilder;
 import co.cask.cdap.proto.id.NamespaceId;
+import com.google.common.base.Predicates;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.hbase.client.Delete;
 import org.apache.hadoop.hbase.client.Get;
@@ -91,14 +93,7 @@ public class HBaseMetricsTable implements MetricsTable {
 
   @Override
   public void put(SortedMap<byte[], ? extends SortedMap<byte[], Long>> updates) {
-    List<Put> puts = Lists.newArrayList();
-    for (Map.Entry<byte[], ? extends SortedMap<byte[], Long>> row : updates.entrySet()) {
-      PutBuilder put = tableUtil.buildPut(row.getKey());
-      for (Map.Entry<byte[], Long> column : row.getValue().entrySet()) {
-        put.add(columnFamily, column.getKey(), Bytes.toBytes(column.getValue()));
-      }
-      puts.add(put.build());
-    }
+    List<Put> puts = getPuts(updates);
     try {
       hTable.put(puts);
       hTable.flushCommits();
@@ -162,6 +157,18 @@ public class HBaseMetricsTable implements MetricsTable {
     }
   }
 
+  private List<Put> getPuts(SortedMap<byte[], ? extends SortedMap<byte[], Long>> updates) {
+    List<Put> puts = Lists.newArrayList();
+    for (Map.Entry<byte[], ? extends SortedMap<byte[], Long>> row : updates.entrySet()) {
+      PutBuilder put = tableUtil.buildPut(row.getKey());
+      for (Map.Entry<byte[], Long> column : row.getValue().entrySet()) {
+        put.add(columnFamily, column.getKey(), Bytes.toBytes(column.getValue()));
+      }
+      puts.add(put.build());
+    }
+    return puts;
+  }
+
   private Put getIncrementalPut(byte[] row, Map<byte[], Long> increments) {
     Put increment = getIncrementalPut(row);
     for (Map.Entry<byte[], Long> column : increments.entrySet()) {
@@ -200,6 +207,44 @@ public class HBaseMetricsTable implements MetricsTable {
     }
   }
 
+  @Override
+  public void putAndIncrement(SortedMap<byte[], ? extends SortedMap<byte[], Long>> puts,
+                              NavigableMap<byte[], NavigableMap<byte[], Long>> increments) {
+    List<Put> mutations = Lists.newArrayList();
+    for (Map.Entry<byte[], ? extends SortedMap<byte[], Long>> row : puts.entrySet()) {
+      NavigableMap<byte[], Long> rowIncrements = increments.get(row.getKey());
+      PutBuilder put = tableUtil.buildPut(row.getKey());
+      for (Map.Entry<byte[], Long> column : row.getValue().entrySet()) {
+        // a column that is also incremented is written as the put value plus the increment, since a delta write
+        // in the same batch could be ordered either before or after the put
+        Long delta = rowIncrements == null ? null : rowIncrements.get(column.getKey());
+        long value = delta == null ? column.getValue() : column.getValue() + delta;
+        put.add(columnFamily, column.getKey(), Bytes.toBytes(value));
+      }
+      mutations.add(put.build());
+    }
+    for (Map.Entry<byte[], NavigableMap<byte[], Long>> update : increments.entrySet()) {
+      SortedMap<byte[], Long> rowPuts = puts.get(update.getKey());
+      Map<byte[], Long> rowIncrements = rowPuts == null
+        ? update.getValue() : Maps.filterKeys(update.getValue(), Predicates.not(Predicates.in(rowPuts.keySet())));
+      if (!rowIncrements.isEmpty()) {
+        mutations.add(getIncrementalPut(update.getKey(), rowIncrements));
+      }
+    }
+
+    try {
+      hTable.put(mutations);
+      hTable.flushCommits();
+    } catch (IOException e) {
+      // figure out whether this is an illegal increment
+      // currently there is not other way to extract that from the HBase exception than string match
+      if (e.getMessage() != null && e.getMessage().contains("isn't 64 bits wide")) {
+        throw new NumberFormatException("Attempted to increment a value that is not convertible to long.");
+      }
+      throw new DataSetException("Put and increment failed on table " + tableId, e);
+    }
+  }
+
   @Override
   public long incrementAndGet(byte[] row, byte[] column, long delta) {
     Increment increment = new Increment(row);
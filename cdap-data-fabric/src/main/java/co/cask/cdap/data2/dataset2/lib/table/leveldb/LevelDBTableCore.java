@@ -26,7 +26,9 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Striped;
 import org.apache.tephra.Transaction;
 import org.iq80.leveldb.DB;
 import org.iq80.leveldb.DBIterator;
@@ -36,12 +38,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.concurrent.locks.Lock;
 import javax.annotation.Nullable;
 
 /**
@@ -77,10 +82,13 @@ public class LevelDBTableCore {
 
   private final String tableName;
   private final LevelDBTableService service;
+  // locks for read-modify-write operations, shared by all clients of the table
+  private final Striped<Lock> rowLocks;
 
   public LevelDBTableCore(String tableName, LevelDBTableService service) throws IOException {
     this.tableName = tableName;
     this.service = service;
+    this.rowLocks = service.getRowLocks(tableName);
   }
 
   private DB getDB() throws IOException {
@@ -92,7 +100,17 @@ public class LevelDBTableCore {
   }
 
 
-  public synchronized boolean swap(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) throws IOException {
+  public boolean swap(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) throws IOException {
+    Lock lock = rowLocks.get(ByteBuffer.wrap(row));
+    lock.lock();
+    try {
+      return swapInternal(row, column, oldValue, newValue);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private boolean swapInternal(byte[] row, byte[] column, byte[] oldValue, byte[] newValue) throws IOException {
     byte[] existing = getRow(row, new byte[][] { column }, null, null, -1, null).get(column);
     // verify
     if (oldValue == null && existing != null) {
@@ -111,38 +129,79 @@ public class LevelDBTableCore {
     return true;
   }
 
-  public synchronized Map<byte[], Long> increment(byte[] row, Map<byte[], Long> increments) throws IOException {
-    Map<byte[], Long> result = getResultMap(row, increments);
-    Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-    for (Map.Entry<byte[], Long> entry : result.entrySet()) {
-      replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+  public Map<byte[], Long> increment(byte[] row, Map<byte[], Long> increments) throws IOException {
+    Lock lock = rowLocks.get(ByteBuffer.wrap(row));
+    lock.lock();
+    try {
+      Map<byte[], Long> result = getResultMap(row, increments, null);
+      Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+      for (Map.Entry<byte[], Long> entry : result.entrySet()) {
+        replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+      }
+      persist(ImmutableMap.of(row, replacing), System.currentTimeMillis());
+      return result;
+    } finally {
+      lock.unlock();
     }
-    persist(ImmutableMap.of(row, replacing), System.currentTimeMillis());
-    return result;
   }
 
 
-  public synchronized void increment(NavigableMap<byte[], NavigableMap<byte[], Long>> updates) throws IOException {
-    Map<byte[], Map<byte[], byte[]>> resultMap = Maps.newHashMap();
-    for (NavigableMap.Entry<byte[], NavigableMap<byte[], Long>> row : updates.entrySet()) {
-      NavigableMap<byte[], Long> increments = row.getValue();
-      Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
-      Map<byte[], Long> result = getResultMap(row.getKey(), increments);
-      for (Map.Entry<byte[], Long> entry : result.entrySet()) {
-        replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+  public void increment(NavigableMap<byte[], NavigableMap<byte[], Long>> updates) throws IOException {
+    putAndIncrement(Collections.<byte[], Map<byte[], byte[]>>emptyMap(), updates);
+  }
+
+  /**
+   * Writes the puts and applies the increments in a single batch write. A column that is both put and incremented
+   * is incremented on top of the put value, as if the puts were written first.
+   *
+   * @param puts columns to write, by row
+   * @param increments columns to increment, by row
+   */
+  public void putAndIncrement(Map<byte[], ? extends Map<byte[], byte[]>> puts,
+                              NavigableMap<byte[], NavigableMap<byte[], Long>> increments) throws IOException {
+    // bulkGet returns the locks in a consistent order, hence acquiring them in order doesn't deadlock
+    List<ByteBuffer> rows = Lists.newArrayListWithCapacity(increments.size());
+    for (byte[] row : increments.keySet()) {
+      rows.add(ByteBuffer.wrap(row));
+    }
+    Iterable<Lock> locks = rowLocks.bulkGet(rows);
+    List<Lock> acquired = Lists.newArrayListWithCapacity(increments.size());
+    try {
+      for (Lock lock : locks) {
+        lock.lock();
+        acquired.add(lock);
+      }
+      Map<byte[], Map<byte[], byte[]>> resultMap = Maps.newHashMap();
+      for (NavigableMap.Entry<byte[], NavigableMap<byte[], Long>> row : increments.entrySet()) {
+        Map<byte[], byte[]> replacing = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+        Map<byte[], Long> result = getResultMap(row.getKey(), row.getValue(), puts.get(row.getKey()));
+        for (Map.Entry<byte[], Long> entry : result.entrySet()) {
+          replacing.put(entry.getKey(), Bytes.toBytes(entry.getValue()));
+        }
+        resultMap.put(row.getKey(), replacing);
+      }
+      long version = System.currentTimeMillis();
+      DB db = getDB();
+      WriteBatch batch = db.createWriteBatch();
+      addToBatch(batch, puts, version);
+      addToBatch(batch, resultMap, version);
+      db.write(batch, service.getWriteOptions());
+    } finally {
+      for (Lock lock : Lists.reverse(acquired)) {
+        lock.unlock();
       }
-      resultMap.put(row.getKey(), replacing);
     }
-    persist(resultMap, System.currentTimeMillis());
   }
 
-  private Map<byte[], Long> getResultMap(byte[] row, Map<byte[], Long> increments) throws IOException {
+  private Map<byte[], Long> getResultMap(byte[] row, Map<byte[], Long> increments,
+                                         @Nullable Map<byte[], byte[]> puts) throws IOException {
     NavigableMap<byte[], byte[]> existing =
       getRow(row, increments.keySet().toArray(new byte[increments.size()][]), null, null, -1, null);
     Map<byte[], Long> result = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     for (Map.Entry<byte[], Long> increment : increments.entrySet()) {
       long existingValue = 0L;
-      byte[] existingBytes = existing.get(increment.getKey());
+      byte[] existingBytes = puts != null && puts.containsKey(increment.getKey())
+        ? puts.get(increment.getKey()) : existing.get(increment.getKey());
       if (existingBytes != null) {
         if (existingBytes.length != Bytes.SIZEOF_LONG) {
           throw new NumberFormatException("Attempted to increment a value that is not convertible to long," +
@@ -159,15 +218,19 @@ public class LevelDBTableCore {
 
   public void persist(Map<byte[], ? extends Map<byte[], byte[]>> changes, long version) throws IOException {
     DB db = getDB();
-    // todo support writing null when no transaction
     WriteBatch batch = db.createWriteBatch();
+    addToBatch(batch, changes, version);
+    db.write(batch, service.getWriteOptions());
+  }
+
+  private void addToBatch(WriteBatch batch, Map<byte[], ? extends Map<byte[], byte[]>> changes, long version) {
+    // todo support writing null when no transaction
     for (Map.Entry<byte[], ? extends Map<byte[], byte[]>> row : changes.entrySet()) {
       for (Map.Entry<byte[], byte[]> column : row.getValue().entrySet()) {
         byte[] key = createPutKey(row.getKey(), column.getKey(), version);
         batch.put(key, column.getValue() == null ? DELETE_MARKER : column.getValue());
       }
     }
-    db.write(batch, service.getWriteOptions());
   }
 
   public void put(byte[] row, byte[] column, byte[] value, long version) throws IOException {
@@ -44,6 +44,9 @@ import javax.annotation.Nullable;
  * <h5>Entity mapping rows</h5>
  * Each entity would have two rows. One is keyed by {@code [type].[entityName]} and have one "id" column which
  * stores the unique ID. The other is a reverse map from {@code [type].id} to entity name in "name" column.
+ *
+ * <p>Instances of this class are thread safe, hence they can be shared by the {@link FactTable}s of all
+ * resolutions.</p>
  */
 public final class EntityTable implements Closeable {
 
@@ -131,59 +134,62 @@ public final class EntityTable implements Closeable {
     return new CacheLoader<EntityName, Long>() {
       @Override
       public Long load(EntityName key) throws Exception {
-        byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
+        // the table is shared by the loads of both caches, which may happen concurrently
+        synchronized (table) {
+          byte[] rowKey = Bytes.toBytes(key.getType() + '.' + key.getName());
 
-        byte[] result = table.get(rowKey, ID);
+          byte[] result = table.get(rowKey, ID);
 
-        // Found, return it
-        if (result != null) {
-          return Bytes.toLong(result);
-        }
+          // Found, return it
+          if (result != null) {
+            return Bytes.toLong(result);
+          }
 
-        // Not found, generate a new ID
-        byte[] maxIdRowKey = Bytes.toBytes(key.getType() + ".maxId");
-        long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
-
-        /* we recycle the id's after reaching max-id to let the id's start from 1 again.
-        this most likely won't happen for any entity other than run-id,
-        Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
-        as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
-        under 30 days is low. For mapping the id -> name , we use (id % maxId) */
-        if (newId % maxId == 0) {
-          newId = 1L;
-          table.swap(maxIdRowKey, MAX_ID, Bytes.toBytes(maxId), Bytes.toBytes(newId));
-        }
+          // Not found, generate a new ID
+          byte[] maxIdRowKey = Bytes.toBytes(key.getType() + ".maxId");
+          long newId = table.incrementAndGet(maxIdRowKey, MAX_ID, 1L);
+
+          /* we recycle the id's after reaching max-id to let the id's start from 1 again.
+          this most likely won't happen for any entity other than run-id,
+          Even for run-id - its okay to recycle, as we would have truncated the old data when we reach 16777215 runs,
+          as our max TTL is 30 days currently. The reasoning is the likelihood for running 16777215 programs
+          under 30 days is low. For mapping the id -> name , we use (id % maxId) */
+          if (newId % maxId == 0) {
+            newId = 1L;
+            table.swap(maxIdRowKey, MAX_ID, Bytes.toBytes(maxId), Bytes.toBytes(newId));
+          }
 
-        if (key.getName() == null || key.getName().isEmpty()) {
-          LOG.warn("Adding mapping for " + (key.getName() == null ? "null" : "empty") + " name, " +
-                     " with type " + key.getType() + ", new id is " + newId);
-        }
+          if (key.getName() == null || key.getName().isEmpty()) {
+            LOG.warn("Adding mapping for " + (key.getName() == null ? "null" : "empty") + " name, " +
+                       " with type " + key.getType() + ", new id is " + newId);
+          }
 
-        // Save the mapping
-        if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
-          // Save the reverse mapping from r.type.id => name as well
-          rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(newId));
-
-          // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
-          byte[] oldName = null;
-          while (!table.swap(rowKey, NAME, oldName, Bytes.toBytes(key.getName()))) {
-            result = table.get(rowKey, NAME);
-            if (result == null) {
-              throw new IllegalStateException("Fail to set reverse mapping from id to name.");
+          // Save the mapping
+          if (table.swap(rowKey, ID, null, Bytes.toBytes(newId))) {
+            // Save the reverse mapping from r.type.id => name as well
+            rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(newId));
+
+            // It is wrong to have forward mapping set when reverse mapping failed to set, always try to overwrite it.
+            byte[] oldName = null;
+            while (!table.swap(rowKey, NAME, oldName, Bytes.toBytes(key.getName()))) {
+              result = table.get(rowKey, NAME);
+              if (result == null) {
+                throw new IllegalStateException("Fail to set reverse mapping from id to name.");
+              }
+              oldName = result;
             }
-            oldName = result;
-          }
 
-          return newId;
-        }
+            return newId;
+          }
 
-        // Get the value if CAS failed.
-        result = table.get(rowKey, ID);
+          // Get the value if CAS failed.
+          result = table.get(rowKey, ID);
 
-        if (result == null) {
-          throw new IllegalStateException("ID not found for " + key);
+          if (result == null) {
+            throw new IllegalStateException("ID not found for " + key);
+          }
+          return Bytes.toLong(result);
         }
-        return Bytes.toLong(result);
       }
     };
   }
@@ -192,13 +198,17 @@ public final class EntityTable implements Closeable {
     return new CacheLoader<EntityId, EntityName>() {
       @Override
       public EntityName load(EntityId key) throws Exception {
-        // Lookup the reverse mapping
-        byte[] rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(key.getId()));
-        byte[] result = table.get(rowKey, NAME);
-        if (result == null) {
-          throw new IllegalArgumentException("Entity name not found for type " + key.getType() + ", id " + key.getId());
+        // the table is shared by the loads of both caches, which may happen concurrently
+        synchronized (table) {
+          // Lookup the reverse mapping
+          byte[] rowKey = Bytes.concat(Bytes.toBytes(key.getType()), DOT, Bytes.toBytes(key.getId()));
+          byte[] result = table.get(rowKey, NAME);
+          if (result == null) {
+            throw new IllegalArgumentException("Entity name not found for type " + key.getType()
+                                                 + ", id " + key.getId());
+          }
+          return new EntityName(key.getType(), Bytes.toString(result));
         }
-        return new EntityName(key.getType(), Bytes.toString(result));
       }
     };
   }
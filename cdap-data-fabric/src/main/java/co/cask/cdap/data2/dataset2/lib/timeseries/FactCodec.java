@@ -35,6 +35,11 @@ public class FactCodec {
   private static final Logger LOG = LoggerFactory.getLogger(FactCodec.class);
   // current version
   private static final byte[] VERSION = new byte[] {0};
+  // prefix of the dimension values index rows, sorts after all fact rows
+  private static final byte[] INDEX_PREFIX = new byte[] {1};
+  // number of index rows the index of a time base is split into for the totals resolution, whose time base never
+  // changes, so that no single index row holds all the dimension values ever written for an agg group
+  private static final int TOTALS_INDEX_BUCKETS = 64;
 
   // encoding types
   private static final String TYPE_MEASURE_NAME = "measureName";
@@ -46,12 +51,14 @@ public class FactCodec {
   private final int rollTimebaseInterval;
   // Cache for delta values.
   private final byte[][] deltaCache;
+  private final int indexBuckets;
 
   public FactCodec(EntityTable entityTable, int resolution, int rollTimebaseInterval) {
     this.entityTable = entityTable;
     this.resolution = resolution;
     this.rollTimebaseInterval = rollTimebaseInterval;
     this.deltaCache = createDeltaCache(rollTimebaseInterval);
+    this.indexBuckets = resolution == Integer.MAX_VALUE ? TOTALS_INDEX_BUCKETS : 1;
   }
 
   /**
@@ -181,6 +188,75 @@ public class FactCodec {
     return newRowKey;
   }
 
+  /**
+   * Returns the row key of the dimension values index row for the given fact row key. Index row key has the same
+   * format as the fact row key, except that it starts with the index prefix and contains only the encoded agg group
+   * and the time base: <index prefix><encoded agg group><time base>. For the totals resolution, the index row key
+   * is followed by a bucket byte derived from the index column, see {@link #getIndexColumn(byte[])}.
+   * @param rowKey fact row key
+   * @return index row key
+   */
+  public byte[] getIndexRowKey(byte[] rowKey) {
+    byte[] prefix = getIndexRowKeyPrefix(rowKey);
+    if (indexBuckets == 1) {
+      return prefix;
+    }
+    int columnOffset = VERSION.length + entityTable.getIdSize() + Bytes.SIZEOF_INT;
+    int hash = Bytes.hashCode(rowKey, columnOffset, rowKey.length - columnOffset);
+    byte[] indexRowKey = Arrays.copyOf(prefix, prefix.length + 1);
+    indexRowKey[prefix.length] = (byte) ((hash & Integer.MAX_VALUE) % indexBuckets);
+    return indexRowKey;
+  }
+
+  /**
+   * Returns the prefix that all the dimension values index rows of the given fact row key's agg group and time base
+   * start with: <index prefix><encoded agg group><time base>. Can be used with start and end row keys of a scan.
+   * @param rowKey fact row key
+   * @return index row key prefix
+   */
+  public byte[] getIndexRowKeyPrefix(byte[] rowKey) {
+    byte[] indexRowKey = Arrays.copyOf(rowKey, INDEX_PREFIX.length + entityTable.getIdSize() + Bytes.SIZEOF_INT);
+    System.arraycopy(INDEX_PREFIX, 0, indexRowKey, 0, INDEX_PREFIX.length);
+    return indexRowKey;
+  }
+
+  /**
+   * Returns the column of the dimension values index row for the given fact row key, which is the part of the row
+   * key that follows the time base: <encoded dimension1 value>...<encoded dimensionN value><encoded measure name>.
+   * Also can be used to extract corresponding part of a start row key or a fuzzy row mask.
+   * @param rowKey fact row key
+   * @return index column
+   */
+  public byte[] getIndexColumn(byte[] rowKey) {
+    return Arrays.copyOfRange(rowKey, VERSION.length + entityTable.getIdSize() + Bytes.SIZEOF_INT, rowKey.length);
+  }
+
+  /**
+   * Returns row key which sorts after all fact rows and before all dimension values index rows.
+   */
+  public byte[] getIndexMarkerRowKey() {
+    return Arrays.copyOf(INDEX_PREFIX, INDEX_PREFIX.length);
+  }
+
+  /**
+   * Returns dimension value at the given position of the index column.
+   * @param column index column
+   * @param index position of the dimension value
+   * @param dimensionName name of the dimension
+   * @return dimension value, {@code null} if it is not set in the index column
+   */
+  @Nullable
+  public String getIndexedDimensionValue(byte[] column, int index, String dimensionName) {
+    return entityTable.getName(readEncoded(column, entityTable.getIdSize() * index), dimensionName);
+  }
+
+  /**
+   * Returns time base of the row that holds the value for the given timestamp.
+   */
+  public long getRowTimeBase(long ts) {
+    return getTimeBase(roundToResolution(ts));
+  }
+
   private long roundToResolution(long ts) {
     return (ts / resolution) * resolution;
   }
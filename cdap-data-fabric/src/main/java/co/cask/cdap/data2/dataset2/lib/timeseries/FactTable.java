@@ -27,6 +27,8 @@ import co.cask.cdap.data2.dataset2.lib.table.FuzzyRowFilter;
 import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -36,6 +38,7 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -46,6 +49,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nullable;
 
 /**
@@ -61,6 +66,20 @@ public final class FactTable implements Closeable {
   private static final int MAX_RECORDS_TO_SCAN_DURING_SEARCH = 10 * 1000 * 1000;
   private static final int MAX_SCANS_DURING_SEARCH = 10 * 1000;
 
+  // column of the index marker row that holds the time base starting from which all facts are indexed
+  private static final byte[] INDEX_START_COLUMN = Bytes.toBytes("s");
+  // value of the index cells, only presence of the cell matters
+  private static final byte[] INDEX_VALUE = Bytes.toBytes(0L);
+  // prefix of the index marker row columns that record the names of the gauge measures
+  private static final byte[] GAUGE_COLUMN_PREFIX = Bytes.toBytes("g");
+  // prefix of the index marker row columns that record the end of the rolled up time range of a resolution
+  private static final byte[] ROLLUP_COLUMN_PREFIX = Bytes.toBytes("r");
+  // column of the index marker row that counts the changes to facts that may be cached by the queries
+  private static final byte[] CHANGE_COUNT_COLUMN = Bytes.toBytes("c");
+  // max number of index cells remembered as written, and for how long, see indexedCells
+  private static final int INDEX_CACHE_SIZE = 100000;
+  private static final long INDEX_CACHE_EXPIRY_SECONDS = 600;
+
   private static final Function<byte[], Long> BYTES_TO_LONG = new Function<byte[], Long>() {
     @Override
     public Long apply(byte[] input) {
@@ -85,6 +104,20 @@ public final class FactTable implements Closeable {
 
   private final String putCountMetric;
   private final String incrementCountMetric;
+  private final String writeCountMetric;
+  private final String writeSavedCountMetric;
+  private final String indexPutCountMetric;
+
+  // time base starting from which the dimension values index is complete, null if not known yet
+  private volatile Long indexStartTs;
+  // names of the gauge measures that are recorded in the index marker row by this instance
+  private final Set<String> recordedGauges = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  // index cells (row key followed by column) recently written by this instance, that are not written again.
+  // Entries expire, so that index cells removed by other instances or by the table TTL are eventually written again.
+  private final Cache<ByteBuffer, Boolean> indexedCells = CacheBuilder.newBuilder()
+    .maximumSize(INDEX_CACHE_SIZE)
+    .expireAfterWrite(INDEX_CACHE_EXPIRY_SECONDS, TimeUnit.SECONDS)
+    .build();
 
   @Nullable
   private MetricsCollector metrics;
@@ -112,6 +145,9 @@ public final class FactTable implements Closeable {
     this.rollTime = rollTime;
     this.putCountMetric = "factTable." + resolution + ".put.count";
     this.incrementCountMetric = "factTable." + resolution + ".increment.count";
+    this.writeCountMetric = "factTable." + resolution + ".write.count";
+    this.writeSavedCountMetric = "factTable." + resolution + ".write.saved.count";
+    this.indexPutCountMetric = "factTable." + resolution + ".index.put.count";
   }
 
   public void setMetricsCollector(MetricsCollector metrics) {
@@ -119,9 +155,17 @@ public final class FactTable implements Closeable {
   }
 
   public void add(List<Fact> facts) {
+    if (indexStartTs == null) {
+      initIndex();
+    }
+
     // Simply collecting all rows/cols/values that need to be put to the underlying table.
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> gaugesTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
     NavigableMap<byte[], NavigableMap<byte[], byte[]>> incrementsTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    // Index cells are written along with the facts, they never share rows with the facts
+    NavigableMap<byte[], NavigableMap<byte[], byte[]>> indexTable = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    Set<String> newGauges = Sets.newHashSet();
+    Set<ByteBuffer> newIndexedCells = Sets.newHashSet();
     for (Fact fact : facts) {
       for (Measurement measurement : fact.getMeasurements()) {
         byte[] rowKey = codec.createRowKey(fact.getDimensionValues(), measurement.getName(), fact.getTimestamp());
@@ -131,9 +175,23 @@ public final class FactTable implements Closeable {
           inc(incrementsTable, rowKey, column, measurement.getValue());
         } else {
           set(gaugesTable, rowKey, column, Bytes.toBytes(measurement.getValue()));
+          if (!recordedGauges.contains(measurement.getName()) && newGauges.add(measurement.getName())) {
+            set(indexTable, codec.getIndexMarkerRowKey(),
+                Bytes.concat(GAUGE_COLUMN_PREFIX, Bytes.toBytes(measurement.getName())), INDEX_VALUE);
+          }
+        }
+        byte[] indexRow = codec.getIndexRowKey(rowKey);
+        byte[] indexColumn = codec.getIndexColumn(rowKey);
+        // index row keys have the same length for all facts, hence the cell is identified by their concatenation
+        ByteBuffer indexCell = ByteBuffer.wrap(Bytes.concat(indexRow, indexColumn));
+        if (indexedCells.getIfPresent(indexCell) == null && newIndexedCells.add(indexCell)) {
+          set(indexTable, indexRow, indexColumn, INDEX_VALUE);
         }
       }
     }
+    int gaugeRows = gaugesTable.size();
+    int indexRows = indexTable.size();
+    gaugesTable.putAll(indexTable);
 
     NavigableMap<byte[], NavigableMap<byte[], Long>> convertedIncrementsTable =
       Maps.transformValues(incrementsTable, TRANSFORM_MAP_BYTE_ARRAY_TO_LONG);
@@ -141,15 +199,185 @@ public final class FactTable implements Closeable {
     NavigableMap<byte[], NavigableMap<byte[], Long>> convertedGaugesTable =
       Maps.transformValues(gaugesTable, TRANSFORM_MAP_BYTE_ARRAY_TO_LONG);
 
-    // todo: replace with single call, to be able to optimize rpcs in underlying table
-    timeSeriesTable.put(convertedGaugesTable);
-    timeSeriesTable.increment(convertedIncrementsTable);
+    // gauges and increments are written with a single call, so that underlying table can batch them in one rpc
+    timeSeriesTable.putAndIncrement(convertedGaugesTable, convertedIncrementsTable);
+    recordedGauges.addAll(newGauges);
+    for (ByteBuffer indexCell : newIndexedCells) {
+      indexedCells.put(indexCell, Boolean.TRUE);
+    }
     if (metrics != null) {
-      metrics.increment(putCountMetric, convertedGaugesTable.size());
+      metrics.increment(putCountMetric, gaugeRows);
       metrics.increment(incrementCountMetric, convertedIncrementsTable.size());
+      metrics.increment(indexPutCountMetric, indexRows);
+      metrics.increment(writeCountMetric, 1);
+      // number of writes saved by not writing gauges and increments separately
+      if (gaugeRows > 0 && !convertedIncrementsTable.isEmpty()) {
+        metrics.increment(writeSavedCountMetric, 1);
+      }
+    }
+  }
+
+  /**
+   * Records the time base starting from which all facts written to this table are indexed, unless it is
+   * recorded already. If the table has no facts yet, the index covers all of them. Otherwise, the facts written
+   * before the index was introduced are not indexed, and the index is only complete starting from the next time base.
+   */
+  private void initIndex() {
+    if (getIndexStartTs() != null) {
+      return;
+    }
+    byte[] markerRow = codec.getIndexMarkerRowKey();
+    long startTs;
+    // all fact rows sort before the index marker row
+    try (Scanner scanner = timeSeriesTable.scan(null, markerRow, null)) {
+      startTs = scanner.next() == null ? 0L : codec.getRowTimeBase(System.currentTimeMillis() / 1000) + rollTime;
+    }
+    if (timeSeriesTable.swap(markerRow, INDEX_START_COLUMN, null, Bytes.toBytes(startTs))) {
+      indexStartTs = startTs;
+    } else {
+      // recorded concurrently by another writer
+      indexStartTs = Bytes.toLong(timeSeriesTable.get(markerRow, INDEX_START_COLUMN));
     }
   }
 
+  /**
+   * Returns the time base starting from which all facts written to this table are indexed, or {@code null} if
+   * no facts were indexed yet.
+   */
+  @Nullable
+  private Long getIndexStartTs() {
+    if (indexStartTs == null) {
+      byte[] value = timeSeriesTable.get(codec.getIndexMarkerRowKey(), INDEX_START_COLUMN);
+      if (value != null) {
+        indexStartTs = Bytes.toLong(value);
+      }
+    }
+    return indexStartTs;
+  }
+
+  /**
+   * Returns the names of all the gauge measures ever written to this table.
+   */
+  public Set<String> getGaugeMeasureNames() {
+    Set<String> gauges = Sets.newHashSet();
+    for (byte[] column : getIndexMarkerColumns(GAUGE_COLUMN_PREFIX)) {
+      gauges.add(Bytes.toString(column, GAUGE_COLUMN_PREFIX.length, column.length - GAUGE_COLUMN_PREFIX.length));
+    }
+    return gauges;
+  }
+
+  /**
+   * Returns the end (exclusive) of the time range that is rolled up from this table into the given resolution,
+   * or {@code null} if it is not recorded.
+   *
+   * @param resolution the resolution that facts are rolled up into
+   */
+  @Nullable
+  public Long getRollupEndTs(int resolution) {
+    byte[] value = timeSeriesTable.get(codec.getIndexMarkerRowKey(), getRollupColumn(resolution));
+    return value == null ? null : Bytes.toLong(value);
+  }
+
+  /**
+   * Records the end (exclusive) of the time range that is rolled up from this table into the given resolution.
+   * The recorded value never moves backward, hence the rollup state is consistent with concurrent updates.
+   *
+   * @param resolution the resolution that facts are rolled up into
+   * @param endTs end of the rolled up time range
+   * @return the recorded end of the rolled up time range, which can be greater than the given one
+   *         if it was updated concurrently
+   */
+  public long updateRollupEndTs(int resolution, long endTs) {
+    byte[] markerRow = codec.getIndexMarkerRowKey();
+    byte[] column = getRollupColumn(resolution);
+    byte[] newValue = Bytes.toBytes(endTs);
+    while (true) {
+      byte[] oldValue = timeSeriesTable.get(markerRow, column);
+      if (oldValue != null && Bytes.toLong(oldValue) >= endTs) {
+        return Bytes.toLong(oldValue);
+      }
+      if (timeSeriesTable.swap(markerRow, column, oldValue, newValue)) {
+        return endTs;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of changes recorded with {@link #incrementChangeCount()}.
+   */
+  public long getChangeCount() {
+    byte[] value = timeSeriesTable.get(codec.getIndexMarkerRowKey(), CHANGE_COUNT_COLUMN);
+    return value == null ? 0L : Bytes.toLong(value);
+  }
+
+  /**
+   * Records a change to facts that may be cached by the queries, such as facts added to a time range that is
+   * considered final or deleted facts. The queries of all the processes detect the change with
+   * {@link #getChangeCount()}.
+   *
+   * @return the new number of changes
+   */
+  public long incrementChangeCount() {
+    return timeSeriesTable.incrementAndGet(codec.getIndexMarkerRowKey(), CHANGE_COUNT_COLUMN, 1L);
+  }
+
+  private byte[] getRollupColumn(int resolution) {
+    return Bytes.concat(ROLLUP_COLUMN_PREFIX, Bytes.toBytes(resolution));
+  }
+
+  /**
+   * Returns the columns of the index marker row that start with the given prefix.
+   */
+  private List<byte[]> getIndexMarkerColumns(byte[] prefix) {
+    byte[] markerRow = codec.getIndexMarkerRowKey();
+    List<byte[]> columns = new ArrayList<>();
+    try (Scanner scanner = timeSeriesTable.scan(markerRow, Bytes.concat(markerRow, new byte[] {0}), null)) {
+      Row row = scanner.next();
+      if (row != null) {
+        for (byte[] column : row.getColumns().keySet()) {
+          if (Bytes.startsWith(column, prefix)) {
+            columns.add(column);
+          }
+        }
+      }
+    }
+    return columns;
+  }
+
+  /**
+   * Returns {@code true} if the dimension values index has all the facts for the time range that starts with
+   * the given timestamp.
+   */
+  private boolean isIndexed(long startTs) {
+    Long indexStart = getIndexStartTs();
+    return indexStart != null && indexStart <= codec.getRowTimeBase(startTs);
+  }
+
+  /**
+   * Creates a scanner of the dimension values index rows for the given aggregation group and time range.
+   */
+  private Scanner getIndexScanner(List<DimensionValue> allDimensions, long startTs, long endTs) {
+    byte[] startRow = codec.getIndexRowKeyPrefix(codec.createStartRowKey(allDimensions, null, startTs, false));
+    byte[] endRow = codec.getIndexRowKeyPrefix(codec.createEndRowKey(allDimensions, null, endTs, false));
+    return timeSeriesTable.scan(startRow, Bytes.stopKeyForPrefix(endRow), null);
+  }
+
+  /**
+   * Returns {@code true} if the given index column matches the given template, skipping the bytes that are
+   * set in the given fuzzy mask.
+   */
+  private static boolean matches(byte[] column, byte[] template, byte[] mask) {
+    if (column.length != template.length) {
+      return false;
+    }
+    for (int i = 0; i < column.length; i++) {
+      if (mask[i] == 0 && column[i] != template[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
   private class MeasureNameComparator implements Comparator<String> {
     private final Map<String, Long> measureNameToEntityIdMap;
 
@@ -167,6 +395,45 @@ public final class FactTable implements Closeable {
     return new FactScanner(getScanner(scan), codec, scan.getStartTs(), scan.getEndTs(), scan.getMeasureNames());
   }
 
+  /**
+   * Splits the given scan into at most {@code maxSplits} scans that together return the same facts, so that they
+   * can be executed concurrently. The time range is split first, at the time bases of the rows, hence the row key
+   * ranges of the splits don't overlap. If there are fewer time ranges than splits, each time range is further split
+   * by measure names. The time values of a time series at a given timestamp are always returned by the same split.
+   *
+   * @param scan the scan to split
+   * @param maxSplits maximum number of scans to return
+   * @return the list of scans, which only contains the given scan if it cannot be split
+   */
+  public List<FactScan> split(FactScan scan, int maxSplits) {
+    Preconditions.checkArgument(maxSplits > 0, "Maximum number of splits must be > 0: %s", maxSplits);
+    long startTimeBase = codec.getRowTimeBase(scan.getStartTs());
+    long endTimeBase = codec.getRowTimeBase(scan.getEndTs());
+    if (maxSplits == 1 || startTimeBase > endTimeBase) {
+      return ImmutableList.of(scan);
+    }
+
+    long timeBases = (endTimeBase - startTimeBase) / rollTime + 1;
+    int timeSplits = (int) Math.min(maxSplits, timeBases);
+    long splitTimeRange = (timeBases + timeSplits - 1) / timeSplits * rollTime;
+
+    List<String> measureNames = getSortedMeasures(scan.getMeasureNames());
+    int measureSplits = Math.min(measureNames.size(), maxSplits / timeSplits);
+    List<List<String>> measureGroups = measureSplits <= 1
+      ? Collections.singletonList(measureNames)
+      : Lists.partition(measureNames, (measureNames.size() + measureSplits - 1) / measureSplits);
+
+    List<FactScan> splits = new ArrayList<>();
+    for (long timeBase = startTimeBase; timeBase <= endTimeBase; timeBase += splitTimeRange) {
+      long startTs = Math.max(scan.getStartTs(), timeBase);
+      long endTs = Math.min(scan.getEndTs(), timeBase + splitTimeRange - 1);
+      for (List<String> measureGroup : measureGroups) {
+        splits.add(new FactScan(startTs, endTs, measureGroup, scan.getDimensionValues()));
+      }
+    }
+    return splits;
+  }
+
   private List<String> getSortedMeasures(Collection<String> measures) {
     Map<String, Long> measureToEntityMap = new HashMap<>();
     List<String> measureNames = new ArrayList<>();
@@ -241,6 +508,12 @@ public final class FactTable implements Closeable {
 
         // todo: do deletes efficiently, in batches, not one-by-one
         timeSeriesTable.delete(row.getRow(), columns.toArray(new byte[columns.size()][]));
+        // if no columns left in the row, then the facts are no longer there and should be removed from the index
+        if (!columns.isEmpty() && columns.size() == row.getColumns().size()) {
+          timeSeriesTable.delete(codec.getIndexRowKey(row.getRow()),
+                                 new byte[][] { codec.getIndexColumn(row.getRow()) });
+          indexedCells.invalidateAll();
+        }
 
         if (exhausted) {
           break;
@@ -292,6 +565,10 @@ public final class FactTable implements Closeable {
       return Collections.emptySet();
     }
 
+    if (isIndexed(startTs)) {
+      return findSingleDimensionValueInIndex(allDimensions, dimToFillIndexes, startTs, endTs);
+    }
+
     Set<DimensionValue> result = Sets.newHashSet();
     int scans = 0;
     int scannedRecords = 0;
@@ -363,6 +640,52 @@ public final class FactTable implements Closeable {
     return result;
   }
 
+  /**
+   * Same as {@link #findSingleDimensionValue(List, Map, long, long)}, but reads the dimension values index rows
+   * instead of scanning through the facts.
+   */
+  private Set<DimensionValue> findSingleDimensionValueInIndex(List<DimensionValue> allDimensions,
+                                                              List<Integer> dimToFillIndexes,
+                                                              long startTs, long endTs) {
+    byte[] template = codec.getIndexColumn(codec.createStartRowKey(allDimensions, null, startTs, false));
+    byte[] mask = codec.getIndexColumn(codec.createFuzzyRowMask(allDimensions, null));
+
+    Set<DimensionValue> result = Sets.newHashSet();
+    int scannedRecords = 0;
+    try (Scanner scanner = getIndexScanner(allDimensions, startTs, endTs)) {
+      Row rowResult;
+      while ((rowResult = scanner.next()) != null && scannedRecords <= MAX_RECORDS_TO_SCAN_DURING_SEARCH) {
+        byte[] rowKey = rowResult.getRow();
+        // filter out rows by time range the same way as it is done when scanning the facts
+        if (codec.getTimestamp(rowKey, codec.createColumn(startTs)) < startTs) {
+          continue;
+        }
+        if (codec.getTimestamp(rowKey, codec.createColumn(endTs)) > endTs) {
+          break;
+        }
+        for (byte[] column : rowResult.getColumns().keySet()) {
+          scannedRecords++;
+          if (!matches(column, template, mask)) {
+            continue;
+          }
+          // first non-null valued dimension that was not in given dimensions
+          for (int index : dimToFillIndexes) {
+            String dimensionName = allDimensions.get(index).getName();
+            String value = codec.getIndexedDimensionValue(column, index, dimensionName);
+            if (value != null) {
+              result.add(new DimensionValue(dimensionName, value));
+              break;
+            }
+          }
+        }
+      }
+    }
+
+    LOG.trace("search for dimensions in index completed, scanned records: {}", scannedRecords);
+
+    return result;
+  }
+
   /**
    * Finds all measure names of the facts that match given {@link DimensionValue}s and time range.
    * @param allDimensionNames list of all dimension names to be present in the fact record
@@ -380,6 +703,10 @@ public final class FactTable implements Closeable {
       allDimensions.add(new DimensionValue(dimensionName, dimensionSlice.get(dimensionName)));
     }
 
+    if (isIndexed(startTs)) {
+      return findMeasureNamesInIndex(allDimensions, startTs, endTs);
+    }
+
     byte[] startRow = codec.createStartRowKey(allDimensions, null, startTs, false);
     byte[] endRow = codec.createEndRowKey(allDimensions, null, endTs, false);
     endRow = Bytes.stopKeyForPrefix(endRow);
@@ -415,6 +742,41 @@ public final class FactTable implements Closeable {
     return measureNames;
   }
 
+  /**
+   * Same as {@link #findMeasureNames(List, Map, long, long)}, but reads the dimension values index rows
+   * instead of scanning through the facts.
+   */
+  private Set<String> findMeasureNamesInIndex(List<DimensionValue> allDimensions, long startTs, long endTs) {
+    byte[] template = codec.getIndexColumn(codec.createStartRowKey(allDimensions, null, startTs, false));
+    byte[] mask = codec.getIndexColumn(codec.createFuzzyRowMask(allDimensions, null));
+
+    Set<String> measureNames = Sets.newHashSet();
+    int scannedRecords = 0;
+    try (Scanner scanner = getIndexScanner(allDimensions, startTs, endTs)) {
+      Row rowResult;
+      while ((rowResult = scanner.next()) != null && scannedRecords <= MAX_RECORDS_TO_SCAN_DURING_SEARCH) {
+        byte[] rowKey = rowResult.getRow();
+        // filter out rows by time range the same way as it is done when scanning the facts
+        if (codec.getTimestamp(rowKey, codec.createColumn(startTs)) < startTs) {
+          continue;
+        }
+        if (codec.getTimestamp(rowKey, codec.createColumn(endTs)) > endTs) {
+          break;
+        }
+        for (byte[] column : rowResult.getColumns().keySet()) {
+          scannedRecords++;
+          if (matches(column, template, mask)) {
+            measureNames.add(codec.getMeasureName(column));
+          }
+        }
+      }
+    }
+
+    LOG.trace("search for measures in index completed, scanned records: {}", scannedRecords);
+
+    return measureNames;
+  }
+
   @Override
   public void close() throws IOException {
     timeSeriesTable.close();
@@ -67,6 +67,11 @@ public abstract class ForwardingQueueConsumer implements QueueConsumer, Transact
     return consumer.dequeue(maxBatchSize);
   }
 
+  @Override
+  public void prefetch(int maxEntries) throws IOException {
+    consumer.prefetch(maxEntries);
+  }
+
   @Override
   public void startTx(Transaction tx) {
     if (txAware != null) {
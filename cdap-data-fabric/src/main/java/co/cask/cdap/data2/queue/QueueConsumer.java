@@ -48,4 +48,15 @@ public interface QueueConsumer extends Closeable {
    * @return A {@link DequeueResult}.
    */
   DequeueResult<byte[]> dequeue(int maxBatchSize) throws IOException;
+
+  /**
+   * Fetches entries ahead of time, so that later dequeue calls can be served without reading from the
+   * underlying storage. Entries are fetched based on the current transaction, but they are not claimed, hence
+   * they will be claimed by the transaction that dequeues them. This method can be called from a different thread
+   * than the one doing the dequeue, as long as it is called after the dequeue, and it completes before the current
+   * transaction is committed or rolled back.
+   *
+   * @param maxEntries Maximum number of entries to have fetched ahead.
+   */
+  void prefetch(int maxEntries) throws IOException;
 }
@@ -145,6 +145,20 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     return result;
   }
 
+  @Override
+  public void prefetch(int maxEntries) throws IOException {
+    Preconditions.checkArgument(maxEntries > 0, "Number of entries to prefetch must be > 0.");
+    Preconditions.checkState(transaction != null, "Prefetch must be called within a transaction.");
+
+    // Only go to the storage if there is not enough entries in the cache already
+    if (entryCache.size() >= maxEntries) {
+      return;
+    }
+    Stopwatch stopwatch = new Stopwatch();
+    stopwatch.start();
+    populateRowCache(consumingEntries.keySet(), Math.max(MIN_FETCH_ROWS, maxEntries), stopwatch);
+  }
+
   @Override
   public void startTx(Transaction tx) {
     consumingEntries.clear();
@@ -290,7 +304,7 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
 
     // If not enough entries from the cache, try to get more.
     if (entries.size() < maxBatchSize) {
-      populateRowCache(entries.keySet(), maxBatchSize, stopwatch);
+      populateRowCache(entries.keySet(), Math.max(MIN_FETCH_ROWS, maxBatchSize * PREFETCH_BATCHES), stopwatch);
       hasEntry = fetchFromCache(entries, maxBatchSize) || hasEntry;
     }
 
@@ -311,12 +325,11 @@ public abstract class AbstractQueueConsumer implements QueueConsumer, Transactio
     return true;
   }
 
-  private void populateRowCache(Set<byte[]> excludeRows, int maxBatchSize, Stopwatch stopwatch) throws IOException {
+  private void populateRowCache(Set<byte[]> excludeRows, int numRows, Stopwatch stopwatch) throws IOException {
 
     long readPointer = transaction.getReadPointer();
 
     // Scan the table for queue entries.
-    int numRows = Math.max(MIN_FETCH_ROWS, maxBatchSize * PREFETCH_BATCHES);
     QueueScanner scanner = getScanner(scanStartRow,
                                       QueueEntryRow.getStopRowForTransaction(queueRowPrefix, transaction),
                                       numRows);
@@ -310,6 +310,11 @@ public class HBaseQueueClientFactory implements QueueClientFactory, ProgramConte
       return consumers.peek().dequeue(maxBatchSize);
     }
 
+    @Override
+    public void prefetch(int maxEntries) throws IOException {
+      consumers.peek().prefetch(maxEntries);
+    }
+
     @Override
     public void close() throws IOException {
       for (HBaseQueueConsumer consumer : consumers) {
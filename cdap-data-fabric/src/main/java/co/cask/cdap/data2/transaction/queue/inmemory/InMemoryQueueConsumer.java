@@ -91,6 +91,11 @@ public class InMemoryQueueConsumer implements QueueConsumer, TransactionAware {
     }
   }
 
+  @Override
+  public void prefetch(int maxEntries) {
+    // No-op, as dequeue from the in-memory queue doesn't involve any IO.
+  }
+
   @Override
   public void startTx(Transaction tx) {
     currentTx = tx;
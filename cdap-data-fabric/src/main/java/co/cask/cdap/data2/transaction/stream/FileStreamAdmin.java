@@ -320,7 +320,8 @@ public class FileStreamAdmin implements StreamAdmin {
           }
 
           return new StreamConfig(streamId, config.getPartitionDuration(), config.getIndexInterval(),
-                                  config.getTTL(), getStreamLocation(streamId), config.getFormat(), threshold);
+                                  config.getTTL(), getStreamLocation(streamId), config.getFormat(), threshold,
+                                  config.getCompressionCodec());
         }
       });
     } catch (Exception ex) {
@@ -613,8 +614,13 @@ public class FileStreamAdmin implements StreamAdmin {
                                        FormatSpecification.class);
           }
 
+          String compressionCodec = properties.getProperty(Constants.Stream.COMPRESSION_CODEC);
+          if (compressionCodec != null) {
+            StreamUtils.validateCompressionCodec(compressionCodec);
+          }
+
           final StreamConfig config = new StreamConfig(streamId, partitionDuration, indexInterval,
-                                                       ttl, streamLocation, formatSpec, threshold);
+                                                       ttl, streamLocation, formatSpec, threshold, compressionCodec);
           impersonator.doAs(streamId, new Callable<Void>() {
             @Override
             public Void call() throws Exception {
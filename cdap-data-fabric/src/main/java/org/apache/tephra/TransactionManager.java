@@ -33,6 +33,7 @@ import it.unimi.dsi.fastutil.longs.LongArraySet;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.longs.LongSet;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.tephra.manager.InProgressTxIds;
 import org.apache.tephra.manager.InvalidTxList;
 import org.apache.tephra.metrics.DefaultMetricsCollector;
 import org.apache.tephra.metrics.MetricsCollector;
@@ -124,6 +125,11 @@ public class TransactionManager extends AbstractService {
   // the list of transactions that are invalid (not properly committed/aborted, or timed out)
   private final InvalidTxList invalidTxList = new InvalidTxList();
 
+  // sorted ids of the in-progress transactions, given to the next transaction that starts. putInProgress() appends
+  // the started transaction to it, hence transactions started back-to-back don't iterate over the in-progress map.
+  // Reset to null by removeInProgress(), and rebuilt from the in-progress map by the next createTransaction().
+  private InProgressTxIds inProgressTxIds;
+
   // todo: use moving array instead (use Long2ObjectMap<byte[]> in fastutil)
   // todo: should this be consolidated with inProgress?
   // commit time next writePointer -> changes made by this tx
@@ -199,6 +205,7 @@ public class TransactionManager extends AbstractService {
   private void clear() {
     invalidTxList.clear();
     inProgress.clear();
+    inProgressTxIds = null;
     committedChangeSets.clear();
     committingChangeSets.clear();
     lastWritePointer = 0;
@@ -363,7 +370,7 @@ public class TransactionManager extends AbstractService {
           invalidEdits = Lists.newArrayListWithCapacity(timedOut.size());
           invalidTxList.addAll(timedOut.keySet());
           for (Map.Entry<Long, InProgressType> tx : timedOut.entrySet()) {
-            inProgress.remove(tx.getKey());
+            removeInProgress(tx.getKey());
             // checkpoints never go into the committing change sets or the edits
             if (!InProgressType.CHECKPOINT.equals(tx.getValue())) {
               committingChangeSets.remove(tx.getKey());
@@ -504,6 +511,7 @@ public class TransactionManager extends AbstractService {
     lastWritePointer = snapshot.getWritePointer();
     invalidTxList.addAll(snapshot.getInvalid());
     inProgress.putAll(txnBackwardsCompatCheck(defaultLongTimeout, longTimeoutTolerance, snapshot.getInProgress()));
+    inProgressTxIds = null;
     committingChangeSets.putAll(snapshot.getCommittingChangeSets());
     committedChangeSets.putAll(snapshot.getCommittedChangeSets());
   }
@@ -799,10 +807,32 @@ public class TransactionManager extends AbstractService {
 
   private void addInProgressAndAdvance(long writePointer, long visibilityUpperBound,
                                        long expiration, InProgressType type) {
-    inProgress.put(writePointer, new InProgressTx(visibilityUpperBound, expiration, type));
+    putInProgress(writePointer, new InProgressTx(visibilityUpperBound, expiration, type));
     advanceWritePointer(writePointer);
   }
 
+  private void putInProgress(long writePointer, InProgressTx tx) {
+    inProgress.put(writePointer, tx);
+    if (inProgressTxIds != null) {
+      inProgressTxIds = inProgressTxIds.append(writePointer, tx.isLongRunning());
+    }
+  }
+
+  @Nullable
+  private InProgressTx removeInProgress(long writePointer) {
+    InProgressTx tx = inProgress.remove(writePointer);
+    if (tx != null) {
+      inProgressTxIds = null;
+    }
+    return tx;
+  }
+
+  private void removeInProgress(LongArrayList writePointers) {
+    for (long writePointer : writePointers) {
+      removeInProgress(writePointer);
+    }
+  }
+
   private void advanceWritePointer(long writePointer) {
     // don't move the write pointer back if we have out of order transaction log entries
     if (writePointer > lastWritePointer) {
@@ -924,7 +954,7 @@ public class TransactionManager extends AbstractService {
       committedChangeSets.put(commitPointer, changes);
     }
     // remove from in-progress set, so that it does not get excluded in the future
-    InProgressTx previous = inProgress.remove(transactionId);
+    InProgressTx previous = removeInProgress(transactionId);
     if (previous == null) {
       // tx was not in progress! perhaps it timed out and is invalid? try to remove it there.
       if (invalidTxList.remove(transactionId)) {
@@ -935,7 +965,7 @@ public class TransactionManager extends AbstractService {
       if (!checkpointPointers.isEmpty()) {
         // adjust the write pointer to be the last checkpoint of the tx and remove all checkpoints from inProgress
         writePointer = checkpointPointers.getLong(checkpointPointers.size() - 1);
-        inProgress.keySet().removeAll(previous.getCheckpointWritePointers());
+        removeInProgress(previous.getCheckpointWritePointers());
       }
     }
     // moving read pointer
@@ -977,7 +1007,7 @@ public class TransactionManager extends AbstractService {
     
     // makes tx visible (assumes that all operations were rolled back)
     // remove from in-progress set, so that it does not get excluded in the future
-    InProgressTx removed = inProgress.remove(writePointer);
+    InProgressTx removed = removeInProgress(writePointer);
     boolean removeInProgressCheckpoints = true;
     if (removed == null) {
       // tx was not in progress! perhaps it timed out and is invalid? try to remove it there.
@@ -996,7 +1026,7 @@ public class TransactionManager extends AbstractService {
     }
     if (removeInProgressCheckpoints && checkpointWritePointers != null) {
       for (long checkpointWritePointer : checkpointWritePointers) {
-        inProgress.remove(checkpointWritePointer);
+        removeInProgress(checkpointWritePointer);
       }
     }
     // removed a tx from excludes: must move read pointer
@@ -1025,7 +1055,7 @@ public class TransactionManager extends AbstractService {
   private boolean doInvalidate(long writePointer) {
     Set<ChangeId> previousChangeSet = committingChangeSets.remove(writePointer);
     // remove from in-progress set, so that it does not get excluded in the future
-    InProgressTx previous = inProgress.remove(writePointer);
+    InProgressTx previous = removeInProgress(writePointer);
     // This check is to prevent from invalidating committed transactions
     if (previous != null || previousChangeSet != null) {
       // add tx to invalids
@@ -1037,7 +1067,7 @@ public class TransactionManager extends AbstractService {
         LongArrayList childWritePointers = previous.getCheckpointWritePointers();
         if (!childWritePointers.isEmpty()) {
           invalidTxList.addAll(childWritePointers);
-          inProgress.keySet().removeAll(childWritePointers);
+          removeInProgress(childWritePointers);
         }
       }
       LOG.info("Tx invalid list: added tx {} because of invalidate", writePointer);
@@ -1189,6 +1219,12 @@ public class TransactionManager extends AbstractService {
     return this.committedChangeSets.size();
   }
 
+  @VisibleForTesting
+  @Nullable
+  synchronized long[] getInProgressSnapshot() {
+    return inProgressTxIds == null ? null : inProgressTxIds.toSortedArray();
+  }
+
   private boolean hasConflicts(Transaction tx, Set<ChangeId> changeIds) {
     if (changeIds.isEmpty()) {
       return false;
@@ -1232,21 +1268,16 @@ public class TransactionManager extends AbstractService {
 
   /**
    * Creates a new Transaction. This method only get called from start transaction, which is already
-   * synchronized.
+   * synchronized. The invalid array is shared with other transactions created while the invalid list doesn't
+   * change. The in-progress array is shared with the in-progress snapshot of this manager, which is only rebuilt
+   * after transactions are removed from the in-progress set.
    */
   private Transaction createTransaction(long writePointer, TransactionType type) {
-    // For holding the first in progress short transaction Id (with timeout >= 0).
-    long firstShortTx = Transaction.NO_TX_IN_PROGRESS;
-    LongArrayList inProgressIds = new LongArrayList(inProgress.size());
-    for (Map.Entry<Long, InProgressTx> entry : inProgress.entrySet()) {
-      long txId = entry.getKey();
-      inProgressIds.add(txId);
-      if (firstShortTx == Transaction.NO_TX_IN_PROGRESS && !entry.getValue().isLongRunning()) {
-        firstShortTx = txId;
-      }
+    if (inProgressTxIds == null) {
+      inProgressTxIds = InProgressTxIds.of(inProgress);
     }
     return new Transaction(readPointer, writePointer, invalidTxList.toSortedArray(),
-                           inProgressIds.toLongArray(), firstShortTx, type);
+                           inProgressTxIds.toSortedArray(), inProgressTxIds.getFirstShort(), type);
   }
 
   private void appendToLog(TransactionEdit edit) {
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tephra.manager;
+
+import org.apache.tephra.Transaction;
+import org.apache.tephra.TransactionManager;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * This is an internal class used by the {@link TransactionManager} to keep a sorted array of the in-progress
+ * transaction ids, together with the id of the first in-progress short transaction. An instance of this class
+ * is immutable, hence its array can be given to new transactions without copying.
+ */
+@Immutable
+public final class InProgressTxIds {
+
+  private final long[] ids;
+  private final long firstShort;
+
+  private InProgressTxIds(long[] ids, long firstShort) {
+    this.ids = ids;
+    this.firstShort = firstShort;
+  }
+
+  /**
+   * Creates an instance from the given in-progress map.
+   */
+  public static InProgressTxIds of(NavigableMap<Long, TransactionManager.InProgressTx> inProgress) {
+    long[] ids = new long[inProgress.size()];
+    long firstShort = Transaction.NO_TX_IN_PROGRESS;
+    int i = 0;
+    for (Map.Entry<Long, TransactionManager.InProgressTx> entry : inProgress.entrySet()) {
+      long txId = entry.getKey();
+      ids[i++] = txId;
+      if (firstShort == Transaction.NO_TX_IN_PROGRESS && !entry.getValue().isLongRunning()) {
+        firstShort = txId;
+      }
+    }
+    return new InProgressTxIds(i == ids.length ? ids : Arrays.copyOf(ids, i), firstShort);
+  }
+
+  /**
+   * Returns an instance with the given transaction id appended, or {@code null} if the id is not larger than all
+   * the existing ids, e.g. when replaying logs, in which case the instance has to be created from the in-progress
+   * map again.
+   *
+   * @param txId id of the transaction added to the in-progress map
+   * @param longRunning whether the transaction is long running
+   */
+  @Nullable
+  public InProgressTxIds append(long txId, boolean longRunning) {
+    if (ids.length > 0 && txId <= ids[ids.length - 1]) {
+      return null;
+    }
+    long[] newIds = Arrays.copyOf(ids, ids.length + 1);
+    newIds[ids.length] = txId;
+    boolean newFirstShort = firstShort == Transaction.NO_TX_IN_PROGRESS && !longRunning;
+    return new InProgressTxIds(newIds, newFirstShort ? txId : firstShort);
+  }
+
+  /**
+   * @return sorted array of in-progress transaction ids. The array must not be modified.
+   */
+  public long[] toSortedArray() {
+    return ids;
+  }
+
+  /**
+   * @return id of the first in-progress short transaction, or {@link Transaction#NO_TX_IN_PROGRESS} if there is none
+   */
+  public long getFirstShort() {
+    return firstShort;
+  }
+
+  public int size() {
+    return ids.length;
+  }
+}
@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  *
@@ -247,6 +248,47 @@ public abstract class AbstractCubeTest {
 
   }
 
+  @Test
+  public void testLimit() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    int resolution = 1;
+    Cube cube = getCube("myLimitCube", new int[] {resolution}, ImmutableMap.of("agg", agg));
+
+    // values of the same time series in different rows, written out of order
+    writeInc(cube, "metric1", 5, 1, "1", "1");
+    writeInc(cube, "metric1", 3, 2, "1", "1");
+    writeInc(cube, "metric1", 1, 3, "1", "1");
+    writeInc(cube, "metric1", 4, 4, "1", "2");
+    writeInc(cube, "metric1", 1, 5, "1", "2");
+    writeInc(cube, "metric1", 20, 6, "1", "1");
+
+    Assert.assertEquals(ImmutableList.of(new TimeSeries("metric1", ImmutableMap.of("dim1", "1"),
+                                                        timeValues(1, 8, 3, 2, 4, 4))),
+                        ImmutableList.copyOf(cube.query(getLimitQuery(3, null))));
+    Assert.assertEquals(ImmutableList.of(new TimeSeries("metric1", ImmutableMap.of("dim1", "1"),
+                                                        timeValues(1, 8))),
+                        ImmutableList.copyOf(cube.query(getLimitQuery(1, null))));
+    // interpolated time values are counted in the limit
+    Assert.assertEquals(ImmutableList.of(new TimeSeries("metric1", ImmutableMap.of("dim1", "1"),
+                                                        timeValues(1, 8, 2, 8, 3, 2, 4, 4, 5, 1, 6, 1))),
+                        ImmutableList.copyOf(cube.query(getLimitQuery(6, new Interpolators.Step()))));
+  }
+
+  private CubeQuery getLimitQuery(int limit, @Nullable Interpolator interpolator) {
+    return CubeQuery.builder()
+      .select()
+        .measurement("metric1", AggregationFunction.SUM)
+      .from("agg").resolution(1, TimeUnit.SECONDS)
+      .where()
+        .dimensions(ImmutableMap.<String, String>of())
+        .timeRange(0, 30)
+      .groupBy()
+        .dimension("dim1")
+      .limit(limit)
+      .interpolator(interpolator)
+      .build();
+  }
+
   @Test
   public void testInterpolate() throws Exception {
     Aggregation agg1 = new DefaultAggregation(ImmutableList.of("dim1", "dim2", "dim3"),
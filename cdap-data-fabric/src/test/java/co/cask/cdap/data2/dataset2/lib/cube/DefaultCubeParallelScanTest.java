@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import com.google.common.collect.ImmutableMap;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Tests for {@link DefaultCube} that scans the splits of a query concurrently.
+ */
+public class DefaultCubeParallelScanTest extends AbstractCubeTest {
+
+  private static ExecutorService scanExecutor;
+
+  @BeforeClass
+  public static void init() {
+    scanExecutor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterClass
+  public static void finish() {
+    scanExecutor.shutdownNow();
+  }
+
+  @Override
+  protected Cube getCube(final String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations) {
+    // all FactTables share the same EntityTable, as in the metric store
+    InMemoryTableService.create("ParallelScanEntityTable-" + name);
+    final EntityTable entityTable = new EntityTable(new InMemoryMetricsTable("ParallelScanEntityTable-" + name));
+    FactTableSupplier supplier = new FactTableSupplier() {
+      @Override
+      public FactTable get(int resolution, int rollTime) {
+        String dataTableName = "ParallelScanDataTable-" + name + "-" + resolution;
+        InMemoryTableService.create(dataTableName);
+        // small roll time that is a multiple of all the resolutions of the tests, so that queries span many time bases
+        return new FactTable(new InMemoryMetricsTable(dataTableName), entityTable, resolution, 100);
+      }
+    };
+
+    return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of(),
+                           false, null, null, scanExecutor, 8);
+  }
+}
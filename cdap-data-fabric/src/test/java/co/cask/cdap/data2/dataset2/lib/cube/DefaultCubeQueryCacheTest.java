@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
+import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Tests for {@link DefaultCube} with a {@link CubeQueryCache}.
+ */
+public class DefaultCubeQueryCacheTest extends AbstractCubeTest {
+
+  @Override
+  protected Cube getCube(String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations) {
+    return getCube(name, resolutions, aggregations, new CubeQueryCache(10000, 0));
+  }
+
+  private DefaultCube getCube(final String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations,
+                              @Nullable CubeQueryCache queryCache) {
+    FactTableSupplier supplier = new FactTableSupplier() {
+      @Override
+      public FactTable get(int resolution, int rollTime) {
+        String entityTableName = "CachedEntityTable-" + name;
+        InMemoryTableService.create(entityTableName);
+        String dataTableName = "CachedDataTable-" + name + "-" + resolution;
+        InMemoryTableService.create(dataTableName);
+        return new FactTable(new InMemoryMetricsTable(dataTableName),
+                             new EntityTable(new InMemoryMetricsTable(entityTableName)),
+                             resolution, rollTime);
+      }
+    };
+
+    return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of(),
+                           false, null, queryCache);
+  }
+
+  @Test
+  public void testQueryCache() throws Exception {
+    Map<String, Aggregation> aggregations =
+      ImmutableMap.<String, Aggregation>of("agg", new DefaultAggregation(ImmutableList.of("dim1")));
+    int[] resolutions = {1, 60};
+    Cube cube = getCube("myCachedCube", resolutions, aggregations, new CubeQueryCache(10000, 0));
+    // writes through another instance without cache, which is not seen by the cache of the first instance
+    Cube writer = getCube("myCachedCube", resolutions, aggregations, null);
+
+    writeInc(writer, "counter", 10, 1, "1");
+    writeInc(writer, "counter", 70, 2, "1");
+    writeInc(writer, "counter", 130, 3, "1");
+    verifyCachedQuery(cube, 0, 199, timeValues(10, 1, 70, 2, 130, 3));
+
+    // The segments [0, 180) are cached, while the rest of the time range is scanned
+    writeInc(writer, "counter", 20, 4, "1");
+    writeInc(writer, "counter", 190, 5, "1");
+    verifyCachedQuery(cube, 0, 199, timeValues(10, 1, 70, 2, 130, 3, 190, 5));
+
+    // Adding a fact to a closed segment invalidates the cache
+    writeInc(cube, "counter", 30, 6, "1");
+    verifyCachedQuery(cube, 0, 199, timeValues(10, 1, 20, 4, 30, 6, 70, 2, 130, 3, 190, 5));
+
+    // Query time range that is not aligned to the segments
+    verifyCachedQuery(cube, 25, 150, timeValues(30, 6, 70, 2, 130, 3));
+    writeInc(writer, "counter", 100, 7, "1");
+    writeInc(writer, "counter", 140, 8, "1");
+    verifyCachedQuery(cube, 25, 150, timeValues(30, 6, 70, 2, 130, 3, 140, 8));
+
+    // Time range that is shorter than a segment is always scanned
+    verifyCountQuery(cube, 0, 199, 60, "counter", AggregationFunction.SUM, ImmutableMap.of("dim1", "1"),
+                     ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(),
+                                                     timeValues(0, 11, 60, 9, 120, 11, 180, 5))));
+  }
+
+  @Test
+  public void testChangesFromOtherInstance() throws Exception {
+    Map<String, Aggregation> aggregations =
+      ImmutableMap.<String, Aggregation>of("agg", new DefaultAggregation(ImmutableList.of("dim1")));
+    int[] resolutions = {1, 60};
+    Cube cube = getCube("mySharedCube", resolutions, aggregations, new CubeQueryCache(10000, 0));
+    // writes through another instance with its own cache, as the metrics processor does for the metrics query service
+    DefaultCube writer = getCube("mySharedCube", resolutions, aggregations, new CubeQueryCache(10000, 0));
+
+    writeInc(writer, "counter", 10, 1, "1");
+    writeInc(writer, "counter", 70, 2, "1");
+    verifyCachedQuery(cube, 0, 119, timeValues(10, 1, 70, 2));
+
+    // Adding a fact to a closed segment is recorded with the facts, which invalidates the cache of the other instance
+    writeInc(writer, "counter", 20, 3, "1");
+    verifyCachedQuery(cube, 0, 119, timeValues(10, 1, 20, 3, 70, 2));
+
+    // Deleting facts too
+    writer.delete(new CubeDeleteQuery(60, 119, 1, ImmutableMap.of("dim1", "1"), ImmutableList.of("counter")));
+    verifyCachedQuery(cube, 0, 119, timeValues(10, 1, 20, 3));
+  }
+
+  private void verifyCachedQuery(Cube cube, long startTs, long endTs, List<TimeValue> expected) throws Exception {
+    verifyCountQuery(cube, startTs, endTs, 1, "counter", AggregationFunction.SUM, ImmutableMap.of("dim1", "1"),
+                     ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(), expected)));
+  }
+}
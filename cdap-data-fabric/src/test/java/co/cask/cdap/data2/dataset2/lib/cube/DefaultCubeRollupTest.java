@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.cube;
+
+import co.cask.cdap.api.dataset.lib.cube.AggregationFunction;
+import co.cask.cdap.api.dataset.lib.cube.Cube;
+import co.cask.cdap.api.dataset.lib.cube.DimensionValue;
+import co.cask.cdap.api.dataset.lib.cube.TimeSeries;
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
+import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
+import co.cask.cdap.data2.dataset2.lib.timeseries.EntityTable;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactScan;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanResult;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactScanner;
+import co.cask.cdap.data2.dataset2.lib.timeseries.FactTable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for {@link DefaultCube} in rollup mode. The tests in {@link AbstractCubeTest} never roll up, hence they
+ * verify that queries read the time range that is not rolled up from the finest resolution.
+ */
+public class DefaultCubeRollupTest extends AbstractCubeTest {
+
+  @Override
+  protected DefaultCube getCube(String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations) {
+    return getCube(name, resolutions, aggregations, Maps.<Integer, FactTable>newHashMap());
+  }
+
+  private DefaultCube getCube(final String name, int[] resolutions, Map<String, ? extends Aggregation> aggregations,
+                              final Map<Integer, FactTable> factTables) {
+    FactTableSupplier supplier = new FactTableSupplier() {
+      @Override
+      public FactTable get(int resolution, int rollTime) {
+        String entityTableName = "RollupEntityTable-" + name;
+        InMemoryTableService.create(entityTableName);
+        String dataTableName = "RollupDataTable-" + name + "-" + resolution;
+        InMemoryTableService.create(dataTableName);
+        FactTable factTable = new FactTable(new InMemoryMetricsTable(dataTableName),
+                                            new EntityTable(new InMemoryMetricsTable(entityTableName)),
+                                            resolution, rollTime);
+        factTables.put(resolution, factTable);
+        return factTable;
+      }
+    };
+
+    return new DefaultCube(resolutions, supplier, aggregations, ImmutableMap.<String, AggregationAlias>of(), true);
+  }
+
+  @Test
+  public void testRollup() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    Map<Integer, FactTable> factTables = Maps.newHashMap();
+    DefaultCube cube = getCube("myRollupCube", new int[] {1, 60, Integer.MAX_VALUE},
+                               ImmutableMap.of("agg", agg), factTables);
+
+    writeInc(cube, "counter", 10, 1, "1", "1");
+    writeInc(cube, "counter", 20, 2, "1", "1");
+    writeInc(cube, "counter", 70, 3, "1", "1");
+    writeInc(cube, "counter", 130, 4, "1", "1");
+    writeInc(cube, "counter", 10, 5, "2", "1");
+    writeGauge(cube, "gauge", 10, 1, "1", "1");
+    writeGauge(cube, "gauge", 50, 2, "1", "1");
+    writeGauge(cube, "gauge", 40, 3, "1", "1");
+    writeGauge(cube, "gauge", 70, 4, "1", "1");
+
+    // Nothing is written to the 1 minute resolution, while totals are written directly
+    Assert.assertTrue(scan(factTables.get(60), "counter").isEmpty());
+    Assert.assertFalse(scan(factTables.get(Integer.MAX_VALUE), "counter").isEmpty());
+    verifyRollupQueries(cube, 0);
+
+    // Roll up the first two minutes
+    Assert.assertEquals(5, cube.rollup(125));
+    Assert.assertEquals(ImmutableMap.of(0L, 3L, 60L, 3L), scan(factTables.get(60), "counter").get("1"));
+    Assert.assertEquals(ImmutableMap.of(0L, 5L), scan(factTables.get(60), "counter").get("2"));
+    Assert.assertEquals(ImmutableMap.of(0L, 2L, 60L, 4L), scan(factTables.get(60), "gauge").get("1"));
+    verifyRollupQueries(cube, 0);
+
+    // Rolling up again doesn't change anything
+    Assert.assertEquals(0, cube.rollup(125));
+    verifyRollupQueries(cube, 0);
+
+    // A fact that arrives after its time window is rolled up is written to the 1 minute resolution directly
+    writeInc(cube, "counter", 30, 10, "1", "1");
+    Assert.assertEquals(ImmutableMap.of(0L, 13L, 60L, 3L), scan(factTables.get(60), "counter").get("1"));
+    verifyRollupQueries(cube, 10);
+
+    // Roll up the last minute
+    Assert.assertEquals(1, cube.rollup(180));
+    Assert.assertEquals(ImmutableMap.of(0L, 13L, 60L, 3L, 120L, 4L), scan(factTables.get(60), "counter").get("1"));
+    verifyRollupQueries(cube, 10);
+  }
+
+  @Test
+  public void testRollupByOtherInstance() throws Exception {
+    Aggregation agg = new DefaultAggregation(ImmutableList.of("dim1", "dim2"));
+    Map<Integer, FactTable> factTables = Maps.newHashMap();
+    // two cubes over the same tables, like the metric stores of two metrics processor instances
+    DefaultCube writer = getCube("mySharedRollupCube", new int[] {1, 60, Integer.MAX_VALUE},
+                                 ImmutableMap.of("agg", agg), Maps.<Integer, FactTable>newHashMap());
+    DefaultCube roller = getCube("mySharedRollupCube", new int[] {1, 60, Integer.MAX_VALUE},
+                                 ImmutableMap.of("agg", agg), factTables);
+
+    writeInc(writer, "counter", 10, 1, "1", "1");
+    writeInc(roller, "counter", 20, 2, "1", "1");
+    Assert.assertEquals(1, roller.rollup(65));
+    Assert.assertEquals(ImmutableMap.of(0L, 3L), scan(factTables.get(60), "counter").get("1"));
+
+    // a fact that the writer adds after the other instance rolled up its time window is late
+    writeInc(writer, "counter", 30, 10, "1", "1");
+    Assert.assertEquals(ImmutableMap.of(0L, 13L), scan(factTables.get(60), "counter").get("1"));
+
+    // the writer doesn't roll up the time window again, and both instances query the late fact
+    Assert.assertEquals(0, writer.rollup(65));
+    for (Cube cube : ImmutableList.of(writer, roller)) {
+      verifyCountQuery(cube, 0, 100, 60, "counter", AggregationFunction.SUM,
+                       ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                       ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(), timeValues(0, 13))));
+    }
+  }
+
+  private void verifyRollupQueries(Cube cube, long lateCount) throws Exception {
+    verifyCountQuery(cube, 0, 200, 60, "counter", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(),
+                                                     timeValues(0, 3 + lateCount, 60, 3, 120, 4))));
+    verifyCountQuery(cube, 0, 200, 60, "counter", AggregationFunction.SUM,
+                     ImmutableMap.<String, String>of(), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(),
+                                                     timeValues(0, 8 + lateCount, 60, 3, 120, 4))));
+    // Query time range that is not aligned to the resolution
+    verifyCountQuery(cube, 30, 100, 60, "counter", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(), timeValues(60, 3))));
+    verifyCountQuery(cube, 0, 200, 60, "gauge", AggregationFunction.LATEST,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("gauge", new HashMap<String, String>(), timeValues(0, 2, 60, 4))));
+    verifyCountQuery(cube, 0, 200, Integer.MAX_VALUE, "counter", AggregationFunction.SUM,
+                     ImmutableMap.of("dim1", "1"), ImmutableList.<String>of(),
+                     ImmutableList.of(new TimeSeries("counter", new HashMap<String, String>(),
+                                                     timeValues(0, 10 + lateCount))));
+  }
+
+  /**
+   * Scans the given fact table for the given measure and returns the time values keyed by the dim1 value.
+   */
+  private Map<String, Map<Long, Long>> scan(FactTable factTable, String measureName) {
+    List<DimensionValue> dimensionValues = ImmutableList.of(new DimensionValue("dim1", null),
+                                                            new DimensionValue("dim2", null));
+    Map<String, Map<Long, Long>> result = Maps.newHashMap();
+    FactScanner scanner = factTable.scan(new FactScan(0, Integer.MAX_VALUE, measureName, dimensionValues));
+    try {
+      while (scanner.hasNext()) {
+        FactScanResult scanResult = scanner.next();
+        String dim1 = scanResult.getDimensionValues().get(0).getValue();
+        for (TimeValue timeValue : scanResult) {
+          if (!result.containsKey(dim1)) {
+            result.put(dim1, Maps.<Long, Long>newTreeMap());
+          }
+          result.get(dim1).put(timeValue.getTimestamp(), timeValue.getValue());
+        }
+      }
+    } finally {
+      scanner.close();
+    }
+    return result;
+  }
+}
@@ -25,6 +25,8 @@ import co.cask.cdap.api.dataset.table.Scan;
 import co.cask.cdap.api.dataset.table.Scanner;
 import co.cask.cdap.api.dataset.table.Table;
 import co.cask.cdap.api.dataset.table.TableProperties;
+import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data2.dataset2.TableAssert;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -502,6 +504,184 @@ public abstract class BufferingTableTest<T extends BufferingTable> extends Table
     }
   }
 
+  @Test
+  public void testReadCache() throws Exception {
+    String tableName = "testReadCache";
+    DatasetProperties props = DatasetProperties.builder()
+      .add(Constants.Dataset.TABLE_READ_CACHE_SIZE, "10")
+      .build();
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, tableName, props);
+    admin.create();
+    try {
+      // write some data to read through the cache
+      Transaction tx1 = txClient.startShort();
+      BufferingTable table1 = getTable(CONTEXT1, tableName, props);
+      table1.startTx(tx1);
+      table1.put(R1, a(C1, C2), a(V1, V2));
+      table1.put(R2, a(C1), a(V1));
+      Assert.assertTrue(txClient.canCommit(tx1, table1.getTxChanges()));
+      Assert.assertTrue(table1.commitTx());
+      Assert.assertTrue(txClient.commit(tx1));
+      table1.postTxCommit();
+
+      CountingBufferingTable table2 = new CountingBufferingTable(getTable(CONTEXT1, tableName, props),
+                                                                 props.getProperties());
+      final Map<String, Long> metrics = Maps.newHashMap();
+      table2.setMetricsCollector(new MetricsCollector() {
+        @Override
+        public void increment(String metricName, long value) {
+          Long old = metrics.get(metricName);
+          metrics.put(metricName, old == null ? value : old + value);
+        }
+
+        @Override
+        public void gauge(String metricName, long value) {
+          metrics.put(metricName, value);
+        }
+      });
+
+      Transaction tx2 = txClient.startShort();
+      table2.startTx(tx2);
+
+      // repeated gets of the same row and columns only go to the persistent store once
+      TableAssert.assertRow(a(C1, V1), table2.get(R1, a(C1)));
+      TableAssert.assertRow(a(C1, V1), table2.get(R1, a(C1)));
+      Assert.assertEquals(1, table2.persistedReads);
+      TableAssert.assertRow(a(C1, V1, C2, V2), table2.get(R1));
+      TableAssert.assertRow(a(C1, V1, C2, V2), table2.get(R1));
+      Assert.assertEquals(2, table2.persistedReads);
+
+      // modifying the result must not affect the cache
+      table2.get(R1, a(C1)).getColumns().get(C1)[0]++;
+      TableAssert.assertRow(a(C1, V1), table2.get(R1, a(C1)));
+
+      // multi-get only goes to the persistent store for the gets not cached
+      List<Row> rows = table2.get(Lists.newArrayList(new Get(R1, C1), new Get(R2)));
+      TableAssert.assertRow(rows.get(0), R1, a(C1), a(V1));
+      TableAssert.assertRow(rows.get(1), R2, a(C1), a(V1));
+      Assert.assertEquals(3, table2.persistedReads);
+      TableAssert.assertRow(a(C1, V1), table2.get(R2));
+      Assert.assertEquals(3, table2.persistedReads);
+
+      // local writes invalidate the cached row
+      table2.put(R1, a(C1), a(V3));
+      TableAssert.assertRow(a(C1, V3, C2, V2), table2.get(R1));
+      Assert.assertEquals(4, table2.persistedReads);
+      TableAssert.assertRow(a(C1, V3, C2, V2), table2.get(R1));
+      Assert.assertEquals(4, table2.persistedReads);
+
+      Assert.assertEquals(7L, (long) metrics.get(Constants.Metrics.Name.Dataset.READ_CACHE_HITS));
+      Assert.assertEquals(4L, (long) metrics.get(Constants.Metrics.Name.Dataset.READ_CACHE_MISSES));
+
+      Assert.assertTrue(txClient.canCommit(tx2, table2.getTxChanges()));
+      Assert.assertTrue(table2.commitTx());
+      Assert.assertTrue(txClient.commit(tx2));
+      table2.postTxCommit();
+
+      // the cache is discarded when the transaction ends
+      Transaction tx3 = txClient.startShort();
+      table2.startTx(tx3);
+      TableAssert.assertRow(a(C1, V3, C2, V2), table2.get(R1));
+      Assert.assertEquals(5, table2.persistedReads);
+      txClient.abort(tx3);
+      table2.rollbackTx();
+    } finally {
+      admin.drop();
+    }
+  }
+
+  @Test
+  public void testPersistBufferBeforeCommit() throws Exception {
+    String tableName = "testPersistBufferBeforeCommit";
+    // persist changes on every write
+    DatasetProperties props = TableProperties.builder()
+      .setReadlessIncrementSupport(isReadlessIncrementSupported())
+      .add(Constants.Dataset.TABLE_WRITE_BUFFER_PERSIST_THRESHOLD, "1")
+      .build();
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, tableName, props);
+    admin.create();
+    try {
+      BufferingTable table = new CountingBufferingTable(getTable(CONTEXT1, tableName, props), props.getProperties());
+
+      // changes persisted before commit are visible in the tx and undone on rollback
+      Transaction tx1 = txClient.startShort();
+      table.startTx(tx1);
+      writeAndVerify(table);
+      Assert.assertEquals(2, table.getTxChanges().size());
+      Assert.assertTrue(table.rollbackTx());
+      txClient.abort(tx1);
+
+      Transaction tx2 = txClient.startShort();
+      table.startTx(tx2);
+      TableAssert.assertRow(a(), table.get(R1));
+      TableAssert.assertRow(a(), table.get(R2));
+      writeAndVerify(table);
+      Assert.assertTrue(txClient.canCommit(tx2, table.getTxChanges()));
+      Assert.assertTrue(table.commitTx());
+      Assert.assertTrue(txClient.commit(tx2));
+      table.postTxCommit();
+
+      // committed changes are visible to other txs
+      Transaction tx3 = txClient.startShort();
+      BufferingTable table2 = getTable(CONTEXT1, tableName, props);
+      table2.startTx(tx3);
+      TableAssert.assertRow(a(C1, V3, C2, V2), table2.get(R1));
+      Assert.assertEquals(3L, Bytes.toLong(table2.get(R2, C1)));
+      txClient.abort(tx3);
+    } finally {
+      admin.drop();
+    }
+  }
+
+  @Test
+  public void testPersistBufferIncrements() throws Exception {
+    String tableName = "testPersistBufferIncrements";
+    // persist changes on every second write. Increments are buffered as increments only if they are readless.
+    long writeSize = R1.length + C1.length + C2.length + 2 * Bytes.SIZEOF_LONG;
+    DatasetProperties props = TableProperties.builder()
+      .setReadlessIncrementSupport(true)
+      .add(Constants.Dataset.TABLE_WRITE_BUFFER_PERSIST_THRESHOLD, String.valueOf(2 * writeSize))
+      .build();
+    DatasetAdmin admin = getTableAdmin(CONTEXT1, tableName, props);
+    admin.create();
+    try {
+      CountingBufferingTable table =
+        new CountingBufferingTable(getTable(CONTEXT1, tableName, props), props.getProperties());
+      Transaction tx = txClient.startShort();
+      table.startTx(tx);
+      table.increment(R1, a(C1, C2), new long[] { 1L, 1L });
+      table.increment(R2, a(C1, C2), new long[] { 1L, 1L });
+      Assert.assertEquals(0, table.persistedReads);
+
+      // the cells incremented again are read with a single batched read when the buffer is persisted
+      table.increment(R1, a(C1, C2), new long[] { 2L, 2L });
+      table.increment(R2, a(C1, C2), new long[] { 2L, 2L });
+      Assert.assertEquals(1, table.persistedBatchReads);
+      Assert.assertEquals(2, table.persistedReads);
+
+      Assert.assertEquals(3L, Bytes.toLong(table.getPersisted(R1, a(C1)).get(C1)));
+      Assert.assertEquals(3L, Bytes.toLong(table.getPersisted(R2, a(C2)).get(C2)));
+      Assert.assertEquals(2, table.getTxChanges().size());
+      Assert.assertTrue(table.rollbackTx());
+      txClient.abort(tx);
+    } finally {
+      admin.drop();
+    }
+  }
+
+  private void writeAndVerify(BufferingTable table) throws Exception {
+    table.put(R1, a(C1, C2), a(V1, V2));
+    // persisted changes must be visible in the persisted store
+    Assert.assertArrayEquals(V1, table.getPersisted(R1, a(C1)).get(C1));
+    table.put(R1, a(C1), a(V3));
+    TableAssert.assertRow(a(C1, V3, C2, V2), table.get(R1));
+
+    // increments of cells persisted before are cumulative
+    table.increment(R2, a(C1), new long[] { 1L });
+    table.increment(R2, a(C1), new long[] { 2L });
+    Assert.assertEquals(3L, Bytes.toLong(table.get(R2, C1)));
+  }
+
   private void verify123(BufferingTable table) throws Exception {
     byte[] row = new byte[] {1};
     byte[] col = new byte[] {2};
@@ -541,6 +721,60 @@ public abstract class BufferingTableTest<T extends BufferingTable> extends Table
     Assert.assertNull(scan.next());
   }
 
+  /**
+   * A {@link BufferingTable} that delegates to another {@link BufferingTable} and counts reads of single rows
+   * from the persistent store.
+   */
+  private static final class CountingBufferingTable extends BufferingTable {
+    private final BufferingTable delegate;
+    private int persistedReads;
+    private int persistedBatchReads;
+
+    CountingBufferingTable(BufferingTable delegate, Map<String, String> properties) {
+      super(delegate.getTableName(), TableProperties.getReadlessIncrementSupport(properties), properties);
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected void persist(NavigableMap<byte[], NavigableMap<byte[], Update>> buff) throws Exception {
+      delegate.persist(buff);
+    }
+
+    @Override
+    protected void undo(NavigableMap<byte[], NavigableMap<byte[], Update>> persisted) throws Exception {
+      delegate.undo(persisted);
+    }
+
+    @Override
+    protected NavigableMap<byte[], byte[]> getPersisted(byte[] row, byte[][] columns) throws Exception {
+      persistedReads++;
+      return delegate.getPersisted(row, columns);
+    }
+
+    @Override
+    protected List<Map<byte[], byte[]>> getPersisted(List<Get> gets) throws Exception {
+      persistedBatchReads++;
+      return super.getPersisted(gets);
+    }
+
+    @Override
+    protected NavigableMap<byte[], byte[]> getPersisted(byte[] row, byte[] startColumn, byte[] stopColumn, int limit)
+      throws Exception {
+      return delegate.getPersisted(row, startColumn, stopColumn, limit);
+    }
+
+    @Override
+    protected Scanner scanPersisted(Scan scan) throws Exception {
+      return delegate.scanPersisted(scan);
+    }
+
+    @Override
+    public void startTx(Transaction tx) {
+      super.startTx(tx);
+      delegate.startTx(tx);
+    }
+  }
+
   // This class looks weird, this is what we have to do to override persist method to make it throw exception in the
   // middle. NOTE: We want to test how every implementation of BufferingTable handles undoing changes in this
   // case, otherwise we would just test the method of BufferingTable directly.
@@ -99,6 +99,58 @@ public abstract class MetricsTableTest {
     Assert.assertArrayEquals(Y, table.get(A, Q));
   }
 
+  @Test
+  public void testPutAndIncrement() throws Exception {
+    MetricsTable table = getTable("testPutAndIncrement");
+    table.put(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                .put(B, mapOf(P, 5L)).build());
+
+    // put to one row and increment another row, as well as put and increment different columns of the same row
+    NavigableMap<byte[], NavigableMap<byte[], Long>> increments = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    increments.put(A, new TreeMap<byte[], Long>(mapOf(Q, 2L)));
+    increments.put(B, new TreeMap<byte[], Long>(mapOf(P, 3L)));
+    table.putAndIncrement(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                            .put(A, mapOf(P, 1L))
+                            .put(C, mapOf(R, 7L)).build(),
+                          increments);
+    Assert.assertEquals(1L, Bytes.toLong(table.get(A, P)));
+    Assert.assertEquals(2L, Bytes.toLong(table.get(A, Q)));
+    Assert.assertEquals(8L, Bytes.toLong(table.get(B, P)));
+    Assert.assertEquals(7L, Bytes.toLong(table.get(C, R)));
+
+    // increments are applied on top of the existing values
+    table.putAndIncrement(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                            .put(C, mapOf(R, 9L)).build(),
+                          increments);
+    Assert.assertEquals(4L, Bytes.toLong(table.get(A, Q)));
+    Assert.assertEquals(11L, Bytes.toLong(table.get(B, P)));
+    Assert.assertEquals(9L, Bytes.toLong(table.get(C, R)));
+  }
+
+  @Test
+  public void testPutAndIncrementSameColumn() throws Exception {
+    MetricsTable table = getTable("testPutAndIncrementSameColumn");
+    table.put(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                .put(A, mapOf(P, 100L, Q, 100L)).build());
+
+    // a column that is put and incremented in the same call gets the put value plus the increment
+    NavigableMap<byte[], NavigableMap<byte[], Long>> increments = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+    increments.put(A, new TreeMap<byte[], Long>(mapOf(P, 3L, Q, 4L)));
+    increments.put(B, new TreeMap<byte[], Long>(mapOf(P, 2L)));
+    table.putAndIncrement(ImmutableSortedMap.<byte[], SortedMap<byte[], Long>>orderedBy(Bytes.BYTES_COMPARATOR)
+                            .put(A, mapOf(P, 5L))
+                            .put(B, mapOf(P, 1L, Q, 6L)).build(),
+                          increments);
+    Assert.assertEquals(8L, Bytes.toLong(table.get(A, P)));
+    Assert.assertEquals(104L, Bytes.toLong(table.get(A, Q)));
+    Assert.assertEquals(3L, Bytes.toLong(table.get(B, P)));
+    Assert.assertEquals(6L, Bytes.toLong(table.get(B, Q)));
+
+    // later increments apply on top of the combined value
+    table.increment(A, mapOf(P, 1L));
+    Assert.assertEquals(9L, Bytes.toLong(table.get(A, P)));
+  }
+
   protected class IncThread extends Thread implements Closeable {
     final MetricsTable table;
     final byte[] row;
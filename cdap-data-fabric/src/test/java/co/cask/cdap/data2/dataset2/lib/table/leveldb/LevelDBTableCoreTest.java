@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.data2.dataset2.lib.table.leveldb;
+
+import co.cask.cdap.api.common.Bytes;
+import co.cask.cdap.common.conf.CConfiguration;
+import co.cask.cdap.common.conf.Constants;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unit test for concurrent read-modify-write operations of {@link LevelDBTableCore}.
+ */
+public class LevelDBTableCoreTest {
+
+  @ClassRule
+  public static TemporaryFolder tmpFolder = new TemporaryFolder();
+
+  private static final byte[] COLUMN = Bytes.toBytes("c");
+
+  private static LevelDBTableService service;
+
+  @BeforeClass
+  public static void init() throws Exception {
+    CConfiguration cConf = CConfiguration.create();
+    cConf.set(Constants.CFG_DATA_LEVELDB_DIR, tmpFolder.newFolder().getAbsolutePath());
+    service = new LevelDBTableService();
+    service.setConfiguration(cConf);
+  }
+
+  @AfterClass
+  public static void finish() {
+    service.clearTables();
+  }
+
+  @Test
+  public void testConcurrentIncrements() throws Exception {
+    String tableName = "testConcurrentIncrements";
+    service.ensureTableExists(tableName);
+    try {
+      int threads = 8;
+      int increments = 500;
+      // each thread uses its own instance of the table core, and increments a shared row and its own row
+      runIncrements(tableName, threads, increments, true);
+
+      LevelDBTableCore core = new LevelDBTableCore(tableName, service);
+      Assert.assertEquals(threads * increments, getCount(core, Bytes.toBytes("shared")));
+      for (int i = 0; i < threads; i++) {
+        Assert.assertEquals(increments, getCount(core, Bytes.toBytes("row" + i)));
+      }
+    } finally {
+      service.dropTable(tableName);
+    }
+  }
+
+  @Test
+  public void testConcurrentSwaps() throws Exception {
+    final String tableName = "testConcurrentSwaps";
+    service.ensureTableExists(tableName);
+    try {
+      final byte[] row = Bytes.toBytes("row");
+      final int threads = 8;
+      final int swaps = 200;
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<?>> futures = Lists.newArrayList();
+        for (int i = 0; i < threads; i++) {
+          futures.add(executor.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              LevelDBTableCore core = new LevelDBTableCore(tableName, service);
+              int succeeded = 0;
+              while (succeeded < swaps) {
+                byte[] current = core.getRow(row, new byte[][] { COLUMN }, null, null, -1, null).get(COLUMN);
+                long value = current == null ? 0L : Bytes.toLong(current);
+                if (core.swap(row, COLUMN, current, Bytes.toBytes(value + 1))) {
+                  succeeded++;
+                }
+              }
+              return null;
+            }
+          }));
+        }
+        for (Future<?> future : futures) {
+          future.get(60, TimeUnit.SECONDS);
+        }
+      } finally {
+        executor.shutdownNow();
+      }
+      Assert.assertEquals(threads * swaps, getCount(new LevelDBTableCore(tableName, service), row));
+    } finally {
+      service.dropTable(tableName);
+    }
+  }
+
+  @Ignore
+  @Test
+  public void testSpeed() throws Exception {
+    String tableName = "testIncrementSpeed";
+    service.ensureTableExists(tableName);
+    try {
+      int increments = 20000;
+      // warm up
+      runIncrements(tableName, 4, increments, false);
+
+      for (int threads = 1; threads <= 16; threads *= 2) {
+        long startTime = System.nanoTime();
+        runIncrements(tableName, threads, increments, false);
+        long elapsed = System.nanoTime() - startTime;
+        System.out.printf("Threads: %d, increments/sec: %d%n",
+                          threads, threads * increments * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      }
+    } finally {
+      service.dropTable(tableName);
+    }
+  }
+
+  /**
+   * Runs increments concurrently, with each thread incrementing its own row using both the single row and
+   * the multi-row increment methods, and optionally a row shared by all threads.
+   */
+  private void runIncrements(final String tableName, int threads,
+                             final int increments, final boolean shared) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int i = 0; i < threads; i++) {
+        final byte[] row = Bytes.toBytes("row" + i);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            LevelDBTableCore core = new LevelDBTableCore(tableName, service);
+            barrier.await();
+            for (int j = 0; j < increments; j++) {
+              if (j % 2 == 0) {
+                core.increment(row, ImmutableMap.of(COLUMN, 1L));
+              } else {
+                NavigableMap<byte[], NavigableMap<byte[], Long>> updates = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+                NavigableMap<byte[], Long> columns = Maps.newTreeMap(Bytes.BYTES_COMPARATOR);
+                columns.put(COLUMN, 1L);
+                updates.put(row, columns);
+                core.increment(updates);
+              }
+              if (shared) {
+                core.increment(Bytes.toBytes("shared"), ImmutableMap.of(COLUMN, 1L));
+              }
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(120, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long getCount(LevelDBTableCore core, byte[] row) throws Exception {
+    byte[] value = core.getRow(row, new byte[][] { COLUMN }, null, null, -1, null).get(COLUMN);
+    return value == null ? 0L : Bytes.toLong(value);
+  }
+}
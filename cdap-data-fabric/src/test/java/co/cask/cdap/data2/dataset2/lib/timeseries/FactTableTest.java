@@ -22,6 +22,8 @@ import co.cask.cdap.api.dataset.lib.cube.Measurement;
 import co.cask.cdap.api.dataset.lib.cube.TimeValue;
 import co.cask.cdap.api.dataset.table.Row;
 import co.cask.cdap.api.dataset.table.Scanner;
+import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.data2.dataset2.lib.table.MetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryMetricsTable;
 import co.cask.cdap.data2.dataset2.lib.table.inmemory.InMemoryTableService;
 import com.google.common.collect.HashBasedTable;
@@ -285,6 +287,160 @@ public class FactTableTest {
     Assert.assertEquals(expectedResult, nextTags);
   }
 
+  @Test
+  public void testSearchIndex() throws Exception {
+    InMemoryTableService.create("IndexEntityTable");
+    InMemoryTableService.create("IndexDataTable");
+    int resolution = 1;
+    int rollTimebaseInterval = 100;
+
+    InMemoryMetricsTable metricsTable = new InMemoryMetricsTable("IndexDataTable");
+    FactTable table = new FactTable(metricsTable, new EntityTable(new InMemoryMetricsTable("IndexEntityTable")),
+                                    resolution, rollTimebaseInterval);
+
+    long ts = System.currentTimeMillis() / 1000;
+    List<String> aggregationList = ImmutableList.of("dim1", "dim2");
+    writeInc(table, "metric-a", ts, 1, "dim1", "a", "dim2", "x");
+    writeInc(table, "metric-b", ts, 1, "dim1", "b", "dim2", "x");
+    writeInc(table, "metric-b", ts, 1, "dim1", "b", "dim2", null);
+
+    Map<String, String> anyDim2 = Maps.newHashMap();
+    anyDim2.put("dim2", null);
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "a"), new DimensionValue("dim1", "b")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), ts, ts));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim2", "x")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.of("dim1", "b"), ts, ts));
+    Assert.assertEquals(ImmutableSet.of("metric-a", "metric-b"),
+                        table.findMeasureNames(aggregationList, anyDim2, ts, ts));
+    Assert.assertEquals(ImmutableSet.of("metric-b"),
+                        table.findMeasureNames(aggregationList, ImmutableMap.of("dim1", "b"), ts, ts));
+    // search is done with the precision of the row time base
+    long timeBase = ts / rollTimebaseInterval * rollTimebaseInterval;
+    Assert.assertEquals(ImmutableSet.<String>of(),
+                        table.findMeasureNames(aggregationList, anyDim2,
+                                               timeBase - rollTimebaseInterval, timeBase - 1));
+
+    // deleting facts should remove them from the index
+    table.delete(new FactScan(ts, ts, ImmutableList.of("metric-b"), dimValues("dim1", "b", "dim2", null)));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "a")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), ts, ts));
+
+    // the index is used for search, hence the results should stay the same after removing the facts directly
+    deleteRows(metricsTable, false);
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "a")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), ts, ts));
+    Assert.assertEquals(ImmutableSet.of("metric-a"),
+                        table.findMeasureNames(aggregationList, anyDim2, ts, ts));
+
+    // without the index, the facts should be scanned
+    writeInc(table, "metric-a", ts, 1, "dim1", "a", "dim2", "x");
+    writeInc(table, "metric-c", ts, 1, "dim1", "c", "dim2", "x");
+    deleteRows(metricsTable, true);
+    table = new FactTable(metricsTable, new EntityTable(new InMemoryMetricsTable("IndexEntityTable")),
+                          resolution, rollTimebaseInterval);
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "a"), new DimensionValue("dim1", "c")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), ts, ts));
+    Assert.assertEquals(ImmutableSet.of("metric-a", "metric-c"),
+                        table.findMeasureNames(aggregationList, anyDim2, ts, ts));
+
+    // since the table was not empty, only the facts written in the later time bases are indexed
+    long laterTs = ts + 2 * rollTimebaseInterval;
+    writeInc(table, "metric-d", laterTs, 1, "dim1", "d", "dim2", "x");
+    deleteRows(metricsTable, false);
+    Assert.assertEquals(ImmutableSet.<DimensionValue>of(),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), ts, ts));
+    Assert.assertEquals(ImmutableSet.of(new DimensionValue("dim1", "d")),
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(),
+                                                       laterTs, laterTs));
+  }
+
+  @Test
+  public void testTotalsIndex() throws Exception {
+    InMemoryTableService.create("TotalsIndexEntityTable");
+    InMemoryTableService.create("TotalsIndexDataTable");
+    int resolution = Integer.MAX_VALUE;
+
+    InMemoryMetricsTable metricsTable = new InMemoryMetricsTable("TotalsIndexDataTable");
+    FactTable table = new FactTable(metricsTable, new EntityTable(new InMemoryMetricsTable("TotalsIndexEntityTable")),
+                                    resolution, 2);
+    final Map<String, Long> metrics = Maps.newHashMap();
+    table.setMetricsCollector(new MetricsCollector() {
+      @Override
+      public void increment(String metricName, long value) {
+        Long old = metrics.get(metricName);
+        metrics.put(metricName, old == null ? value : old + value);
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        metrics.put(metricName, value);
+      }
+    });
+    String indexPutCount = "factTable." + resolution + ".index.put.count";
+
+    long ts = System.currentTimeMillis() / 1000;
+    List<String> aggregationList = ImmutableList.of("dim1", "dim2");
+    Set<DimensionValue> expected = Sets.newHashSet();
+    for (int i = 0; i < 100; i++) {
+      writeInc(table, "metric", ts, 1, "dim1", "value" + i, "dim2", "x");
+      expected.add(new DimensionValue("dim1", "value" + i));
+    }
+    Assert.assertEquals(expected,
+                        table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), 0, 1));
+
+    // the index of the totals is split into several rows, as its time base never changes
+    int indexRows = 0;
+    int indexColumns = 0;
+    try (Scanner scanner = metricsTable.scan(null, null, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        // index rows start with 1, the index marker row has no other bytes
+        if (row.getRow()[0] == 1 && row.getRow().length > 1) {
+          indexRows++;
+          indexColumns += row.getColumns().size();
+        }
+      }
+    }
+    Assert.assertTrue(indexRows > 1);
+    Assert.assertEquals(100, indexColumns);
+
+    // the index cells are not written again for facts that were indexed already
+    long indexPuts = metrics.get(indexPutCount);
+    for (int i = 0; i < 100; i++) {
+      writeInc(table, "metric", ts + i, 1, "dim1", "value" + i, "dim2", "x");
+    }
+    Assert.assertEquals(indexPuts, (long) metrics.get(indexPutCount));
+    writeInc(table, "metric", ts, 1, "dim1", "value100", "dim2", "x");
+    Assert.assertEquals(indexPuts + 1, (long) metrics.get(indexPutCount));
+
+    // after a delete, the facts are indexed again when they are written
+    table.delete(new FactScan(0, 1, ImmutableList.of("metric"), dimValues("dim1", "value0", "dim2", "x")));
+    Assert.assertFalse(table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), 0, 1)
+                         .contains(new DimensionValue("dim1", "value0")));
+    writeInc(table, "metric", ts, 1, "dim1", "value0", "dim2", "x");
+    Assert.assertTrue(table.findSingleDimensionValue(aggregationList, ImmutableMap.<String, String>of(), 0, 1)
+                        .contains(new DimensionValue("dim1", "value0")));
+  }
+
+  /**
+   * Deletes either all dimension values index rows, or all fact rows from the given table.
+   */
+  private void deleteRows(MetricsTable metricsTable, boolean indexRows) throws Exception {
+    List<Row> rows = Lists.newArrayList();
+    try (Scanner scanner = metricsTable.scan(null, null, null)) {
+      Row row;
+      while ((row = scanner.next()) != null) {
+        // index rows start with 1, fact rows start with 0
+        if ((row.getRow()[0] == 1) == indexRows) {
+          rows.add(row);
+        }
+      }
+    }
+    for (Row row : rows) {
+      metricsTable.delete(row.getRow(), row.getColumns().keySet().toArray(new byte[row.getColumns().size()][]));
+    }
+  }
+
   @Test
   public void testQuery() throws Exception {
     InMemoryTableService.create("QueryEntityTable");
@@ -474,6 +630,39 @@ public class FactTableTest {
     assertScan(table, expected, scan);
   }
 
+  @Test
+  public void testRollupState() throws Exception {
+    InMemoryTableService.create("RollupEntityTable");
+    InMemoryTableService.create("RollupDataTable");
+    FactTable table = new FactTable(new InMemoryMetricsTable("RollupDataTable"),
+                                    new EntityTable(new InMemoryMetricsTable("RollupEntityTable")), 1, 3600);
+
+    table.add(ImmutableList.of(new Fact(1, dimValues("dim1", "value1"), ImmutableList.of(
+      new Measurement("counter", MeasureType.COUNTER, 1L),
+      new Measurement("gauge1", MeasureType.GAUGE, 1L)))));
+    table.add(ImmutableList.of(new Fact(2, dimValues("dim1", "value1"),
+                                        new Measurement("gauge2", MeasureType.GAUGE, 1L))));
+    Assert.assertEquals(ImmutableSet.of("gauge1", "gauge2"), table.getGaugeMeasureNames());
+
+    // Rollup end never moves backward
+    Assert.assertNull(table.getRollupEndTs(60));
+    Assert.assertEquals(120L, table.updateRollupEndTs(60, 120L));
+    Assert.assertEquals(120L, table.updateRollupEndTs(60, 60L));
+    Assert.assertEquals(Long.valueOf(120L), table.getRollupEndTs(60));
+    Assert.assertNull(table.getRollupEndTs(3600));
+
+    // The state is not visible to scans
+    FactScan scan = new FactScan(0, 10, ImmutableList.<String>of(),
+                                 ImmutableList.of(new DimensionValue("dim1", null)));
+    int count = 0;
+    FactScanner scanner = table.scan(scan);
+    while (scanner.hasNext()) {
+      Assert.assertEquals("value1", scanner.next().getDimensionValues().get(0).getValue());
+      count++;
+    }
+    Assert.assertEquals(3, count);
+  }
+
   @Test
   public void testMaxResolution() throws Exception {
     // we use Integer.MAX_VALUE as resolution to compute all-time total values
@@ -510,6 +699,77 @@ public class FactTableTest {
     }
   }
 
+  @Test
+  public void testSplit() throws Exception {
+    InMemoryTableService.create("SplitEntityTable");
+    InMemoryTableService.create("SplitDataTable");
+    int resolution = 1;
+    int rollTimebaseInterval = 10;
+
+    FactTable table = new FactTable(new InMemoryMetricsTable("SplitDataTable"),
+                                    new EntityTable(new InMemoryMetricsTable("SplitEntityTable")),
+                                    resolution, rollTimebaseInterval);
+    List<String> measureNames = ImmutableList.of("metric1", "metric2", "metric3", "metric4");
+    for (int ts = 0; ts < 100; ts++) {
+      for (int k = 0; k < measureNames.size(); k++) {
+        writeInc(table, measureNames.get(k), ts, ts * 10 + k, "dim1", "value1");
+      }
+    }
+
+    FactScan scan = new FactScan(5, 94, measureNames, dimValues("dim1", "value1"));
+    Assert.assertEquals(ImmutableList.of(scan), table.split(scan, 1));
+
+    // 10 time bases split into 4 time ranges
+    List<FactScan> splits = table.split(scan, 4);
+    Assert.assertEquals(4, splits.size());
+    Assert.assertEquals(5, splits.get(0).getStartTs());
+    Assert.assertEquals(29, splits.get(0).getEndTs());
+    Assert.assertEquals(90, splits.get(3).getStartTs());
+    Assert.assertEquals(94, splits.get(3).getEndTs());
+    Assert.assertEquals(scanSum(table, ImmutableList.of(scan)), scanSum(table, splits));
+
+    // 10 time ranges, each split into 2 groups of measures
+    splits = table.split(scan, 20);
+    Assert.assertEquals(20, splits.size());
+    Assert.assertEquals(scanSum(table, ImmutableList.of(scan)), scanSum(table, splits));
+
+    // a single time base is only split by measures
+    scan = new FactScan(0, 9, measureNames, dimValues("dim1", "value1"));
+    splits = table.split(scan, 8);
+    Assert.assertEquals(4, splits.size());
+    Assert.assertEquals(scanSum(table, ImmutableList.of(scan)), scanSum(table, splits));
+
+    // a scan of all measures is only split by time range
+    scan = new FactScan(0, 99, dimValues("dim1", "value1"));
+    splits = table.split(scan, 20);
+    Assert.assertEquals(10, splits.size());
+    Assert.assertEquals(scanSum(table, ImmutableList.of(scan)), scanSum(table, splits));
+  }
+
+  /**
+   * Scans the given scans and returns the sum of the scanned values by measure and timestamp, hence a fact that is
+   * scanned by more than one scan is counted more than once.
+   */
+  private Table<String, Long, Long> scanSum(FactTable table, List<FactScan> scans) {
+    Table<String, Long, Long> result = HashBasedTable.create();
+    for (FactScan scan : scans) {
+      FactScanner scanner = table.scan(scan);
+      try {
+        while (scanner.hasNext()) {
+          FactScanResult scanResult = scanner.next();
+          for (TimeValue timeValue : scanResult) {
+            Long value = result.get(scanResult.getMeasureName(), timeValue.getTimestamp());
+            result.put(scanResult.getMeasureName(), timeValue.getTimestamp(),
+                       value == null ? timeValue.getValue() : value + timeValue.getValue());
+          }
+        }
+      } finally {
+        scanner.close();
+      }
+    }
+    return result;
+  }
+
   @Test
   public void testPreSplits() throws Exception {
     InMemoryTableService.create("presplitEntityTable");
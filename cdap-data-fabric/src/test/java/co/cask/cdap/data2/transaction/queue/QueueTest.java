@@ -51,11 +51,13 @@ import org.junit.experimental.categories.Category;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
@@ -243,6 +245,144 @@ public abstract class QueueTest {
     verifyQueueIsEmpty(queueName, consumerConfigs);
   }
 
+  @Test(timeout = TIMEOUT_MS)
+  public void testPrefetch() throws Exception {
+    QueueName queueName = QueueName.fromFlowlet(NamespaceId.DEFAULT.getEntityName(), "app", "flow", "flowlet",
+                                                "queueprefetch");
+    configureGroups(queueName, ImmutableList.of(
+      new ConsumerGroupConfig(0L, 1, DequeueStrategy.FIFO, null),
+      new ConsumerGroupConfig(1L, 1, DequeueStrategy.HASH, "key")
+    ));
+
+    List<ConsumerConfig> consumerConfigs = ImmutableList.of(
+      new ConsumerConfig(0, 0, 1, DequeueStrategy.FIFO, null),
+      new ConsumerConfig(1, 0, 1, DequeueStrategy.HASH, "key")
+    );
+
+    int count = 30;
+    int batchSize = 5;
+    createEnqueueRunnable(queueName, count, 1, null).run();
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (
+      final QueueConsumer fifoConsumer = queueClientFactory.createConsumer(queueName, consumerConfigs.get(0), 2);
+      final QueueConsumer hashConsumer = queueClientFactory.createConsumer(queueName, consumerConfigs.get(1), 2)
+    ) {
+      Runnable prefetch = new Runnable() {
+        @Override
+        public void run() {
+          try {
+            fifoConsumer.prefetch(10);
+            hashConsumer.prefetch(10);
+          } catch (IOException e) {
+            throw Throwables.propagate(e);
+          }
+        }
+      };
+
+      TransactionContext txContext = createTxContext(fifoConsumer, hashConsumer);
+
+      // Prefetch from another thread and abort, the dequeued entries should be dequeued again
+      txContext.start();
+      assertDequeue(fifoConsumer.dequeue(batchSize), 0, batchSize);
+      assertDequeue(hashConsumer.dequeue(batchSize), 0, batchSize);
+      executor.submit(prefetch).get();
+      txContext.abort();
+
+      // Dequeue with prefetch, all entries should be dequeued once and in order
+      for (int i = 0; i < count; i += batchSize) {
+        txContext.start();
+        assertDequeue(fifoConsumer.dequeue(batchSize), i, batchSize);
+        assertDequeue(hashConsumer.dequeue(batchSize), i, batchSize);
+        executor.submit(prefetch).get();
+        txContext.finish();
+      }
+
+      txContext.start();
+      Assert.assertTrue(fifoConsumer.dequeue(batchSize).isEmpty());
+      Assert.assertTrue(hashConsumer.dequeue(batchSize).isEmpty());
+      txContext.finish();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    verifyQueueIsEmpty(queueName, consumerConfigs);
+  }
+
+  @Test(timeout = TIMEOUT_MS)
+  public void testPrefetchNotClaimed() throws Exception {
+    QueueName queueName = QueueName.fromFlowlet(NamespaceId.DEFAULT.getEntityName(), "app", "flow", "flowlet",
+                                                "queueprefetchclaim");
+    configureGroups(queueName, ImmutableList.of(new ConsumerGroupConfig(0L, 2, DequeueStrategy.FIFO, null)));
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try (
+      QueueProducer producer = queueClientFactory.createProducer(queueName);
+      final QueueConsumer consumer0 = queueClientFactory.createConsumer(
+        queueName, new ConsumerConfig(0L, 0, 2, DequeueStrategy.FIFO, null), 2);
+      QueueConsumer consumer1 = queueClientFactory.createConsumer(
+        queueName, new ConsumerConfig(0L, 1, 2, DequeueStrategy.FIFO, null), 2)
+    ) {
+      TransactionContext producerTxContext = createTxContext(producer);
+      TransactionContext txContext0 = createTxContext(consumer0);
+      TransactionContext txContext1 = createTxContext(consumer1);
+
+      enqueue(producerTxContext, producer, 0, 10);
+
+      // The first dequeue reads all the entries committed so far
+      txContext0.start();
+      assertDequeue(consumer0.dequeue(5), 0, 5);
+      txContext0.finish();
+
+      // The entries enqueued after that can only be read by a scan, which the prefetch does from another thread
+      enqueue(producerTxContext, producer, 10, 10);
+      txContext0.start();
+      assertDequeue(consumer0.dequeue(5), 5, 5);
+      executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          consumer0.prefetch(10);
+          return null;
+        }
+      }).get();
+      txContext0.finish();
+
+      // The prefetched entries are not claimed, hence the other instance can dequeue them
+      txContext1.start();
+      assertDequeue(consumer1.dequeue(5), 10, 5);
+      txContext1.finish();
+
+      // The prefetching instance skips the entries claimed by the other one, and dequeues the rest in order
+      txContext0.start();
+      assertDequeue(consumer0.dequeue(10), 15, 5);
+      txContext0.finish();
+
+      txContext1.start();
+      Assert.assertTrue(consumer1.dequeue(5).isEmpty());
+      txContext1.finish();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void enqueue(TransactionContext txContext, QueueProducer producer, int start, int count) throws Exception {
+    List<QueueEntry> queueEntries = Lists.newArrayListWithCapacity(count);
+    for (int i = start; i < start + count; i++) {
+      queueEntries.add(new QueueEntry(Bytes.toBytes(i)));
+    }
+    txContext.start();
+    producer.enqueue(queueEntries);
+    txContext.finish();
+  }
+
+  private void assertDequeue(DequeueResult<byte[]> result, int start, int size) {
+    Assert.assertEquals(size, result.size());
+    int expected = start;
+    for (byte[] entry : result) {
+      Assert.assertEquals(expected++, Bytes.toInt(entry));
+    }
+  }
+
   @Test(timeout = TIMEOUT_MS)
   public void testRollback() throws Exception {
     QueueName queueName = QueueName.fromFlowlet(NamespaceId.DEFAULT.getEntityName(), "app",
@@ -0,0 +1,204 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.tephra;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.tephra.persist.TransactionSnapshot;
+import org.apache.tephra.util.TxUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests the in-progress and invalid transactions in new transactions started by {@link TransactionManager}.
+ */
+public class TransactionManagerInProgressTest {
+
+  private TransactionManager txManager;
+
+  @Before
+  public void before() {
+    txManager = new TransactionManager(new Configuration());
+    txManager.startAndWait();
+  }
+
+  @After
+  public void after() {
+    txManager.stopAndWait();
+  }
+
+  @Test
+  public void testExcludedTransactions() throws Exception {
+    Random random = new Random(0);
+    List<Transaction> running = Lists.newArrayList();
+
+    for (int i = 0; i < 2000; i++) {
+      int op = running.isEmpty() ? 0 : random.nextInt(10);
+      if (op < 4) {
+        running.add(startAndVerify(random.nextInt(5) == 0));
+        continue;
+      }
+
+      Transaction tx = running.remove(random.nextInt(running.size()));
+      switch (op) {
+        case 4:
+        case 5:
+          Assert.assertTrue(txManager.canCommit(tx, Collections.singleton(Longs.toByteArray(i))));
+          Assert.assertTrue(txManager.commit(tx));
+          break;
+        case 6:
+          txManager.abort(tx);
+          break;
+        case 7:
+          txManager.invalidate(tx.getTransactionId());
+          break;
+        default:
+          // checkpoint and keep the transaction running
+          running.add(txManager.checkpoint(tx));
+      }
+    }
+
+    // Finish all transactions, then the new transaction should have nothing in progress
+    for (Transaction tx : running) {
+      txManager.abort(tx);
+    }
+    Transaction tx = startAndVerify(false);
+    Assert.assertEquals(0, tx.getInProgress().length);
+    Assert.assertEquals(Transaction.NO_TX_IN_PROGRESS, tx.getFirstShortInProgress());
+    txManager.abort(tx);
+  }
+
+  @Test
+  public void testSharedInProgressSnapshot() throws Exception {
+    Transaction tx1 = startAndVerify(false);
+    Transaction tx2 = startAndVerify(true);
+    long[] snapshot = txManager.getInProgressSnapshot();
+    Assert.assertArrayEquals(new long[] { tx1.getTransactionId(), tx2.getTransactionId() }, snapshot);
+
+    // a transaction started right after another one gets the snapshot that the previous start appended to
+    Transaction tx3 = startAndVerify(false);
+    Assert.assertSame(snapshot, tx3.getInProgress());
+    Assert.assertEquals(tx1.getTransactionId(), tx3.getFirstShortInProgress());
+
+    // after a commit the snapshot is rebuilt by the next start only
+    Assert.assertTrue(txManager.canCommit(tx1, Collections.singleton(Longs.toByteArray(1L))));
+    Assert.assertTrue(txManager.commit(tx1));
+    Assert.assertNull(txManager.getInProgressSnapshot());
+    Transaction tx4 = startAndVerify(false);
+    Assert.assertEquals(tx3.getTransactionId(), tx4.getFirstShortInProgress());
+    snapshot = txManager.getInProgressSnapshot();
+    Transaction tx5 = startAndVerify(false);
+    Assert.assertSame(snapshot, tx5.getInProgress());
+    Assert.assertArrayEquals(new long[] { tx2.getTransactionId(), tx3.getTransactionId(), tx4.getTransactionId() },
+                             tx5.getInProgress());
+
+    for (Transaction tx : Arrays.asList(tx2, tx3, tx4, tx5)) {
+      txManager.abort(tx);
+    }
+  }
+
+  /**
+   * Measures the throughput of starting and committing short transactions while some long running transactions
+   * are in progress. Each thread count is run a few times and the best run is reported, to compare the numbers
+   * before and after a change to the transaction manager.
+   */
+  @Ignore
+  @Test
+  public void testSpeed() throws Exception {
+    // Keep some long running transactions in progress, as it normally is the case
+    for (int i = 0; i < 100; i++) {
+      txManager.startLong();
+    }
+
+    int total = 200000;
+    // warm up
+    runStartCommit(4, total / 4);
+
+    for (int threads = 1; threads <= 8; threads *= 2) {
+      long best = 0;
+      for (int run = 0; run < 3; run++) {
+        long startTime = System.nanoTime();
+        runStartCommit(threads, total / threads);
+        long elapsed = System.nanoTime() - startTime;
+        best = Math.max(best, total * TimeUnit.SECONDS.toNanos(1) / elapsed);
+      }
+      System.out.printf("Threads: %d, transactions/sec: %d%n", threads, best);
+    }
+  }
+
+  /**
+   * Starts a transaction and verifies that its excluded transactions match the state of the transaction manager.
+   */
+  private Transaction startAndVerify(boolean longTx) {
+    TransactionSnapshot state = txManager.getCurrentState();
+    Transaction tx = longTx ? txManager.startLong() : txManager.startShort();
+
+    long[] expectedInProgress = Longs.toArray(state.getInProgress().keySet());
+    Assert.assertArrayEquals(expectedInProgress, tx.getInProgress());
+    Assert.assertEquals(TxUtils.getFirstShortInProgress(state.getInProgress()), tx.getFirstShortInProgress());
+
+    long[] expectedInvalid = Longs.toArray(state.getInvalid());
+    Arrays.sort(expectedInvalid);
+    Assert.assertArrayEquals(expectedInvalid, tx.getInvalids());
+    return tx;
+  }
+
+  private void runStartCommit(int threads, final int count) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    final CyclicBarrier barrier = new CyclicBarrier(threads);
+    try {
+      List<Future<?>> futures = Lists.newArrayList();
+      for (int i = 0; i < threads; i++) {
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            barrier.await();
+            for (int j = 0; j < count; j++) {
+              Transaction tx = txManager.startShort();
+              txManager.canCommit(tx, Collections.singleton(Longs.toByteArray(tx.getTransactionId())));
+              txManager.commit(tx);
+            }
+            return null;
+          }
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get(5, TimeUnit.MINUTES);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
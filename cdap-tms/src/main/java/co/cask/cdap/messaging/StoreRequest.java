@@ -58,6 +58,14 @@ public abstract class StoreRequest extends AbstractIterator<byte[]> {
     return transactionWritePointer;
   }
 
+  /**
+   * Returns the approximate total size in bytes of the message payloads in this request, or {@code 0} if it is
+   * not known without consuming the payloads.
+   */
+  public int getPayloadSizeHint() {
+    return 0;
+  }
+
   @Override
   protected final byte[] computeNext() {
     byte[] next = doComputeNext();
@@ -30,6 +30,8 @@ public class TopicMetadata {
 
   public static final String GENERATION_KEY = MessagingUtils.Constants.GENERATION_KEY;
   public static final String TTL_KEY = MessagingUtils.Constants.TTL_KEY;
+  public static final String PUBLISH_LINGER_MILLIS_KEY = "publish.linger.ms";
+  public static final String PUBLISH_LINGER_MAX_BYTES_KEY = "publish.linger.max.bytes";
 
   private final TopicId topicId;
   private final Map<String, String> properties;
@@ -61,7 +61,9 @@ import org.apache.avro.io.EncoderFactory;
 import org.apache.tephra.TransactionCodec;
 import org.apache.twill.discovery.DiscoveryServiceClient;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Type;
@@ -90,14 +92,30 @@ public final class ClientMessagingService implements MessagingService {
   // These types for only for Gson to use, hence using the gson TypeToken instead of guava one
   private static final Type TOPIC_PROPERTY_TYPE = new TypeToken<Map<String, String>>() { }.getType();
   private static final Type TOPIC_LIST_TYPE = new TypeToken<List<String>>() { }.getType();
+  // Content type for the length-prefixed binary format of the poll response
+  private static final String BINARY_CONTENT_TYPE = "application/octet-stream";
 
   private final RemoteClient remoteClient;
+  private final boolean binaryFetch;
 
   @VisibleForTesting
   @Inject
   public ClientMessagingService(final DiscoveryServiceClient discoveryServiceClient) {
+    this(discoveryServiceClient, true);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param discoveryServiceClient the {@link DiscoveryServiceClient} for discovering the messaging service
+   * @param binaryFetch {@code true} to request messages in the length-prefixed binary format when fetching;
+   *                    {@code false} to always request messages encoded with avro
+   */
+  @VisibleForTesting
+  public ClientMessagingService(DiscoveryServiceClient discoveryServiceClient, boolean binaryFetch) {
     this.remoteClient = new RemoteClient(discoveryServiceClient, Constants.Service.MESSAGING_SERVICE,
                                          HTTP_REQUEST_CONFIG, "/v1/namespaces/");
+    this.binaryFetch = binaryFetch;
   }
 
   @Override
@@ -360,6 +378,44 @@ public final class ClientMessagingService implements MessagingService {
     }
   }
 
+  /**
+   * A {@link CloseableIterator} that decodes messages streamed from the server in the length-prefixed binary format,
+   * which is a sequence of {@code [id length][id][payload length][payload]}, terminated by a zero id length.
+   */
+  private static final class BinaryMessageIterator extends AbstractCloseableIterator<RawMessage> {
+
+    private final HttpURLConnection urlConn;
+    private final DataInputStream input;
+
+    private BinaryMessageIterator(HttpURLConnection urlConn) throws IOException {
+      this.urlConn = urlConn;
+      this.input = new DataInputStream(new BufferedInputStream(urlConn.getInputStream()));
+    }
+
+    @Override
+    protected RawMessage computeNext() {
+      try {
+        int idLength = input.readInt();
+        if (idLength == 0) {
+          return endOfData();
+        }
+        byte[] id = new byte[idLength];
+        input.readFully(id);
+        byte[] payload = new byte[input.readInt()];
+        input.readFully(payload);
+        return new RawMessage(id, payload);
+      } catch (IOException e) {
+        // This includes EOFException, which happens if the response is truncated before the end of messages
+        throw Throwables.propagate(e);
+      }
+    }
+
+    @Override
+    public void close() {
+      urlConn.disconnect();
+    }
+  }
+
   /**
    * Client side implementation of {@link MessageFetcher}. It streams messages from the server with chunk encoding.
    */
@@ -402,6 +458,10 @@ public final class ClientMessagingService implements MessagingService {
       urlConn.setReadTimeout(HTTP_REQUEST_CONFIG.getReadTimeout());
       urlConn.setRequestMethod("POST");
       urlConn.setRequestProperty(HttpHeaders.CONTENT_TYPE, "avro/binary");
+      if (binaryFetch) {
+        // Older servers ignore this header and respond with avro, which is handled by checking the response type
+        urlConn.setRequestProperty(HttpHeaders.ACCEPT, BINARY_CONTENT_TYPE + ", avro/binary");
+      }
       urlConn.setDoInput(true);
       urlConn.setDoOutput(true);
 
@@ -428,6 +488,10 @@ public final class ClientMessagingService implements MessagingService {
           }
         }
       }, "Failed to update topic " + topicId);
+
+      if (BINARY_CONTENT_TYPE.equals(urlConn.getContentType())) {
+        return new BinaryMessageIterator(urlConn);
+      }
       verifyContentType(urlConn.getHeaderFields(), "avro/binary");
 
       // Decode the avro array manually instead of using DatumReader in order to support streaming decode.
@@ -73,6 +73,8 @@ public final class FetchHandler extends AbstractHttpHandler {
 
   private static final Logger LOG = LoggerFactory.getLogger(FetchHandler.class);
   private static final TransactionCodec TRANSACTION_CODEC = new TransactionCodec();
+  // Content type for the binary response format. See BinaryMessagesBodyProducer for the format.
+  private static final String BINARY_CONTENT_TYPE = "application/octet-stream";
 
   private final MessagingService messagingService;
   private int messageChunkSize;
@@ -104,8 +106,15 @@ public final class FetchHandler extends AbstractHttpHandler {
     // Fetch the messages
     CloseableIterator<RawMessage> iterator = fetchMessages(datumReader.read(null, decoder), topicId);
     try {
-      responder.sendContent(HttpResponseStatus.OK, new MessagesBodyProducer(iterator, messageChunkSize),
-                            ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "avro/binary"));
+      // Response in the binary format only if the client accepts it, otherwise use avro for compatibility
+      String accept = request.getHeader(HttpHeaders.Names.ACCEPT);
+      if (accept != null && accept.contains(BINARY_CONTENT_TYPE)) {
+        responder.sendContent(HttpResponseStatus.OK, new BinaryMessagesBodyProducer(iterator, messageChunkSize),
+                              ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, BINARY_CONTENT_TYPE));
+      } else {
+        responder.sendContent(HttpResponseStatus.OK, new MessagesBodyProducer(iterator, messageChunkSize),
+                              ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE, "avro/binary"));
+      }
     } catch (Throwable t) {
       iterator.close();
       throw t;
@@ -146,6 +155,19 @@ public final class FetchHandler extends AbstractHttpHandler {
     return fetcher.fetch();
   }
 
+  /**
+   * Logs the failure of sending messages back to client. Since response header is already sent, there is nothing
+   * we can send back to client.
+   */
+  private static void logSendError(@Nullable Throwable cause) {
+    if (cause instanceof SocketException) {
+      // This can easily caused by client close connection prematurely. Don't want to flood the log.
+      LOG.debug("Socket exception raised when sending messages back to client", cause);
+    } else {
+      LOG.warn("Exception raised when sending messages back to client", cause);
+    }
+  }
+
   /**
    * A {@link BodyProducer} to encode and send back messages.
    * Instead of using GenericDatumWriter, we perform the array encoding manually so that we don't have to buffer
@@ -239,13 +261,78 @@ public final class FetchHandler extends AbstractHttpHandler {
     @Override
     public void handleError(@Nullable Throwable cause) {
       iterator.close();
-      // Since response header is already sent, there is nothing we can send back to client. Simply log the failure
-      if (cause instanceof SocketException) {
-        // This can easily caused by client close connection prematurely. Don't want to flood the log.
-        LOG.debug("Socket exception raised when sending messages back to client", cause);
-      } else {
-        LOG.warn("Exception raised when sending messages back to client", cause);
+      logSendError(cause);
+    }
+  }
+
+  /**
+   * A {@link BodyProducer} to send back messages in a length-prefixed binary format. Each message is encoded as
+   *
+   * <pre>
+   *   [id length (4 bytes)][id][payload length (4 bytes)][payload]
+   * </pre>
+   *
+   * and the end of messages is signaled by an id length of {@code 0}. The message ids and payloads are not copied;
+   * instead each chunk is a composite of the buffer containing the lengths and the wrapped byte arrays.
+   */
+  private static class BinaryMessagesBodyProducer extends BodyProducer {
+
+    private final CloseableIterator<RawMessage> iterator;
+    private final int messageChunkSize;
+    private final List<ChannelBuffer> buffers;
+    private boolean ended;
+
+    BinaryMessagesBodyProducer(CloseableIterator<RawMessage> iterator, int messageChunkSize) {
+      this.iterator = iterator;
+      this.messageChunkSize = messageChunkSize;
+      this.buffers = new ArrayList<>();
+    }
+
+    @Override
+    public ChannelBuffer nextChunk() throws Exception {
+      // Already sent all messages, return empty to signal the end of response
+      if (ended) {
+        return ChannelBuffers.EMPTY_BUFFER;
+      }
+
+      int size = 0;
+      buffers.clear();
+      while (iterator.hasNext() && size < messageChunkSize) {
+        RawMessage message = iterator.next();
+        byte[] id = message.getId();
+        byte[] payload = message.getPayload();
+
+        ChannelBuffer idLength = ChannelBuffers.buffer(Bytes.SIZEOF_INT);
+        idLength.writeInt(id.length);
+        ChannelBuffer payloadLength = ChannelBuffers.buffer(Bytes.SIZEOF_INT);
+        payloadLength.writeInt(payload.length);
+
+        buffers.add(idLength);
+        buffers.add(ChannelBuffers.wrappedBuffer(id));
+        buffers.add(payloadLength);
+        buffers.add(ChannelBuffers.wrappedBuffer(payload));
+        size += id.length + payload.length + 2 * Bytes.SIZEOF_INT;
+      }
+
+      if (!iterator.hasNext()) {
+        ended = true;
+        ChannelBuffer end = ChannelBuffers.buffer(Bytes.SIZEOF_INT);
+        end.writeInt(0);
+        buffers.add(end);
       }
+
+      return ChannelBuffers.wrappedBuffer(buffers.toArray(new ChannelBuffer[buffers.size()]));
+    }
+
+    @Override
+    public void finished() throws Exception {
+      iterator.close();
+    }
+
+    @Override
+    public void handleError(@Nullable Throwable cause) {
+      iterator.close();
+      logSendError(cause);
     }
   }
 }
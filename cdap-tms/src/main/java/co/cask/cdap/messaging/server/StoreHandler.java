@@ -175,6 +175,7 @@ public final class StoreHandler extends AbstractHttpHandler {
   private static final class GenericRecordStoreRequest extends StoreRequest {
 
     private final Iterator<ByteBuffer> payloadIterator;
+    private final int payloadSize;
 
     @SuppressWarnings("unchecked")
     GenericRecordStoreRequest(TopicId topicId, GenericRecord genericRecord) {
@@ -183,7 +184,18 @@ public final class StoreHandler extends AbstractHttpHandler {
               ? -1L
               : Long.parseLong(genericRecord.get("transactionWritePointer").toString()));
 
-      this.payloadIterator = ((List<ByteBuffer>) genericRecord.get("messages")).iterator();
+      List<ByteBuffer> payloads = (List<ByteBuffer>) genericRecord.get("messages");
+      int size = 0;
+      for (ByteBuffer payload : payloads) {
+        size += payload.remaining();
+      }
+      this.payloadIterator = payloads.iterator();
+      this.payloadSize = size;
+    }
+
+    @Override
+    public int getPayloadSizeHint() {
+      return payloadSize;
     }
 
     @Nullable
@@ -0,0 +1,121 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import com.google.common.base.Preconditions;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A histogram of non-negative long values for computing approximate percentiles. Values are counted in
+ * buckets of exponentially increasing width, with four buckets per power of two, hence percentiles are accurate
+ * to within 25% of the actual value. Recording a value is lock free and doesn't allocate.
+ */
+@ThreadSafe
+public final class BucketHistogram {
+
+  // Values 0 - 3 have their own buckets, then four buckets for each power of two from 2^2 to 2^62
+  private static final int BUCKETS = 4 + 61 * 4;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+  /**
+   * Records a value. Negative values are recorded as {@code 0}.
+   */
+  public void add(long value) {
+    counts.incrementAndGet(getBucket(Math.max(0L, value)));
+  }
+
+  /**
+   * Returns a {@link Snapshot} of the values recorded so far and resets this histogram.
+   * Values recorded concurrently with this call are either included in the snapshot or retained in this histogram.
+   */
+  public Snapshot snapshotAndReset() {
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.getAndSet(i, 0L);
+    }
+    return new Snapshot(snapshot);
+  }
+
+  private static int getBucket(long value) {
+    if (value < 4) {
+      return (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int subBucket = (int) (value >>> (exponent - 2)) & 3;
+    return 4 + (exponent - 2) * 4 + subBucket;
+  }
+
+  /**
+   * Returns the largest value that falls into the given bucket.
+   */
+  private static long getBucketUpperBound(int bucket) {
+    if (bucket < 4) {
+      return bucket;
+    }
+    int exponent = (bucket - 4) / 4 + 2;
+    int subBucket = (bucket - 4) % 4;
+    long lowerBound = (4L + subBucket) << (exponent - 2);
+    return lowerBound + (1L << (exponent - 2)) - 1;
+  }
+
+  /**
+   * An immutable snapshot of the values recorded in a {@link BucketHistogram}.
+   */
+  public static final class Snapshot {
+
+    private final long[] counts;
+    private final long total;
+
+    private Snapshot(long[] counts) {
+      long total = 0L;
+      for (long count : counts) {
+        total += count;
+      }
+      this.counts = counts;
+      this.total = total;
+    }
+
+    /**
+     * Returns the number of values in this snapshot.
+     */
+    public long getCount() {
+      return total;
+    }
+
+    /**
+     * Returns the approximate value at the given percentile, or {@code 0} if this snapshot is empty.
+     *
+     * @param percentile the percentile, between {@code 0} (exclusive) and {@code 100} (inclusive)
+     */
+    public long getPercentile(double percentile) {
+      Preconditions.checkArgument(percentile > 0d && percentile <= 100d,
+                                  "Percentile must be in the range of (0, 100]: %s", percentile);
+      long target = (long) Math.ceil(total * percentile / 100d);
+      long cumulative = 0L;
+      for (int i = 0; i < counts.length; i++) {
+        cumulative += counts[i];
+        if (cumulative >= target && cumulative > 0) {
+          return getBucketUpperBound(i);
+        }
+      }
+      return 0L;
+    }
+  }
+}
@@ -31,7 +31,10 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
@@ -49,24 +52,44 @@ import javax.annotation.concurrent.ThreadSafe;
  * 1. Constructs a PendingStoreRequest locally and enqueue it to a ConcurrentLinkedQueue.
  * 2. Use CAS to set an AtomicBoolean flag to true.
  * 3. If successfully set the flag to true, this thread becomes the writer and proceed to run step 4-7.
+ *    If a linger time is set, the writer first waits until either the oldest request in the queue has been
+ *    waiting for the linger time, or the size of the queued requests reaches the linger max bytes.
  * 4. Provides an Iterator of PendingStoreRequest, which consumes from the ConcurrentLinkedQueue mentioned in step 1.
  * 5. The message table store method will consume the Iterator until it is empty
  * 6. Set the state of each PendingStoreRequest that are written to COMPLETED (succeed/failure).
  * 7. Set the AtomicBoolean flag back to false.
- * 8. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, go back to step 2.
+ * 8. If the queue is not empty, wakes up the thread of the first PendingStoreRequest in the queue.
+ * 9. If the PendingStoreRequest enqueued by this thread is NOT COMPLETED, wait until either it is completed or
+ *    this thread is woken up, then go back to step 2.
  * </pre>
  *
- * The spin lock between step 2 to step 8 is necessary as it guarantees events enqueued by all threads would eventually
- * get written and flushed.
+ * The loop between step 2 to step 9 is necessary as it guarantees events enqueued by all threads would eventually
+ * get written and flushed. Waiting threads first yield for a few times, as the current write is likely to complete
+ * soon, then park until woken up, so that they don't keep CPU busy while a write is in progress. Step 8 guarantees
+ * that a request enqueued while a write is in progress is not left in the queue without a thread trying to write it.
  */
 @ThreadSafe
 final class ConcurrentMessageWriter implements Closeable {
 
+  // Number of times to yield before parking while waiting for the completion of a store request
+  private static final int MAX_YIELDS = 10;
+  // Default maximum time to park, as a safeguard to always check for completion regularly
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+  // Minimum interval for reporting the latency and batch size histograms
+  private static final long HISTOGRAM_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
   private final StoreRequestWriter<?> messagesWriter;
   private final MetricsCollector metricsCollector;
   private final PendingStoreQueue pendingStoreQueue;
   private final AtomicBoolean writerFlag;
   private final AtomicBoolean closed;
+  private final long lingerNanos;
+  private final long lingerMaxBytes;
+  private final long maxParkNanos;
+  private final BucketHistogram latencyHistogram;
+  private final BucketHistogram batchSizeHistogram;
+  private volatile Thread lingeringThread;
+  private long lastHistogramReportTime;
 
   /**
    * Constructor with a {@link NoopMetricsContext}. This constructor should only be used in unit-testing.
@@ -83,11 +106,41 @@ final class ConcurrentMessageWriter implements Closeable {
    * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
    */
   ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector) {
+    this(messagesWriter, metricsCollector, 0L, 0L);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param messagesWriter the {@link StoreRequestWriter} for persisting {@link StoreRequest}.
+   * @param metricsCollector the {@link MetricsCollector} for collecting metrics emitted by this class.
+   * @param lingerMillis maximum time in milliseconds to wait for more requests before writing the pending ones;
+   *                     if it is not positive, pending requests are written without waiting
+   * @param lingerMaxBytes size in bytes of pending requests that ends the waiting for more requests
+   */
+  ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector,
+                          long lingerMillis, long lingerMaxBytes) {
+    this(messagesWriter, metricsCollector, lingerMillis, lingerMaxBytes, MAX_PARK_NANOS);
+  }
+
+  /**
+   * Constructor with a custom maximum park time of the threads waiting for their requests to be written.
+   * This constructor should only be used in unit-testing.
+   */
+  @VisibleForTesting
+  ConcurrentMessageWriter(StoreRequestWriter<?> messagesWriter, MetricsCollector metricsCollector,
+                          long lingerMillis, long lingerMaxBytes, long maxParkNanos) {
     this.messagesWriter = messagesWriter;
     this.metricsCollector = metricsCollector;
-    this.pendingStoreQueue = new PendingStoreQueue(metricsCollector);
+    this.batchSizeHistogram = new BucketHistogram();
+    this.pendingStoreQueue = new PendingStoreQueue(metricsCollector, batchSizeHistogram);
     this.writerFlag = new AtomicBoolean();
     this.closed = new AtomicBoolean();
+    this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, lingerMillis));
+    this.lingerMaxBytes = lingerMaxBytes;
+    this.maxParkNanos = maxParkNanos;
+    this.latencyHistogram = new BucketHistogram();
+    this.lastHistogramReportTime = System.nanoTime();
   }
 
   /**
@@ -108,14 +161,34 @@ final class ConcurrentMessageWriter implements Closeable {
 
     PendingStoreRequest pendingStoreRequest = new PendingStoreRequest(storeRequest, metadata);
     pendingStoreQueue.enqueue(pendingStoreRequest);
+    if (lingerNanos > 0 && pendingStoreQueue.getQueuedBytes() >= lingerMaxBytes) {
+      // Enough data are queued, no need for the writer to wait for more
+      Thread thread = lingeringThread;
+      if (thread != null) {
+        LockSupport.unpark(thread);
+      }
+    }
 
     metricsCollector.increment("persist.requested", 1L);
 
+    long startTime = System.nanoTime();
+    long writeTime = 0L;
+    int yields = 0;
     while (!pendingStoreRequest.isCompleted()) {
-      if (!tryWrite()) {
+      long persistTime = tryWrite();
+      if (persistTime >= 0L) {
+        writeTime += persistTime;
+      } else if (yields < MAX_YIELDS) {
+        yields++;
         Thread.yield();
+      } else {
+        LockSupport.parkNanos(this, maxParkNanos);
       }
     }
+    long waitTime = System.nanoTime() - startTime - writeTime;
+    metricsCollector.increment("persist.wait.time.us", TimeUnit.NANOSECONDS.toMicros(waitTime));
+    metricsCollector.increment("persist.write.time.us", TimeUnit.NANOSECONDS.toMicros(writeTime));
+    latencyHistogram.add(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - pendingStoreRequest.getEnqueueTime()));
 
     if (pendingStoreRequest.isSuccess()) {
       metricsCollector.increment("persist.success", 1L);
@@ -136,19 +209,78 @@ final class ConcurrentMessageWriter implements Closeable {
   /**
    * Tries to acquire the writer flag and persist the pending requests.
    *
-   * @return {@code true} if acquired the writer flag and called {@link PendingStoreQueue#persist(StoreRequestWriter)};
-   *         otherwise {@code false} will be returned.
+   * @return the time in nanoseconds spent in {@link PendingStoreQueue#persist(StoreRequestWriter)}, which excludes
+   *         the linger time, if acquired the writer flag; otherwise {@code -1} will be returned.
    */
-  private boolean tryWrite() {
+  private long tryWrite() {
     if (!writerFlag.compareAndSet(false, true)) {
-      return false;
+      return -1L;
     }
+    long persistTime;
     try {
+      linger();
+      long startTime = System.nanoTime();
       pendingStoreQueue.persist(messagesWriter);
+      persistTime = System.nanoTime() - startTime;
+      reportHistograms();
     } finally {
       writerFlag.set(false);
     }
-    return true;
+    // Wake up a thread that has a pending request to write, in case it parked while this thread was writing.
+    pendingStoreQueue.wakeupFirst();
+    return persistTime;
+  }
+
+  /**
+   * Waits until either the oldest pending request has been waiting for the linger time or the size of
+   * the pending requests reaches the linger max bytes. This method must be called while holding the writer flag.
+   */
+  private void linger() {
+    if (lingerNanos <= 0 || closed.get()) {
+      return;
+    }
+    PendingStoreRequest first = pendingStoreQueue.peekFirst();
+    if (first == null) {
+      return;
+    }
+
+    long firstEnqueueTime = first.getEnqueueTime();
+    long startTime = System.nanoTime();
+    lingeringThread = Thread.currentThread();
+    try {
+      long remaining = firstEnqueueTime + lingerNanos - startTime;
+      while (remaining > 0 && pendingStoreQueue.getQueuedBytes() < lingerMaxBytes && !closed.get()) {
+        LockSupport.parkNanos(this, remaining);
+        remaining = firstEnqueueTime + lingerNanos - System.nanoTime();
+      }
+    } finally {
+      lingeringThread = null;
+    }
+    long lingerTime = System.nanoTime() - startTime;
+    metricsCollector.increment("persist.linger.time.us", TimeUnit.NANOSECONDS.toMicros(lingerTime));
+  }
+
+  /**
+   * Reports the percentiles of the publish latency and the write batch size if the report interval has passed
+   * since the last report. This method must be called while holding the writer flag.
+   */
+  private void reportHistograms() {
+    long now = System.nanoTime();
+    if (now - lastHistogramReportTime < HISTOGRAM_REPORT_INTERVAL_NANOS) {
+      return;
+    }
+    lastHistogramReportTime = now;
+
+    BucketHistogram.Snapshot latency = latencyHistogram.snapshotAndReset();
+    if (latency.getCount() > 0) {
+      metricsCollector.gauge("persist.latency.p50.us", latency.getPercentile(50));
+      metricsCollector.gauge("persist.latency.p99.us", latency.getPercentile(99));
+    }
+    BucketHistogram.Snapshot batchSize = batchSizeHistogram.snapshotAndReset();
+    if (batchSize.getCount() > 0) {
+      metricsCollector.gauge("persist.batch.size.p50", batchSize.getPercentile(50));
+      metricsCollector.gauge("persist.batch.size.p99", batchSize.getPercentile(99));
+    }
   }
 
   @Override
@@ -159,7 +291,7 @@ final class ConcurrentMessageWriter implements Closeable {
     // Flush everything in the queue.
     // When this thread can grab the writer flag, all pending write requests must be completed since the closed
     // flag was already set to false.
-    while (!tryWrite()) {
+    while (tryWrite() < 0L) {
       Thread.yield();
     }
     messagesWriter.close();
@@ -167,28 +299,59 @@ final class ConcurrentMessageWriter implements Closeable {
 
   /**
    * A resettable {@link Iterator} to provide {@link StoreRequest} to {@link StoreRequestWriter}.
-   * Except the {@link #enqueue(PendingStoreRequest)} method, all methods on this class can only be
-   * called while holding the writer flag.
+   * Except the {@link #enqueue(PendingStoreRequest)} and {@link #wakeupFirst()} methods, all methods on this class
+   * can only be called while holding the writer flag.
    */
   private static final class PendingStoreQueue {
 
     private final MetricsCollector metricsCollector;
+    private final BucketHistogram batchSizeHistogram;
     private final Queue<PendingStoreRequest> writeQueue;
     private final List<PendingStoreRequest> inflightRequests;
+    private final AtomicLong queuedBytes;
 
-    private PendingStoreQueue(MetricsCollector metricsCollector) {
+    private PendingStoreQueue(MetricsCollector metricsCollector, BucketHistogram batchSizeHistogram) {
       this.metricsCollector = metricsCollector;
+      this.batchSizeHistogram = batchSizeHistogram;
       this.writeQueue = new ConcurrentLinkedQueue<>();
       this.inflightRequests = new ArrayList<>(100);
+      this.queuedBytes = new AtomicLong();
     }
 
     /**
      * Puts the given {@link PendingStoreRequest} to the concurrent queue.
      */
     void enqueue(PendingStoreRequest storeRequest) {
+      queuedBytes.addAndGet(storeRequest.getPayloadSizeHint());
       writeQueue.add(storeRequest);
     }
 
+    /**
+     * Returns the approximate size in bytes of the payloads of all requests in the queue.
+     */
+    long getQueuedBytes() {
+      return queuedBytes.get();
+    }
+
+    /**
+     * Returns the first {@link PendingStoreRequest} in the queue or {@code null} if the queue is empty.
+     */
+    @Nullable
+    PendingStoreRequest peekFirst() {
+      return writeQueue.peek();
+    }
+
+    /**
+     * Wakes up the thread waiting for the first {@link PendingStoreRequest} in the queue, if there is any.
+     * This method can be called without holding the writer flag.
+     */
+    void wakeupFirst() {
+      PendingStoreRequest request = peekFirst();
+      if (request != null) {
+        LockSupport.unpark(request.getWaiter());
+      }
+    }
+
     /**
      * Persists all {@link PendingStoreRequest} currently in the queue with the given writer.
      */
@@ -200,13 +363,17 @@ final class ConcurrentMessageWriter implements Closeable {
       // Since this method is expected to be called (indirectly) from a http handler thread, that is bounded by
       // the thread pool size used by the http service.
       inflightRequests.clear();
+      long bytes = 0L;
       PendingStoreRequest request = writeQueue.poll();
       while (request != null) {
         inflightRequests.add(request);
+        bytes += request.getPayloadSizeHint();
         request = writeQueue.poll();
       }
+      queuedBytes.addAndGet(-bytes);
 
       metricsCollector.gauge("persist.queue.size", inflightRequests.size());
+      batchSizeHistogram.add(inflightRequests.size());
 
       try {
         writer.write(inflightRequests.iterator());
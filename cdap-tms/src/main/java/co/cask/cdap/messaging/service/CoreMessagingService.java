@@ -407,11 +407,37 @@ public class CoreMessagingService extends AbstractIdleService implements Messagi
             Constants.Metrics.Tag.TABLE, messageTable ? "message" : "payload"
           ));
 
-          return new ConcurrentMessageWriter(messagesWriter, metricsContext);
+          if (!messageTable) {
+            return new ConcurrentMessageWriter(messagesWriter, metricsContext);
+          }
+          // Only publish to the message table supports lingering, since storing to the payload table is
+          // always done in large batches by transactional publishers.
+          return new ConcurrentMessageWriter(messagesWriter, metricsContext,
+                                             getLongProperty(metadata, TopicMetadata.PUBLISH_LINGER_MILLIS_KEY,
+                                                             Constants.MessagingSystem.PUBLISH_LINGER_MILLIS),
+                                             getLongProperty(metadata, TopicMetadata.PUBLISH_LINGER_MAX_BYTES_KEY,
+                                                             Constants.MessagingSystem.PUBLISH_LINGER_MAX_BYTES));
         }
       });
   }
 
+  /**
+   * Returns the value of a topic property as long, or the value from {@link CConfiguration} if the topic doesn't
+   * have the property set.
+   */
+  private long getLongProperty(TopicMetadata metadata, String topicKey, String cConfKey) {
+    String value = metadata.getProperties().get(topicKey);
+    if (value == null) {
+      return cConf.getLong(cConfKey);
+    }
+    try {
+      return Long.parseLong(value);
+    } catch (NumberFormatException e) {
+      LOG.warn("Ignoring invalid value '{}' of property {} for topic {}", value, topicKey, metadata.getTopicId());
+      return cConf.getLong(cConfKey);
+    }
+  }
+
   /**
    * Creates a new instance of {@link MetadataTable}.
    */
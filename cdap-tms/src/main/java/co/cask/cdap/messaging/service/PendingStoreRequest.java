@@ -19,6 +19,7 @@ package co.cask.cdap.messaging.service;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
 
+import java.util.concurrent.locks.LockSupport;
 import javax.annotation.Nullable;
 
 /**
@@ -28,8 +29,10 @@ final class PendingStoreRequest extends StoreRequest {
 
   private final StoreRequest originalRequest;
   private final TopicMetadata metadata;
+  private final Thread waiter;
+  private final long enqueueTime;
 
-  private boolean completed;
+  private volatile boolean completed;
   private long startTimestamp;
   private long endTimestamp;
   private int startSequenceId;
@@ -41,6 +44,8 @@ final class PendingStoreRequest extends StoreRequest {
           originalRequest.getTransactionWritePointer());
     this.originalRequest = originalRequest;
     this.metadata = topicMetadata;
+    this.waiter = Thread.currentThread();
+    this.enqueueTime = System.nanoTime();
   }
 
   TopicMetadata getTopicMetadata() {
@@ -63,9 +68,32 @@ final class PendingStoreRequest extends StoreRequest {
     return failureCause;
   }
 
+  /**
+   * Returns the time in nanoseconds as returned by {@link System#nanoTime()} when this request was created.
+   */
+  long getEnqueueTime() {
+    return enqueueTime;
+  }
+
+  @Override
+  public int getPayloadSizeHint() {
+    return originalRequest.getPayloadSizeHint();
+  }
+
+  /**
+   * Returns the thread that created this request and waits for its completion.
+   */
+  Thread getWaiter() {
+    return waiter;
+  }
+
+  /**
+   * Marks this request as completed and wakes up the thread waiting for it.
+   */
   void completed(@Nullable Throwable failureCause) {
-    completed = true;
     this.failureCause = failureCause;
+    completed = true;
+    LockSupport.unpark(waiter);
   }
 
   void setStartTimestamp(long startTimestamp) {
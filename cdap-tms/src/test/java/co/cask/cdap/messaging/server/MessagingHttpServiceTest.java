@@ -47,6 +47,7 @@ import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.ClassRule;
+import org.junit.Ignore;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
@@ -56,6 +57,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Tests for {@link MessagingHttpService}.
@@ -68,6 +70,7 @@ public class MessagingHttpServiceTest {
   private static CConfiguration cConf;
   private static MessagingHttpService httpService;
   private static MessagingService client;
+  private static MessagingService avroClient;
 
   @BeforeClass
   public static void init() throws IOException {
@@ -93,6 +96,7 @@ public class MessagingHttpServiceTest {
     httpService.startAndWait();
 
     client = new ClientMessagingService(injector.getInstance(DiscoveryServiceClient.class));
+    avroClient = new ClientMessagingService(injector.getInstance(DiscoveryServiceClient.class), false);
   }
 
   @AfterClass
@@ -420,22 +424,86 @@ public class MessagingHttpServiceTest {
       client.publish(StoreRequestBuilder.of(topicId).addPayloads(payload).build());
     }
 
-    // Fetch messages. All of them should be fetched correctly
-    List<RawMessage> messages = new ArrayList<>();
-    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).fetch()) {
-      Iterators.addAll(messages, iterator);
+    // Fetch messages with both the binary and the avro response format. All of them should be fetched correctly
+    for (MessagingService fetchClient : Arrays.asList(client, avroClient)) {
+      List<RawMessage> messages = new ArrayList<>();
+      try (CloseableIterator<RawMessage> iterator = fetchClient.prepareFetch(topicId).fetch()) {
+        Iterators.addAll(messages, iterator);
+      }
+      Assert.assertEquals(10, messages.size());
+      for (int i = 0; i < 10; i++) {
+        RawMessage message = messages.get(i);
+        Assert.assertEquals(payloadSize, message.getPayload().length);
+        String payload = Strings.repeat(Integer.toString(i), payloadSize);
+        Assert.assertEquals(payload, Bytes.toString(message.getPayload()));
+      }
     }
-    Assert.assertEquals(10, messages.size());
-    for (int i = 0; i < 10; i++) {
-      RawMessage message = messages.get(i);
-      Assert.assertEquals(payloadSize, message.getPayload().length);
-      String payload = Strings.repeat(Integer.toString(i), payloadSize);
-      Assert.assertEquals(payload, Bytes.toString(message.getPayload()));
+
+    // Fetch from the middle with both format, the message ids should be the same
+    List<RawMessage> binaryMessages = new ArrayList<>();
+    List<RawMessage> avroMessages = new ArrayList<>();
+    try (CloseableIterator<RawMessage> iterator = client.prepareFetch(topicId).setLimit(5).fetch()) {
+      Iterators.addAll(binaryMessages, iterator);
+    }
+    try (CloseableIterator<RawMessage> iterator = avroClient.prepareFetch(topicId).setLimit(5).fetch()) {
+      Iterators.addAll(avroMessages, iterator);
+    }
+    Assert.assertEquals(5, binaryMessages.size());
+    Assert.assertEquals(5, avroMessages.size());
+    for (int i = 0; i < 5; i++) {
+      Assert.assertArrayEquals(avroMessages.get(i).getId(), binaryMessages.get(i).getId());
     }
 
     client.deleteTopic(topicId);
   }
 
+  @Ignore
+  @Test
+  public void testFetchSpeed() throws Exception {
+    // Compares the fetch throughput of the binary and the avro response format
+    for (int payloadSize : new int[] { 1024, 100 * 1024 }) {
+      TopicId topicId = new NamespaceId("ns1").topic("testFetchSpeed" + payloadSize);
+      client.createTopic(new TopicMetadata(topicId));
+
+      // Publish about 100MB of messages, with about 1MB per publish request
+      int messageCount = 100 * 1024 * 1024 / payloadSize;
+      int batchSize = 1024 * 1024 / payloadSize;
+      byte[] payload = new byte[payloadSize];
+      StoreRequestBuilder builder = StoreRequestBuilder.of(topicId);
+      for (int i = 0; i < messageCount; i++) {
+        builder.addPayloads(payload);
+        if ((i + 1) % batchSize == 0) {
+          client.publish(builder.build());
+          builder = StoreRequestBuilder.of(topicId);
+        }
+      }
+      if (builder.hasPayload()) {
+        client.publish(builder.build());
+      }
+
+      for (int i = 0; i < 5; i++) {
+        for (MessagingService fetchClient : Arrays.asList(client, avroClient)) {
+          long startTime = System.nanoTime();
+          int count = 0;
+          try (CloseableIterator<RawMessage> iterator = fetchClient.prepareFetch(topicId)
+                                                                   .setLimit(messageCount).fetch()) {
+            while (iterator.hasNext()) {
+              iterator.next();
+              count++;
+            }
+          }
+          long elapsed = System.nanoTime() - startTime;
+          Assert.assertEquals(messageCount, count);
+          System.out.printf("Payload size: %d, format: %s, messages/sec: %d, MB/sec: %.2f%n",
+                            payloadSize, fetchClient == client ? "binary" : "avro",
+                            messageCount * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                            (double) messageCount * payloadSize * TimeUnit.SECONDS.toNanos(1) / elapsed / 1024 / 1024);
+        }
+      }
+      client.deleteTopic(topicId);
+    }
+  }
+
   @Test
   public void testPayloadTable() throws Exception {
     // This test is to verify storing transaction messages to the payload table
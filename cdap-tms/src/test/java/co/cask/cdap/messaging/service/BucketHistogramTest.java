@@ -0,0 +1,62 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.messaging.service;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Unit-test for {@link BucketHistogram}.
+ */
+public class BucketHistogramTest {
+
+  @Test
+  public void testPercentiles() {
+    BucketHistogram histogram = new BucketHistogram();
+    for (int i = 1; i <= 1000; i++) {
+      histogram.add(i);
+    }
+
+    BucketHistogram.Snapshot snapshot = histogram.snapshotAndReset();
+    Assert.assertEquals(1000L, snapshot.getCount());
+    assertWithin(500L, snapshot.getPercentile(50));
+    assertWithin(990L, snapshot.getPercentile(99));
+    assertWithin(1000L, snapshot.getPercentile(100));
+
+    // Small values have exact buckets
+    histogram.add(0L);
+    histogram.add(3L);
+    snapshot = histogram.snapshotAndReset();
+    Assert.assertEquals(2L, snapshot.getCount());
+    Assert.assertEquals(0L, snapshot.getPercentile(50));
+    Assert.assertEquals(3L, snapshot.getPercentile(100));
+
+    // The histogram should be empty after reset
+    snapshot = histogram.snapshotAndReset();
+    Assert.assertEquals(0L, snapshot.getCount());
+    Assert.assertEquals(0L, snapshot.getPercentile(99));
+
+    // Make sure the largest value is handled
+    histogram.add(Long.MAX_VALUE);
+    Assert.assertEquals(Long.MAX_VALUE, histogram.snapshotAndReset().getPercentile(50));
+  }
+
+  private void assertWithin(long expected, long actual) {
+    Assert.assertTrue("Expected " + expected + " but got " + actual,
+                      actual >= expected && actual <= expected * 1.25);
+  }
+}
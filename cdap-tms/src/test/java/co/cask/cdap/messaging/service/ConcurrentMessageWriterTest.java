@@ -18,6 +18,8 @@ package co.cask.cdap.messaging.service;
 
 import co.cask.cdap.api.common.Bytes;
 import co.cask.cdap.api.metrics.MetricsCollector;
+import co.cask.cdap.api.metrics.NoopMetricsContext;
+import co.cask.cdap.common.utils.Tasks;
 import co.cask.cdap.common.utils.TimeProvider;
 import co.cask.cdap.messaging.StoreRequest;
 import co.cask.cdap.messaging.TopicMetadata;
@@ -40,12 +42,15 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 import javax.annotation.Nullable;
 
 /**
@@ -268,6 +273,206 @@ public class ConcurrentMessageWriterTest {
     }
   }
 
+  @Test
+  public void testLingerMaxBytes() throws InterruptedException {
+    int threadCount = 10;
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+
+    // Linger for a long time, so that the write can only happen when the max bytes is reached,
+    // which is the total size of the requests from all threads.
+    final List<String> payload = Arrays.asList("1", "2", "3");
+    final ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new NoopMetricsContext(),
+                                                                       TimeUnit.MINUTES.toMillis(10),
+                                                                       threadCount * payload.size());
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            writer.persist(new TestStoreRequest(topicId, payload), metadata);
+          } catch (IOException e) {
+            LOG.error("Failed to persist", e);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+    // All requests should be written with one write
+    Assert.assertEquals(threadCount * payload.size(), testWriter.getMessages().get(topicId).size());
+    Assert.assertEquals(1, testWriter.getWriteCount());
+  }
+
+  @Test
+  public void testLingerTime() throws IOException {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new NoopMetricsContext(),
+                                                                 200L, Long.MAX_VALUE);
+
+    // A single request should be written after lingering for the linger time
+    Stopwatch stopwatch = new Stopwatch().start();
+    writer.persist(new TestStoreRequest(topicId, Arrays.asList("1", "2", "3")), metadata);
+    Assert.assertTrue(stopwatch.elapsedMillis() >= 200L);
+    Assert.assertEquals(3, testWriter.getMessages().get(topicId).size());
+    Assert.assertEquals(1, testWriter.getWriteCount());
+  }
+
+  @Test
+  public void testParkWhileWriting() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter);
+
+    // Block the first write, so that the second request has to wait for it
+    CountDownLatch writeStarted = new CountDownLatch(1);
+    CountDownLatch writeRelease = new CountDownLatch(1);
+    testWriter.blockNextWrite(writeStarted, writeRelease);
+
+    Thread writingThread = startPersist(writer, new TestStoreRequest(topicId, Arrays.asList("1", "2")), metadata);
+    Assert.assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+    Thread waitingThread = startPersist(writer, new TestStoreRequest(topicId, Arrays.asList("3")), metadata);
+
+    // The waiting thread parks instead of spinning while the write is in progress
+    waitForPark(waitingThread, writer);
+    Assert.assertTrue(writingThread.isAlive());
+    Assert.assertEquals(2, testWriter.getMessages().get(topicId).size());
+
+    writeRelease.countDown();
+    writingThread.join(10000);
+    waitingThread.join(10000);
+    Assert.assertFalse(writingThread.isAlive());
+    Assert.assertFalse(waitingThread.isAlive());
+    Assert.assertEquals(3, testWriter.getMessages().get(topicId).size());
+    Assert.assertEquals(2, testWriter.getWriteCount());
+  }
+
+  @Test
+  public void testWakeupOnCompletion() throws Exception {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+
+    // Park for a long time, so that a waiting thread can only make progress if it is woken up
+    ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new NoopMetricsContext(), 0L, 0L,
+                                                                 TimeUnit.MINUTES.toNanos(10));
+    CountDownLatch writeStarted = new CountDownLatch(1);
+    CountDownLatch writeRelease = new CountDownLatch(1);
+    testWriter.blockNextWrite(writeStarted, writeRelease);
+
+    Thread writingThread = startPersist(writer, new TestStoreRequest(topicId, Arrays.asList("1", "2")), metadata);
+    Assert.assertTrue(writeStarted.await(10, TimeUnit.SECONDS));
+    Thread waitingThread = startPersist(writer, new TestStoreRequest(topicId, Arrays.asList("3")), metadata);
+    waitForPark(waitingThread, writer);
+
+    // Completing the write wakes up the parked thread, which then writes its own request
+    writeRelease.countDown();
+    waitingThread.join(10000);
+    Assert.assertFalse(waitingThread.isAlive());
+    writingThread.join(10000);
+    Assert.assertFalse(writingThread.isAlive());
+    Assert.assertEquals(3, testWriter.getMessages().get(topicId).size());
+    Assert.assertEquals(2, testWriter.getWriteCount());
+  }
+
+  @Test
+  public void testNoLostWakeup() throws InterruptedException {
+    int threadCount = 20;
+    final int requestPerThread = 200;
+    final TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    final TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    // The write delay makes the threads park while a write is in progress
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider(), 1L);
+
+    // Park for a long time, so that any lost wakeup would block a thread until the test times out
+    final ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new NoopMetricsContext(), 0L, 0L,
+                                                                       TimeUnit.MINUTES.toNanos(10));
+    final List<String> payload = Arrays.asList("1", "2", "3");
+    ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+    for (int i = 0; i < threadCount; i++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < requestPerThread; i++) {
+              writer.persist(new TestStoreRequest(topicId, payload), metadata);
+            }
+          } catch (IOException e) {
+            LOG.error("Failed to persist", e);
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    Assert.assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+    Assert.assertEquals(threadCount * requestPerThread * payload.size(),
+                        testWriter.getMessages().get(topicId).size());
+  }
+
+  @Test
+  public void testWriteTimeExcludesLinger() throws IOException {
+    TopicId topicId = NamespaceId.DEFAULT.topic("t");
+    TopicMetadata metadata = new TopicMetadata(topicId, new HashMap<String, String>(), 1);
+    TestStoreRequestWriter testWriter = new TestStoreRequestWriter(new TimeProvider.IncrementalTimeProvider());
+    final Map<String, Long> metrics = new HashMap<>();
+    ConcurrentMessageWriter writer = new ConcurrentMessageWriter(testWriter, new MetricsCollector() {
+      @Override
+      public void increment(String metricName, long value) {
+        Long oldValue = metrics.get(metricName);
+        metrics.put(metricName, oldValue == null ? value : oldValue + value);
+      }
+
+      @Override
+      public void gauge(String metricName, long value) {
+        metrics.put(metricName, value);
+      }
+    }, 200L, Long.MAX_VALUE);
+
+    // The linger time is counted as waiting, not as writing
+    writer.persist(new TestStoreRequest(topicId, Arrays.asList("1", "2", "3")), metadata);
+    long lingerTime = metrics.get("persist.linger.time.us");
+    Assert.assertTrue(lingerTime > 0L);
+    Assert.assertTrue(metrics.get("persist.wait.time.us") >= lingerTime);
+    Assert.assertTrue(metrics.get("persist.write.time.us") < lingerTime);
+  }
+
+  /**
+   * Starts a thread that persists the given {@link StoreRequest} with the given {@link ConcurrentMessageWriter}.
+   */
+  private Thread startPersist(final ConcurrentMessageWriter writer,
+                              final StoreRequest request, final TopicMetadata metadata) {
+    Thread thread = new Thread() {
+      @Override
+      public void run() {
+        try {
+          writer.persist(request, metadata);
+        } catch (IOException e) {
+          LOG.error("Failed to persist", e);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Waits until the given thread is parked on the given blocker.
+   */
+  private void waitForPark(final Thread thread, final Object blocker) throws Exception {
+    Tasks.waitFor(true, new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        return LockSupport.getBlocker(thread) == blocker;
+      }
+    }, 10, TimeUnit.SECONDS, 1, TimeUnit.MILLISECONDS);
+  }
+
   /**
    * A {@link StoreRequestWriter} that turns all payloads to {@link RawMessage} and stores it in a List.
    */
@@ -275,6 +480,9 @@ public class ConcurrentMessageWriterTest {
 
     private final ListMultimap<TopicId, RawMessage> messages = ArrayListMultimap.create();
     private long writeDelayMillis;
+    private int writeCount;
+    private volatile CountDownLatch writeStarted;
+    private volatile CountDownLatch writeRelease;
 
     TestStoreRequestWriter(TimeProvider timeProvider) {
       super(timeProvider, false);
@@ -288,6 +496,15 @@ public class ConcurrentMessageWriterTest {
       this.writeDelayMillis = writeDelayMillis;
     }
 
+    /**
+     * Makes the next write count down the given started latch after writing the messages, and then block
+     * until the given release latch is released.
+     */
+    void blockNextWrite(CountDownLatch writeStarted, CountDownLatch writeRelease) {
+      this.writeRelease = writeRelease;
+      this.writeStarted = writeStarted;
+    }
+
     @Override
     TestEntry getEntry(TopicMetadata metadata, boolean transactional, long transactionWritePointer,
                        long writeTimestamp, short sequenceId, @Nullable byte[] payload) {
@@ -297,6 +514,7 @@ public class ConcurrentMessageWriterTest {
 
     @Override
     protected void doWrite(Iterator<TestEntry> entries) throws IOException {
+      writeCount++;
       while (entries.hasNext()) {
         TestEntry entry = entries.next();
         byte[] rawId = new byte[MessageId.RAW_ID_SIZE];
@@ -309,12 +527,23 @@ public class ConcurrentMessageWriterTest {
       if (writeDelayMillis > 0) {
         Uninterruptibles.sleepUninterruptibly(writeDelayMillis, TimeUnit.MILLISECONDS);
       }
+
+      CountDownLatch started = writeStarted;
+      if (started != null) {
+        writeStarted = null;
+        started.countDown();
+        Uninterruptibles.awaitUninterruptibly(writeRelease);
+      }
     }
 
     ListMultimap<TopicId, RawMessage> getMessages() {
       return messages;
     }
 
+    int getWriteCount() {
+      return writeCount;
+    }
+
     @Override
     public void close() throws IOException {
       // No-op
@@ -374,9 +603,10 @@ public class ConcurrentMessageWriterTest {
   private static final class TestStoreRequest extends StoreRequest {
 
     private final Iterator<String> payloads;
+    private final int payloadSize;
 
     protected TestStoreRequest(TopicId topicId, List<String> payloads) {
-      this(topicId, payloads.iterator());
+      this(topicId, false, -1L, payloads.iterator(), getSize(payloads));
     }
 
     protected TestStoreRequest(TopicId topicId, Iterator<String> payloads) {
@@ -385,8 +615,19 @@ public class ConcurrentMessageWriterTest {
 
     protected TestStoreRequest(TopicId topicId, boolean transactional,
                                long transactionWritePointer, Iterator<String> payloads) {
+      this(topicId, transactional, transactionWritePointer, payloads, 0);
+    }
+
+    private TestStoreRequest(TopicId topicId, boolean transactional,
+                             long transactionWritePointer, Iterator<String> payloads, int payloadSize) {
       super(topicId, transactional, transactionWritePointer);
       this.payloads = payloads;
+      this.payloadSize = payloadSize;
+    }
+
+    @Override
+    public int getPayloadSizeHint() {
+      return payloadSize;
     }
 
     @Nullable
@@ -394,5 +635,13 @@ public class ConcurrentMessageWriterTest {
     protected byte[] doComputeNext() {
       return payloads.hasNext() ? Bytes.toBytes(payloads.next()) : null;
     }
+
+    private static int getSize(List<String> payloads) {
+      int size = 0;
+      for (String payload : payloads) {
+        size += Bytes.toBytes(payload).length;
+      }
+      return size;
+    }
   }
 }
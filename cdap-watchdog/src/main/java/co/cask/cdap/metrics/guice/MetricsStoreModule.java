@@ -31,7 +31,8 @@ public final class MetricsStoreModule extends PrivateModule {
   @Override
   protected void configure() {
     bind(MetricDatasetFactory.class).to(DefaultMetricDatasetFactory.class).in(Scopes.SINGLETON);
-    bind(MetricStore.class).to(DefaultMetricStore.class);
+    // a single instance per injector, so that its thread pools and query cache are shared
+    bind(MetricStore.class).to(DefaultMetricStore.class).in(Scopes.SINGLETON);
     expose(MetricStore.class);
   }
 }
@@ -240,15 +240,26 @@ public class MessagingMetricsProcessorService extends AbstractExecutionThreadSer
     long now = System.currentTimeMillis();
     long lastRecordTime = metricValues.getLast().getTimestamp();
     long delay = now - TimeUnit.SECONDS.toMillis(lastRecordTime);
-    metricValues.add(
+
+    // Combine metric values with the same tags, name and timestamp to reduce the number of writes to the metric store
+    MetricValuesAggregator aggregator = new MetricValuesAggregator();
+    for (MetricValues values : metricValues) {
+      aggregator.add(values);
+    }
+    List<MetricValues> aggregated = aggregator.getAggregated();
+    aggregated.add(
       new MetricValues(metricsContextMap, TimeUnit.MILLISECONDS.toSeconds(now), ImmutableList.of(
         new MetricValue("metrics.process.count", MetricType.COUNTER, metricValues.size()),
-        new MetricValue("metrics.process.delay.ms", MetricType.GAUGE, delay))));
-    metricStore.add(metricValues);
+        new MetricValue("metrics.process.delay.ms", MetricType.GAUGE, delay),
+        new MetricValue("metrics.process.aggregation.reduction.percent", MetricType.GAUGE,
+                        aggregator.getReductionPercent()))));
+    metricStore.add(aggregated);
     recordsProcessed += metricValues.size();
 
-    PROGRESS_LOG.debug("{} metrics records processed. Last metric record's timestamp: {}. Metrics process delay: {}",
-                       recordsProcessed, lastRecordTime, delay);
+    PROGRESS_LOG.debug("{} metrics records processed. Last metric record's timestamp: {}. Metrics process delay: {}. " +
+                         "Aggregated {} metric values into {}.",
+                       recordsProcessed, lastRecordTime, delay,
+                       aggregator.getInputCount(), aggregator.getOutputCount());
   }
 
   private class ProcessMetricsThread extends Thread {
@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Pre-aggregates {@link MetricValues} before they are written to the metric store, so that metric values
+ * with the same tags, metric name and timestamp (in seconds) are written as one value. Counters are summed,
+ * while gauges keep the last value added. A counter added after a gauge is added to the gauge value, which is
+ * the same as what the metric store does when it applies the original values one by one.
+ *
+ * The aggregated {@link MetricValues} are ordered by timestamp, so that a gauge with a later timestamp is
+ * written last when the values are rolled up to a coarser resolution.
+ */
+@NotThreadSafe
+final class MetricValuesAggregator {
+
+  private final NavigableMap<Long, Map<Map<String, String>, Map<String, AggregatedValue>>> values = new TreeMap<>();
+  private int inputCount;
+  private int outputCount;
+
+  /**
+   * Adds the given {@link MetricValues} to the aggregation.
+   */
+  void add(MetricValues metricValues) {
+    if (metricValues.getMetrics().isEmpty()) {
+      return;
+    }
+
+    Map<Map<String, String>, Map<String, AggregatedValue>> contexts = values.get(metricValues.getTimestamp());
+    if (contexts == null) {
+      contexts = new LinkedHashMap<>();
+      values.put(metricValues.getTimestamp(), contexts);
+    }
+    Map<String, AggregatedValue> metrics = contexts.get(metricValues.getTags());
+    if (metrics == null) {
+      metrics = new LinkedHashMap<>();
+      contexts.put(metricValues.getTags(), metrics);
+    }
+
+    for (MetricValue metricValue : metricValues.getMetrics()) {
+      inputCount++;
+      AggregatedValue value = metrics.get(metricValue.getName());
+      if (value == null) {
+        metrics.put(metricValue.getName(), new AggregatedValue(metricValue.getType(), metricValue.getValue()));
+        outputCount++;
+      } else {
+        value.add(metricValue.getType(), metricValue.getValue());
+      }
+    }
+  }
+
+  /**
+   * Returns a list of {@link MetricValues} containing the aggregated metric values.
+   */
+  List<MetricValues> getAggregated() {
+    List<MetricValues> result = new ArrayList<>();
+    for (Map.Entry<Long, Map<Map<String, String>, Map<String, AggregatedValue>>> entry : values.entrySet()) {
+      for (Map.Entry<Map<String, String>, Map<String, AggregatedValue>> context : entry.getValue().entrySet()) {
+        List<MetricValue> metrics = new ArrayList<>(context.getValue().size());
+        for (Map.Entry<String, AggregatedValue> metric : context.getValue().entrySet()) {
+          metrics.add(new MetricValue(metric.getKey(), metric.getValue().type, metric.getValue().value));
+        }
+        result.add(new MetricValues(context.getKey(), entry.getKey(), metrics));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the number of metric values added.
+   */
+  int getInputCount() {
+    return inputCount;
+  }
+
+  /**
+   * Returns the number of metric values after aggregation.
+   */
+  int getOutputCount() {
+    return outputCount;
+  }
+
+  /**
+   * Returns the percentage of metric values removed by the aggregation, or {@code 0} if nothing was added.
+   */
+  long getReductionPercent() {
+    return inputCount == 0 ? 0L : (inputCount - outputCount) * 100L / inputCount;
+  }
+
+  /**
+   * The aggregated value of a metric.
+   */
+  private static final class AggregatedValue {
+    private MetricType type;
+    private long value;
+
+    AggregatedValue(MetricType type, long value) {
+      this.type = type;
+      this.value = value;
+    }
+
+    void add(MetricType type, long value) {
+      if (type == MetricType.GAUGE) {
+        this.type = MetricType.GAUGE;
+        this.value = value;
+      } else {
+        this.value += value;
+      }
+    }
+  }
+}
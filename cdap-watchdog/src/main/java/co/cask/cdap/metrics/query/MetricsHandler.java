@@ -27,10 +27,12 @@ import co.cask.cdap.api.metrics.MetricTimeSeries;
 import co.cask.cdap.api.metrics.TagValue;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.common.utils.TimeMathParser;
+import co.cask.cdap.metrics.store.DefaultMetricStore;
 import co.cask.cdap.proto.MetricQueryRequest;
 import co.cask.cdap.proto.MetricQueryResult;
 import co.cask.cdap.proto.MetricTagValue;
 import co.cask.http.AbstractHttpHandler;
+import co.cask.http.ChunkResponder;
 import co.cask.http.HttpResponder;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
@@ -38,12 +40,19 @@ import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableBiMap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.io.Closeables;
 import com.google.gson.Gson;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import com.google.inject.Inject;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBufferOutputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.handler.codec.http.HttpHeaders;
 import org.jboss.netty.handler.codec.http.HttpRequest;
 import org.jboss.netty.handler.codec.http.HttpResponseStatus;
@@ -51,7 +60,10 @@ import org.jboss.netty.handler.codec.http.QueryStringDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -67,6 +79,10 @@ import javax.ws.rs.QueryParam;
 public class MetricsHandler extends AbstractHttpHandler {
   private static final Logger LOG = LoggerFactory.getLogger(MetricsHandler.class);
   private static final Gson GSON = new Gson();
+  // size of the chunks of the query response
+  private static final int CHUNK_SIZE = 64 * 1024;
+  // written at the end of a query response that failed after it was started
+  private static final String ERROR_TERMINATOR = "\n{\"error\":\"Internal error while querying for metrics\"}\n";
 
   // constants used for request query parsing
   private static final String PARAM_COUNT = "count";
@@ -199,12 +215,13 @@ public class MetricsHandler extends AbstractHttpHandler {
 
         LOG.trace("Received Queries {}", queries);
 
-        Map<String, MetricQueryResult> queryFinalResponse = Maps.newHashMap();
+        // All queries are executed before sending the response, so that failure of any query can be responded
+        Map<String, MetricQueryResultStream> results = Maps.newHashMap();
         for (Map.Entry<String, QueryRequestFormat> query : queries.entrySet()) {
           MetricQueryRequest queryRequest = getQueryRequestFromFormat(query.getValue());
-          queryFinalResponse.put(query.getKey(), executeQuery(queryRequest));
+          results.put(query.getKey(), executeQuery(queryRequest));
         }
-        responder.sendJson(HttpResponseStatus.OK, queryFinalResponse);
+        sendQueryResults(responder, results, true);
       } catch (IllegalArgumentException e) {
         LOG.warn("Invalid request", e);
         responder.sendString(HttpResponseStatus.BAD_REQUEST, e.getMessage());
@@ -233,7 +250,8 @@ public class MetricsHandler extends AbstractHttpHandler {
   private void tagsQuerying(HttpRequest request, HttpResponder responder, List<String> tags, List<String> metrics,
                             List<String> groupByTags) {
     try {
-      responder.sendJson(HttpResponseStatus.OK, executeQuery(request, parseTagValuesAsMap(tags), groupByTags, metrics));
+      MetricQueryResultStream result = executeQuery(request, parseTagValuesAsMap(tags), groupByTags, metrics);
+      sendQueryResults(responder, ImmutableMap.of("", result), false);
     } catch (IllegalArgumentException e) {
       LOG.warn("Invalid request", e);
       responder.sendString(HttpResponseStatus.BAD_REQUEST, e.getMessage());
@@ -243,8 +261,8 @@ public class MetricsHandler extends AbstractHttpHandler {
     }
   }
 
-  private MetricQueryResult executeQuery(HttpRequest request, Map<String, String> sliceByTags,
-                                         List<String> groupByTags, List<String> metrics) throws Exception {
+  private MetricQueryResultStream executeQuery(HttpRequest request, Map<String, String> sliceByTags,
+                                               List<String> groupByTags, List<String> metrics) throws Exception {
     MetricQueryRequest queryRequest = new MetricQueryRequest(sliceByTags, metrics, groupByTags);
     setTimeRangeInQueryRequest(queryRequest, new QueryStringDecoder(request.getUri()).getParameters());
     return executeQuery(queryRequest);
@@ -324,7 +342,7 @@ public class MetricsHandler extends AbstractHttpHandler {
     }
   }
 
-  private MetricQueryResult executeQuery(MetricQueryRequest queryRequest) throws Exception {
+  private MetricQueryResultStream executeQuery(MetricQueryRequest queryRequest) throws Exception {
     if (queryRequest.getMetrics().size() == 0) {
       throw new IllegalArgumentException("Missing metrics parameter in the query");
     }
@@ -338,7 +356,9 @@ public class MetricsHandler extends AbstractHttpHandler {
                                                 timeRange.getCount(), toMetrics(queryRequest.getMetrics()),
                                                 tagsSliceBy, transformGroupByTags(queryRequest.getGroupBy()),
                                                 timeRange.getInterpolate());
-    Collection<MetricTimeSeries> queryResult = metricStore.query(query);
+    // only the DefaultMetricStore computes the time series as they are iterated
+    Iterator<MetricTimeSeries> queryResult = metricStore instanceof DefaultMetricStore
+      ? ((DefaultMetricStore) metricStore).queryIterator(query) : metricStore.query(query).iterator();
 
     long endTime = timeRange.getEnd();
     if (timeRange.getResolutionInSeconds() == Integer.MAX_VALUE && endTime == 0) {
@@ -346,7 +366,85 @@ public class MetricsHandler extends AbstractHttpHandler {
       endTime = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
     }
 
-    return decorate(queryResult, timeRange.getStart(), endTime, timeRange.getResolutionInSeconds());
+    return new MetricQueryResultStream(timeRange.getStart(), endTime, timeRange.getResolutionInSeconds(),
+                                       queryResult);
+  }
+
+  /**
+   * Sends the given query results as JSON, in the same format as {@link MetricQueryResult}. The time series are
+   * serialized one by one as they are computed, so that the whole response is not held in memory. If {@code batch}
+   * is {@code true}, the response is a JSON object from query name to query result, otherwise the response is the
+   * only query result.
+   *
+   * The response is only started once the first chunk is complete, hence a response that fits in one chunk is sent
+   * as a regular response, and a failure while computing the first chunk is thrown to the caller, which can still
+   * respond with an error status. A failure after the response is started is written at the end of the response,
+   * which makes the response invalid JSON rather than silently truncated.
+   */
+  private void sendQueryResults(HttpResponder responder, Map<String, MetricQueryResultStream> results,
+                                boolean batch) throws Exception {
+    Multimap<String, String> headers = ImmutableMultimap.of(HttpHeaders.Names.CONTENT_TYPE,
+                                                            "application/json; charset=utf-8");
+    ChannelBuffer buffer = ChannelBuffers.dynamicBuffer();
+    JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(new ChannelBufferOutputStream(buffer),
+                                                                  Charsets.UTF_8));
+    ChunkResponder chunkResponder = null;
+    try {
+      if (batch) {
+        jsonWriter.beginObject();
+      }
+      for (Map.Entry<String, MetricQueryResultStream> result : results.entrySet()) {
+        if (batch) {
+          jsonWriter.name(result.getKey());
+        }
+        MetricQueryResultStream queryResult = result.getValue();
+        jsonWriter.beginObject();
+        jsonWriter.name("startTime").value(queryResult.startTime);
+        jsonWriter.name("endTime").value(queryResult.endTime);
+        jsonWriter.name("series").beginArray();
+        while (queryResult.series.hasNext()) {
+          GSON.toJson(decorate(queryResult.series.next()), MetricQueryResult.TimeSeries.class, jsonWriter);
+          jsonWriter.flush();
+          if (buffer.readableBytes() >= CHUNK_SIZE) {
+            if (chunkResponder == null) {
+              chunkResponder = responder.sendChunkStart(HttpResponseStatus.OK, headers);
+            }
+            // Need to copy the buffer because the buffer will get reused and send chunk is an async operation
+            chunkResponder.sendChunk(buffer.copy());
+            buffer.clear();
+          }
+        }
+        jsonWriter.endArray();
+        jsonWriter.name("resolution").value(queryResult.resolution + "s");
+        jsonWriter.endObject();
+      }
+      if (batch) {
+        jsonWriter.endObject();
+      }
+      jsonWriter.close();
+
+      if (chunkResponder == null) {
+        responder.sendContent(HttpResponseStatus.OK, buffer, "application/json; charset=utf-8",
+                              ImmutableMultimap.<String, String>of());
+      } else if (buffer.readable()) {
+        chunkResponder.sendChunk(buffer);
+      }
+    } catch (Exception e) {
+      if (chunkResponder == null) {
+        throw e;
+      }
+      // The response status was already sent, hence the failure can only be reported in the response body
+      LOG.error("Exception sending metrics query results", e);
+      try {
+        chunkResponder.sendChunk(ChannelBuffers.copiedBuffer(ERROR_TERMINATOR, Charsets.UTF_8));
+      } catch (IOException ioe) {
+        LOG.debug("Failed to send the error at the end of the metrics query response", ioe);
+      }
+    } finally {
+      if (chunkResponder != null) {
+        Closeables.closeQuietly(chunkResponder);
+      }
+    }
   }
 
   private Map<String, AggregationFunction> toMetrics(List<String> metrics) {
@@ -465,16 +563,9 @@ public class MetricsHandler extends AbstractHttpHandler {
     return Lists.newArrayList(Iterables.filter(metricNames, Predicates.notNull()));
   }
 
-  private MetricQueryResult decorate(Collection<MetricTimeSeries> series, long startTs, long endTs,
-                                     int resolution) {
-    MetricQueryResult.TimeSeries[] serieses = new MetricQueryResult.TimeSeries[series.size()];
-    int i = 0;
-    for (MetricTimeSeries timeSeries : series) {
-      MetricQueryResult.TimeValue[] timeValues = decorate(timeSeries.getTimeValues());
-      serieses[i++] = new MetricQueryResult.TimeSeries(timeSeries.getMetricName(),
-                                                       tagNamesToHuman(timeSeries.getTagValues()), timeValues);
-    }
-    return new MetricQueryResult(startTs, endTs, serieses, resolution);
+  private MetricQueryResult.TimeSeries decorate(MetricTimeSeries timeSeries) {
+    return new MetricQueryResult.TimeSeries(timeSeries.getMetricName(), tagNamesToHuman(timeSeries.getTagValues()),
+                                            decorate(timeSeries.getTimeValues()));
   }
 
   private Map<String, String> tagNamesToHuman(Map<String, String> tagValues) {
@@ -530,4 +621,21 @@ public class MetricsHandler extends AbstractHttpHandler {
       return timeRange;
     }
   }
+
+  /**
+   * The result of a metrics query, with the time series computed as they are iterated.
+   */
+  private static final class MetricQueryResultStream {
+    private final long startTime;
+    private final long endTime;
+    private final int resolution;
+    private final Iterator<MetricTimeSeries> series;
+
+    private MetricQueryResultStream(long startTime, long endTime, int resolution, Iterator<MetricTimeSeries> series) {
+      this.startTime = startTime;
+      this.endTime = endTime;
+      this.resolution = resolution;
+      this.series = series;
+    }
+  }
 }
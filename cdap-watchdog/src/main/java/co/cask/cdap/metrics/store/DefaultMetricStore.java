@@ -16,7 +16,6 @@
 
 package co.cask.cdap.metrics.store;
 
-import co.cask.cdap.api.dataset.lib.cube.Cube;
 import co.cask.cdap.api.dataset.lib.cube.CubeDeleteQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeExploreQuery;
 import co.cask.cdap.api.dataset.lib.cube.CubeFact;
@@ -35,9 +34,11 @@ import co.cask.cdap.api.metrics.MetricValue;
 import co.cask.cdap.api.metrics.MetricValues;
 import co.cask.cdap.api.metrics.MetricsContext;
 import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.CConfiguration;
 import co.cask.cdap.common.conf.Constants;
 import co.cask.cdap.data2.dataset2.lib.cube.Aggregation;
 import co.cask.cdap.data2.dataset2.lib.cube.AggregationAlias;
+import co.cask.cdap.data2.dataset2.lib.cube.CubeQueryCache;
 import co.cask.cdap.data2.dataset2.lib.cube.DefaultAggregation;
 import co.cask.cdap.data2.dataset2.lib.cube.DefaultCube;
 import co.cask.cdap.data2.dataset2.lib.cube.FactTableSupplier;
@@ -48,21 +49,36 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
+import org.apache.twill.common.Threads;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import javax.annotation.Nullable;
 
 /**
  * Default implementation of {@link MetricStore}.
  */
 public class DefaultMetricStore implements MetricStore {
+  private static final Logger LOG = LoggerFactory.getLogger(DefaultMetricStore.class);
+
   public static final int TOTALS_RESOLUTION = Integer.MAX_VALUE;
   static final Map<String, Aggregation> AGGREGATIONS;
 
@@ -84,7 +100,16 @@ public class DefaultMetricStore implements MetricStore {
                                                          Constants.Metrics.Tag.WORKFLOW_RUN_ID)));
 
   private final int resolutions[];
-  private final Supplier<Cube> cube;
+  private final Supplier<DefaultCube> cube;
+  private final boolean rollup;
+  private final long rollupDelaySeconds;
+  private final long rollupIntervalMillis;
+  private final AtomicBoolean rollupRunning;
+  // adds hold the read lock and rollups the write lock, so that no fact is added while time windows are rolled up
+  private final ReadWriteLock rollupLock;
+  // smallest timestamp of the metrics added since the last rollup, which tells how far behind the metrics processor is
+  private final AtomicLong minAddedTs;
+  private volatile long lastRollupMillis;
   private MetricsContext metricsContext;
 
 
@@ -197,14 +222,26 @@ public class DefaultMetricStore implements MetricStore {
   }
 
   @Inject
-  public DefaultMetricStore(final MetricDatasetFactory dsFactory) {
+  public DefaultMetricStore(CConfiguration cConf, final MetricDatasetFactory dsFactory) {
     // 1 sec, 1 min, 1 hour and "all time totals"
-    this(dsFactory, new int[] {1, 60, 3600, TOTALS_RESOLUTION});
+    this(dsFactory, new int[] {1, 60, 3600, TOTALS_RESOLUTION}, cConf.getBoolean(Constants.Metrics.ROLLUP_ENABLED),
+         cConf.getLong(Constants.Metrics.ROLLUP_DELAY_SECONDS),
+         cConf.getLong(Constants.Metrics.ROLLUP_INTERVAL_SECONDS), cConf.getInt(Constants.Metrics.WRITE_THREADS),
+         createQueryCache(cConf), cConf.getInt(Constants.Metrics.QUERY_SCAN_THREADS));
   }
 
   // NOTE: should never be used apart from data migration during cdap upgrade
   public DefaultMetricStore(final MetricDatasetFactory dsFactory, final int resolutions[]) {
+    this(dsFactory, resolutions, false, 0L, 0L, 0, null, 0);
+  }
+
+  private DefaultMetricStore(final MetricDatasetFactory dsFactory, final int resolutions[], final boolean rollup,
+                             long rollupDelaySeconds, long rollupIntervalSeconds, int writeThreads,
+                             @Nullable final CubeQueryCache queryCache, final int scanThreads) {
     this.resolutions = resolutions;
+    // the metrics tables are not transactional, hence the resolutions can be written and scanned concurrently
+    final ExecutorService writeExecutor = writeThreads > 0 ? createExecutor(writeThreads, "metrics-writer-%d") : null;
+    final ExecutorService scanExecutor = scanThreads > 0 ? createExecutor(scanThreads, "metrics-scanner-%d") : null;
     final FactTableSupplier factTableSupplier = new FactTableSupplier() {
       @Override
       public FactTable get(int resolution, int ignoredRollTime) {
@@ -212,14 +249,47 @@ public class DefaultMetricStore implements MetricStore {
         return dsFactory.getOrCreateFactTable(resolution);
       }
     };
-    this.cube = Suppliers.memoize(new Supplier<Cube>() {
+    this.cube = Suppliers.memoize(new Supplier<DefaultCube>() {
       @Override
-      public Cube get() {
-        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS, AGGREGATIONS_ALIAS_DIMENSIONS);
+      public DefaultCube get() {
+        DefaultCube cube = new DefaultCube(resolutions, factTableSupplier, AGGREGATIONS,
+                                           AGGREGATIONS_ALIAS_DIMENSIONS, rollup, writeExecutor, queryCache,
+                                           scanExecutor, Math.max(1, scanThreads));
         cube.setMetricsCollector(metricsContext);
         return cube;
       }
     });
+    this.rollup = rollup;
+    this.rollupDelaySeconds = rollupDelaySeconds;
+    this.rollupIntervalMillis = TimeUnit.SECONDS.toMillis(rollupIntervalSeconds);
+    this.rollupRunning = new AtomicBoolean();
+    this.rollupLock = new ReentrantReadWriteLock();
+    this.minAddedTs = new AtomicLong(Long.MAX_VALUE);
+  }
+
+  /**
+   * Creates a thread pool that only starts threads when tasks are submitted, and stops them when they are idle,
+   * so that a process that never writes or never queries metrics doesn't keep threads for it.
+   */
+  private static ExecutorService createExecutor(int threads, String nameFormat) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                                                         new LinkedBlockingQueue<Runnable>(),
+                                                         Threads.createDaemonThreadFactory(nameFormat));
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates the query cache, which is also needed by the processes that only write metrics, since the cube records
+   * the changes to the cached time ranges for the queries of the other processes through it.
+   */
+  @Nullable
+  private static CubeQueryCache createQueryCache(CConfiguration cConf) {
+    long maxValues = cConf.getLong(Constants.Metrics.QUERY_CACHE_MAX_VALUES);
+    if (maxValues <= 0) {
+      return null;
+    }
+    return new CubeQueryCache(maxValues, cConf.getLong(Constants.Metrics.QUERY_CACHE_CLOSED_DELAY_SECONDS));
   }
 
   @Override
@@ -235,7 +305,9 @@ public class DefaultMetricStore implements MetricStore {
   @Override
   public void add(Collection<? extends MetricValues> metricValues) throws Exception {
     List<CubeFact> facts = Lists.newArrayListWithCapacity(metricValues.size());
+    long minTs = Long.MAX_VALUE;
     for (MetricValues metricValue : metricValues) {
+      minTs = Math.min(minTs, metricValue.getTimestamp());
       String scope = metricValue.getTags().get(Constants.Metrics.Tag.SCOPE);
       List<Measurement> metrics = Lists.newArrayList();
       // todo improve this logic?
@@ -250,19 +322,77 @@ public class DefaultMetricStore implements MetricStore {
         .addMeasurements(metrics);
       facts.add(fact);
     }
-    cube.get().add(facts);
+    if (!rollup) {
+      cube.get().add(facts);
+      return;
+    }
+
+    rollupLock.readLock().lock();
+    try {
+      long current = minAddedTs.get();
+      while (minTs < current && !minAddedTs.compareAndSet(current, minTs)) {
+        current = minAddedTs.get();
+      }
+      cube.get().add(facts);
+    } finally {
+      rollupLock.readLock().unlock();
+    }
+    rollupIfNeeded();
+  }
+
+  /**
+   * Rolls up the closed time windows if the rollup interval has passed since the last rollup. Rollup is done by
+   * the thread that adds the metrics, so that it only happens in the metrics processor, and while no other metrics
+   * are added. A time window is closed once the rollup delay has passed since its end, both in wall clock time and
+   * in the timestamps of the metrics added since the last rollup, so that time windows are not rolled up while the
+   * metrics processor is still catching up on them.
+   *
+   * The lock and the timestamps only cover this metric store. Other metrics processor instances write to the same
+   * tables, and find out about the rollups of this instance from the rolled up time range recorded in the tables,
+   * which the cube reads on every add: metrics they add after a rollup to a rolled up time window are written to the
+   * rolled up resolutions directly.
+   */
+  private void rollupIfNeeded() {
+    long now = System.currentTimeMillis();
+    if (now - lastRollupMillis < rollupIntervalMillis || !rollupRunning.compareAndSet(false, true)) {
+      return;
+    }
+    rollupLock.writeLock().lock();
+    try {
+      lastRollupMillis = now;
+      long ts = Math.min(TimeUnit.MILLISECONDS.toSeconds(now), minAddedTs.getAndSet(Long.MAX_VALUE))
+        - rollupDelaySeconds;
+      int count = cube.get().rollup(ts);
+      LOG.debug("Rolled up {} metrics facts until {}", count, ts);
+    } catch (Exception e) {
+      LOG.warn("Failed to roll up metrics. Will be retried in the next interval.", e);
+    } finally {
+      rollupLock.writeLock().unlock();
+      rollupRunning.set(false);
+    }
   }
 
   @Override
   public Collection<MetricTimeSeries> query(MetricDataQuery query) {
-    Collection<TimeSeries> cubeResult = cube.get().query(buildCubeQuery(query));
-    List<MetricTimeSeries> result = Lists.newArrayList();
-    for (TimeSeries timeSeries : cubeResult) {
-      result.add(new MetricTimeSeries(timeSeries.getMeasureName(),
-                                      timeSeries.getDimensionValues(),
-                                      timeSeries.getTimeValues()));
-    }
-    return result;
+    return Lists.newArrayList(queryIterator(query));
+  }
+
+  /**
+   * Queries metrics data. Unlike {@link #query(MetricDataQuery)}, each time series is converted as it is iterated.
+   * The scan of the query is aggregated before this method returns, as in {@link DefaultCube#queryIterator}.
+   *
+   * @param query query to execute
+   * @return {@link Iterator} of time series that satisfy the query
+   */
+  public Iterator<MetricTimeSeries> queryIterator(MetricDataQuery query) {
+    return Iterators.transform(cube.get().queryIterator(buildCubeQuery(query)),
+                               new Function<TimeSeries, MetricTimeSeries>() {
+      @Override
+      public MetricTimeSeries apply(TimeSeries timeSeries) {
+        return new MetricTimeSeries(timeSeries.getMeasureName(), timeSeries.getDimensionValues(),
+                                    timeSeries.getTimeValues());
+      }
+    });
   }
 
   private CubeQuery buildCubeQuery(MetricDataQuery query) {
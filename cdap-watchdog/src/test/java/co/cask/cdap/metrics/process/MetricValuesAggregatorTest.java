@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.process;
+
+import co.cask.cdap.api.metrics.MetricType;
+import co.cask.cdap.api.metrics.MetricValue;
+import co.cask.cdap.api.metrics.MetricValues;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link MetricValuesAggregator}.
+ */
+public class MetricValuesAggregatorTest {
+
+  private static final Map<String, String> CONTEXT1 = ImmutableMap.of("ns", "default", "app", "app1");
+  private static final Map<String, String> CONTEXT2 = ImmutableMap.of("ns", "default", "app", "app2");
+
+  @Test
+  public void testAggregate() {
+    MetricValuesAggregator aggregator = new MetricValuesAggregator();
+
+    aggregator.add(new MetricValues(CONTEXT1, 10L, ImmutableList.of(
+      new MetricValue("counter", MetricType.COUNTER, 1L),
+      new MetricValue("gauge", MetricType.GAUGE, 5L))));
+    aggregator.add(new MetricValues(new HashMap<>(CONTEXT1), 10L, ImmutableList.of(
+      new MetricValue("counter", MetricType.COUNTER, 2L),
+      new MetricValue("gauge", MetricType.GAUGE, 3L))));
+    // Different context
+    aggregator.add(new MetricValues(CONTEXT2, "counter", 10L, 4L, MetricType.COUNTER));
+    // Different timestamp, added out of order
+    aggregator.add(new MetricValues(CONTEXT1, "gauge", 9L, 7L, MetricType.GAUGE));
+    aggregator.add(new MetricValues(CONTEXT1, "counter", 10L, 3L, MetricType.COUNTER));
+
+    Assert.assertEquals(7, aggregator.getInputCount());
+    Assert.assertEquals(4, aggregator.getOutputCount());
+    Assert.assertEquals(42L, aggregator.getReductionPercent());
+
+    List<MetricValues> aggregated = aggregator.getAggregated();
+    Assert.assertEquals(3, aggregated.size());
+
+    // Ordered by timestamp
+    assertMetricValues(aggregated.get(0), CONTEXT1, 9L, ImmutableMap.of("gauge", 7L));
+    assertMetricValues(aggregated.get(1), CONTEXT1, 10L, ImmutableMap.of("counter", 6L, "gauge", 3L));
+    assertMetricValues(aggregated.get(2), CONTEXT2, 10L, ImmutableMap.of("counter", 4L));
+  }
+
+  @Test
+  public void testMixedTypes() {
+    MetricValuesAggregator aggregator = new MetricValuesAggregator();
+
+    // A counter increment after a gauge is applied on top of the gauge value
+    aggregator.add(new MetricValues(CONTEXT1, "metric", 1L, 10L, MetricType.COUNTER));
+    aggregator.add(new MetricValues(CONTEXT1, "metric", 1L, 5L, MetricType.GAUGE));
+    aggregator.add(new MetricValues(CONTEXT1, "metric", 1L, 2L, MetricType.COUNTER));
+
+    List<MetricValues> aggregated = aggregator.getAggregated();
+    Assert.assertEquals(1, aggregated.size());
+    MetricValue value = aggregated.get(0).getMetrics().iterator().next();
+    Assert.assertEquals(MetricType.GAUGE, value.getType());
+    Assert.assertEquals(7L, value.getValue());
+  }
+
+  @Test
+  public void testEmpty() {
+    MetricValuesAggregator aggregator = new MetricValuesAggregator();
+    aggregator.add(new MetricValues(CONTEXT1, 1L, ImmutableList.<MetricValue>of()));
+
+    Assert.assertTrue(aggregator.getAggregated().isEmpty());
+    Assert.assertEquals(0L, aggregator.getReductionPercent());
+  }
+
+  private void assertMetricValues(MetricValues metricValues, Map<String, String> tags,
+                                  long timestamp, Map<String, Long> expected) {
+    Assert.assertEquals(tags, metricValues.getTags());
+    Assert.assertEquals(timestamp, metricValues.getTimestamp());
+    Map<String, Long> actual = new HashMap<>();
+    for (MetricValue metricValue : metricValues.getMetrics()) {
+      actual.put(metricValue.getName(), metricValue.getValue());
+    }
+    Assert.assertEquals(expected, actual);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2017 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package co.cask.cdap.metrics.query;
+
+import co.cask.cdap.api.dataset.lib.cube.TimeValue;
+import co.cask.cdap.api.metrics.MetricDataQuery;
+import co.cask.cdap.api.metrics.MetricDeleteQuery;
+import co.cask.cdap.api.metrics.MetricSearchQuery;
+import co.cask.cdap.api.metrics.MetricStore;
+import co.cask.cdap.api.metrics.MetricTimeSeries;
+import co.cask.cdap.api.metrics.MetricValues;
+import co.cask.cdap.api.metrics.MetricsContext;
+import co.cask.cdap.api.metrics.TagValue;
+import co.cask.cdap.common.conf.Constants;
+import co.cask.cdap.proto.MetricQueryResult;
+import co.cask.http.ChunkResponder;
+import co.cask.http.InternalHttpResponder;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multimap;
+import com.google.common.io.CharStreams;
+import com.google.common.io.InputSupplier;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.handler.codec.http.DefaultHttpRequest;
+import org.jboss.netty.handler.codec.http.HttpHeaders;
+import org.jboss.netty.handler.codec.http.HttpMethod;
+import org.jboss.netty.handler.codec.http.HttpRequest;
+import org.jboss.netty.handler.codec.http.HttpResponseStatus;
+import org.jboss.netty.handler.codec.http.HttpVersion;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Tests for the responses of the {@link MetricsHandler} queries, which are serialized as the time series are
+ * iterated.
+ */
+public class MetricsHandlerTest {
+
+  private static final Gson GSON = new Gson();
+  private static final String QUERY_URI = "/v3/metrics/query?metric=system.reads&groupBy=flowlet&aggregate=true";
+
+  @Test
+  public void testSmallResult() throws Exception {
+    RecordingResponder responder = query(new SeriesMetricStore(10, -1));
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), responder.getResponse().getStatusCode());
+    // a response that fits in one chunk is sent as a regular response
+    Assert.assertFalse(responder.chunked);
+    verifyResult(GSON.fromJson(responder.getBody(), MetricQueryResult.class), 10);
+  }
+
+  @Test
+  public void testLargeResult() throws Exception {
+    RecordingResponder responder = query(new SeriesMetricStore(5000, -1));
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), responder.getResponse().getStatusCode());
+    Assert.assertTrue(responder.chunked);
+    Assert.assertTrue(responder.chunks > 2);
+    verifyResult(GSON.fromJson(responder.getBody(), MetricQueryResult.class), 5000);
+  }
+
+  @Test
+  public void testBatchResult() throws Exception {
+    Map<String, Map<String, Object>> queries = ImmutableMap.of("large", batchQuery("ns1"), "other", batchQuery("ns2"));
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, "/v3/metrics/query");
+    byte[] content = GSON.toJson(queries).getBytes(Charsets.UTF_8);
+    request.setContent(ChannelBuffers.wrappedBuffer(content));
+    HttpHeaders.setContentLength(request, content.length);
+
+    RecordingResponder responder = new RecordingResponder();
+    new MetricsHandler(new SeriesMetricStore(3000, -1)).query(request, responder, ImmutableList.<String>of(),
+                                                              ImmutableList.<String>of(), ImmutableList.<String>of());
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), responder.getResponse().getStatusCode());
+    Assert.assertTrue(responder.chunked);
+    Map<String, MetricQueryResult> results =
+      GSON.fromJson(responder.getBody(), new TypeToken<Map<String, MetricQueryResult>>() { }.getType());
+    Assert.assertEquals(queries.keySet(), results.keySet());
+    for (MetricQueryResult result : results.values()) {
+      verifyResult(result, 3000);
+    }
+  }
+
+  @Test
+  public void testFailureBeforeResponse() throws Exception {
+    // the failure happens before the first chunk is complete, hence the error status can still be sent
+    RecordingResponder responder = query(new SeriesMetricStore(5000, 10));
+    Assert.assertEquals(HttpResponseStatus.INTERNAL_SERVER_ERROR.getCode(), responder.getResponse().getStatusCode());
+    Assert.assertFalse(responder.chunked);
+  }
+
+  @Test
+  public void testFailureAfterResponse() throws Exception {
+    RecordingResponder responder = query(new SeriesMetricStore(5000, 4000));
+    Assert.assertEquals(HttpResponseStatus.OK.getCode(), responder.getResponse().getStatusCode());
+    Assert.assertTrue(responder.chunked);
+
+    // the response ends with the error, and can't be mistaken for a complete result
+    String body = responder.getBody();
+    Assert.assertTrue(body.trim().endsWith("{\"error\":\"Internal error while querying for metrics\"}"));
+    try {
+      GSON.fromJson(body, MetricQueryResult.class);
+      Assert.fail("Expected the response to be invalid JSON");
+    } catch (JsonSyntaxException e) {
+      // expected
+    }
+  }
+
+  private RecordingResponder query(MetricStore metricStore) throws Exception {
+    RecordingResponder responder = new RecordingResponder();
+    HttpRequest request = new DefaultHttpRequest(HttpVersion.HTTP_1_1, HttpMethod.POST, QUERY_URI);
+    new MetricsHandler(metricStore).query(request, responder, ImmutableList.of("system.reads"),
+                                          ImmutableList.of("flowlet"), ImmutableList.of("namespace:ns1"));
+    return responder;
+  }
+
+  private Map<String, Object> batchQuery(String namespace) {
+    return ImmutableMap.<String, Object>of("tags", ImmutableMap.of("namespace", namespace),
+                                           "metrics", ImmutableList.of("system.reads"),
+                                           "groupBy", ImmutableList.of("flowlet"),
+                                           "timeRange", ImmutableMap.of("aggregate", "true"));
+  }
+
+  private void verifyResult(MetricQueryResult result, int count) {
+    Assert.assertEquals(Integer.MAX_VALUE + "s", result.getResolution());
+    Assert.assertEquals(count, result.getSeries().length);
+    for (int i = 0; i < count; i++) {
+      MetricQueryResult.TimeSeries timeSeries = result.getSeries()[i];
+      Assert.assertEquals("system.reads", timeSeries.getMetricName());
+      Assert.assertEquals(ImmutableMap.of("flowlet", "flowlet" + i), timeSeries.getGrouping());
+      Assert.assertEquals(1, timeSeries.getData().length);
+      Assert.assertEquals(i, timeSeries.getData()[0].getValue());
+    }
+  }
+
+  /**
+   * {@link InternalHttpResponder} that records whether the response is chunked and the number of chunks.
+   */
+  private static final class RecordingResponder extends InternalHttpResponder {
+
+    private boolean chunked;
+    private int chunks;
+
+    @Override
+    public ChunkResponder sendChunkStart(HttpResponseStatus status, Multimap<String, String> headers) {
+      chunked = true;
+      final ChunkResponder chunkResponder = super.sendChunkStart(status, headers);
+      return new ChunkResponder() {
+        @Override
+        public void sendChunk(ByteBuffer chunk) throws IOException {
+          chunks++;
+          chunkResponder.sendChunk(chunk);
+        }
+
+        @Override
+        public void sendChunk(ChannelBuffer chunk) throws IOException {
+          chunks++;
+          chunkResponder.sendChunk(chunk);
+        }
+
+        @Override
+        public void close() throws IOException {
+          chunkResponder.close();
+        }
+      };
+    }
+
+    String getBody() throws Exception {
+      InputSupplier<? extends InputStream> input = getResponse().getInputSupplier();
+      try (InputStream is = input.getInput()) {
+        return CharStreams.toString(new InputStreamReader(is, Charsets.UTF_8));
+      }
+    }
+  }
+
+  /**
+   * {@link MetricStore} that returns the given number of time series for every query, where the value of the
+   * i-th time series is i. If a failure index is given, the iteration fails at that time series.
+   */
+  private static final class SeriesMetricStore implements MetricStore {
+
+    private final int count;
+    private final int failAt;
+
+    private SeriesMetricStore(int count, int failAt) {
+      this.count = count;
+      this.failAt = failAt;
+    }
+
+    @Override
+    public Collection<MetricTimeSeries> query(MetricDataQuery query) {
+      return new AbstractCollection<MetricTimeSeries>() {
+        @Override
+        public Iterator<MetricTimeSeries> iterator() {
+          return new Iterator<MetricTimeSeries>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+              return next < count;
+            }
+
+            @Override
+            public MetricTimeSeries next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              if (next == failAt) {
+                throw new IllegalStateException("Failed to compute time series " + next);
+              }
+              int i = next++;
+              List<TimeValue> timeValues = ImmutableList.of(new TimeValue(0, i));
+              return new MetricTimeSeries("system.reads",
+                                          ImmutableMap.of(Constants.Metrics.Tag.FLOWLET, "flowlet" + i), timeValues);
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return count;
+        }
+      };
+    }
+
+    @Override
+    public void setMetricsContext(MetricsContext metricsContext) {
+    }
+
+    @Override
+    public void add(MetricValues metricValues) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void add(Collection<? extends MetricValues> metricValues) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteBefore(long timestamp) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(MetricDeleteQuery query) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void deleteAll() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<TagValue> findNextAvailableTags(MetricSearchQuery query) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Collection<String> findMetricNames(MetricSearchQuery query) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}